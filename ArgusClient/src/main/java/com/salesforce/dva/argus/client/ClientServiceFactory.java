@@ -31,6 +31,7 @@
 	 
 package com.salesforce.dva.argus.client;
 
+import com.salesforce.dva.argus.service.AlertService;
 import com.salesforce.dva.argus.system.SystemConfiguration;
 import com.salesforce.dva.argus.system.SystemMain;
 import java.text.MessageFormat;
@@ -81,11 +82,27 @@ class ClientServiceFactory {
             });
         system.getServiceFactory().getMonitorService().startRecordingCounters();
         for (int i = 0; i < threadPoolCount; i++) {
-            service.submit(new Alerter(system.getServiceFactory().getAlertService(), timeout, jobCounter));
+            AlertService alertService = system.getServiceFactory().getAlertService();
+
+            // The alert services share one store of definitions, so it is only loaded once.
+            if (i == 0) {
+                loadAlertDefinitions(system, alertService);
+            }
+            service.submit(new Alerter(alertService, timeout, jobCounter));
         }
         return service;
     }
 
+    /* Loads the alert definitions before the alerter starts, so that its first batch of alerts does not wait for them. */
+    private static void loadAlertDefinitions(SystemMain system, AlertService alertService) {
+        system.getUnitOfWork().begin();
+        try {
+            alertService.loadAlertDefinitions();
+        } finally {
+            system.getUnitOfWork().end();
+        }
+    }
+
     private static ExecutorService startCommitAnnotationsClientService(SystemMain system, AtomicInteger jobCounter) {
         int configuredCount = Integer.valueOf(system.getConfiguration().getValue(SystemConfiguration.Property.CLIENT_THREADS));
         int threadPoolCount = Math.max(configuredCount, 2);
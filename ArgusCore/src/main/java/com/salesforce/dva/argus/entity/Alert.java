@@ -1228,16 +1228,19 @@ public class Alert extends JPAEntity implements Serializable, CronJob {
 
 	public static class Deserializer extends JsonDeserializer<Alert> {
 
-		@Override
-		public Alert deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
+		/* Reading the triggers, notifications and owner does not depend on the alert, so the mapper is shared by all deserializations. */
+		private static final ObjectMapper MAPPER = new ObjectMapper();
 
+		static {
 			SimpleModule module = new SimpleModule();
 			module.addDeserializer(Trigger.class, new Trigger.Deserializer());
 			module.addDeserializer(Notification.class, new Notification.Deserializer());
 			module.addDeserializer(PrincipalUser.class, new Alert.PrincipalUserDeserializer());
+			MAPPER.registerModule(module);
+		}
 
-			ObjectMapper mapper = new ObjectMapper();
-			mapper.registerModule(module);
+		@Override
+		public Alert deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
 
 			Alert alert = new Alert();
 			JsonNode rootNode = jp.getCodec().readTree(jp);
@@ -1261,14 +1264,14 @@ public class Alert extends JPAEntity implements Serializable, CronJob {
 			alert.setMissingDataNotificationEnabled(missingDataNotificationEnabled);
 
 			JsonNode onwerNode = rootNode.get("owner");
-			PrincipalUser owner = mapper.treeToValue(onwerNode, PrincipalUser.class);
+			PrincipalUser owner = MAPPER.treeToValue(onwerNode, PrincipalUser.class);
 			alert.setOwner(owner);
 
 			List<Trigger> triggers = new ArrayList<>();
 			JsonNode triggersArrayNode = rootNode.get("triggers");
 			if(triggersArrayNode.isArray()) {
 				for(JsonNode triggerNode : triggersArrayNode) {
-					Trigger trigger = mapper.treeToValue(triggerNode, Trigger.class);
+					Trigger trigger = MAPPER.treeToValue(triggerNode, Trigger.class);
 					trigger.setAlert(alert);
 					triggers.add(trigger);
 				}
@@ -1279,7 +1282,7 @@ public class Alert extends JPAEntity implements Serializable, CronJob {
 			JsonNode notificationsArrayNode = rootNode.get("notifications");
 			if(notificationsArrayNode.isArray()) {
 				for(JsonNode notificationNode : notificationsArrayNode) {
-					Notification notification  = mapper.treeToValue(notificationNode, Notification.class);
+					Notification notification  = MAPPER.treeToValue(notificationNode, Notification.class);
 					notification.setAlert(alert);
 					_replaceTriggerObjectsContainingOnlyIDsWithActualObjects(notification, notification.getTriggers(), triggers);
 					notifications.add(notification);
@@ -137,7 +137,7 @@ public class Metric extends TSDBEntity implements Serializable {
 	 * @param  namespace  The namespace for the metric.  If null, the metric will belong to the global namespace.
 	 */
 	public void setNamespace(String namespace) {
-		_namespace = namespace;
+		_namespace = TagInterner.intern(namespace);
 	}
 
 	/**
@@ -127,7 +127,7 @@ public class MetricSchemaRecord {
      * @param  namespace  The namespace.  Can be null.
      */
     public void setNamespace(String namespace) {
-        this.namespace = namespace;
+        this.namespace = TagInterner.intern(namespace);
     }
 
     /**
@@ -145,7 +145,7 @@ public class MetricSchemaRecord {
      * @param  scope  The scope.  Can be null or empty.
      */
     public void setScope(String scope) { 
-        this.scope = scope;
+        this.scope = TagInterner.intern(scope);
     }
 
     /**
@@ -163,7 +163,7 @@ public class MetricSchemaRecord {
      * @param  metric  The metric name.  Can be null or empty.
      */
     public void setMetric(String metric) { 
-        this.metric = metric;
+        this.metric = TagInterner.intern(metric);
     }
 
     /**
@@ -181,7 +181,7 @@ public class MetricSchemaRecord {
      * @param  tagKey  The tag key.  Can be null.
      */
     public void setTagKey(String tagKey) {
-        this.tagKey = tagKey;
+        this.tagKey = TagInterner.intern(tagKey);
     }
 
     /**
@@ -199,7 +199,7 @@ public class MetricSchemaRecord {
      * @param  tagValue  The tag value.  Can be null.
      */
     public void setTagValue(String tagValue) {
-        this.tagValue = tagValue;
+        this.tagValue = TagInterner.intern(tagValue);
     }
 
     public Integer getRetentionDiscovery() {
@@ -33,10 +33,8 @@ package com.salesforce.dva.argus.entity;
 
 import java.io.Serializable;
 import java.text.MessageFormat;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
 
@@ -61,7 +59,7 @@ public abstract class TSDBEntity implements Serializable {
     private String _uid;
     private String _scope;
     private String _metric;
-    private final Map<String, String> _tags = new HashMap<>(0);
+    private Map<String, String> _tags = TagInterner.internTags(null);
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -75,8 +73,8 @@ public abstract class TSDBEntity implements Serializable {
      * @param  metric  The metric being collected.
      */
     protected TSDBEntity(String scope, String metric) {
-        _scope = scope;
-        _metric = metric;
+        _scope = TagInterner.intern(scope);
+        _metric = TagInterner.intern(metric);
     }
 
     //~ Methods **************************************************************************************************************************************
@@ -96,7 +94,7 @@ public abstract class TSDBEntity implements Serializable {
      * @param  scope  The reverse dotted name of the collection scope.
      */
     protected void setScope(String scope) {
-        _scope = scope;
+        _scope = TagInterner.intern(scope);
     }
 
     /**
@@ -114,7 +112,7 @@ public abstract class TSDBEntity implements Serializable {
      * @param  metric  The name of the collected metric.
      */
     protected void setMetric(String metric) {
-        _metric = metric;
+        _metric = TagInterner.intern(metric);
     }
 
     /**
@@ -136,21 +134,13 @@ public abstract class TSDBEntity implements Serializable {
     }
 
     /**
-     * Returns an unmodifiable collection of tags associated with the metric.
+     * Returns an unmodifiable collection of tags associated with the metric. The returned map is the canonical, shared instance and is not
+     * copied, so it does not reflect later changes to the tags of this entity.
      *
      * @return  The tags for a metric. Will never be null but may be empty.
      */
     public Map<String, String> getTags() {
-        Map<String, String> result = new HashMap<>();
-
-        for (Map.Entry<String, String> entry : _tags.entrySet()) {
-            String key = entry.getKey();
-
-            if (!ReservedField.isReservedField(key)) {
-                result.put(key, entry.getValue());
-            }
-        }
-        return Collections.unmodifiableMap(result);
+        return _tags;
     }
 
     /**
@@ -161,10 +151,7 @@ public abstract class TSDBEntity implements Serializable {
     public void setTags(Map<String, String> tags) {
     	TSDBEntity.validateTags(tags);
     	
-        _tags.clear();
-        if (tags != null) {
-            _tags.putAll(tags);
-        }
+        _tags = TagInterner.internTags(tags);
     }
 
     public static void validateTags(Map<String, String> tags) {
@@ -258,12 +245,17 @@ public abstract class TSDBEntity implements Serializable {
     private void setTag(String key, String value, boolean isUserTag) {
         requireArgument(key != null && !key.isEmpty(), "Tag cannot be null or empty.");
         requireArgument(isUserTag ? !Metric.ReservedField.isReservedField(key) : true, MessageFormat.format("Tag {0} is a reserved tag name.", key));
+        Map<String, String> tags = new HashMap<>(_tags);
+
         if (value == null || value.isEmpty()) {
-            _tags.remove(key);
+            if (tags.remove(key) == null) {
+                return;
+            }
         } else {
         	requireArgument(_tags.size() < NUM_TAGS || _tags.containsKey(key), "No. of tags = " + _tags.size() + ". Cannot add more tags!!!");
-            _tags.put(key, value);
+            tags.put(key, value);
         }
+        _tags = TagInterner.internTags(tags);
     }
 
     private String getTag(String key, boolean isUserTag) {
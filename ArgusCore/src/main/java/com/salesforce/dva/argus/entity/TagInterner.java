@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+     
+package com.salesforce.dva.argus.entity;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Map;
+
+/**
+ * Deduplicates the identifier strings and tag maps shared by metrics, queries and schema records. Scopes, metric names and tag keys and
+ * values repeat across very large numbers of entities, so each distinct value is kept once and entities reference the canonical instance.
+ *
+ * <p>Both interners hold their canonical instances weakly, so values that are no longer referenced by any entity are garbage collected.
+ * Canonical tag maps are immutable and sorted by tag key, which lets entities hand them out directly instead of copying them.</p>
+ */
+public final class TagInterner {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+    private static final Interner<ImmutableSortedMap<String, String>> TAGS = Interners.newWeakInterner();
+
+    //~ Constructors *********************************************************************************************************************************
+
+    private TagInterner() { }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Returns the canonical instance of a string.
+     *
+     * @param   value  The string to intern. May be null.
+     *
+     * @return  The canonical instance equal to the given string, or null if the string is null.
+     */
+    public static String intern(String value) {
+        return value == null ? null : STRINGS.intern(value);
+    }
+
+    /**
+     * Returns the canonical, immutable tag map equal to the given tags. The keys and values of a new canonical map are interned as well.
+     *
+     * @param   tags  The tags to intern. May be null. Cannot contain null keys or values.
+     *
+     * @return  The canonical tag map, sorted by tag key. Will never be null, but may be empty.
+     */
+    public static Map<String, String> internTags(Map<String, String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return ImmutableSortedMap.of();
+        }
+        if (tags instanceof ImmutableSortedMap) {
+            return TAGS.intern(ImmutableSortedMap.copyOfSorted((ImmutableSortedMap<String, String>) tags));
+        }
+
+        ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+
+        for (Map.Entry<String, String> entry : tags.entrySet()) {
+            builder.put(intern(entry.getKey()), intern(entry.getValue()));
+        }
+        return TAGS.intern(builder.build());
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -124,6 +124,13 @@ public interface AlertService extends Service {
 	 */
 	List<History> executeScheduledAlerts(int alertCount, int timeout);
 
+	/**
+	 * Loads the local store of alert definitions that the alert references on the evaluation queue are resolved from. Alert clients call it
+	 * once at startup, so that the first call to {@link #executeScheduledAlerts(int, int)} does not have to load every enabled alert. Does
+	 * nothing unless alerts are enqueued as references.
+	 */
+	void loadAlertDefinitions();
+
 	/**
 	 * Enqueues alerts to be executed by the next available alert client.
 	 *
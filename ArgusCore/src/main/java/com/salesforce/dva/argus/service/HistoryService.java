@@ -61,6 +61,17 @@ public interface HistoryService extends Service {
      */
     History createHistory(JPAEntity entity, String message, JobStatus jobStatus, long executionTime);
 
+    /**
+     * Creates job history records in a single batch. The records are created with the host name and creation time they already carry.
+     * Records that cannot be created, for example because another record of the same entity has the same creation time, are skipped
+     * without failing the others.
+     *
+     * @param   histories  The history records to create. Cannot be null.
+     *
+     * @return  The number of records created.
+     */
+    int createHistories(List<History> histories);
+
     /**
      * Finds Job history for a given job.
      *
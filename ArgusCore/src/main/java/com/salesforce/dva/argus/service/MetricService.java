@@ -35,6 +35,7 @@ import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.service.tsdb.MetricQuery;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides methods for reading/transforming time series metrics.
@@ -100,6 +101,25 @@ public interface MetricService extends Service {
      */
     List<Metric> getMetrics(String expression, long relativeTo);
 
+    /**
+     * Evaluates the given expression and returns a list of time series Metrics. Queries of the expression that have an entry in the
+     * expanded queries are not sent to the discovery service again, and expanded queries that have an entry in the prefetched metrics are
+     * answered from that entry instead of being sent to the TSDB service. This lets callers that evaluate many expressions resolve and
+     * fetch the queries they share only once.
+     *
+     * @param   expression         A query expression
+     * @param   relativeTo         The timestamp from which the start and end times should be relative to. Only applied when using
+     *                             relative timestamps in expressions.
+     * @param   expandedQueries    The already expanded queries, as returned by {@link #getExpandedQueries(String, long)} for the same
+     *                             expression and timestamp. Cannot be null, but may be empty.
+     * @param   prefetchedMetrics  The already fetched metrics keyed by query, as returned by {@link TSDBService#getMetrics(List)}. Cannot be
+     *                             null, but may be empty. The prefetched metrics are never modified.
+     *
+     * @return  A list of time series Metrics for the given expression. The method will never return null.
+     */
+    List<Metric> getMetrics(String expression, long relativeTo, Map<MetricQuery, List<MetricQuery>> expandedQueries,
+        Map<MetricQuery, List<Metric>> prefetchedMetrics);
+
     /**
      * Batch and enqueue the given expressions and return the batch ID.
      *
@@ -137,6 +157,18 @@ public interface MetricService extends Service {
      */
     List<MetricQuery> getQueries(String expression, long relativeTo);
 
+    /**
+     * Returns the queries that the queries of the given expression are expanded to by the discovery service, keyed by the query as written
+     * in the expression. The values together are the queries returned by {@link #getQueries(String, long)}.
+     *
+     * @param   expression  The metric expression to evaluate.  Cannot be null and must be a valid metric expression.
+     * @param   relativeTo  The timestamp from which the start and end times should be relative to. Only applied when using relative
+     *                      timestamps in expressions.
+     *
+     * @return  The expanded queries keyed by the query as written in the expression.  Will never return null.
+     */
+    Map<MetricQuery, List<MetricQuery>> getExpandedQueries(String expression, long relativeTo);
+
     /**
      * Returns a list of <tt>MetricQuery</tt> objects corresponding to the given expression.
      *
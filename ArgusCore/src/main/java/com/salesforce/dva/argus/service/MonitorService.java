@@ -209,7 +209,14 @@ public interface MonitorService extends Service {
         ALERTS_UPDATED_COUNT("argus.core","alerts.updated"),
         ALERTS_SKIPPED("argus.core", "alerts.skipped"),
         NOTIFICATIONS_SENT("argus.core", "notifications.sent"),
+        NOTIFICATIONS_DELIVERY_LATENCY("argus.core", "notifications.delivery.latency"),
+        NOTIFICATIONS_QUEUE_DEPTH("argus.core", "notifications.queue.depth"),
+        NOTIFICATIONS_DROPPED("argus.core", "notifications.dropped"),
+        NOTIFICATIONS_COALESCED("argus.core", "notifications.coalesced"),
         TRIGGERS_VIOLATED("argus.core", "triggers.violated"),
+        HISTORY_WRITES("argus.core", "history.writes"),
+        HISTORY_FLUSH_LATENCY("argus.core", "history.flush.latency"),
+        HISTORY_DROPPED("argus.core", "history.dropped"),
         ALERTS_MAX("argus.core", "alerts.max"),
         ALERT_EVALUATION_KPI("argus.core", "alert.evaluation.kpi"),
         DATAPOINT_READS("argus.core", "datapoint.reads"),
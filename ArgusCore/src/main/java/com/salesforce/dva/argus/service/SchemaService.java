@@ -40,8 +40,6 @@ import com.salesforce.dva.argus.system.SystemAssert;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Provides methods to update metric schema records for use in wildcard expansion and metric discovery.
@@ -95,9 +93,8 @@ public interface SchemaService extends Service {
             return false;
         }
 
-        char[] arr = str.toCharArray();
-        for (char ch : arr) {
-            if (isWildcardCharacter(ch)) {
+        for (int i = 0; i < str.length(); i++) {
+            if (isWildcardCharacter(str.charAt(i))) {
                 return true;
             }
         }
@@ -118,10 +115,12 @@ public interface SchemaService extends Service {
     		return false;
     	}
 
-		Pattern pattern = Pattern.compile("\\**");
-		Matcher matcher = pattern.matcher(str);
-
-		return !matcher.matches();
+		for (int i = 0; i < str.length(); i++) {
+			if (str.charAt(i) != '*') {
+				return true;
+			}
+		}
+		return false;
 	}
 
     static String convertToRegex(String wildcardStr) {
@@ -85,6 +85,16 @@ public interface WardenService extends Service {
      */
     void updatePolicyLimitForUser(PrincipalUser user, PolicyCounter counter, double value);
 
+    /**
+     * Returns the policy limit for a user. If no limit has been set for the user, the default value of the counter is returned.
+     *
+     * @param   user     The user for which to retrieve the policy limit. Cannot be null.
+     * @param   counter  The policy counter for which to retrieve the limit. Cannot be null.
+     *
+     * @return  The policy limit for the user.
+     */
+    double getPolicyLimitForUser(PrincipalUser user, PolicyCounter counter);
+
     /**
      * Sets the suspension level for a given subsystem.
      *
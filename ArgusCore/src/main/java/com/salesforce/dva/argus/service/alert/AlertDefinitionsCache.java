@@ -34,32 +34,35 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.lang.exception.ExceptionUtils;
-import org.quartz.CronScheduleBuilder;
-import org.quartz.CronTrigger;
-import org.quartz.TriggerBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.salesforce.dva.argus.entity.Alert;
 import com.salesforce.dva.argus.service.AlertService;
-import com.salesforce.dva.argus.util.Cron;
 
+/**
+ * Cache of the enabled alert definitions used by the scheduler.
+ *
+ * <p>The cached alerts are held in an immutable snapshot that is replaced as a whole whenever alerts change, so readers always see the
+ * alerts by ID and by cron entry in a consistent state without any locking. Changes are applied by copying the previous snapshot and
+ * only touching the alerts and cron entries that changed. Alerts that were already applied at the same modification time are
+ * skipped, so re-reading recent changes does not replace the snapshot.</p>
+ */
 public class AlertDefinitionsCache {
 
 	private static final Logger _logger = LoggerFactory.getLogger(AlertDefinitionsCache.class);
 	
 	private AlertDefinitionsCacheRefresherThread refresherThread;
 
-	private static Map<BigInteger/*alertId*/, Alert> alertsMapById = new ConcurrentHashMap<BigInteger, Alert>();
+	private static volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), Collections.emptyMap(), 0L);
 
-	private static Map<String/*cronEntry*/, List<BigInteger/*alertId*/>> alertsMapByCronEntry = new ConcurrentHashMap<String, List<BigInteger>>();
+	private static CronFireTimeIndex cronFireTimeIndex = new CronFireTimeIndex();
 	
-	private boolean alertsCacheInitialized = false;
+	private volatile boolean alertsCacheInitialized = false;
 
 	public AlertDefinitionsCache(AlertService alertService) {
 		refresherThread = new AlertDefinitionsCacheRefresherThread(this, alertService);
@@ -67,61 +70,182 @@ public class AlertDefinitionsCache {
 		refresherThread.start();
 	}
 
+	/* Creates a cache that is not refreshed. */
+	AlertDefinitionsCache() { }
+
+	/**
+	 * Returns the cached alerts by ID.
+	 *
+	 * @return  An unmodifiable snapshot of the cached alerts.
+	 */
 	public Map<BigInteger, Alert> getAlertsMapById() {
-		return alertsMapById;
+		return snapshot.alertsMapById;
 	}
 
-	public void setAlertsMapById(Map<BigInteger, Alert> alertsMapById) {
-		this.alertsMapById = alertsMapById;
+	/**
+	 * Returns the IDs of the cached alerts by cron entry.
+	 *
+	 * @return  An unmodifiable snapshot of the alert IDs by cron entry.
+	 */
+	public Map<String, List<BigInteger>> getAlertsMapByCronEntry() {
+		return snapshot.alertsMapByCronEntry;
 	}
 
-	public Map<String, List<BigInteger>> getAlertsMapByCronEntry() {
-		return alertsMapByCronEntry;
+	/**
+	 * Returns the latest modification time of the alerts applied to the cache, or the time the cache was initialized if later.
+	 *
+	 * @return  The latest modification time in milliseconds.
+	 */
+	public long getLastModifiedTime() {
+		return snapshot.lastModifiedTime;
 	}
 
-	public void setAlertsMapByCronEntry(Map<String, List<BigInteger>> alertsMapByCronEntry) {
-		this.alertsMapByCronEntry = alertsMapByCronEntry;
+	/**
+	 * Replaces the cached alerts and marks the cache as initialized.
+	 *
+	 * @param  enabledAlerts     All enabled alerts.
+	 * @param  initializedTime   The time before the alerts were read. Changes after it are read by the next refresh.
+	 */
+	public synchronized void initialize(List<Alert> enabledAlerts, long initializedTime) {
+		Map<BigInteger, Alert> alertsMapById = new HashMap<>(enabledAlerts.size() * 2);
+		Map<String, List<BigInteger>> alertsMapByCronEntry = new HashMap<>();
+
+		for(Alert a : enabledAlerts) {
+			if(alertsMapById.put(a.getId(), a) == null) {
+				alertsMapByCronEntry.computeIfAbsent(a.getCronEntry(), cronEntry -> new ArrayList<>()).add(a.getId());
+			}
+		}
+		alertsMapByCronEntry.replaceAll((cronEntry, alertIds) -> Collections.unmodifiableList(alertIds));
+		_publish(alertsMapById, alertsMapByCronEntry, initializedTime);
+		alertsCacheInitialized = true;
+	}
+
+	/**
+	 * Applies modified alerts to the cache. Deleted and disabled alerts are removed, other alerts are added or replaced.
+	 *
+	 * @param   modifiedAlerts  The alerts modified since the last refresh. May include alerts that were already applied.
+	 *
+	 * @return  The number of alerts that changed the cache.
+	 */
+	public synchronized int applyChanges(List<Alert> modifiedAlerts) {
+		Snapshot current = snapshot;
+		Map<BigInteger, Alert> alertsMapById = null;
+		Map<String, List<BigInteger>> alertsMapByCronEntry = null;
+		long lastModifiedTime = current.lastModifiedTime;
+		int changedCount = 0;
+
+		for(Alert a : modifiedAlerts) {
+			Alert cached = current.alertsMapById.get(a.getId());
+			boolean remove = a.isDeleted() || !a.isEnabled();
+
+			lastModifiedTime = Math.max(lastModifiedTime, _modifiedTime(a));
+			if(remove ? cached == null : cached != null && _modifiedTime(cached) >= _modifiedTime(a)) {
+				continue;
+			}
+			if(alertsMapById == null) {
+				alertsMapById = new HashMap<>(current.alertsMapById);
+				alertsMapByCronEntry = new HashMap<>(current.alertsMapByCronEntry);
+			}
+			cached = alertsMapById.get(a.getId());
+			if(cached != null) {
+				_removeFromCronEntry(alertsMapByCronEntry, cached.getCronEntry(), a.getId());
+			}
+			if(remove) {
+				alertsMapById.remove(a.getId());
+			} else {
+				alertsMapById.put(a.getId(), a);
+				_addToCronEntry(alertsMapByCronEntry, a.getCronEntry(), a.getId());
+			}
+			changedCount++;
+		}
+		if(alertsMapById != null) {
+			_publish(alertsMapById, alertsMapByCronEntry, lastModifiedTime);
+		} else if(lastModifiedTime > current.lastModifiedTime) {
+			snapshot = new Snapshot(current.alertsMapById, current.alertsMapByCronEntry, lastModifiedTime);
+		}
+		return changedCount;
 	}
 	
 	public boolean isAlertsCacheInitialized() {
 		return alertsCacheInitialized;
 	}
 
-	public void setAlertsCacheInitialized(boolean alertsCacheInitialized) {
-		this.alertsCacheInitialized = alertsCacheInitialized;
-	}
-
 	public static List<Alert> getEnabledAlertsForMinute(long minuteStartTimeMillis){
+		Snapshot current = snapshot;
 		List<Alert> enabledAlerts = new ArrayList<Alert>();
 		List<BigInteger> enabledAlertIds = new ArrayList<BigInteger>();
 
-		for(String cronEntry : alertsMapByCronEntry.keySet()) {
-			try {
-
-				Date minuteStartTime = new Date(minuteStartTimeMillis);
-				String quartzCronEntry = Cron.convertToQuartzCronEntry(cronEntry);
-				Date previousMinuteLastSecondTime = new Date(minuteStartTimeMillis - 1000);
-
-				// CronTrigger getFireTimeAfter only works for current and future time. For checking from a previous point of time
-				// we need to change startAtTime.
-				// https://stackoverflow.com/questions/7029196/quartz-crontrigger-getting-next-fire-time
-				CronTrigger cronTrigger = TriggerBuilder.newTrigger().withSchedule(CronScheduleBuilder.cronSchedule(quartzCronEntry)).startAt(previousMinuteLastSecondTime).build();
-				Date nextFireTime = cronTrigger.getFireTimeAfter(previousMinuteLastSecondTime);
-				if(nextFireTime.equals(minuteStartTime)) {
-					enabledAlertIds.addAll(alertsMapByCronEntry.get(cronEntry));
-				}
-			}catch(Exception e) {
-                _logger.error("Exception occured when trying to parse cron entry - " + cronEntry + " Exception - "+ ExceptionUtils.getFullStackTrace(e));
+		for(String cronEntry : cronFireTimeIndex.getCronEntriesForMinute(minuteStartTimeMillis)) {
+			List<BigInteger> alertIds = current.alertsMapByCronEntry.get(cronEntry);
+
+			if(alertIds != null) {
+				enabledAlertIds.addAll(alertIds);
 			}
 		}
 		Collections.sort(enabledAlertIds);
 		for(BigInteger alertId : enabledAlertIds) {
-			Alert a = alertsMapById.get(alertId);
+			Alert a = current.alertsMapById.get(alertId);
 			if(a!=null) {
-			    enabledAlerts.add(alertsMapById.get(alertId));
+			    enabledAlerts.add(a);
 			}
 		}
 		return enabledAlerts;
 	}
 
+	private static void _publish(Map<BigInteger, Alert> alertsMapById, Map<String, List<BigInteger>> alertsMapByCronEntry, long lastModifiedTime) {
+		for(String cronEntry : alertsMapByCronEntry.keySet()) {
+			cronFireTimeIndex.add(cronEntry);
+		}
+		snapshot = new Snapshot(Collections.unmodifiableMap(alertsMapById), Collections.unmodifiableMap(alertsMapByCronEntry), lastModifiedTime);
+		_logger.debug("Published alert definitions snapshot with {} alerts.", alertsMapById.size());
+	}
+
+	// The lists of the previous snapshot are shared, so a changed list is copied before it is modified.
+	private static void _addToCronEntry(Map<String, List<BigInteger>> alertsMapByCronEntry, String cronEntry, BigInteger alertId) {
+		List<BigInteger> alertIds = alertsMapByCronEntry.get(cronEntry);
+		List<BigInteger> result = new ArrayList<>(alertIds == null ? 1 : alertIds.size() + 1);
+
+		if(alertIds != null) {
+			result.addAll(alertIds);
+		}
+		result.add(alertId);
+		alertsMapByCronEntry.put(cronEntry, Collections.unmodifiableList(result));
+	}
+
+	private static void _removeFromCronEntry(Map<String, List<BigInteger>> alertsMapByCronEntry, String cronEntry, BigInteger alertId) {
+		List<BigInteger> alertIds = alertsMapByCronEntry.get(cronEntry);
+
+		if(alertIds == null) {
+			return;
+		}
+
+		List<BigInteger> result = new ArrayList<>(alertIds);
+
+		result.remove(alertId);
+		if(result.isEmpty()) {
+			alertsMapByCronEntry.remove(cronEntry);
+		} else {
+			alertsMapByCronEntry.put(cronEntry, Collections.unmodifiableList(result));
+		}
+	}
+
+	private static long _modifiedTime(Alert a) {
+		Date modifiedDate = a.getModifiedDate();
+
+		return modifiedDate == null ? 0L : modifiedDate.getTime();
+	}
+
+	/* An immutable view of the cached alerts. */
+	private static final class Snapshot {
+
+		private final Map<BigInteger/*alertId*/, Alert> alertsMapById;
+		private final Map<String/*cronEntry*/, List<BigInteger/*alertId*/>> alertsMapByCronEntry;
+		private final long lastModifiedTime;
+
+		Snapshot(Map<BigInteger, Alert> alertsMapById, Map<String, List<BigInteger>> alertsMapByCronEntry, long lastModifiedTime) {
+			this.alertsMapById = alertsMapById;
+			this.alertsMapByCronEntry = alertsMapByCronEntry;
+			this.lastModifiedTime = lastModifiedTime;
+		}
+	}
 }
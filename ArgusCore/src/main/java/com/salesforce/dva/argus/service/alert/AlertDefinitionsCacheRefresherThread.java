@@ -32,10 +32,12 @@ package com.salesforce.dva.argus.service.alert;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -52,8 +54,13 @@ public class AlertDefinitionsCacheRefresherThread extends Thread{
 	// keeping the refresh interval at 1 minute, as this corresponds to the minimum alert execution interval based on cron expression
 	private static final Long REFRESH_INTERVAL_MILLIS = 60*1000L;
 
+	// modified dates are set by the writing host, so changes are re-read this far behind the latest applied change to tolerate clock skew
 	private static final Long LOOKBACK_PERIOD_FOR_REFRESH_MILLIS = 5*REFRESH_INTERVAL_MILLIS;
 
+	private static final int INITIAL_LOAD_PAGE_SIZE = 1000;
+
+	private static final int INITIAL_LOAD_THREADS = 4;
+
 	private AlertDefinitionsCache alertDefinitionsCache = null;
 
 	private AlertService alertService;
@@ -71,18 +78,14 @@ public class AlertDefinitionsCacheRefresherThread extends Thread{
 				_logger.info("Starting alert definitions cache refresh");
 				long startTime = System.currentTimeMillis();
 				if(!alertDefinitionsCache.isAlertsCacheInitialized()) {
-					List<Alert> enabledAlerts = alertService.findAlertsByStatus(true);
-					lastExecutionTime = System.currentTimeMillis();
-					Map<BigInteger, Alert> enabledAlertsMap = enabledAlerts.stream().collect(Collectors.toMap(alert -> alert.getId(), alert -> alert));
-					for(Alert a : enabledAlerts) {
-						addEntrytoCronMap(a);
-					}
-					alertDefinitionsCache.setAlertsMapById(enabledAlertsMap);
-					alertDefinitionsCache.setAlertsCacheInitialized(true);
+					List<Alert> enabledAlerts = _loadEnabledAlerts();
+					currentExecutionTime = System.currentTimeMillis();
+					alertDefinitionsCache.initialize(enabledAlerts, startTime);
 				}else {
-					List<Alert> modifiedAlerts = alertService.findAlertsModifiedAfterDate(new Date(startTime - Math.max(executionTime + REFRESH_INTERVAL_MILLIS, LOOKBACK_PERIOD_FOR_REFRESH_MILLIS)));
+					// only reading the changes after the latest change already applied to the cache
+					long modifiedAfter = Math.min(alertDefinitionsCache.getLastModifiedTime(), startTime) - LOOKBACK_PERIOD_FOR_REFRESH_MILLIS;
+					List<Alert> modifiedAlerts = alertService.findAlertsModifiedAfterDate(new Date(modifiedAfter));
 					currentExecutionTime = System.currentTimeMillis();
-					// updating only the modified/deleted alerts in the cache
 					long sumTimeToDiscover = 0L;
 					long sumTimeToDiscoverNew = 0L;
 					int newAlertsCount = 0;
@@ -111,25 +114,15 @@ public class AlertDefinitionsCacheRefresherThread extends Thread{
 							}
 							_logger.debug("Processing modified alert - {},{},{},{} after {} milliseconds ", a.getId(),
 									a.getName(), a.getCronEntry(), a.getExpression(), timeToDiscover);
-							if(alertDefinitionsCache.getAlertsMapById().containsKey(a.getId())) {
-								if(a.isDeleted() || !a.isEnabled()) {
-									alertDefinitionsCache.getAlertsMapById().remove(a.getId());  
-									removeEntryFromCronMap(a.getId());
-								}else {
-									alertDefinitionsCache.getAlertsMapById().put(a.getId(), a);    
-									// removing the previous cron mapping and adding fresh just in case the mapping changed
-									removeEntryFromCronMap(a.getId());
-									addEntrytoCronMap(a);
-								}
-							}else if(a.isEnabled() && !a.isDeleted()) {
-								alertDefinitionsCache.getAlertsMapById().put(a.getId(), a);
-								addEntrytoCronMap(a);
-							}
 						}
 					}
-					
-					alertService.updateCounter(Counter.ALERTS_UPDATED_COUNT, (double)modifiedAlerts.size());
-					_logger.info("Number of modified alerts since last refresh - " + modifiedAlerts.size());
+
+					// updating only the modified/deleted alerts in the cache
+					int appliedAlertsCount = modifiedAlerts == null ? 0 : alertDefinitionsCache.applyChanges(modifiedAlerts);
+					int modifiedAlertsCount = modifiedAlerts == null ? 0 : modifiedAlerts.size();
+
+					alertService.updateCounter(Counter.ALERTS_UPDATED_COUNT, (double)modifiedAlertsCount);
+					_logger.info("Number of modified alerts since last refresh - {}, applied to the cache - {}", modifiedAlertsCount, appliedAlertsCount);
 					
 					if (updatedAlertsCount > 0) {
 						long avgTimeToDiscover = sumTimeToDiscover / updatedAlertsCount;
@@ -147,28 +140,52 @@ public class AlertDefinitionsCacheRefresherThread extends Thread{
 				
 				lastExecutionTime = currentExecutionTime;
 				executionTime = System.currentTimeMillis() - startTime;
-				_logger.info("Alerts cache refreshed successfully in {} millis. Number of alerts in cache - {}", executionTime, alertDefinitionsCache.getAlertsMapById().keySet().size());
+				_logger.info("Alerts cache refreshed successfully in {} millis. Number of alerts in cache - {}", executionTime, alertDefinitionsCache.getAlertsMapById().size());
 				if(executionTime < REFRESH_INTERVAL_MILLIS) {
 					sleep(REFRESH_INTERVAL_MILLIS - executionTime);
 				}
+			}catch(InterruptedException e) {
+				_logger.info("Alert definitions cache refresher was interrupted.");
+				interrupt();
 			}catch(Exception e) {
 				_logger.error("Exception occured when trying to refresh alert definition cache - " + ExceptionUtils.getFullStackTrace(e));
 			}
 		}
 	}
 
-	private void addEntrytoCronMap(Alert a) {
-		if(alertDefinitionsCache.getAlertsMapByCronEntry().get(a.getCronEntry())==null) {
-			alertDefinitionsCache.getAlertsMapByCronEntry().put(a.getCronEntry(), new ArrayList<BigInteger>());
+	// loads the enabled alerts in pages of consecutive IDs, so that the pages can be read in parallel
+	private List<Alert> _loadEnabledAlerts() throws Exception {
+		List<BigInteger> alertIds = new ArrayList<>(alertService.findAlertIdsByStatus(true));
+		List<Alert> enabledAlerts = new ArrayList<>(alertIds.size());
+
+		if(alertIds.isEmpty()) {
+			return enabledAlerts;
 		}
-		alertDefinitionsCache.getAlertsMapByCronEntry().get(a.getCronEntry()).add(a.getId());
-	}
-	
-	private void removeEntryFromCronMap(BigInteger alertId) {
-		for(String cronEntry : alertDefinitionsCache.getAlertsMapByCronEntry().keySet()) {
-			if(alertDefinitionsCache.getAlertsMapByCronEntry().get(cronEntry).contains(alertId)) {
-				alertDefinitionsCache.getAlertsMapByCronEntry().get(cronEntry).remove(alertId);
+		Collections.sort(alertIds);
+
+		ExecutorService executor = Executors.newFixedThreadPool(INITIAL_LOAD_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "alert-definitions-cache-loader");
+
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			List<Future<List<Alert>>> pages = new ArrayList<>();
+
+			for(int from = 0; from < alertIds.size(); from += INITIAL_LOAD_PAGE_SIZE) {
+				BigInteger fromId = alertIds.get(from);
+				BigInteger toId = alertIds.get(Math.min(from + INITIAL_LOAD_PAGE_SIZE, alertIds.size()) - 1);
+
+				pages.add(executor.submit(() -> alertService.findAlertsByRangeAndStatus(fromId, toId, true)));
+			}
+			for(Future<List<Alert>> page : pages) {
+				enabledAlerts.addAll(page.get());
 			}
+		} finally {
+			executor.shutdownNow();
 		}
+		_logger.info("Loaded {} enabled alerts in {} pages.", enabledAlerts.size(), (alertIds.size() + INITIAL_LOAD_PAGE_SIZE - 1) / INITIAL_LOAD_PAGE_SIZE);
+		return enabledAlerts;
 	}
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.alert;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salesforce.dva.argus.entity.Alert;
+import com.salesforce.dva.argus.service.AlertService;
+
+/**
+ * A local store of serialized alert definitions, used to resolve the alert references that are enqueued instead of the serialized alerts.
+ *
+ * <p>The store is loaded with all enabled alerts when the alert client starts, or else on first use, and then refreshed incrementally
+ * with the alerts modified since the previous refresh, like {@link AlertDefinitionsCacheRefresherThread}. Each definition is kept with
+ * its version, the modification time of the alert. A reference to a newer version than the stored one, or to an alert that is not stored, is resolved from the database.</p>
+ *
+ * <p>Definitions are kept serialized so that every evaluation deserializes its own copy of the alert, since evaluation changes the state
+ * of its notifications.</p>
+ *
+ * <p>One store is shared by all alert services of a process. The alert service that uses the store passes itself to load the alerts, so the
+ * store does not depend on the lifetime of any one service.</p>
+ */
+final class AlertDefinitionsStore {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final long REFRESH_INTERVAL_MILLIS = 60 * 1000L;
+	private static final long LOOKBACK_PERIOD_FOR_REFRESH_MILLIS = 5 * REFRESH_INTERVAL_MILLIS;
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Logger _logger = LoggerFactory.getLogger(AlertDefinitionsStore.class);
+	private final Map<BigInteger, Definition> _definitions = new ConcurrentHashMap<>();
+	private long _lastRefreshTime = -1L;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/** Creates a new, empty store. */
+	AlertDefinitionsStore() { }
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Returns the serialized definitions of alerts.
+	 *
+	 * @param   alertService       The alert service used to load the alerts.
+	 * @param   mapper             The mapper used to serialize the alerts.
+	 * @param   versionsByAlertId  The minimum version of each alert.
+	 *
+	 * @return  The serialized alerts by ID. Alerts that no longer exist are missing.
+	 */
+	synchronized Map<BigInteger, String> getSerializedAlerts(AlertService alertService, ObjectMapper mapper,
+			Map<BigInteger, Long> versionsByAlertId) {
+		refreshIfDue(alertService, mapper);
+
+		Map<BigInteger, String> result = new HashMap<>(versionsByAlertId.size());
+		List<BigInteger> missingAlertIds = new ArrayList<>();
+
+		for (Entry<BigInteger, Long> entry : versionsByAlertId.entrySet()) {
+			Definition definition = _definitions.get(entry.getKey());
+
+			if (definition != null && definition.version >= entry.getValue()) {
+				result.put(entry.getKey(), definition.serializedAlert);
+			} else {
+				missingAlertIds.add(entry.getKey());
+			}
+		}
+		if (!missingAlertIds.isEmpty()) {
+			_logger.debug("Loading {} alerts that are not in the local store.", missingAlertIds.size());
+			for (Alert alert : alertService.findAlertsByPrimaryKeys(missingAlertIds)) {
+				Definition definition = _put(mapper, alert);
+
+				if (definition != null) {
+					result.put(alert.getId(), definition.serializedAlert);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Loads all enabled alerts if the store was never loaded, or the alerts modified since the previous refresh if that was more than a
+	 * minute ago.
+	 *
+	 * @param  alertService  The alert service used to load the alerts.
+	 * @param  mapper        The mapper used to serialize the alerts.
+	 */
+	synchronized void refreshIfDue(AlertService alertService, ObjectMapper mapper) {
+		long now = System.currentTimeMillis();
+
+		if (_lastRefreshTime >= 0 && now - _lastRefreshTime < REFRESH_INTERVAL_MILLIS) {
+			return;
+		}
+
+		List<Alert> alerts = _lastRefreshTime < 0 ? alertService.findAlertsByStatus(true)
+				: alertService.findAlertsModifiedAfterDate(new Date(_lastRefreshTime - LOOKBACK_PERIOD_FOR_REFRESH_MILLIS));
+
+		for (Alert alert : alerts) {
+			if (alert.isDeleted()) {
+				_definitions.remove(alert.getId());
+			} else {
+				_put(mapper, alert);
+			}
+		}
+		_lastRefreshTime = now;
+		_logger.info("Refreshed {} alert definitions. Number of alerts in the local store - {}", alerts.size(), _definitions.size());
+	}
+
+	private Definition _put(ObjectMapper mapper, Alert alert) {
+		try {
+			Definition definition = new Definition(getVersion(alert), mapper.writeValueAsString(alert));
+
+			_definitions.put(alert.getId(), definition);
+			return definition;
+		} catch (JsonProcessingException ex) {
+			_logger.warn("Failed to serialize alert: {}.", alert.getId().intValue());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the version of an alert that is referenced on the alert queue.
+	 *
+	 * @param   alert  The alert.
+	 *
+	 * @return  The modification time of the alert, or 0 if it was never modified.
+	 */
+	static long getVersion(Alert alert) {
+		Date modifiedDate = alert.getModifiedDate();
+
+		return modifiedDate == null ? 0L : modifiedDate.getTime();
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	private static final class Definition {
+
+		private final long version;
+		private final String serializedAlert;
+
+		Definition(long version, String serializedAlert) {
+			this.version = version;
+			this.serializedAlert = serializedAlert;
+		}
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.dva.argus.entity.History;
+import com.salesforce.dva.argus.service.HistoryService;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * Writes alert history records in batches from a background thread, so that alert evaluation does not wait for the history store.
+ *
+ * <p>Records are buffered in a bounded queue. Records that do not fit in the queue, that the history service skips, or whose batch fails to
+ * be written, are dropped and counted.</p>
+ */
+class AlertHistoryWriter {
+
+    //~ Instance fields ******************************************************************************************************************************
+
+    private final Logger _logger = LoggerFactory.getLogger(AlertHistoryWriter.class);
+    private final HistoryService _historyService;
+    private final MonitorService _monitorService;
+    private final BlockingQueue<History> _queue;
+    private final int _batchSize;
+    private final long _lingerMillis;
+    private final Thread _writerThread;
+    private volatile boolean _closed;
+
+    //~ Constructors *********************************************************************************************************************************
+
+    /**
+     * Creates a new AlertHistoryWriter object and starts its writer thread.
+     *
+     * @param  historyService  The history service used to write the batches. Cannot be null.
+     * @param  monitorService  The monitor service used to record the write counters. Cannot be null.
+     * @param  capacity        The maximum number of records waiting to be written. Must be positive.
+     * @param  batchSize       The maximum number of records written together. Must be positive.
+     * @param  lingerMillis    The longest time to wait for more records once a record is waiting. Cannot be negative.
+     */
+    AlertHistoryWriter(HistoryService historyService, MonitorService monitorService, int capacity, int batchSize, long lingerMillis) {
+        requireArgument(historyService != null, "History service cannot be null.");
+        requireArgument(monitorService != null, "Monitor service cannot be null.");
+        requireArgument(capacity > 0, "Capacity must be positive.");
+        requireArgument(batchSize > 0, "Batch size must be positive.");
+        requireArgument(lingerMillis >= 0, "Linger time cannot be negative.");
+        _historyService = historyService;
+        _monitorService = monitorService;
+        _queue = new ArrayBlockingQueue<>(capacity);
+        _batchSize = batchSize;
+        _lingerMillis = lingerMillis;
+        _writerThread = new Thread(this::_run, "alert-history-writer");
+        _writerThread.setDaemon(true);
+        _writerThread.start();
+    }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Queues a history record to be written.
+     *
+     * @param   history  The history record. Cannot be null.
+     *
+     * @return  True if the record was queued, false if it was dropped because the queue is full or the writer is closed.
+     */
+    boolean write(History history) {
+        requireArgument(history != null, "History cannot be null.");
+        if (!_closed && _queue.offer(history)) {
+            return true;
+        }
+        _monitorService.modifyCounter(Counter.HISTORY_DROPPED, 1, null);
+        return false;
+    }
+
+    /**
+     * Returns the number of records waiting to be written.
+     *
+     * @return  The number of queued records.
+     */
+    int getPendingCount() {
+        return _queue.size();
+    }
+
+    /**
+     * Stops accepting records and waits for the queued records to be written.
+     *
+     * @param  timeoutMillis  The longest time to wait for the writer thread.
+     */
+    void close(long timeoutMillis) {
+        _closed = true;
+        try {
+            _writerThread.join(timeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void _run() {
+        List<History> batch = new ArrayList<>(_batchSize);
+
+        while (!_closed) {
+            try {
+                History history = _queue.poll(1, TimeUnit.SECONDS);
+
+                if (history == null) {
+                    continue;
+                }
+                batch.add(history);
+
+                long deadline = System.currentTimeMillis() + _lingerMillis;
+
+                while (batch.size() < _batchSize) {
+                    _queue.drainTo(batch, _batchSize - batch.size());
+
+                    long remaining = deadline - System.currentTimeMillis();
+
+                    if (batch.size() >= _batchSize || remaining <= 0 || (history = _queue.poll(remaining, TimeUnit.MILLISECONDS)) == null) {
+                        break;
+                    }
+                    batch.add(history);
+                }
+                _flush(batch);
+            } catch (InterruptedException ex) {
+                _closed = true;
+            }
+        }
+        // Writing the records queued before the writer was closed.
+        do {
+            _flush(batch);
+        } while (_queue.drainTo(batch, _batchSize) > 0);
+    }
+
+    private void _flush(List<History> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+
+        try {
+            int created = _historyService.createHistories(batch);
+
+            _monitorService.modifyCounter(Counter.HISTORY_WRITES, created, null);
+            if (created < batch.size()) {
+                _monitorService.modifyCounter(Counter.HISTORY_DROPPED, batch.size() - created, null);
+            }
+        } catch (Exception ex) {
+            _logger.error("Failed to write {} alert history records: {}", batch.size(), ex.getMessage());
+            _monitorService.modifyCounter(Counter.HISTORY_DROPPED, batch.size(), null);
+        } finally {
+            _monitorService.modifyCounter(Counter.HISTORY_FLUSH_LATENCY, System.currentTimeMillis() - start, null);
+            batch.clear();
+        }
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.alert;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
+
+/**
+ * Keeps the most recently fetched window of metric data for alerts whose expression is a single relative query, so that the next
+ * evaluation of the alert only has to fetch the data that arrived since.
+ *
+ * <p>A new evaluation refetches the query from a little before the end of the cached window, the overlap, up to its current end time. The
+ * overlap picks up datapoints that were still being written or downsampled when the window was last fetched, and the refetched datapoints
+ * replace the cached ones. The fetch itself starts one edge earlier, and the datapoints fetched for the edge are discarded: the first
+ * bucket of a query and the values interpolated at its start only depend on data inside the query, so they can differ from the values of
+ * the same timestamps in the full query. The edge is one downsampling period for downsampled queries and the overlap otherwise. Datapoints
+ * that are older than the start of the query are dropped. The whole query is fetched instead when the alert has no cached window, its
+ * expression changed, or the cached window does not reach back far enough.</p>
+ *
+ * <p>The cache is bounded by the total number of datapoints it holds. Windows keep their datapoints in primitive arrays, so a cached
+ * datapoint takes about 16 bytes. The metrics returned by {@link #getMetrics(BigInteger, String, MetricQuery, Function)} are new copies
+ * on every call.</p>
+ */
+final class AlertWindowCache {
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Cache<BigInteger, Window> _windows;
+	private final long _overlapMillis;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param  maxDatapoints  The maximum number of datapoints held across all alerts. Must be positive.
+	 * @param  overlapMillis  The length of the trailing part of a cached window that is fetched again. Cannot be negative.
+	 */
+	AlertWindowCache(long maxDatapoints, long overlapMillis) {
+		requireArgument(maxDatapoints > 0, "Maximum datapoint count must be greater than zero.");
+		requireArgument(overlapMillis >= 0, "Overlap cannot be negative.");
+		_windows = CacheBuilder.newBuilder().maximumWeight(maxDatapoints).<BigInteger, Window>weigher((alertId, window) -> window.weight).build();
+		_overlapMillis = overlapMillis;
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Indicates whether the data of an expression can be cached. Only expressions made of a single query with a relative start time and
+	 * without any transform qualify.
+	 *
+	 * @param   expression  The alert expression.
+	 *
+	 * @return  True if the data of the expression can be cached.
+	 */
+	static boolean isSupported(String expression) {
+		return expression != null && expression.trim().startsWith("-") && expression.indexOf('(') < 0;
+	}
+
+	/**
+	 * Indicates whether a window that can be extended is cached for an alert.
+	 *
+	 * @param   alertId     The ID of the alert.
+	 * @param   expression  The current expression of the alert.
+	 *
+	 * @return  True if a window of the same expression is cached.
+	 */
+	boolean hasWindow(BigInteger alertId, String expression) {
+		Window window = _windows.getIfPresent(alertId);
+
+		return window != null && window.expression.equals(expression);
+	}
+
+	/**
+	 * Returns the metrics of a query, fetching only the part of it that is not cached.
+	 *
+	 * @param   alertId     The ID of the alert.
+	 * @param   expression  The expression of the alert that resolves to the query.
+	 * @param   query       The query the expression currently resolves to.
+	 * @param   fetcher     Fetches the metrics of a query. May be called with the given query or with a copy of it that starts later.
+	 *
+	 * @return  The metrics of the query. Never null.
+	 */
+	List<Metric> getMetrics(BigInteger alertId, String expression, MetricQuery query, Function<MetricQuery, List<Metric>> fetcher) {
+		long start = query.getStartTimestamp();
+		long end = query.getEndTimestamp();
+		Long downsamplingPeriod = query.getDownsamplingPeriod();
+		Window window = _windows.getIfPresent(alertId);
+		long refetchStart = start;
+		long fetchStart = start;
+
+		if (window != null && window.expression.equals(expression) && window.end <= end) {
+			long edge = downsamplingPeriod == null || downsamplingPeriod <= 0 ? _overlapMillis : downsamplingPeriod;
+
+			refetchStart = _align(Math.max(start, window.end - _overlapMillis), downsamplingPeriod);
+			fetchStart = refetchStart - edge;
+			if (fetchStart <= start) {
+				refetchStart = start;
+				fetchStart = start;
+			}
+		}
+
+		MetricQuery fetchQuery = query;
+
+		if (fetchStart > start) {
+			fetchQuery = new MetricQuery(query);
+			fetchQuery.setStartTimestamp(fetchStart);
+		}
+
+		List<Metric> fetched = fetcher.apply(fetchQuery);
+		Map<String, Metric> metrics = new LinkedHashMap<>();
+
+		if (fetchQuery != query) {
+			long windowStart = _align(start, downsamplingPeriod);
+
+			for (Series series : window.series) {
+				Metric retained = series.toMetric(query, windowStart, refetchStart);
+
+				if (retained != null) {
+					metrics.put(retained.getIdentifier(), retained);
+				}
+			}
+		}
+		if (fetched != null) {
+			for (Metric metric : fetched) {
+				Map<Long, Double> datapoints = fetchQuery != query ? _range(metric.getDatapoints(), refetchStart, Long.MAX_VALUE)
+						: metric.getDatapoints();
+				Metric retained = metrics.get(metric.getIdentifier());
+
+				if (retained != null) {
+					retained.addDatapoints(datapoints);
+				} else if (!datapoints.isEmpty()) {
+					retained = new Metric(metric);
+					retained.setDatapoints(datapoints);
+					retained.setQuery(query);
+					metrics.put(retained.getIdentifier(), retained);
+				}
+			}
+		}
+
+		List<Metric> result = new ArrayList<>(metrics.size());
+		List<Series> series = new ArrayList<>(metrics.size());
+
+		for (Metric metric : metrics.values()) {
+			result.add(metric);
+			series.add(new Series(metric));
+		}
+		_windows.put(alertId, new Window(expression, end, series));
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Removes the cached window of an alert.
+	 *
+	 * @param  alertId  The ID of the alert.
+	 */
+	void invalidate(BigInteger alertId) {
+		_windows.invalidate(alertId);
+	}
+
+	/* The datapoints in the given range. */
+	private static Map<Long, Double> _range(Map<Long, Double> datapoints, long fromInclusive, long toExclusive) {
+		Map<Long, Double> result = new TreeMap<>();
+
+		for (Entry<Long, Double> entry : datapoints.entrySet()) {
+			if (entry.getKey() >= fromInclusive && entry.getKey() < toExclusive) {
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/* Downsampled datapoints are aligned to multiples of the downsampling period. */
+	private static long _align(long timestamp, Long downsamplingPeriod) {
+		return downsamplingPeriod == null || downsamplingPeriod <= 0 ? timestamp : timestamp - Math.floorMod(timestamp, downsamplingPeriod);
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/* The metrics of an alert query up to its end time. */
+	private static final class Window {
+
+		private final String expression;
+		private final long end;
+		private final List<Series> series;
+		private final int weight;
+
+		Window(String expression, long end, List<Series> series) {
+			int weight = 1;
+
+			for (Series s : series) {
+				weight += s.timestamps.length + 1;
+			}
+			this.expression = expression;
+			this.end = end;
+			this.series = series;
+			this.weight = weight;
+		}
+	}
+
+	/* A cached metric. The datapoints are held in ascending timestamp order, null values are marked in a separate set. */
+	private static final class Series {
+
+		private final Metric metric;
+		private final long[] timestamps;
+		private final double[] values;
+		private final BitSet nullValues = new BitSet();
+
+		Series(Metric metric) {
+			Map<Long, Double> datapoints = metric.getDatapoints();
+			int i = 0;
+
+			this.metric = new Metric(metric);
+			this.metric.clearDatapoints();
+			timestamps = new long[datapoints.size()];
+			values = new double[datapoints.size()];
+			for (Entry<Long, Double> entry : datapoints.entrySet()) {
+				timestamps[i] = entry.getKey();
+				if (entry.getValue() == null) {
+					nullValues.set(i);
+				} else {
+					values[i] = entry.getValue();
+				}
+				i++;
+			}
+		}
+
+		/* Copies the datapoints in the given range. Returns null if there are none. */
+		Metric toMetric(MetricQuery query, long fromInclusive, long toExclusive) {
+			Map<Long, Double> datapoints = new TreeMap<>();
+
+			for (int i = 0; i < timestamps.length; i++) {
+				if (timestamps[i] >= fromInclusive && timestamps[i] < toExclusive) {
+					datapoints.put(timestamps[i], nullValues.get(i) ? null : values[i]);
+				}
+			}
+			if (datapoints.isEmpty()) {
+				return null;
+			}
+
+			Metric result = new Metric(metric);
+
+			result.setDatapoints(datapoints);
+			result.setQuery(query);
+			return result;
+		}
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.quartz.CronExpression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.dva.argus.util.Cron;
+
+/**
+ * Index of the cron entries due in each minute.
+ *
+ * <p>Each cron entry is parsed once, and its next fire time is kept in a wheel ordered by time. Looking up a minute advances the wheel up to
+ * that minute: the entries due in each minute passed are recorded and rescheduled to their following fire time. The cost of a lookup is
+ * therefore proportional to the number of entries that fired since the previous lookup, instead of the number of distinct entries. The
+ * entries due in the most recent minutes are retained, so that looking up the current minute after the next one does not require a full
+ * scan. Older minutes are answered by checking every entry.</p>
+ *
+ * <p>Entries are parsed with the same Quartz cron expression the scheduler used to build a trigger from, in the default time zone, so the
+ * due entries are the same. Entries that cannot be parsed are never due.</p>
+ */
+class CronFireTimeIndex {
+
+	private static final Logger _logger = LoggerFactory.getLogger(CronFireTimeIndex.class);
+
+	private static final long MINUTE_MILLIS = 60 * 1000L;
+
+	private static final long RETENTION_MILLIS = 10 * MINUTE_MILLIS;
+
+	private final Map<String/*cronEntry*/, CronExpression> expressionsByCronEntry = new HashMap<>();
+
+	private final TreeMap<Long/*fireTime*/, List<String/*cronEntry*/>> cronEntriesByNextFireTime = new TreeMap<>();
+
+	private final TreeMap<Long/*fireTime*/, List<String/*cronEntry*/>> firedCronEntriesByTime = new TreeMap<>();
+
+	// The wheel has been advanced up to and including this minute. Fired entries are retained for the minutes after retainedFromTime.
+	private long advancedToTime = Long.MIN_VALUE;
+
+	private long retainedFromTime = Long.MIN_VALUE;
+
+	/**
+	 * Adds a cron entry to the index. Adding an entry that is already indexed has no effect.
+	 *
+	 * @param  cronEntry  The cron entry of an alert.
+	 */
+	synchronized void add(String cronEntry) {
+		if(cronEntry == null || expressionsByCronEntry.containsKey(cronEntry)) {
+			return;
+		}
+
+		CronExpression expression;
+
+		try {
+			expression = new CronExpression(Cron.convertToQuartzCronEntry(cronEntry));
+		} catch (ParseException | RuntimeException e) {
+			_logger.error("Exception occured when trying to parse cron entry - " + cronEntry + " Exception - " + e.getMessage());
+			expression = null;
+		}
+		expressionsByCronEntry.put(cronEntry, expression);
+		if(expression == null || advancedToTime == Long.MIN_VALUE) {
+			return;
+		}
+		for(long time = retainedFromTime + MINUTE_MILLIS; time <= advancedToTime; time += MINUTE_MILLIS) {
+			if(isDue(expression, time)) {
+				firedCronEntriesByTime.computeIfAbsent(time, t -> new ArrayList<>()).add(cronEntry);
+			}
+		}
+		schedule(cronEntry, expression, advancedToTime);
+	}
+
+	/**
+	 * Returns the cron entries that are due at the start of a minute.
+	 *
+	 * @param   minuteStartTimeMillis  The start of the minute.
+	 *
+	 * @return  The due cron entries.
+	 */
+	synchronized List<String> getCronEntriesForMinute(long minuteStartTimeMillis) {
+		// Rebuilding the wheel is cheaper than advancing it across a long gap, which is also how it is built by the first lookup.
+		if(advancedToTime == Long.MIN_VALUE || minuteStartTimeMillis - advancedToTime > RETENTION_MILLIS) {
+			reset(minuteStartTimeMillis - MINUTE_MILLIS);
+		}
+		if(minuteStartTimeMillis <= retainedFromTime) {
+			return scan(minuteStartTimeMillis);
+		}
+		if(minuteStartTimeMillis > advancedToTime) {
+			advance(minuteStartTimeMillis);
+		}
+
+		List<String> cronEntries = firedCronEntriesByTime.get(minuteStartTimeMillis);
+
+		return cronEntries == null ? Collections.emptyList() : new ArrayList<>(cronEntries);
+	}
+
+	private void reset(long time) {
+		cronEntriesByNextFireTime.clear();
+		firedCronEntriesByTime.clear();
+		advancedToTime = time;
+		retainedFromTime = time;
+		for(Entry<String, CronExpression> entry : expressionsByCronEntry.entrySet()) {
+			if(entry.getValue() != null) {
+				schedule(entry.getKey(), entry.getValue(), time);
+			}
+		}
+	}
+
+	private void advance(long time) {
+		while(!cronEntriesByNextFireTime.isEmpty() && cronEntriesByNextFireTime.firstKey() <= time) {
+			Entry<Long, List<String>> due = cronEntriesByNextFireTime.pollFirstEntry();
+
+			firedCronEntriesByTime.put(due.getKey(), due.getValue());
+			for(String cronEntry : due.getValue()) {
+				schedule(cronEntry, expressionsByCronEntry.get(cronEntry), due.getKey());
+			}
+		}
+		advancedToTime = time;
+		retainedFromTime = Math.max(retainedFromTime, time - RETENTION_MILLIS);
+		firedCronEntriesByTime.headMap(retainedFromTime, true).clear();
+	}
+
+	private List<String> scan(long time) {
+		List<String> cronEntries = new ArrayList<>();
+
+		for(Entry<String, CronExpression> entry : expressionsByCronEntry.entrySet()) {
+			if(entry.getValue() != null && isDue(entry.getValue(), time)) {
+				cronEntries.add(entry.getKey());
+			}
+		}
+		return cronEntries;
+	}
+
+	private void schedule(String cronEntry, CronExpression expression, long afterTime) {
+		Date nextFireTime = expression.getNextValidTimeAfter(new Date(afterTime));
+
+		if(nextFireTime != null) {
+			cronEntriesByNextFireTime.computeIfAbsent(nextFireTime.getTime(), t -> new ArrayList<>()).add(cronEntry);
+		}
+	}
+
+	// CronTrigger.getFireTimeAfter, as used by the scheduler before, fires at the first valid time after the last second of the previous minute.
+	private static boolean isDue(CronExpression expression, long time) {
+		Date nextFireTime = expression.getNextValidTimeAfter(new Date(time - 1000));
+
+		return nextFireTime != null && nextFireTime.getTime() == time;
+	}
+}
@@ -35,22 +35,34 @@ import static com.salesforce.dva.argus.service.MQService.MQQueue.ALERT;
 import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
 import static java.math.BigInteger.ZERO;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.text.MessageFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -59,9 +71,12 @@ import javax.persistence.EntityManager;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.quartz.CronExpression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
@@ -70,6 +85,7 @@ import com.google.inject.Provider;
 import com.google.inject.persist.Transactional;
 import com.salesforce.dva.argus.entity.Alert;
 import com.salesforce.dva.argus.entity.History;
+import com.salesforce.dva.argus.entity.JPAEntity;
 import com.salesforce.dva.argus.entity.History.JobStatus;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.entity.Notification;
@@ -88,7 +104,9 @@ import com.salesforce.dva.argus.service.NotifierFactory;
 import com.salesforce.dva.argus.service.TSDBService;
 import com.salesforce.dva.argus.service.jpa.DefaultJPAService;
 import com.salesforce.dva.argus.service.metric.transform.MissingDataException;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
 import com.salesforce.dva.argus.system.SystemConfiguration;
+import com.salesforce.dva.argus.system.SystemException;
 import com.salesforce.dva.argus.util.AlertUtils;
 import com.salesforce.dva.argus.util.Cron;
 
@@ -104,6 +122,8 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	private static final String USERTAG = "user";
 	private static final BigInteger DEFAULTALERTID = new BigInteger("0");
 	private static final String DEFAULTUSER = "none";
+	private static final long HISTORY_WRITER_CLOSE_TIMEOUT_MILLIS = 10000L;
+	private static final long NOTIFICATION_DISPATCHER_CLOSE_TIMEOUT_MILLIS = 10000L;
 
 	//~ Instance fields ******************************************************************************************************************************
 
@@ -118,7 +138,22 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	private final MonitorService _monitorService;
 	private final NotifierFactory _notifierFactory;
 	private final ObjectMapper _mapper = new ObjectMapper();
+	private final ExecutorService _evaluationExecutor;
+	private final long _evaluationTimeoutMillis;
+	private final long _evaluationBatchTimeoutMillis;
+	private final boolean _sharedQueriesEnabled;
+	private final AlertWindowCache _alertWindowCache;
+	private final boolean _queueReferencesEnabled;
+	private final boolean _alertHistoryAsyncEnabled;
+	private volatile AlertHistoryWriter _alertHistoryWriter;
+	private final NotificationDispatcher _notificationDispatcher;
+	// the copy of the alert shared by the notification deliveries of the evaluation running on the thread
+	private final ThreadLocal<AlertSnapshot> _deliverySnapshot = new ThreadLocal<>();
 	private static NotificationsCache _notificationsCache = null;
+	private static AlertDefinitionsStore _alertDefinitionsStore = null;
+	private static NotificationDispatcher _sharedNotificationDispatcher = null;
+	private static int _sharedNotificationDispatcherReferences = 0;
+	private static final AtomicLong _lastDeliveryRecordTime = new AtomicLong();
 	private static List<Pattern> _whiteListedScopeRegexPatterns = null;
 	private static final String HOSTNAME;
 
@@ -162,6 +197,47 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		_notifierFactory = notifierFactory;
 		_emProvider = emProvider;
 
+		int evaluationThreads = Integer.parseInt(_configuration.getValue(Property.ALERT_EVALUATION_THREADS.getName(),
+				Property.ALERT_EVALUATION_THREADS.getDefaultValue()));
+
+		requireArgument(evaluationThreads > 0, "Alert evaluation thread count must be greater than zero.");
+		_evaluationTimeoutMillis = Long.parseLong(_configuration.getValue(Property.ALERT_EVALUATION_TIMEOUT_MILLIS.getName(),
+				Property.ALERT_EVALUATION_TIMEOUT_MILLIS.getDefaultValue()));
+		_evaluationBatchTimeoutMillis = Long.parseLong(_configuration.getValue(Property.ALERT_EVALUATION_BATCH_TIMEOUT_MILLIS.getName(),
+				Property.ALERT_EVALUATION_BATCH_TIMEOUT_MILLIS.getDefaultValue()));
+		_sharedQueriesEnabled = Boolean.parseBoolean(_configuration.getValue(Property.ALERT_SHARED_QUERIES_ENABLED.getName(),
+				Property.ALERT_SHARED_QUERIES_ENABLED.getDefaultValue()));
+		_queueReferencesEnabled = Boolean.parseBoolean(_configuration.getValue(Property.ALERT_QUEUE_REFERENCES_ENABLED.getName(),
+				Property.ALERT_QUEUE_REFERENCES_ENABLED.getDefaultValue()));
+		if(Boolean.parseBoolean(_configuration.getValue(Property.ALERT_INCREMENTAL_EVALUATION_ENABLED.getName(),
+				Property.ALERT_INCREMENTAL_EVALUATION_ENABLED.getDefaultValue()))) {
+			_alertWindowCache = new AlertWindowCache(
+					Long.parseLong(_configuration.getValue(Property.ALERT_INCREMENTAL_EVALUATION_MAX_DATAPOINTS.getName(),
+							Property.ALERT_INCREMENTAL_EVALUATION_MAX_DATAPOINTS.getDefaultValue())),
+					Long.parseLong(_configuration.getValue(Property.ALERT_INCREMENTAL_EVALUATION_OVERLAP_MILLIS.getName(),
+							Property.ALERT_INCREMENTAL_EVALUATION_OVERLAP_MILLIS.getDefaultValue())));
+		} else {
+			_alertWindowCache = null;
+		}
+		_alertHistoryAsyncEnabled = Boolean.parseBoolean(_configuration.getValue(Property.ALERT_HISTORY_ASYNC_ENABLED.getName(),
+				Property.ALERT_HISTORY_ASYNC_ENABLED.getDefaultValue()));
+		if(Boolean.parseBoolean(_configuration.getValue(Property.ALERT_NOTIFICATION_ASYNC_ENABLED.getName(),
+				Property.ALERT_NOTIFICATION_ASYNC_ENABLED.getDefaultValue()))) {
+			_notificationDispatcher = _acquireNotificationDispatcher(_configuration, _monitorService);
+		} else {
+			_notificationDispatcher = null;
+		}
+
+		ThreadPoolExecutor evaluationExecutor = new ThreadPoolExecutor(evaluationThreads, evaluationThreads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "alert-evaluation");
+					thread.setDaemon(true);
+					return thread;
+				});
+
+		evaluationExecutor.allowCoreThreadTimeOut(true);
+		_evaluationExecutor = evaluationExecutor;
+
 		_initializeObjectMapper();
 	}
 
@@ -330,13 +406,16 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		// if cache is refreshed, we read the cooldown and trigger info from cache, else we query the db directly
 		if(_notificationsCache.isNotificationsCacheRefreshed()) {
 			for(Notification notification : notifications) {
-				if(_notificationsCache.getNotificationActiveStatusMap().get(notification.getId())!=null) {
-					notification.setActiveStatusMap(_notificationsCache.getNotificationActiveStatusMap().get(notification.getId()));
+				Map<String, Boolean> activeStatusMap = _notificationsCache.getNotificationActiveStatuses(notification.getId());
+				Map<String, Long> cooldownExpirationMap = _notificationsCache.getNotificationCooldownExpirations(notification.getId());
+
+				if(activeStatusMap!=null) {
+					notification.setActiveStatusMap(activeStatusMap);
 				}else {
 					notification.getActiveStatusMap().clear();
 				}
-				if(_notificationsCache.getNotificationCooldownExpirationMap().get(notification.getId())!=null) {
-					notification.setCooldownExpirationMap(_notificationsCache.getNotificationCooldownExpirationMap().get(notification.getId()));
+				if(cooldownExpirationMap!=null) {
+					notification.setCooldownExpirationMap(cooldownExpirationMap);
 				}else {
 					notification.getCooldownExpirationMap().clear();
 				}
@@ -358,11 +437,22 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 				alertCount);
 
 		List<Notification> allNotifications = new ArrayList<>();
-		Map<BigInteger, Alert> alertsByNotificationId = new HashMap<>();
+		Map<BigInteger, Alert> alertsByNotificationId = new LinkedHashMap<>();
 		Map<BigInteger, Long> alertEnqueueTimestampsByAlertId = new HashMap<>();
+		Map<BigInteger, String> referencedAlerts = _resolveAlertReferences(alertsWithTimestamp);
 
 		for(AlertWithTimestamp alertWithTimestamp : alertsWithTimestamp) {
 			String serializedAlert = alertWithTimestamp.getSerializedAlert();
+
+			if(serializedAlert == null && alertWithTimestamp.getAlertId() != null) {
+				serializedAlert = referencedAlerts.get(alertWithTimestamp.getAlertId());
+				if(serializedAlert == null) {
+					_logger.warn("Could not resolve the definition of alert {} referenced on the alert queue.", alertWithTimestamp.getAlertId());
+					logAlertStatsOnFailure(alertWithTimestamp.getAlertId(), DEFAULTUSER);
+					continue;
+				}
+			}
+
 			Alert alert;
 			try {
 				alert = _mapper.readValue(serializedAlert, Alert.class);
@@ -427,41 +517,57 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 			alertsByNotificationId.get(n.getId()).addNotification(n);
 		}
 
-		Set<Alert> alerts = new HashSet<>(alertsByNotificationId.values());
+		Set<Alert> alerts = new LinkedHashSet<>(alertsByNotificationId.values());
+		List<Alert> alertsToEvaluate = new ArrayList<>(alerts.size());
+		Set<BigInteger> alertIdsToEvaluate = new HashSet<>();
+
+		for (Alert alert : alerts) {
+			if(!_shouldSkipForDataLag(alert)) {
+				alertsToEvaluate.add(alert);
+				alertIdsToEvaluate.add(alert.getId());
+			}
+		}
+
+		long batchDeadline = System.currentTimeMillis() + _evaluationBatchTimeoutMillis;
+		SharedQueries sharedQueries = _fetchSharedQueries(alertsToEvaluate, alertEnqueueTimestampsByAlertId, batchDeadline);
+		List<PendingEvaluation> pendingEvaluations = new ArrayList<>(alerts.size());
 
+		// Fetching the metric data and evaluating the triggers is done concurrently on the evaluation pool. Notification state
+		// changes and history records are then applied on this thread, in dequeue order, so they stay within its transaction.
 		for (Alert alert : alerts) {
-			long jobStartTime = System.currentTimeMillis();
+			Long alertEnqueueTimestamp = alertEnqueueTimestampsByAlertId.get(alert.getId());
+			PendingEvaluation pendingEvaluation = new PendingEvaluation(alert, alertEnqueueTimestamp, _getEvaluationTimeoutMillis(alert));
+
+			if(alertIdsToEvaluate.contains(alert.getId())) {
+				pendingEvaluation.future = _evaluationExecutor.submit(() -> {
+					pendingEvaluation.startTime = System.currentTimeMillis();
+					return _fetchMetricsAndEvaluateTriggers(alert, alertEnqueueTimestamp, sharedQueries);
+				});
+			}
+			pendingEvaluations.add(pendingEvaluation);
+		}
+
+		for (PendingEvaluation pendingEvaluation : pendingEvaluations) {
+			Alert alert = pendingEvaluation.alert;
+			long jobStartTime = pendingEvaluation.submitTime;
 			long jobEndTime = 0;
-			Long alertEnqueueTimestamp = 0L;
+			Long alertEnqueueTimestamp = pendingEvaluation.alertEnqueueTimestamp;
 
 
 			String logMessage = null;
 			History history = null;
 
-			if(Boolean.valueOf(_configuration.getValue(SystemConfiguration.Property.DATA_LAG_MONITOR_ENABLED))){
-				if(_monitorService.isDataLagging()) {
-					if(_whiteListedScopeRegexPatterns==null) {
-						String whiteListedScopesProperty = _configuration.getValue(SystemConfiguration.Property.DATA_LAG_WHITE_LISTED_SCOPES);
-						if(!StringUtils.isEmpty(whiteListedScopesProperty)) {
-							_whiteListedScopeRegexPatterns = Stream.of(whiteListedScopesProperty.split(",")).map (elem -> Pattern.compile(elem.toLowerCase())).collect(Collectors.toList());
-						}else {
-							_whiteListedScopeRegexPatterns = new ArrayList<Pattern>();
-						}
-					}
-
-					if(_whiteListedScopeRegexPatterns.isEmpty() || !AlertUtils.isScopePresentInWhiteList(alert.getExpression(), _whiteListedScopeRegexPatterns)) {
-						history = new History(History.addDateToMessage(JobStatus.SKIPPED.getDescription()), HOSTNAME, alert.getId(), JobStatus.SKIPPED);
-						logMessage = MessageFormat.format("Skipping evaluating the alert with id: {0}. because metric data was lagging", alert.getId().intValue());
-						_logger.info(logMessage);
-						history.appendMessageNUpdateHistory(logMessage, null, 0);
-						history = _historyService.createHistory(alert, history.getMessage(), history.getJobStatus(), history.getExecutionTime());
-						historyList.add(history);
-						Map<String, String> tags = new HashMap<>();
-						tags.put(USERTAG, alert.getOwner().getUserName());
-						_monitorService.modifyCounter(Counter.ALERTS_SKIPPED, 1, tags);
-						continue;
-					}
-				}
+			if(pendingEvaluation.future == null) {
+				history = new History(History.addDateToMessage(JobStatus.SKIPPED.getDescription()), HOSTNAME, alert.getId(), JobStatus.SKIPPED);
+				logMessage = MessageFormat.format("Skipping evaluating the alert with id: {0}. because metric data was lagging", alert.getId().intValue());
+				_logger.info(logMessage);
+				history.appendMessageNUpdateHistory(logMessage, null, 0);
+				history = _createHistory(alert, history);
+				historyList.add(history);
+				Map<String, String> tags = new HashMap<>();
+				tags.put(USERTAG, alert.getOwner().getUserName());
+				_monitorService.modifyCounter(Counter.ALERTS_SKIPPED, 1, tags);
+				continue;
 			}
 
 			history = new History(History.addDateToMessage(JobStatus.STARTED.getDescription()), HOSTNAME, alert.getId(), JobStatus.STARTED);
@@ -474,10 +580,12 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 			}
 
 			try {
-				alertEnqueueTimestamp = alertEnqueueTimestampsByAlertId.get(alert.getId());
-				List<Metric> metrics = _metricService.getMetrics(alert.getExpression(), alertEnqueueTimestamp);
+				AlertEvaluation evaluation = _awaitEvaluation(alert, pendingEvaluation, batchDeadline);
+				List<Metric> metrics = evaluation.metrics;
 
-				if(areDatapointsEmpty(metrics)) {
+				jobStartTime = pendingEvaluation.getStartTime();
+
+				if(evaluation.triggerFiredTimesAndMetricsByTrigger == null) {
 					if (alert.isMissingDataNotificationEnabled()) {
 						_sendNotificationForMissingData(alert);
 						logMessage = MessageFormat.format("Metric data does not exist for alert expression: {0}. Sent notification for missing data.",
@@ -499,14 +607,7 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 						}
 					}
 				} else {
-					//Only evaluate those triggers which are associated with any notification. 
-					Set<Trigger> triggersToEvaluate = new HashSet<>();
-					for(Notification notification : alert.getNotifications()) {
-						triggersToEvaluate.addAll(notification.getTriggers());
-					}
-
-					Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger = _evaluateTriggers(triggersToEvaluate, 
-							metrics, alert.getExpression(), alertEnqueueTimestamp);
+					Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger = evaluation.triggerFiredTimesAndMetricsByTrigger;
 
 					for(Notification notification : alert.getNotifications()) {
 						if (notification.getTriggers().isEmpty()) {
@@ -535,17 +636,351 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 
 				_monitorService.modifyCounter(Counter.ALERTS_EVALUATED, 1, tags);
 			} catch (MissingDataException mde) {
-				handleAlertEvaluationException(alert, jobStartTime, alertEnqueueTimestamp, history, missingDataTriggers, mde, true);
+				handleAlertEvaluationException(alert, pendingEvaluation.getStartTime(), alertEnqueueTimestamp, history, missingDataTriggers, mde, true);
 			} catch (Exception ex) {
-				handleAlertEvaluationException(alert, jobStartTime, alertEnqueueTimestamp, history, missingDataTriggers, ex, false);
+				handleAlertEvaluationException(alert, pendingEvaluation.getStartTime(), alertEnqueueTimestamp, history, missingDataTriggers, ex, false);
 			} finally {
-				history = _historyService.createHistory(alert, history.getMessage(), history.getJobStatus(), history.getExecutionTime());
+				_deliverySnapshot.remove();
+				history = _createHistory(alert, history);
 				historyList.add(history);
 			}
 		} // end for
 		return historyList;
 	}
 
+	/**
+	 * Records the history of an alert evaluation. When asynchronous history writes are enabled, the history is queued and returned before it
+	 * is stored.
+	 */
+	private History _createHistory(Alert alert, History history) {
+		AlertHistoryWriter alertHistoryWriter = _getAlertHistoryWriter();
+
+		if(alertHistoryWriter == null) {
+			return _historyService.createHistory(alert, history.getMessage(), history.getJobStatus(), history.getExecutionTime());
+		}
+
+		History result = new History(history.getMessage(), HOSTNAME, alert.getId(), history.getJobStatus(), history.getExecutionTime(),
+				System.currentTimeMillis());
+
+		alertHistoryWriter.write(result);
+		return result;
+	}
+
+	/*
+	 * The writer thread is only started by the first evaluation, so that instances of this service that never evaluate alerts, such as
+	 * the ones used by the web services, do not start one.
+	 */
+	private AlertHistoryWriter _getAlertHistoryWriter() {
+		if(!_alertHistoryAsyncEnabled) {
+			return null;
+		}
+		if(_alertHistoryWriter == null) {
+			synchronized(this) {
+				if(_alertHistoryWriter == null) {
+					requireNotDisposed();
+					_alertHistoryWriter = new AlertHistoryWriter(_historyService, _monitorService,
+							Integer.parseInt(_configuration.getValue(Property.ALERT_HISTORY_ASYNC_CAPACITY.getName(),
+									Property.ALERT_HISTORY_ASYNC_CAPACITY.getDefaultValue())),
+							Integer.parseInt(_configuration.getValue(Property.ALERT_HISTORY_ASYNC_BATCH_SIZE.getName(),
+									Property.ALERT_HISTORY_ASYNC_BATCH_SIZE.getDefaultValue())),
+							Long.parseLong(_configuration.getValue(Property.ALERT_HISTORY_ASYNC_LINGER_MILLIS.getName(),
+									Property.ALERT_HISTORY_ASYNC_LINGER_MILLIS.getDefaultValue())));
+				}
+			}
+		}
+		return _alertHistoryWriter;
+	}
+
+	/**
+	 * Resolves the serialized definitions of the alerts that were enqueued as references. Failing to resolve them only fails the evaluation
+	 * of the referenced alerts.
+	 */
+	private Map<BigInteger, String> _resolveAlertReferences(List<AlertWithTimestamp> alertsWithTimestamp) {
+		Map<BigInteger, Long> versionsByAlertId = new HashMap<>();
+
+		for(AlertWithTimestamp alertWithTimestamp : alertsWithTimestamp) {
+			if(alertWithTimestamp.getSerializedAlert() == null && alertWithTimestamp.getAlertId() != null) {
+				Long alertVersion = alertWithTimestamp.getAlertVersion();
+
+				versionsByAlertId.merge(alertWithTimestamp.getAlertId(), alertVersion == null ? 0L : alertVersion, Math::max);
+			}
+		}
+		if(versionsByAlertId.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		try {
+			return _getAlertDefinitionsStore().getSerializedAlerts(this, _mapper, versionsByAlertId);
+		} catch (Exception ex) {
+			_logger.error("Failed to resolve the definitions of alerts referenced on the alert queue - {}", ex.getMessage());
+			return Collections.emptyMap();
+		}
+	}
+
+	/* The store is shared by all alert services of the process, so the definitions are only loaded once. */
+	private static AlertDefinitionsStore _getAlertDefinitionsStore() {
+		synchronized(DefaultAlertService.class) {
+			if(_alertDefinitionsStore == null) {
+				_alertDefinitionsStore = new AlertDefinitionsStore();
+			}
+			return _alertDefinitionsStore;
+		}
+	}
+
+	/*
+	 * The deliveries of all instances of this service go through one dispatcher, so the delivery threads and circuit breakers are shared
+	 * by the process. The last instance to be disposed closes it.
+	 */
+	private static NotificationDispatcher _acquireNotificationDispatcher(SystemConfiguration configuration, MonitorService monitorService) {
+		synchronized(DefaultAlertService.class) {
+			if(_sharedNotificationDispatcher == null) {
+				_sharedNotificationDispatcher = new NotificationDispatcher(monitorService,
+						Integer.parseInt(configuration.getValue(Property.ALERT_NOTIFICATION_ASYNC_THREADS.getName(),
+								Property.ALERT_NOTIFICATION_ASYNC_THREADS.getDefaultValue())),
+						Integer.parseInt(configuration.getValue(Property.ALERT_NOTIFICATION_ASYNC_CAPACITY.getName(),
+								Property.ALERT_NOTIFICATION_ASYNC_CAPACITY.getDefaultValue())),
+						Long.parseLong(configuration.getValue(Property.ALERT_NOTIFICATION_ASYNC_TIMEOUT_MILLIS.getName(),
+								Property.ALERT_NOTIFICATION_ASYNC_TIMEOUT_MILLIS.getDefaultValue())),
+						Integer.parseInt(configuration.getValue(Property.ALERT_NOTIFICATION_CIRCUIT_BREAKER_FAILURES.getName(),
+								Property.ALERT_NOTIFICATION_CIRCUIT_BREAKER_FAILURES.getDefaultValue())),
+						Long.parseLong(configuration.getValue(Property.ALERT_NOTIFICATION_CIRCUIT_BREAKER_OPEN_MILLIS.getName(),
+								Property.ALERT_NOTIFICATION_CIRCUIT_BREAKER_OPEN_MILLIS.getDefaultValue())));
+			}
+			_sharedNotificationDispatcherReferences++;
+			return _sharedNotificationDispatcher;
+		}
+	}
+
+	private static void _releaseNotificationDispatcher() {
+		NotificationDispatcher dispatcher = null;
+
+		synchronized(DefaultAlertService.class) {
+			if(--_sharedNotificationDispatcherReferences == 0) {
+				dispatcher = _sharedNotificationDispatcher;
+				_sharedNotificationDispatcher = null;
+			}
+		}
+		if(dispatcher != null) {
+			dispatcher.close(NOTIFICATION_DISPATCHER_CLOSE_TIMEOUT_MILLIS);
+		}
+	}
+
+	/**
+	 * Determines if the alert should be skipped because metric data is lagging and the alert expression is not white listed.
+	 */
+	private boolean _shouldSkipForDataLag(Alert alert) {
+		if(Boolean.valueOf(_configuration.getValue(SystemConfiguration.Property.DATA_LAG_MONITOR_ENABLED))){
+			if(_monitorService.isDataLagging()) {
+				if(_whiteListedScopeRegexPatterns==null) {
+					String whiteListedScopesProperty = _configuration.getValue(SystemConfiguration.Property.DATA_LAG_WHITE_LISTED_SCOPES);
+					if(!StringUtils.isEmpty(whiteListedScopesProperty)) {
+						_whiteListedScopeRegexPatterns = Stream.of(whiteListedScopesProperty.split(",")).map (elem -> Pattern.compile(elem.toLowerCase())).collect(Collectors.toList());
+					}else {
+						_whiteListedScopeRegexPatterns = new ArrayList<Pattern>();
+					}
+				}
+
+				return _whiteListedScopeRegexPatterns.isEmpty() || !AlertUtils.isScopePresentInWhiteList(alert.getExpression(), _whiteListedScopeRegexPatterns);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fetches the queries that the expressions of more than one alert resolve to with a single request to the TSDB service. Templated
+	 * alerts that only differ in their thresholds then evaluate against the same data instead of each querying it again. The queries of
+	 * the alerts are resolved concurrently on the evaluation pool and kept, so the evaluation of each alert does not send them to the
+	 * discovery service again. Any failure only disables the sharing, since each alert resolves and fetches the queries missing from the
+	 * result on its own. Alerts with a cached window only fetch the recent data and do not take part.
+	 */
+	private SharedQueries _fetchSharedQueries(List<Alert> alertsToEvaluate, Map<BigInteger, Long> alertEnqueueTimestampsByAlertId,
+			long batchDeadline) {
+		List<Alert> alerts = alertsToEvaluate;
+
+		if(_alertWindowCache != null) {
+			alerts = alertsToEvaluate.stream().filter(alert -> !_alertWindowCache.hasWindow(alert.getId(), alert.getExpression()))
+					.collect(Collectors.toList());
+		}
+		if(!_sharedQueriesEnabled || alerts.size() < 2) {
+			return SharedQueries.NONE;
+		}
+
+		long deadline = Math.min(System.currentTimeMillis() + _evaluationTimeoutMillis, batchDeadline);
+		Map<BigInteger, Future<Map<MetricQuery, List<MetricQuery>>>> futuresByAlertId = new LinkedHashMap<>();
+		Map<BigInteger, Map<MetricQuery, List<MetricQuery>>> expandedQueriesByAlertId = new HashMap<>();
+		Map<MetricQuery, Integer> alertCountsByQuery = new HashMap<>();
+
+		for (Alert alert : alerts) {
+			Long alertEnqueueTimestamp = alertEnqueueTimestampsByAlertId.get(alert.getId());
+
+			futuresByAlertId.put(alert.getId(),
+					_evaluationExecutor.submit(() -> _metricService.getExpandedQueries(alert.getExpression(), alertEnqueueTimestamp)));
+		}
+		for (Entry<BigInteger, Future<Map<MetricQuery, List<MetricQuery>>>> entry : futuresByAlertId.entrySet()) {
+			Future<Map<MetricQuery, List<MetricQuery>>> future = entry.getValue();
+
+			try {
+				Map<MetricQuery, List<MetricQuery>> expandedQueries = future.get(Math.max(0L, deadline - System.currentTimeMillis()),
+						TimeUnit.MILLISECONDS);
+				Set<MetricQuery> queries = new HashSet<>();
+
+				expandedQueries.values().forEach(queries::addAll);
+				for (MetricQuery query : queries) {
+					alertCountsByQuery.merge(query, 1, Integer::sum);
+				}
+				expandedQueriesByAlertId.put(entry.getKey(), expandedQueries);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				futuresByAlertId.values().forEach(f -> f.cancel(true));
+				return SharedQueries.NONE;
+			} catch (ExecutionException | TimeoutException ex) {
+				// The evaluation of the alert reports the failure.
+				future.cancel(true);
+			}
+		}
+
+		List<MetricQuery> sharedQueries = alertCountsByQuery.entrySet().stream().filter(entry -> entry.getValue() > 1).map(Entry::getKey)
+				.collect(Collectors.toList());
+
+		if(sharedQueries.isEmpty()) {
+			return new SharedQueries(expandedQueriesByAlertId, Collections.emptyMap());
+		}
+		try {
+			Map<MetricQuery, List<Metric>> result = _tsdbService.getMetrics(sharedQueries);
+
+			_logger.debug("Fetched {} queries shared by {} alerts.", sharedQueries.size(), alerts.size());
+			return new SharedQueries(expandedQueriesByAlertId, result);
+		} catch (Exception ex) {
+			_logger.warn("Failed to fetch the queries shared between alerts, they will be fetched for each alert - {}", ex.getMessage());
+			return new SharedQueries(expandedQueriesByAlertId, Collections.emptyMap());
+		}
+	}
+
+	/**
+	 * Fetches the metric data of the alert and evaluates the triggers associated with its notifications. Runs on the evaluation pool, so
+	 * it must not change any notification state.
+	 */
+	private AlertEvaluation _fetchMetricsAndEvaluateTriggers(Alert alert, Long alertEnqueueTimestamp, SharedQueries sharedQueries) {
+		List<Metric> metrics;
+
+		if(_alertWindowCache != null && AlertWindowCache.isSupported(alert.getExpression())) {
+			metrics = _getMetricsIncrementally(alert, alertEnqueueTimestamp, sharedQueries);
+		} else {
+			Map<MetricQuery, List<MetricQuery>> expandedQueries = sharedQueries.getExpandedQueries(alert.getId());
+
+			metrics = expandedQueries.isEmpty() ? _metricService.getMetrics(alert.getExpression(), alertEnqueueTimestamp)
+					: _metricService.getMetrics(alert.getExpression(), alertEnqueueTimestamp, expandedQueries, sharedQueries.metrics);
+		}
+
+		if(areDatapointsEmpty(metrics)) {
+			return new AlertEvaluation(metrics, null);
+		}
+
+		//Only evaluate those triggers which are associated with any notification. 
+		Set<Trigger> triggersToEvaluate = new HashSet<>();
+		for(Notification notification : alert.getNotifications()) {
+			triggersToEvaluate.addAll(notification.getTriggers());
+		}
+		return new AlertEvaluation(metrics, _evaluateTriggers(triggersToEvaluate, metrics, alert.getExpression(), alertEnqueueTimestamp));
+	}
+
+	/**
+	 * Fetches the metric data of an alert whose expression is a single query, extending the window of data cached for it by the previous
+	 * evaluation. The expression is then evaluated against the window as if its query had been fetched in full. The queries of the
+	 * expression are only sent to the discovery service if the shared queries do not already hold them.
+	 */
+	private List<Metric> _getMetricsIncrementally(Alert alert, Long alertEnqueueTimestamp, SharedQueries sharedQueries) {
+		String expression = alert.getExpression();
+		Map<MetricQuery, List<MetricQuery>> expandedQueries = sharedQueries.getExpandedQueries(alert.getId());
+
+		if(expandedQueries.isEmpty()) {
+			expandedQueries = _metricService.getExpandedQueries(expression, alertEnqueueTimestamp);
+		}
+
+		List<MetricQuery> queries = new ArrayList<>();
+
+		expandedQueries.values().forEach(queries::addAll);
+		if(queries.size() != 1) {
+			_alertWindowCache.invalidate(alert.getId());
+			return _metricService.getMetrics(expression, alertEnqueueTimestamp, expandedQueries, sharedQueries.metrics);
+		}
+
+		MetricQuery query = queries.get(0);
+		List<Metric> window = _alertWindowCache.getMetrics(alert.getId(), expression, query, fetchQuery -> {
+			if(sharedQueries.metrics.containsKey(fetchQuery)) {
+				return sharedQueries.metrics.get(fetchQuery);
+			}
+
+			_logger.debug("Fetching data of alert {} from {} to {}.", alert.getId(), fetchQuery.getStartTimestamp(), fetchQuery.getEndTimestamp());
+			return _tsdbService.getMetrics(Arrays.asList(fetchQuery)).get(fetchQuery);
+		});
+
+		return _metricService.getMetrics(expression, alertEnqueueTimestamp, expandedQueries, Collections.singletonMap(query, window));
+	}
+
+	/**
+	 * Waits for the evaluation of an alert until its deadline, which starts when a worker begins the evaluation, so time spent queued behind
+	 * other alerts does not count against it. The wait also ends at the deadline of the batch, so an alert that is still queued behind slow
+	 * evaluations does not hold back the batch indefinitely. An evaluation that overruns either deadline is cancelled, which interrupts the
+	 * worker and any metric queries it is waiting on.
+	 */
+	private AlertEvaluation _awaitEvaluation(Alert alert, PendingEvaluation pendingEvaluation, long batchDeadline) throws Exception {
+		Future<AlertEvaluation> future = pendingEvaluation.future;
+		long timeoutMillis = pendingEvaluation.timeoutMillis;
+
+		try {
+			while (true) {
+				long now = System.currentTimeMillis();
+				long startTime = pendingEvaluation.startTime;
+				long deadline = startTime == 0 ? batchDeadline : Math.min(startTime + timeoutMillis, batchDeadline);
+
+				if(now >= deadline) {
+					future.cancel(true);
+					if(startTime != 0 && now >= startTime + timeoutMillis) {
+						throw new SystemException(MessageFormat.format("Evaluation of alert {0} did not complete within {1} milliseconds.",
+								alert.getId().intValue(), timeoutMillis));
+					}
+					throw new SystemException(MessageFormat.format("Evaluation of alert {0} did not complete within the {1} milliseconds allowed for its batch.",
+							alert.getId().intValue(), _evaluationBatchTimeoutMillis));
+				}
+				try {
+					// Wake up at the latest after the per alert timeout, to pick up the start time of an evaluation that was still queued.
+					return future.get(Math.min(deadline - now, timeoutMillis), TimeUnit.MILLISECONDS);
+				} catch (TimeoutException ex) {
+					// The deadlines are checked again above.
+				}
+			}
+		} catch (InterruptedException ex) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while waiting for the evaluation of alert " + alert.getId().intValue(), ex);
+		} catch (ExecutionException ex) {
+			if(ex.getCause() instanceof Exception) {
+				throw (Exception) ex.getCause();
+			}
+			throw new SystemException(ex.getCause());
+		}
+	}
+
+	/*
+	 * Returns how long the evaluation of an alert may run once a worker has started it. An evaluation that runs for longer than the cron period
+	 * of its alert overlaps the next scheduled evaluation of the alert, so it is cancelled after the period. The configured timeout caps the
+	 * period, and applies on its own if the period cannot be derived from the cron entry.
+	 */
+	private long _getEvaluationTimeoutMillis(Alert alert) {
+		try {
+			CronExpression expression = new CronExpression(Cron.convertToQuartzCronEntry(alert.getCronEntry()));
+			Date nextFireTime = expression.getNextValidTimeAfter(new Date());
+			Date followingFireTime = nextFireTime == null ? null : expression.getNextValidTimeAfter(nextFireTime);
+
+			if(followingFireTime != null) {
+				return Math.min(followingFireTime.getTime() - nextFireTime.getTime(), _evaluationTimeoutMillis);
+			}
+		} catch (ParseException | RuntimeException ex) {
+			_logger.debug("Failed to derive the period of cron entry {} of alert {}.", alert.getCronEntry(), alert.getId());
+		}
+		return _evaluationTimeoutMillis;
+	}
+
 	private void logAlertStatsOnFailure(BigInteger alertid, String user) {
 		Map<String, String> tags = new HashMap<>();
 		tags.put("host", HOSTNAME);
@@ -731,19 +1166,36 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	private Map<BigInteger, Map<Metric, Long>> _evaluateTriggers(Set<Trigger> triggers, List<Metric> metrics, String queryExpression, Long alertEnqueueTimestamp) {
 		Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger = new HashMap<>();
 
-		for(Trigger trigger : triggers) {
-			Map<Metric, Long> triggerFiredTimesForMetrics = new HashMap<>(metrics.size());
-			for(Metric metric : metrics) {
-				Long triggerFiredTime = getTriggerFiredDatapointTime(trigger, metric, queryExpression, alertEnqueueTimestamp);
+		if (triggers.isEmpty()) {
+			return triggerFiredTimesAndMetricsByTrigger;
+		}
+
+		TriggerEvaluator evaluator = new TriggerEvaluator(new ArrayList<>(triggers), queryExpression, alertEnqueueTimestamp);
+		List<Map<Metric, Long>> triggerFiredTimesForMetrics = new ArrayList<>(evaluator.getTriggerCount());
+		int violations = 0;
 
-				if (triggerFiredTime != null) {
-					triggerFiredTimesForMetrics.put(metric, triggerFiredTime);
-					Map<String, String> tags = new HashMap<>();
-					tags.put(USERTAG, trigger.getAlert().getOwner().getUserName());
-					_monitorService.modifyCounter(Counter.TRIGGERS_VIOLATED, 1, tags);
+		for (int i = 0; i < evaluator.getTriggerCount(); i++) {
+			Map<Metric, Long> firedTimes = new HashMap<>(metrics.size());
+
+			triggerFiredTimesForMetrics.add(firedTimes);
+			triggerFiredTimesAndMetricsByTrigger.put(evaluator.getTrigger(i).getId(), firedTimes);
+		}
+		for (Metric metric : metrics) {
+			if (evaluator.evaluate(metric.getDatapoints()) == 0) {
+				continue;
+			}
+			for (int i = 0; i < evaluator.getTriggerCount(); i++) {
+				if (evaluator.isFired(i)) {
+					triggerFiredTimesForMetrics.get(i).put(metric, evaluator.getFiredTime(i));
+					violations++;
 				}
 			}
-			triggerFiredTimesAndMetricsByTrigger.put(trigger.getId(), triggerFiredTimesForMetrics);
+		}
+		if (violations > 0) {
+			Map<String, String> tags = new HashMap<>();
+
+			tags.put(USERTAG, evaluator.getTrigger(0).getAlert().getOwner().getUserName());
+			_monitorService.modifyCounter(Counter.TRIGGERS_VIOLATED, violations, tags);
 		}
 		return triggerFiredTimesAndMetricsByTrigger;
 	}
@@ -756,8 +1208,23 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		if(!trigger.getType().equals(TriggerType.NO_DATA)){
 			value = metric.getDatapoints().get(triggerFiredTime);
 		}
-		NotificationContext context = new NotificationContext(alert, trigger, notification, triggerFiredTime, value, metric, history);
-		context.setAlertEnqueueTimestamp(alertEnqueueTime);
+		if(_notificationDispatcher != null) {
+			NotificationContext context = _createDeliveryContext(alert, trigger, notification, triggerFiredTime, value, metric, alertEnqueueTime,
+					"triggered");
+
+			_dispatchNotification(history, context, "triggered", () -> _deliverNotification(context));
+		} else {
+			NotificationContext context = new NotificationContext(alert, trigger, notification, triggerFiredTime, value, metric, history);
+			context.setAlertEnqueueTimestamp(alertEnqueueTime);
+			_deliverNotification(context);
+		}
+	}
+
+	private boolean _deliverNotification(NotificationContext context) {
+		Trigger trigger = context.getTrigger();
+		Metric metric = context.getTriggeredMetric();
+		Notification notification = context.getNotification();
+		History history = context.getHistory();
 		Notifier notifier = getNotifier(SupportedNotifier.fromClassName(notification.getNotifierName()));
 
 		Map<String, String> tags = new HashMap<>();
@@ -776,7 +1243,7 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		if (rc) {
 			tags.put("status", "succeeded");
  			logMessage = MessageFormat.format("Sent alert notification and updated the cooldown: {0}",
-					getDateMMDDYYYY(notification.getCooldownExpirationByTriggerAndMetric(trigger, metric)));
+					getDateMMDDYYYY(context.getCoolDownExpiration()));
 		}else {
 			tags.put("status", "failed");			
 			logMessage = MessageFormat.format("Fail to send notifiction to {}", notification.getNotifierName());
@@ -792,12 +1259,30 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		publishAlertTrackingMetric(Counter.NOTIFICATIONS_SENT.getMetric(), trigger.getAlert().getId(), 1.0/*notification sent*/, tags);
 
 		_logger.info(logMessage);
-		history.appendMessageNUpdateHistory(logMessage, null, 0);
+		if(history != null) {
+			history.appendMessageNUpdateHistory(logMessage, null, 0);
+		}
+		return rc;
 	}
 
 	public void sendClearNotification(Trigger trigger, Metric metric, History history, Notification notification, Alert alert, Long alertEnqueueTime) {
-		NotificationContext context = new NotificationContext(alert, trigger, notification, System.currentTimeMillis(), 0.0, metric, history);
-		context.setAlertEnqueueTimestamp(alertEnqueueTime);
+		if(_notificationDispatcher != null) {
+			NotificationContext context = _createDeliveryContext(alert, trigger, notification, System.currentTimeMillis(), 0.0, metric,
+					alertEnqueueTime, "cleared");
+
+			_dispatchNotification(history, context, "cleared", () -> _deliverClearNotification(context));
+		} else {
+			NotificationContext context = new NotificationContext(alert, trigger, notification, System.currentTimeMillis(), 0.0, metric, history);
+			context.setAlertEnqueueTimestamp(alertEnqueueTime);
+			_deliverClearNotification(context);
+		}
+	}
+
+	private boolean _deliverClearNotification(NotificationContext context) {
+		Trigger trigger = context.getTrigger();
+		Metric metric = context.getTriggeredMetric();
+		Notification notification = context.getNotification();
+		History history = context.getHistory();
 		Notifier notifier = getNotifier(SupportedNotifier.fromClassName(notification.getNotifierName()));
 
 		String logMessage ="";
@@ -830,9 +1315,104 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		publishAlertTrackingMetric(Counter.NOTIFICATIONS_SENT.getMetric(), trigger.getAlert().getId(), -1.0/*notification cleared*/,tags);
 
 		_logger.info(logMessage);
+		if(history != null) {
+			history.appendMessageNUpdateHistory(logMessage, null, 0);
+		}
+		return rc;
+	}
+
+	/**
+	 * Creates the context of a notification that is delivered by the dispatcher. The delivery works on a copy of the alert, so that it does
+	 * not share entities with the evaluation thread, and records its messages in a history of its own, which is stored as a separate record
+	 * once the delivery finished. The deliveries of one evaluation share the copy, which they only read.
+	 */
+	private NotificationContext _createDeliveryContext(Alert alert, Trigger trigger, Notification notification, long triggerFiredTime,
+			double value, Metric metric, Long alertEnqueueTime, String action) {
+		AlertSnapshot snapshot = _deliverySnapshot.get();
+
+		if(snapshot == null || snapshot.alert != alert) {
+			try {
+				snapshot = new AlertSnapshot(alert, _mapper.readValue(_mapper.writeValueAsString(alert), Alert.class));
+			} catch (IOException ex) {
+				throw new SystemException(MessageFormat.format("Failed to copy alert {0} for the delivery of notification {1}.", alert.getId(),
+						notification.getName()), ex);
+			}
+			_deliverySnapshot.set(snapshot);
+		}
+
+		Alert alertCopy = snapshot.copy;
+		Trigger triggerCopy = _findById(alertCopy.getTriggers(), trigger.getId());
+		Notification notificationCopy = _findById(alertCopy.getNotifications(), notification.getId());
+		History deliveryHistory = new History(History.addDateToMessage(MessageFormat.format("Started delivery of {0} notification {1}.", action,
+				notification.getName())), HOSTNAME, alert.getId(), JobStatus.STARTED);
+		NotificationContext context = new NotificationContext(alertCopy, triggerCopy, notificationCopy, triggerFiredTime, value,
+				new Metric(metric), deliveryHistory);
+
+		// The cooldown state is not part of the copy.
+		context.setCoolDownExpiration(notification.getCooldownExpirationByTriggerAndMetric(trigger, metric));
+		context.setAlertEnqueueTimestamp(alertEnqueueTime);
+		return context;
+	}
+
+	private static <T extends JPAEntity> T _findById(List<T> entities, BigInteger id) {
+		for(T entity : entities) {
+			if(entity.getId().equals(id)) {
+				return entity;
+			}
+		}
+		throw new SystemException(MessageFormat.format("The copy of the alert does not contain entity {0}.", id));
+	}
+
+	/**
+	 * Queues the delivery of a notification. Deliveries for the same notification, trigger and metric are sent in order, and a delivery that
+	 * is still queued is replaced by a later one, so only the latest state is sent.
+	 */
+	private void _dispatchNotification(History history, NotificationContext context, String action, Callable<Boolean> delivery) {
+		Notification notification = context.getNotification();
+		BigInteger alertId = context.getAlert().getId();
+		String target = SupportedNotifier.fromClassName(notification.getNotifierName()).name();
+		String key = notification.getId() + ":" + context.getTrigger().getId() + ":" + context.getTriggeredMetric().getIdentifier();
+		String logMessage;
+
+		if(_notificationDispatcher.dispatch(target, key, () -> {
+			long start = System.currentTimeMillis();
+			boolean delivered = false;
+
+			try {
+				delivered = delivery.call();
+				return delivered;
+			} finally {
+				_recordDelivery(alertId, context.getHistory(), delivered, System.currentTimeMillis() - start);
+			}
+		})) {
+			logMessage = MessageFormat.format("Queued {0} notification {1} for delivery to {2}.", action, notification.getName(), target);
+		} else {
+			logMessage = MessageFormat.format("Failed to queue {0} notification {1} for delivery to {2}.", action, notification.getName(), target);
+		}
+		_logger.debug(logMessage);
 		history.appendMessageNUpdateHistory(logMessage, null, 0);
 	}
 
+	/*
+	 * Stores the messages of a finished delivery as a history record of the alert. The creation times of the records are kept unique, so
+	 * the deliveries of an alert that finish in the same millisecond do not conflict.
+	 */
+	private void _recordDelivery(BigInteger alertId, History deliveryHistory, boolean delivered, long executionTime) {
+		History record = new History(deliveryHistory.getMessage(), HOSTNAME, alertId, delivered ? JobStatus.SUCCESS : JobStatus.FAILURE,
+				executionTime, _lastDeliveryRecordTime.accumulateAndGet(System.currentTimeMillis(), (last, now) -> Math.max(last + 1, now)));
+		AlertHistoryWriter alertHistoryWriter = _alertHistoryWriter;
+
+		try {
+			if(alertHistoryWriter != null) {
+				alertHistoryWriter.write(record);
+			} else {
+				_historyService.createHistories(Collections.singletonList(record));
+			}
+		} catch (Exception ex) {
+			_logger.warn("Failed to record the delivery of a notification of alert {} - {}", alertId, ex.getMessage());
+		}
+	}
+
 	private void publishAlertTrackingMetric(String metric, BigInteger alertId, double value, Map<String, String> tags) {
 		if (!tags.containsKey("alertId")) {
 			tags.put("alertId", alertId.toString());
@@ -860,13 +1440,24 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	private void _updateNotificationSetActiveStatus(Trigger trigger, Metric metric, History history, Notification notification) {
 		notification.setCooldownExpirationByTriggerAndMetric(trigger, metric, System.currentTimeMillis() + notification.getCooldownPeriod());
 		notification.setActiveForTriggerAndMetric(trigger, metric, true);
-		notification = mergeEntity(_emProvider.get(), notification);
+		_persistNotificationState(notification);
 	}
 
 	private void _updateNotificationClearActiveStatus(Trigger trigger, Metric metric, Notification notification) {
 		notification.setCooldownExpirationByTriggerAndMetric(trigger, metric, System.currentTimeMillis());
 		notification.setActiveForTriggerAndMetric(trigger, metric, false);
-		notification = mergeEntity(_emProvider.get(), notification);
+		_persistNotificationState(notification);
+	}
+
+	// the modified date lets the notifications caches of other hosts pick up the new state
+	private void _persistNotificationState(Notification notification) {
+		EntityManager em = _emProvider.get();
+
+		notification.setModifiedDate(new Date());
+		mergeEntity(em, notification);
+		if(_notificationsCache != null) {
+			_notificationsCache.writeNotificationStateAfterCommit(em, notification);
+		}
 	}
 
 	private void _sendEmailToAdmin(Alert alert, BigInteger alertId, Throwable ex) {
@@ -930,11 +1521,20 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		requireArgument(alerts != null, "The list of alerts cannot be null.");
 
 		List<AlertWithTimestamp> alertsWithTimestamp = new ArrayList<>(alerts.size());
+		// All alerts of a batch share the enqueue time, so that the relative time ranges of their queries are identical and the
+		// queries they have in common can be fetched once when they are evaluated together.
+		long alertEnqueueTime = System.currentTimeMillis();
+
 		for (Alert alert : alerts) {
+			if(_queueReferencesEnabled) {
+				alertsWithTimestamp.add(new AlertWithTimestamp(alert.getId(), AlertDefinitionsStore.getVersion(alert), alertEnqueueTime));
+				continue;
+			}
+
 			AlertWithTimestamp obj;
 			try {
 				String serializedAlert = _mapper.writeValueAsString(alert);
-				obj = new AlertWithTimestamp(serializedAlert, System.currentTimeMillis());
+				obj = new AlertWithTimestamp(serializedAlert, alertEnqueueTime);
 			} catch (JsonProcessingException e) {
 				_logger.warn("Failed to serialize alert: {}.", alert.getId().intValue());
 				_logger.warn("", e);
@@ -1125,9 +1725,33 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		}
 	}
 
+	@Override
+	public void loadAlertDefinitions() {
+		requireNotDisposed();
+		if(!_queueReferencesEnabled) {
+			return;
+		}
+		try {
+			_getAlertDefinitionsStore().refreshIfDue(this, _mapper);
+		} catch (Exception ex) {
+			_logger.error("Failed to load the alert definitions, they will be loaded on first use - {}", ex.getMessage());
+		}
+	}
+
 	@Override
 	public void dispose() {
+		boolean disposed = isDisposed();
+
 		super.dispose();
+		_evaluationExecutor.shutdownNow();
+		if(_notificationDispatcher != null && !disposed) {
+			_releaseNotificationDispatcher();
+		}
+		synchronized(this) {
+			if(_alertHistoryWriter != null) {
+				_alertHistoryWriter.close(HISTORY_WRITER_CLOSE_TIMEOUT_MILLIS);
+			}
+		}
 		_metricService.dispose();
 		_notificationsCache.dispose();
 	}
@@ -1141,63 +1765,9 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	 * @return  The time stamp of the last data point in metric at which the trigger was decided to be fired.
 	 */
 	public Long getTriggerFiredDatapointTime(Trigger trigger, Metric metric, String queryExpression, Long alertEnqueueTimestamp) {
-		List<Map.Entry<Long, Double>> sortedDatapoints = new ArrayList<>(metric.getDatapoints().entrySet());
-
-		if (metric.getDatapoints().isEmpty()) {
-			return null;
-		} else if (metric.getDatapoints().size() == 1) {
-			if (trigger.getInertia().compareTo(0L) <= 0) {
-				if (Trigger.evaluateTrigger(trigger, sortedDatapoints.get(0).getValue())) {
-					return sortedDatapoints.get(0).getKey();
-				} else {
-					return null;
-				}
-			} else {
-				return null;
-			}
-		}
-
-		Collections.sort(sortedDatapoints, new Comparator<Map.Entry<Long, Double>>() {
-
-			@Override
-			public int compare(Entry<Long, Double> e1, Entry<Long, Double> e2) {
-				return e1.getKey().compareTo(e2.getKey());
-			}
-		});
-
-		int endIndex = sortedDatapoints.size();
-
-		if(trigger.getType().equals(TriggerType.NO_DATA)) {
-			if(trigger.getInertia()>0) {
-				Long[] queryTimes = AlertUtils.getStartAndEndTimes(queryExpression, alertEnqueueTimestamp);
-				if(((sortedDatapoints.get(0).getKey()-queryTimes[0]) > trigger.getInertia())){ 
-					return sortedDatapoints.get(0).getKey();
-				}
-
-				if((queryTimes[1] - sortedDatapoints.get(sortedDatapoints.size()-1).getKey()) > trigger.getInertia()) {
-					return sortedDatapoints.get(sortedDatapoints.size()-1).getKey();
-				}
+		TriggerEvaluator evaluator = new TriggerEvaluator(Arrays.asList(trigger), queryExpression, alertEnqueueTimestamp);
 
-				if(sortedDatapoints.size()>1) {
-					for(int i=1; i<sortedDatapoints.size(); i++) {
-						if((sortedDatapoints.get(i).getKey()-sortedDatapoints.get(i-1).getKey()) > trigger.getInertia()) {
-							return sortedDatapoints.get(i-1).getKey();
-						}
-					}
-				}
-			}
-		}else {
-			for(int startIndex=sortedDatapoints.size()-1; startIndex>=0; startIndex--){
-				if(Trigger.evaluateTrigger(trigger, sortedDatapoints.get(startIndex).getValue())){
-					Long interval = sortedDatapoints.get(endIndex-1).getKey() - sortedDatapoints.get(startIndex).getKey();
-					if(interval >= trigger.getInertia())
-						return sortedDatapoints.get(endIndex-1).getKey();
-				}else{
-					endIndex=startIndex;
-				}
-			}
-		}
-		return null;
+		return evaluator.evaluate(metric.getDatapoints()) > 0 ? evaluator.getFiredTime(0) : null;
 	}
 
 	@Override
@@ -1238,19 +1808,164 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	}
 
 
+	//~ Enums ****************************************************************************************************************************************
+
+	/**
+	 * The set of implementation specific configuration properties.
+	 */
+	public enum Property {
+
+		/** The number of threads used to fetch metric data and evaluate triggers concurrently. */
+		ALERT_EVALUATION_THREADS("service.property.alert.evaluation.threads", "10"),
+		/**
+		 * The maximum time the evaluation of a dequeued alert may run before it is cancelled and recorded as a failure. An evaluation is
+		 * cancelled after the cron period of its alert if that is shorter.
+		 */
+		ALERT_EVALUATION_TIMEOUT_MILLIS("service.property.alert.evaluation.timeout.millis", "300000"),
+		/** The time after which the evaluations of a dequeued batch that have not completed are cancelled, including evaluations still queued. */
+		ALERT_EVALUATION_BATCH_TIMEOUT_MILLIS("service.property.alert.evaluation.batch.timeout.millis", "600000"),
+		/** Whether queries shared by alerts that are evaluated together are only fetched once. */
+		ALERT_SHARED_QUERIES_ENABLED("service.property.alert.shared.queries.enabled", "true"),
+		/** Whether alerts with a single relative query keep their last fetched window of data and only fetch the data added since. */
+		ALERT_INCREMENTAL_EVALUATION_ENABLED("service.property.alert.incremental.evaluation.enabled", "false"),
+		/** The maximum number of datapoints kept across all cached alert windows. A cached datapoint takes about 16 bytes of heap. */
+		ALERT_INCREMENTAL_EVALUATION_MAX_DATAPOINTS("service.property.alert.incremental.evaluation.max.datapoints", "2000000"),
+		/** The trailing part of a cached alert window that is fetched again, to pick up late or still changing datapoints. */
+		ALERT_INCREMENTAL_EVALUATION_OVERLAP_MILLIS("service.property.alert.incremental.evaluation.overlap.millis", "300000"),
+		/**
+		 * Whether alerts are enqueued as references to their ID and version instead of fully serialized. Alert clients resolve the references
+		 * from a local store of alert definitions, and accept both forms regardless of this setting.
+		 */
+		ALERT_QUEUE_REFERENCES_ENABLED("service.property.alert.queue.references.enabled", "false"),
+		/** Whether alert history is written in batches by a background thread instead of during alert evaluation. */
+		ALERT_HISTORY_ASYNC_ENABLED("service.property.alert.history.async.enabled", "false"),
+		/** The maximum number of alert history records waiting to be written. Further records are dropped. */
+		ALERT_HISTORY_ASYNC_CAPACITY("service.property.alert.history.async.capacity", "100000"),
+		/** The maximum number of alert history records written in one batch. */
+		ALERT_HISTORY_ASYNC_BATCH_SIZE("service.property.alert.history.async.batch.size", "500"),
+		/** The longest time a batch of alert history records waits for more records before it is written. */
+		ALERT_HISTORY_ASYNC_LINGER_MILLIS("service.property.alert.history.async.linger.millis", "1000"),
+		/** Whether notifications are delivered by background workers of each notifier type instead of during alert evaluation. */
+		ALERT_NOTIFICATION_ASYNC_ENABLED("service.property.alert.notification.async.enabled", "false"),
+		/** The number of delivery workers of each notifier type. The deliveries of a notification, trigger and metric share a worker. */
+		ALERT_NOTIFICATION_ASYNC_THREADS("service.property.alert.notification.async.threads", "4"),
+		/** The maximum number of queued notifications of each notifier type. Further notifications are dropped. */
+		ALERT_NOTIFICATION_ASYNC_CAPACITY("service.property.alert.notification.async.capacity", "10000"),
+		/** The time after which a notification delivery is cancelled and counted as failed. */
+		ALERT_NOTIFICATION_ASYNC_TIMEOUT_MILLIS("service.property.alert.notification.async.timeout.millis", "30000"),
+		/** The number of consecutive failed deliveries after which the notifications of a notifier type are dropped for a while. */
+		ALERT_NOTIFICATION_CIRCUIT_BREAKER_FAILURES("service.property.alert.notification.circuit.breaker.failures", "5"),
+		/** The time during which notifications are dropped once the failures of their notifier type reached the threshold. */
+		ALERT_NOTIFICATION_CIRCUIT_BREAKER_OPEN_MILLIS("service.property.alert.notification.circuit.breaker.open.millis", "60000");
+
+		private final String _name;
+		private final String _defaultValue;
+
+		private Property(String name, String defaultValue) {
+			_name = name;
+			_defaultValue = defaultValue;
+		}
+
+		/**
+		 * Returns the property name.
+		 *
+		 * @return  The property name.
+		 */
+		public String getName() {
+			return _name;
+		}
+
+		/**
+		 * Returns the default property value.
+		 *
+		 * @return  The default property value.
+		 */
+		public String getDefaultValue() {
+			return _defaultValue;
+		}
+	}
+
 	//~ Inner Classes ********************************************************************************************************************************
 
+	/* An alert dequeued for evaluation. The future is null if the evaluation was skipped. The start time is 0 until a worker picks it up. */
+	/* A copy of an alert, made for the notification deliveries of an evaluation of the alert. */
+	private static final class AlertSnapshot {
+
+		private final Alert alert;
+		private final Alert copy;
+
+		AlertSnapshot(Alert alert, Alert copy) {
+			this.alert = alert;
+			this.copy = copy;
+		}
+	}
+
+	private static final class PendingEvaluation {
+
+		private final Alert alert;
+		private final Long alertEnqueueTimestamp;
+		private final long timeoutMillis;
+		private final long submitTime = System.currentTimeMillis();
+		private Future<AlertEvaluation> future;
+		private volatile long startTime;
+
+		PendingEvaluation(Alert alert, Long alertEnqueueTimestamp, long timeoutMillis) {
+			this.alert = alert;
+			this.alertEnqueueTimestamp = alertEnqueueTimestamp;
+			this.timeoutMillis = timeoutMillis;
+		}
+
+		long getStartTime() {
+			long result = startTime;
+
+			return result == 0 ? submitTime : result;
+		}
+	}
+
+	/* The queries the alerts of a batch expand to, keyed by alert ID, and the metric data of the queries that more than one alert needs. */
+	private static final class SharedQueries {
+
+		private static final SharedQueries NONE = new SharedQueries(Collections.emptyMap(), Collections.emptyMap());
+
+		private final Map<BigInteger, Map<MetricQuery, List<MetricQuery>>> expandedQueriesByAlertId;
+		private final Map<MetricQuery, List<Metric>> metrics;
+
+		SharedQueries(Map<BigInteger, Map<MetricQuery, List<MetricQuery>>> expandedQueriesByAlertId, Map<MetricQuery, List<Metric>> metrics) {
+			this.expandedQueriesByAlertId = expandedQueriesByAlertId;
+			this.metrics = metrics;
+		}
+
+		Map<MetricQuery, List<MetricQuery>> getExpandedQueries(BigInteger alertId) {
+			return expandedQueriesByAlertId.getOrDefault(alertId, Collections.emptyMap());
+		}
+	}
+
+	/* The metric data of an alert and the fired triggers. The trigger map is null if the metric data has no datapoints. */
+	private static final class AlertEvaluation {
+
+		private final List<Metric> metrics;
+		private final Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger;
+
+		AlertEvaluation(List<Metric> metrics, Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger) {
+			this.metrics = metrics;
+			this.triggerFiredTimesAndMetricsByTrigger = triggerFiredTimesAndMetricsByTrigger;
+		}
+	}
+
 	/**
 	 * Used to enqueue alerts to evaluate.  The timestamp is used to reconcile lag between enqueue time 
 	 * and evaluation time by adjusting relative times in the alert metric expression being evaluated.
 	 *
 	 * @author  Bhinav Sura (bhinav.sura@salesforce.com)
 	 */
+	@JsonInclude(Include.NON_NULL)
 	public static class AlertWithTimestamp implements Serializable {
 
 		/** The serial version UID. */
 		private static final long serialVersionUID = 1L;
 		protected String serializedAlert;
+		protected BigInteger alertId;
+		protected Long alertVersion;
 		protected long alertEnqueueTime;
 
 		/** Creates a new AlertIdWithTimestamp object. */
@@ -1267,6 +1982,19 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 			this.alertEnqueueTime = timestamp;
 		}
 
+		/**
+		 * Creates a new AlertWithTimestamp object that references the alert instead of containing it.
+		 *
+		 * @param  alertId       The ID of the alert.
+		 * @param  alertVersion  The modification time of the alert when it was enqueued.
+		 * @param  timestamp     The epoch timestamp the alert was enqueued for evaluation.
+		 */
+		public AlertWithTimestamp(BigInteger alertId, long alertVersion, long timestamp) {
+			this.alertId = alertId;
+			this.alertVersion = alertVersion;
+			this.alertEnqueueTime = timestamp;
+		}
+
 		public String getSerializedAlert() {
 			return serializedAlert;
 		}
@@ -1275,6 +2003,22 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 			this.serializedAlert = serializedAlert;
 		}
 
+		public BigInteger getAlertId() {
+			return alertId;
+		}
+
+		public void setAlertId(BigInteger alertId) {
+			this.alertId = alertId;
+		}
+
+		public Long getAlertVersion() {
+			return alertVersion;
+		}
+
+		public void setAlertVersion(Long alertVersion) {
+			this.alertVersion = alertVersion;
+		}
+
 		public long getAlertEnqueueTime() {
 			return alertEnqueueTime;
 		}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * Delivers notifications asynchronously, so that slow notification targets do not delay alert evaluation.
+ *
+ * <p>Each notifier type has its own bounded workers and circuit breaker, so a failing target only affects its own notifications. All
+ * deliveries with the same key are handled by the same single threaded worker, so they are sent in the order they were dispatched. A
+ * delivery that is dispatched while an earlier delivery with the same key is still queued replaces the earlier delivery, so only the
+ * latest state is sent. Deliveries that take longer than the timeout are cancelled and count as failures. After a number of consecutive
+ * failures, the circuit breaker of the notifier type rejects its deliveries for a while.</p>
+ *
+ * <p>The deliveries themselves run on a bounded pool of each notifier type, with room for one delivery per worker and one cancelled
+ * delivery that has not stopped yet. Deliveries that find the pool exhausted are dropped.</p>
+ */
+class NotificationDispatcher {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final String NOTIFY_TARGET_TAG = "notify-target";
+    private static final int DELIVERY_THREADS_PER_WORKER = 2;
+
+    //~ Instance fields ******************************************************************************************************************************
+
+    private final Logger _logger = LoggerFactory.getLogger(NotificationDispatcher.class);
+    private final MonitorService _monitorService;
+    private final int _threadsPerNotifier;
+    private final int _queueCapacity;
+    private final long _timeoutMillis;
+    private final int _failureThreshold;
+    private final long _openMillis;
+    private final Map<String, Lane> _lanesByNotifier = new ConcurrentHashMap<>();
+    private final Map<String, PendingDelivery> _pendingByKey = new ConcurrentHashMap<>();
+
+    //~ Constructors *********************************************************************************************************************************
+
+    /**
+     * Creates a new NotificationDispatcher object.
+     *
+     * @param  monitorService      The monitor service used to record the delivery counters. Cannot be null.
+     * @param  threadsPerNotifier  The number of delivery workers of each notifier type. Must be positive.
+     * @param  queueCapacity       The maximum number of queued deliveries of each notifier type. Must be positive.
+     * @param  timeoutMillis       The time after which a delivery is cancelled. Must be positive.
+     * @param  failureThreshold    The number of consecutive failures that opens the circuit breaker of a notifier type. Must be positive.
+     * @param  openMillis          The time the circuit breaker rejects deliveries once it is open. Cannot be negative.
+     */
+    NotificationDispatcher(MonitorService monitorService, int threadsPerNotifier, int queueCapacity, long timeoutMillis, int failureThreshold,
+        long openMillis) {
+        requireArgument(monitorService != null, "Monitor service cannot be null.");
+        requireArgument(threadsPerNotifier > 0, "Thread count must be positive.");
+        requireArgument(queueCapacity > 0, "Queue capacity must be positive.");
+        requireArgument(timeoutMillis > 0, "Timeout must be positive.");
+        requireArgument(failureThreshold > 0, "Failure threshold must be positive.");
+        requireArgument(openMillis >= 0, "Open time cannot be negative.");
+        _monitorService = monitorService;
+        _threadsPerNotifier = threadsPerNotifier;
+        _queueCapacity = queueCapacity;
+        _timeoutMillis = timeoutMillis;
+        _failureThreshold = failureThreshold;
+        _openMillis = openMillis;
+    }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Queues a notification delivery.
+     *
+     * @param   notifier  The notifier type, which selects the workers and circuit breaker. Cannot be null.
+     * @param   key       Identifies the deliveries that are sent in order. A queued delivery with the same key is replaced. Cannot be null.
+     * @param   delivery  Delivers the notification and returns whether it succeeded. Cannot be null.
+     *
+     * @return  True if the delivery was queued or replaced a queued delivery, false if it was rejected.
+     */
+    boolean dispatch(String notifier, String key, Callable<Boolean> delivery) {
+        requireArgument(notifier != null, "Notifier cannot be null.");
+        requireArgument(key != null, "Key cannot be null.");
+        requireArgument(delivery != null, "Delivery cannot be null.");
+
+        Lane lane = _lanesByNotifier.computeIfAbsent(notifier, Lane::new);
+
+        if (!lane.breaker.allows(System.currentTimeMillis())) {
+            _drop(lane, "circuit breaker is open");
+            return false;
+        }
+
+        String pendingKey = notifier + ":" + key;
+        PendingDelivery pending = new PendingDelivery(pendingKey, delivery);
+        PendingDelivery current = _pendingByKey.putIfAbsent(pendingKey, pending);
+
+        while (current != null) {
+            if (current.replace(delivery)) {
+                _monitorService.modifyCounter(Counter.NOTIFICATIONS_COALESCED, 1, lane.tags);
+                return true;
+            }
+            // The queued delivery already started, so this one is queued separately.
+            _pendingByKey.remove(pendingKey, current);
+            current = _pendingByKey.putIfAbsent(pendingKey, pending);
+        }
+
+        ThreadPoolExecutor worker = lane.workerFor(key);
+
+        try {
+            long dispatchTime = System.currentTimeMillis();
+
+            worker.execute(() -> _deliver(lane, pending, dispatchTime));
+        } catch (RejectedExecutionException ex) {
+            _pendingByKey.remove(pendingKey, pending);
+            _drop(lane, "queue is full");
+            return false;
+        }
+        _monitorService.updateCounter(Counter.NOTIFICATIONS_QUEUE_DEPTH, lane.getQueueDepth(), lane.tags);
+        return true;
+    }
+
+    /**
+     * Stops accepting deliveries and waits for the queued deliveries to finish.
+     *
+     * @param  timeoutMillis  The longest time to wait.
+     */
+    void close(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        for (Lane lane : _lanesByNotifier.values()) {
+            for (ThreadPoolExecutor worker : lane.workers) {
+                worker.shutdown();
+            }
+        }
+        try {
+            for (Lane lane : _lanesByNotifier.values()) {
+                for (ThreadPoolExecutor worker : lane.workers) {
+                    worker.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Lane lane : _lanesByNotifier.values()) {
+                lane.deliveries.shutdownNow();
+            }
+        }
+    }
+
+    /*
+     * Runs on the worker of the delivery key. The delivery itself runs as a separate task, so that a delivery that does not react to being
+     * cancelled only keeps its own thread busy and the worker continues with the next delivery, as long as the delivery pool has room.
+     */
+    private void _deliver(Lane lane, PendingDelivery pending, long dispatchTime) {
+        Callable<Boolean> delivery = pending.start();
+
+        _pendingByKey.remove(pending.key, pending);
+        if (!lane.breaker.allows(System.currentTimeMillis())) {
+            _drop(lane, "circuit breaker is open");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        boolean succeeded = false;
+        Future<Boolean> future;
+
+        try {
+            future = lane.deliveries.submit(delivery);
+        } catch (RejectedExecutionException ex) {
+            _drop(lane, lane.deliveries.isShutdown() ? "dispatcher is closed" : "delivery threads are busy");
+            return;
+        }
+        try {
+            succeeded = Boolean.TRUE.equals(future.get(_timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            _logger.warn("Notification delivery to {} timed out after {} ms.", lane.notifier, System.currentTimeMillis() - start);
+        } catch (ExecutionException ex) {
+            _logger.error("Notification delivery to {} failed: {}", lane.notifier, ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+
+        long end = System.currentTimeMillis();
+
+        if (succeeded) {
+            lane.breaker.onSuccess();
+        } else if (lane.breaker.onFailure(end)) {
+            _logger.warn("Opened circuit breaker of notifier {} for {} ms.", lane.notifier, _openMillis);
+        }
+        _monitorService.modifyCounter(Counter.NOTIFICATIONS_DELIVERY_LATENCY, end - dispatchTime, lane.tags);
+        _monitorService.updateCounter(Counter.NOTIFICATIONS_QUEUE_DEPTH, lane.getQueueDepth(), lane.tags);
+    }
+
+    private void _drop(Lane lane, String reason) {
+        _logger.warn("Dropped notification to {} because the {}.", lane.notifier, reason);
+        _monitorService.modifyCounter(Counter.NOTIFICATIONS_DROPPED, 1, lane.tags);
+    }
+
+    //~ Inner Classes ********************************************************************************************************************************
+
+    /*
+     * The workers, delivery pool and circuit breaker of a notifier type. Each worker has a single thread, which keeps the deliveries of a key
+     * in order.
+     */
+    private final class Lane {
+
+        private final String notifier;
+        private final Map<String, String> tags;
+        private final ThreadPoolExecutor[] workers;
+        private final ThreadPoolExecutor deliveries;
+        private final CircuitBreaker breaker = new CircuitBreaker(_failureThreshold, _openMillis);
+
+        Lane(String notifier) {
+            Map<String, String> tags = new HashMap<>();
+            int workerCapacity = Math.max(1, _queueCapacity / _threadsPerNotifier);
+
+            tags.put(NOTIFY_TARGET_TAG, notifier);
+            this.notifier = notifier;
+            this.tags = Collections.unmodifiableMap(tags);
+            this.workers = new ThreadPoolExecutor[_threadsPerNotifier];
+            for (int i = 0; i < workers.length; i++) {
+                String threadName = "notification-" + notifier + "-" + i;
+
+                workers[i] = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(workerCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, threadName);
+
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                workers[i].allowCoreThreadTimeOut(true);
+            }
+            this.deliveries = new ThreadPoolExecutor(0, _threadsPerNotifier * DELIVERY_THREADS_PER_WORKER, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "notification-" + notifier + "-delivery");
+
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+
+        ThreadPoolExecutor workerFor(String key) {
+            return workers[Math.floorMod(key.hashCode(), workers.length)];
+        }
+
+        int getQueueDepth() {
+            int depth = 0;
+
+            for (ThreadPoolExecutor worker : workers) {
+                depth += worker.getQueue().size();
+            }
+            return depth;
+        }
+    }
+
+    /* A queued delivery that can be replaced until it starts. */
+    private static final class PendingDelivery {
+
+        private final String key;
+        private Callable<Boolean> delivery;
+        private boolean started;
+
+        PendingDelivery(String key, Callable<Boolean> delivery) {
+            this.key = key;
+            this.delivery = delivery;
+        }
+
+        synchronized boolean replace(Callable<Boolean> delivery) {
+            if (started) {
+                return false;
+            }
+            this.delivery = delivery;
+            return true;
+        }
+
+        synchronized Callable<Boolean> start() {
+            started = true;
+            return delivery;
+        }
+    }
+
+    /**
+     * Rejects deliveries for a while after a number of consecutive failures. Once the open time has passed, deliveries are allowed again,
+     * and the next failure opens the breaker again until a delivery succeeds.
+     */
+    static final class CircuitBreaker {
+
+        private final int _failureThreshold;
+        private final long _openMillis;
+        private int _consecutiveFailures;
+        private long _openUntil;
+
+        CircuitBreaker(int failureThreshold, long openMillis) {
+            _failureThreshold = failureThreshold;
+            _openMillis = openMillis;
+        }
+
+        synchronized boolean allows(long now) {
+            return now >= _openUntil;
+        }
+
+        synchronized void onSuccess() {
+            _consecutiveFailures = 0;
+            _openUntil = 0;
+        }
+
+        /* Returns whether the failure opened the breaker. */
+        synchronized boolean onFailure(long now) {
+            _consecutiveFailures++;
+            if (_consecutiveFailures >= _failureThreshold) {
+                _openUntil = now + _openMillis;
+                return true;
+            }
+            return false;
+        }
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Holds the cool down expiration and active status of notifications by trigger and metric key.
+ * 
+ * The state of each notification is kept as sorted arrays that are replaced as a whole on every update, and notifications are spread
+ * over independent shards so that refreshes and write-through updates of different notifications do not contend.
+ */
+class NotificationStateStore {
+
+	private static final long NO_COOLDOWN = Long.MIN_VALUE;
+	private static final byte NO_STATUS = 0;
+	private static final byte INACTIVE = 1;
+	private static final byte ACTIVE = 2;
+
+	private final ConcurrentHashMap<Long, State>[] shards;
+
+	@SuppressWarnings("unchecked")
+	NotificationStateStore(int shardCount) {
+		shards = new ConcurrentHashMap[Integer.highestOneBit(Math.max(1, shardCount))];
+		for(int i = 0; i < shards.length; i++) {
+			shards[i] = new ConcurrentHashMap<>();
+		}
+	}
+
+	/*
+	 * Replaces the state of a notification with the state written by this host.
+	 */
+	void write(long notificationId, Map<String, Long> cooldownExpirations, Map<String, Boolean> activeStatuses, long writeTime) {
+		_shard(notificationId).put(notificationId, new State(cooldownExpirations, activeStatuses, writeTime));
+	}
+
+	/*
+	 * Replaces the state of a notification with the state read from the database, unless this host wrote it after the read started.
+	 * Notifications without any state are removed.
+	 */
+	void refresh(long notificationId, Map<String, Long> cooldownExpirations, Map<String, Boolean> activeStatuses, long readTime) {
+		_shard(notificationId).compute(notificationId, (id, current) -> {
+			if(current != null && current.writeTime >= readTime) {
+				return current;
+			}
+			if(cooldownExpirations.isEmpty() && activeStatuses.isEmpty()) {
+				return null;
+			}
+			return new State(cooldownExpirations, activeStatuses, Long.MIN_VALUE);
+		});
+	}
+
+	/*
+	 * Removes the state of a notification that no longer exists.
+	 */
+	void remove(long notificationId) {
+		_shard(notificationId).remove(notificationId);
+	}
+
+	/*
+	 * Returns a copy of the cool down expirations of a notification, or null if the notification has no state.
+	 */
+	Map<String, Long> getCooldownExpirations(long notificationId) {
+		State state = _shard(notificationId).get(notificationId);
+
+		if(state == null) {
+			return null;
+		}
+
+		Map<String, Long> result = new HashMap<>(state.keys.length * 2);
+
+		for(int i = 0; i < state.keys.length; i++) {
+			if(state.cooldownExpirations[i] != NO_COOLDOWN) {
+				result.put(state.keys[i], state.cooldownExpirations[i]);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Returns a copy of the active statuses of a notification, or null if the notification has no state.
+	 */
+	Map<String, Boolean> getActiveStatuses(long notificationId) {
+		State state = _shard(notificationId).get(notificationId);
+
+		if(state == null) {
+			return null;
+		}
+
+		Map<String, Boolean> result = new HashMap<>(state.keys.length * 2);
+
+		for(int i = 0; i < state.keys.length; i++) {
+			if(state.activeStatuses[i] != NO_STATUS) {
+				result.put(state.keys[i], state.activeStatuses[i] == ACTIVE);
+			}
+		}
+		return result;
+	}
+
+	int size() {
+		int size = 0;
+
+		for(ConcurrentHashMap<Long, State> shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	private ConcurrentHashMap<Long, State> _shard(long notificationId) {
+		int hash = Long.hashCode(notificationId);
+
+		return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+	}
+
+	/* The immutable state of one notification. */
+	private static final class State {
+
+		private final String[] keys;
+		private final long[] cooldownExpirations;
+		private final byte[] activeStatuses;
+		private final long writeTime;
+
+		State(Map<String, Long> cooldownExpirations, Map<String, Boolean> activeStatuses, long writeTime) {
+			TreeSet<String> keys = new TreeSet<>(cooldownExpirations.keySet());
+
+			keys.addAll(activeStatuses.keySet());
+			this.keys = keys.toArray(new String[keys.size()]);
+			this.cooldownExpirations = new long[this.keys.length];
+			this.activeStatuses = new byte[this.keys.length];
+			Arrays.fill(this.cooldownExpirations, NO_COOLDOWN);
+			for(int i = 0; i < this.keys.length; i++) {
+				Long cooldownExpiration = cooldownExpirations.get(this.keys[i]);
+				Boolean active = activeStatuses.get(this.keys[i]);
+
+				if(cooldownExpiration != null) {
+					this.cooldownExpirations[i] = cooldownExpiration;
+				}
+				if(active != null) {
+					this.activeStatuses[i] = active ? ACTIVE : INACTIVE;
+				}
+			}
+			this.writeTime = writeTime;
+		}
+	}
+}
@@ -31,27 +31,34 @@
 package com.salesforce.dva.argus.service.alert;
 
 import java.math.BigInteger;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
 
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+import org.eclipse.persistence.sessions.SessionEventListener;
+import org.eclipse.persistence.sessions.UnitOfWork;
+
 import com.google.inject.Provider;
+import com.salesforce.dva.argus.entity.Notification;
 
 /*
  * This class maintains a cache which has the latest status of notification properties like cool down and active trigger status. 
  * 
- * The cache is kept up to date by a refresher thread which updates the cache periodically
+ * The cache is loaded once and then kept up to date by a refresher thread which applies the notifications modified since its previous
+ * refresh, and by write-through updates of the notifications whose state is changed by this host.
  */
 public class NotificationsCache {
 	
-	private NotificationsCacheRefresherThread refresherThread;
+	private static final int STORE_SHARDS = 16;
 
-	private Map<BigInteger/*notificationId*/, Map<String/*metricKey*/, Long/*coolDownExpiration*/>> notificationCooldownExpirationMap = new HashMap<BigInteger, Map<String, Long>>();
+	private NotificationsCacheRefresherThread refresherThread;
 
-	private Map<BigInteger/*notificationId*/, Map<String/*metricKey*/, Boolean/*activeStatus*/>> notificationActiveStatusMap = new HashMap<BigInteger, Map<String, Boolean>>();
+	private final NotificationStateStore notificationStateStore = new NotificationStateStore(STORE_SHARDS);
 
-	private boolean isNotificationsCacheRefreshed = false;
+	private volatile boolean isNotificationsCacheRefreshed = false;
 	
 	public NotificationsCache(Provider<EntityManager> em) {
 		refresherThread = new NotificationsCacheRefresherThread(this, em);
@@ -59,20 +66,79 @@ public class NotificationsCache {
 		refresherThread.start();
 	}
 
-	public Map<BigInteger, Map<String, Long>> getNotificationCooldownExpirationMap() {
-		return notificationCooldownExpirationMap;
+	/**
+	 * Returns the cool down expiration times of a notification by trigger and metric key.
+	 *
+	 * @param   notificationId  The notification ID.
+	 *
+	 * @return  A copy of the cool down expiration times, or null if the notification has no cached state.
+	 */
+	public Map<String, Long> getNotificationCooldownExpirations(BigInteger notificationId) {
+		return notificationStateStore.getCooldownExpirations(notificationId.longValue());
+	}
+
+	/**
+	 * Returns the active statuses of a notification by trigger and metric key.
+	 *
+	 * @param   notificationId  The notification ID.
+	 *
+	 * @return  A copy of the active statuses, or null if the notification has no cached state.
+	 */
+	public Map<String, Boolean> getNotificationActiveStatuses(BigInteger notificationId) {
+		return notificationStateStore.getActiveStatuses(notificationId.longValue());
+	}
+
+	/**
+	 * Updates the cached state of a notification after the state was persisted by this host.
+	 *
+	 * @param  notification  The persisted notification.
+	 */
+	public void writeNotificationState(Notification notification) {
+		notificationStateStore.write(notification.getId().longValue(), notification.getCooldownExpirationMap(),
+				notification.getActiveStatusMap(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Updates the cached state of a notification once the transaction persisting it commits, or immediately if the entity manager
+	 * has no active transaction. Nothing is written if the transaction rolls back.
+	 *
+	 * @param  em            The entity manager the notification was merged with.
+	 * @param  notification  The notification whose state is being persisted.
+	 */
+	public void writeNotificationStateAfterCommit(EntityManager em, Notification notification) {
+		if(em == null || !em.getTransaction().isActive()) {
+			writeNotificationState(notification);
+			return;
+		}
+
+		UnitOfWork unitOfWork = em.unwrap(UnitOfWork.class);
+
+		for(SessionEventListener listener : unitOfWork.getEventManager().getListeners()) {
+			if(listener instanceof PendingStateWriter && ((PendingStateWriter) listener).cache == this) {
+				((PendingStateWriter) listener).add(notification);
+				return;
+			}
+		}
+
+		PendingStateWriter writer = new PendingStateWriter(this);
+
+		writer.add(notification);
+		unitOfWork.getEventManager().addListener(writer);
 	}
 
-	public void setNotificationCooldownExpirationMap(Map<BigInteger, Map<String, Long>> notificationCooldownExpirationMap) {
-		this.notificationCooldownExpirationMap = notificationCooldownExpirationMap;
+	/* Replaces the cached state of a notification with the state read from the database at the given time. */
+	void refreshNotificationState(BigInteger notificationId, Map<String, Long> cooldownExpirations, Map<String, Boolean> activeStatuses,
+			long readTime) {
+		notificationStateStore.refresh(notificationId.longValue(), cooldownExpirations, activeStatuses, readTime);
 	}
 
-	public Map<BigInteger, Map<String, Boolean>> getNotificationActiveStatusMap() {
-		return notificationActiveStatusMap;
+	/* Removes the cached state of a deleted notification, or of a notification of a deleted alert. */
+	void evictNotificationState(BigInteger notificationId) {
+		notificationStateStore.remove(notificationId.longValue());
 	}
 
-	public void setNotificationActiveStatusMap(Map<BigInteger, Map<String, Boolean>> notificationActiveStatusMap) {
-		this.notificationActiveStatusMap = notificationActiveStatusMap;
+	int size() {
+		return notificationStateStore.size();
 	}
 	
 	public boolean isNotificationsCacheRefreshed() {
@@ -86,4 +152,35 @@ public class NotificationsCache {
 	public void dispose() {
 		refresherThread.stop();
 	}
+
+	/*
+	 * Holds the notifications persisted in the transactions of one unit of work until they commit. Entity managers are used by a
+	 * single thread, and the writer stays registered for the lifetime of its unit of work, which a rollback discards.
+	 */
+	private static final class PendingStateWriter extends SessionEventAdapter {
+
+		private final NotificationsCache cache;
+		private final Map<BigInteger, Notification> pending = new LinkedHashMap<>();
+
+		PendingStateWriter(NotificationsCache cache) {
+			this.cache = cache;
+		}
+
+		void add(Notification notification) {
+			pending.put(notification.getId(), notification);
+		}
+
+		@Override
+		public void postCommitUnitOfWork(SessionEvent event) {
+			for(Notification notification : pending.values()) {
+				cache.writeNotificationState(notification);
+			}
+			pending.clear();
+		}
+
+		@Override
+		public void postReleaseUnitOfWork(SessionEvent event) {
+			pending.clear();
+		}
+	}
 }
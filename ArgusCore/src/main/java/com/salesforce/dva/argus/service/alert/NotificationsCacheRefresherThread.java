@@ -31,33 +31,55 @@
 package com.salesforce.dva.argus.service.alert;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
-import org.eclipse.persistence.config.HintValues;
-import org.eclipse.persistence.config.QueryHints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Provider;
 
 /* 
- * This thread refreshes the notifications cache periodically
+ * This thread refreshes the notifications cache periodically. The cache is loaded once, after which only the notifications
+ * modified since the previous refresh, directly or through their alert, are read again.
+ *
+ * The notifications known to belong to each alert are tracked so that deletes are evicted from the cache: notifications of alerts
+ * marked for deletion and notifications no longer returned for a modified alert are evicted on the next refresh, and alerts removed
+ * without a delete marker are caught by a periodic reconciliation against the ids of all live notifications.
  */
 public class NotificationsCacheRefresherThread extends Thread{
 
 	private final Logger _logger = LoggerFactory.getLogger(NotificationsCacheRefresherThread.class);
 	
 	private static final Long REFRESH_INTERVAL_MILLIS = 30*1000L;
+
+	// modified dates are set by the writing host, so changes are re-read this far back to tolerate clock skew
+	private static final Long LOOKBACK_PERIOD_FOR_REFRESH_MILLIS = 5*60*1000L;
+
+	private static final int MAX_NOTIFICATIONS_PER_QUERY = 1000;
+
+	private static final Long RECONCILIATION_INTERVAL_MILLIS = 60*60*1000L;
 	
 	private NotificationsCache notificationsCache = null;
 	
 	private Provider<EntityManager> _emProvider;
+
+	// only accessed by this thread
+	private final Map<BigInteger/*alertId*/, Set<BigInteger>/*notificationIds*/> _notificationIdsByAlertId = new HashMap<>();
+
+	private final Map<BigInteger/*notificationId*/, BigInteger/*alertId*/> _alertIdByNotificationId = new HashMap<>();
 	
 	public NotificationsCacheRefresherThread(NotificationsCache cache, Provider<EntityManager> em) {
         this.notificationsCache = cache;
@@ -66,55 +88,187 @@ public class NotificationsCacheRefresherThread extends Thread{
 
 	@Override
 	public void run() {
+		long lastRefreshTime = 0L;
+		long lastReconciliationTime = 0L;
 		while (!isInterrupted()) {
 			try {
 				_logger.info("Starting notifications cache refresh");
 				EntityManager em = _emProvider.get();
+				long startTime = System.currentTimeMillis();
 				
-				// populating notifications cooldown cache
-				Query q = em.createNativeQuery("select * from notification_cooldownexpirationbytriggerandmetric");
-				List<Object[]> objects = q.getResultList();
-				Map<BigInteger/*notificationId*/, Map<String/*metricKey*/, Long/*coolDownExpiration*/>> currNotificationCooldownExpirationMap = new HashMap<BigInteger, Map<String, Long>>();
-
-				for(Object[] object : objects) {
-					BigInteger notificationId = new BigInteger(String.valueOf(Long.class.cast(object[0])));
-					Long cooldownExpiration = Long.class.cast(object[1]);
-					String key = String.class.cast(object[2]);
-					if(currNotificationCooldownExpirationMap.get(notificationId)==null) {
-						currNotificationCooldownExpirationMap.put(notificationId, new HashMap<String, Long>());
+				if(!notificationsCache.isNotificationsCacheRefreshed()) {
+					_reconcile(em);
+					_refresh(em, null, startTime);
+					notificationsCache.setNotificationsCacheRefreshed(true);
+					lastReconciliationTime = startTime;
+				}else {
+					Date modifiedDate = new Date(lastRefreshTime - LOOKBACK_PERIOD_FOR_REFRESH_MILLIS);
+					TypedQuery<Object[]> query = em.createQuery("SELECT n.id, n.alert.id, n.alert.deleted FROM Notification n WHERE n.modifiedDate > :modifiedDate OR n.alert.modifiedDate > :modifiedDate", Object[].class);
+
+					query.setParameter("modifiedDate", modifiedDate);
+
+					List<BigInteger> modifiedNotificationIds = new ArrayList<>();
+					Map<BigInteger, Set<BigInteger>> notificationIdsByModifiedAlertId = new HashMap<>();
+
+					for(Object[] row : query.getResultList()) {
+						BigInteger notificationId = BigInteger.class.cast(row[0]);
+						BigInteger alertId = BigInteger.class.cast(row[1]);
+
+						notificationIdsByModifiedAlertId.computeIfAbsent(alertId, id -> new HashSet<>());
+						if(Boolean.class.cast(row[2])) {
+							_evict(notificationId);
+						} else {
+							_track(notificationId, alertId);
+							notificationIdsByModifiedAlertId.get(alertId).add(notificationId);
+							modifiedNotificationIds.add(notificationId);
+						}
 					}
-					currNotificationCooldownExpirationMap.get(notificationId).put(key, cooldownExpiration);
-				}
-				notificationsCache.setNotificationCooldownExpirationMap(currNotificationCooldownExpirationMap);
-
-				// populating the active status cache
-				q = em.createNativeQuery("select * from notification_activestatusbytriggerandmetric");
-				objects = q.getResultList();
-				Map<BigInteger/*notificationId*/, Map<String/*metricKey*/, Boolean/*activeStatus*/>> currNotificationActiveStatusMap = new HashMap<BigInteger, Map<String, Boolean>>();
-
-				for(Object[] object : objects) {
-					BigInteger notificationId = new BigInteger(String.valueOf(Long.class.cast(object[0])));
-					Boolean isActive;
-					try {
-						isActive = Boolean.class.cast(object[1]);
-					} catch (ClassCastException e) {
-						// This is because Embedded Derby stores booleans as 0, 1.
-						isActive = Integer.class.cast(object[1]) == 0 ? Boolean.FALSE : Boolean.TRUE;
+
+					// notifications removed from a modified alert are no longer returned, nor are any of an alert left without notifications
+					TypedQuery<BigInteger> alertQuery = em.createQuery("SELECT a.id FROM Alert a WHERE a.modifiedDate > :modifiedDate", BigInteger.class);
+
+					alertQuery.setParameter("modifiedDate", modifiedDate);
+					for(BigInteger alertId : alertQuery.getResultList()) {
+						notificationIdsByModifiedAlertId.putIfAbsent(alertId, Collections.emptySet());
+					}
+					for(Map.Entry<BigInteger, Set<BigInteger>> entry : notificationIdsByModifiedAlertId.entrySet()) {
+						_evictAllExcept(entry.getKey(), entry.getValue());
+					}
+
+					for(int from = 0; from < modifiedNotificationIds.size(); from += MAX_NOTIFICATIONS_PER_QUERY) {
+						_refresh(em, modifiedNotificationIds.subList(from, Math.min(from + MAX_NOTIFICATIONS_PER_QUERY, modifiedNotificationIds.size())), startTime);
 					}
-					String key = String.class.cast(object[2]);
-					if(currNotificationActiveStatusMap.get(notificationId)==null) {
-						currNotificationActiveStatusMap.put(notificationId, new HashMap<String, Boolean>());
+					_logger.info("Number of modified notifications since last refresh - " + modifiedNotificationIds.size());
+					if(startTime - lastReconciliationTime >= RECONCILIATION_INTERVAL_MILLIS) {
+						_reconcile(em);
+						lastReconciliationTime = startTime;
 					}
-					currNotificationActiveStatusMap.get(notificationId).put(key, isActive);
 				}
-				notificationsCache.setNotificationActiveStatusMap(currNotificationActiveStatusMap);
-				
-				notificationsCache.setNotificationsCacheRefreshed(true);
-				_logger.info("Notifications cache refresh successful.");
-				sleep(REFRESH_INTERVAL_MILLIS);
+				lastRefreshTime = startTime;
+				_logger.info("Notifications cache refresh successful. Number of notifications in cache - {}", notificationsCache.size());
 			}catch(Exception e) {
 				_logger.error("Exception occured when trying to refresh notifications cache - " + ExceptionUtils.getFullStackTrace(e));
-				notificationsCache.setNotificationsCacheRefreshed(false);
+			}
+			try {
+				sleep(REFRESH_INTERVAL_MILLIS);
+			}catch(InterruptedException e) {
+				interrupt();
+			}
+		}
+	}
+
+	/*
+	 * Reads the state of the given notifications, or of all notifications if null, and replaces their cached state.
+	 */
+	private void _refresh(EntityManager em, List<BigInteger> notificationIds, long readTime) {
+		String condition = notificationIds == null ? "" : " where notification_id IN (" +
+				notificationIds.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")";
+		Map<BigInteger/*notificationId*/, Map<String/*metricKey*/, Long/*coolDownExpiration*/>> cooldownExpirationMap = new HashMap<BigInteger, Map<String, Long>>();
+		Map<BigInteger/*notificationId*/, Map<String/*metricKey*/, Boolean/*activeStatus*/>> activeStatusMap = new HashMap<BigInteger, Map<String, Boolean>>();
+
+		// reading the notifications cooldown
+		Query q = em.createNativeQuery("select * from notification_cooldownexpirationbytriggerandmetric" + condition);
+		List<Object[]> objects = q.getResultList();
+
+		for(Object[] object : objects) {
+			BigInteger notificationId = new BigInteger(String.valueOf(Long.class.cast(object[0])));
+			Long cooldownExpiration = Long.class.cast(object[1]);
+			String key = String.class.cast(object[2]);
+			cooldownExpirationMap.computeIfAbsent(notificationId, id -> new HashMap<String, Long>()).put(key, cooldownExpiration);
+		}
+
+		// reading the active status
+		q = em.createNativeQuery("select * from notification_activestatusbytriggerandmetric" + condition);
+		objects = q.getResultList();
+
+		for(Object[] object : objects) {
+			BigInteger notificationId = new BigInteger(String.valueOf(Long.class.cast(object[0])));
+			Boolean isActive;
+			try {
+				isActive = Boolean.class.cast(object[1]);
+			} catch (ClassCastException e) {
+				// This is because Embedded Derby stores booleans as 0, 1.
+				isActive = Integer.class.cast(object[1]) == 0 ? Boolean.FALSE : Boolean.TRUE;
+			}
+			String key = String.class.cast(object[2]);
+			activeStatusMap.computeIfAbsent(notificationId, id -> new HashMap<String, Boolean>()).put(key, isActive);
+		}
+
+		Set<BigInteger> refreshedIds = new HashSet<>(cooldownExpirationMap.keySet());
+
+		refreshedIds.addAll(activeStatusMap.keySet());
+		if(notificationIds != null) {
+			// notifications without any remaining state are removed from the cache
+			refreshedIds.addAll(notificationIds);
+		}
+		for(BigInteger notificationId : refreshedIds) {
+			if(!_alertIdByNotificationId.containsKey(notificationId)) {
+				// state left behind by a notification of an alert marked for deletion
+				continue;
+			}
+			notificationsCache.refreshNotificationState(notificationId, cooldownExpirationMap.getOrDefault(notificationId, Collections.emptyMap()),
+					activeStatusMap.getOrDefault(notificationId, Collections.emptyMap()), readTime);
+		}
+	}
+
+	/*
+	 * Reads the ids of all notifications of live alerts, and evicts the notifications that are no longer among them.
+	 */
+	private void _reconcile(EntityManager em) {
+		TypedQuery<Object[]> query = em.createQuery("SELECT n.id, n.alert.id FROM Notification n WHERE n.alert.deleted = false", Object[].class);
+		Map<BigInteger, BigInteger> alertIdByNotificationId = new HashMap<>();
+
+		for(Object[] row : query.getResultList()) {
+			alertIdByNotificationId.put(BigInteger.class.cast(row[0]), BigInteger.class.cast(row[1]));
+		}
+		for(BigInteger notificationId : new ArrayList<>(_alertIdByNotificationId.keySet())) {
+			if(!alertIdByNotificationId.containsKey(notificationId)) {
+				_evict(notificationId);
+			}
+		}
+		for(Map.Entry<BigInteger, BigInteger> entry : alertIdByNotificationId.entrySet()) {
+			_track(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void _track(BigInteger notificationId, BigInteger alertId) {
+		BigInteger previousAlertId = _alertIdByNotificationId.put(notificationId, alertId);
+
+		if(previousAlertId != null && !previousAlertId.equals(alertId)) {
+			_untrack(notificationId, previousAlertId);
+		}
+		_notificationIdsByAlertId.computeIfAbsent(alertId, id -> new HashSet<>()).add(notificationId);
+	}
+
+	private void _untrack(BigInteger notificationId, BigInteger alertId) {
+		Set<BigInteger> notificationIds = _notificationIdsByAlertId.get(alertId);
+
+		if(notificationIds != null) {
+			notificationIds.remove(notificationId);
+			if(notificationIds.isEmpty()) {
+				_notificationIdsByAlertId.remove(alertId);
+			}
+		}
+	}
+
+	private void _evict(BigInteger notificationId) {
+		BigInteger alertId = _alertIdByNotificationId.remove(notificationId);
+
+		if(alertId != null) {
+			_untrack(notificationId, alertId);
+		}
+		notificationsCache.evictNotificationState(notificationId);
+	}
+
+	private void _evictAllExcept(BigInteger alertId, Set<BigInteger> retainedNotificationIds) {
+		Set<BigInteger> notificationIds = _notificationIdsByAlertId.get(alertId);
+
+		if(notificationIds == null) {
+			return;
+		}
+		for(BigInteger notificationId : new ArrayList<>(notificationIds)) {
+			if(!retainedNotificationIds.contains(notificationId)) {
+				_evict(notificationId);
 			}
 		}
 	}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.alert;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.salesforce.dva.argus.entity.Trigger;
+import com.salesforce.dva.argus.entity.Trigger.TriggerType;
+import com.salesforce.dva.argus.system.SystemException;
+import com.salesforce.dva.argus.util.AlertUtils;
+
+/**
+ * Evaluates the triggers of an alert against the datapoints of its metrics.
+ *
+ * <p>The datapoints of a metric are copied once into primitive timestamp and value arrays in timestamp order, and all triggers are then
+ * evaluated together in a single backward pass over them. The arrays are reused for the next metric, so an evaluator must only be used
+ * by one thread at a time.</p>
+ *
+ * <p>A threshold trigger fires at the last timestamp of the most recent run of violating datapoints that spans at least its inertia. A
+ * NO_DATA trigger with inertia fires when the datapoints start too late, end too early or have a gap longer than its inertia, relative to
+ * the time range of the alert expression.</p>
+ */
+final class TriggerEvaluator {
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Trigger[] _triggers;
+	private final TriggerType[] _types;
+	private final double[] _thresholds;
+	private final double[] _lowThresholds;
+	private final double[] _highThresholds;
+	private final long[] _inertias;
+	private final String _queryExpression;
+	private final Long _alertEnqueueTimestamp;
+	private final int[] _endIndexes;
+	private final boolean[] _fired;
+	private final long[] _firedTimes;
+	private Long[] _queryTimes;
+	private long[] _timestamps = new long[0];
+	private double[] _values = new double[0];
+	private boolean[] _missing = new boolean[0];
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new evaluator.
+	 *
+	 * @param  triggers               The triggers to evaluate. Cannot be null.
+	 * @param  queryExpression        The expression of the alert, used to determine the expected time range for NO_DATA triggers.
+	 * @param  alertEnqueueTimestamp  The time the relative times of the expression are relative to.
+	 */
+	TriggerEvaluator(List<Trigger> triggers, String queryExpression, Long alertEnqueueTimestamp) {
+		requireArgument(triggers != null, "Triggers cannot be null.");
+
+		int count = triggers.size();
+		_triggers = triggers.toArray(new Trigger[count]);
+		_types = new TriggerType[count];
+		_thresholds = new double[count];
+		_lowThresholds = new double[count];
+		_highThresholds = new double[count];
+		_inertias = new long[count];
+		for (int i = 0; i < count; i++) {
+			Trigger trigger = _triggers[i];
+
+			_types[i] = trigger.getType();
+			_inertias[i] = trigger.getInertia();
+			if (_types[i] == TriggerType.NO_DATA) {
+				continue;
+			}
+			_thresholds[i] = trigger.getThreshold();
+			if (_types[i] == TriggerType.BETWEEN || _types[i] == TriggerType.NOT_BETWEEN) {
+				_lowThresholds[i] = Math.min(trigger.getThreshold(), trigger.getSecondaryThreshold());
+				_highThresholds[i] = Math.max(trigger.getThreshold(), trigger.getSecondaryThreshold());
+			}
+		}
+		_queryExpression = queryExpression;
+		_alertEnqueueTimestamp = alertEnqueueTimestamp;
+		_endIndexes = new int[count];
+		_fired = new boolean[count];
+		_firedTimes = new long[count];
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Evaluates all triggers against the given datapoints. The outcome for each trigger is available from {@link #isFired(int)} and
+	 * {@link #getFiredTime(int)} until the next evaluation.
+	 *
+	 * @param   datapoints  The datapoints of a metric. Cannot be null.
+	 *
+	 * @return  The number of triggers that fired.
+	 */
+	int evaluate(Map<Long, Double> datapoints) {
+		int size = datapoints.size();
+		int pending = 0;
+		int firedCount = 0;
+
+		Arrays.fill(_fired, false);
+		if (size == 0) {
+			return 0;
+		}
+		_load(datapoints, size);
+		for (int i = 0; i < _triggers.length; i++) {
+			_endIndexes[i] = -1;
+			if (_types[i] != TriggerType.NO_DATA) {
+				_endIndexes[i] = size;
+				pending++;
+			} else if (_evaluateNoData(i, size)) {
+				firedCount++;
+			}
+		}
+		for (int start = size - 1; start >= 0 && pending > 0; start--) {
+			double value = _values[start];
+
+			requireArgument(!_missing[start], "Trigger cannot be evaulated against null.");
+			for (int i = 0; i < _triggers.length; i++) {
+				int end = _endIndexes[i];
+
+				if (end < 0) {
+					continue;
+				}
+				if (!_violates(i, value)) {
+					_endIndexes[i] = start;
+				} else if (_timestamps[end - 1] - _timestamps[start] >= _inertias[i]) {
+					_fire(i, _timestamps[end - 1]);
+					_endIndexes[i] = -1;
+					pending--;
+					firedCount++;
+				}
+			}
+		}
+		return firedCount;
+	}
+
+	/**
+	 * Returns the number of triggers.
+	 *
+	 * @return  The trigger count.
+	 */
+	int getTriggerCount() {
+		return _triggers.length;
+	}
+
+	/**
+	 * Returns a trigger.
+	 *
+	 * @param   index  The index of the trigger, in the order the triggers were given.
+	 *
+	 * @return  The trigger.
+	 */
+	Trigger getTrigger(int index) {
+		return _triggers[index];
+	}
+
+	/**
+	 * Indicates whether a trigger fired during the last evaluation.
+	 *
+	 * @param   index  The index of the trigger.
+	 *
+	 * @return  True if the trigger fired.
+	 */
+	boolean isFired(int index) {
+		return _fired[index];
+	}
+
+	/**
+	 * Returns the time a trigger fired at during the last evaluation.
+	 *
+	 * @param   index  The index of the trigger. The trigger must have fired.
+	 *
+	 * @return  The timestamp of the datapoint the trigger fired at.
+	 */
+	long getFiredTime(int index) {
+		return _firedTimes[index];
+	}
+
+	/* Copies the datapoints into the arrays. Datapoints that are already in timestamp order, such as those of a metric, are copied as is,
+	 * otherwise the timestamps are sorted and the values looked up again. */
+	private void _load(Map<Long, Double> datapoints, int size) {
+		if (_timestamps.length < size) {
+			_timestamps = new long[size];
+			_values = new double[size];
+			_missing = new boolean[size];
+		}
+
+		int index = 0;
+		boolean sorted = true;
+
+		for (Entry<Long, Double> entry : datapoints.entrySet()) {
+			long timestamp = entry.getKey();
+
+			sorted &= index == 0 || timestamp > _timestamps[index - 1];
+			_timestamps[index] = timestamp;
+			_setValue(index++, entry.getValue());
+		}
+		if (!sorted) {
+			Arrays.sort(_timestamps, 0, size);
+			for (int i = 0; i < size; i++) {
+				_setValue(i, datapoints.get(_timestamps[i]));
+			}
+		}
+	}
+
+	private void _setValue(int index, Double value) {
+		_missing[index] = value == null;
+		_values[index] = value == null ? Double.NaN : value;
+	}
+
+	private boolean _evaluateNoData(int index, int size) {
+		long inertia = _inertias[index];
+
+		if (size == 1) {
+			return inertia <= 0 && _missing[0] && _fire(index, _timestamps[0]);
+		}
+		if (inertia <= 0) {
+			return false;
+		}
+		if (_queryTimes == null) {
+			_queryTimes = AlertUtils.getStartAndEndTimes(_queryExpression, _alertEnqueueTimestamp);
+		}
+		if (_timestamps[0] - _queryTimes[0] > inertia) {
+			return _fire(index, _timestamps[0]);
+		}
+		if (_queryTimes[1] - _timestamps[size - 1] > inertia) {
+			return _fire(index, _timestamps[size - 1]);
+		}
+		for (int i = 1; i < size; i++) {
+			if (_timestamps[i] - _timestamps[i - 1] > inertia) {
+				return _fire(index, _timestamps[i - 1]);
+			}
+		}
+		return false;
+	}
+
+	private boolean _fire(int index, long timestamp) {
+		_fired[index] = true;
+		_firedTimes[index] = timestamp;
+		return true;
+	}
+
+	/* Same comparisons as Trigger.evaluateTrigger, which compares with Double.compareTo. */
+	private boolean _violates(int index, double value) {
+		switch (_types[index]) {
+			case GREATER_THAN:
+				return Double.compare(value, _thresholds[index]) > 0;
+			case GREATER_THAN_OR_EQ:
+				return Double.compare(value, _thresholds[index]) >= 0;
+			case LESS_THAN:
+				return Double.compare(value, _thresholds[index]) < 0;
+			case LESS_THAN_OR_EQ:
+				return Double.compare(value, _thresholds[index]) <= 0;
+			case EQUAL:
+				return Double.compare(value, _thresholds[index]) == 0;
+			case NOT_EQUAL:
+				return Double.compare(value, _thresholds[index]) != 0;
+			case BETWEEN:
+				return Double.compare(value, _lowThresholds[index]) >= 0 && Double.compare(value, _highThresholds[index]) <= 0;
+			case NOT_BETWEEN:
+				return Double.compare(value, _lowThresholds[index]) < 0 || Double.compare(value, _highThresholds[index]) > 0;
+			default:
+				throw new SystemException("Unsupported trigger type " + _types[index]);
+		}
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
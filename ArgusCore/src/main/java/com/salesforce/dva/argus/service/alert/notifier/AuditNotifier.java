@@ -48,6 +48,7 @@ import org.joda.time.DateTimeConstants;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.google.inject.persist.UnitOfWork;
 import com.salesforce.dva.argus.entity.Audit;
 import com.salesforce.dva.argus.entity.JPAEntity;
 import com.salesforce.dva.argus.entity.Notification;
@@ -85,6 +86,8 @@ public class AuditNotifier extends DefaultNotifier {
 
 	protected final SystemConfiguration _config;
 	protected final AuditService _auditService;
+	@Inject
+	private UnitOfWork _unitOfWork;
 
 	//~ Constructors *********************************************************************************************************************************
 
@@ -118,7 +121,7 @@ public class AuditNotifier extends DefaultNotifier {
 
 		Audit audit = new Audit(getAuditBody(context, NotificationStatus.TRIGGERED), SystemConfiguration.getHostname(), context.getAlert());
 
-		_auditService.createAudit(audit);
+		_createAudit(audit);
 		
 		// the previous call does not return any status, nor throw exception
 		return true;
@@ -275,11 +278,36 @@ public class AuditNotifier extends DefaultNotifier {
 
 		Audit audit = new Audit(getAuditBody(context, NotificationStatus.CLEARED), SystemConfiguration.getHostname(), context.getAlert());
 
-		_auditService.createAudit(audit);
+		_createAudit(audit);
 		
 		return true;
 	}
 
+	/**
+	 * Creates the audit entry in a unit of work, so that notifications delivered by background threads do not keep an entity manager open
+	 * on their thread. When the calling thread already has a unit of work, such as the alert evaluation thread, the audit entry is created
+	 * in that unit of work.
+	 *
+	 * @param  audit  The audit entry to create.
+	 */
+	private void _createAudit(Audit audit) {
+		boolean beganUnitOfWork = false;
+
+		try {
+			_unitOfWork.begin();
+			beganUnitOfWork = true;
+		} catch (IllegalStateException ex) {
+			// The unit of work of the calling thread was already begun.
+		}
+		try {
+			_auditService.createAudit(audit);
+		} finally {
+			if (beganUnitOfWork) {
+				_unitOfWork.end();
+			}
+		}
+	}
+
 	@Override
 	public Properties getNotifierProperties() {
 		Properties notifierProps= super.getNotifierProperties();
@@ -67,8 +67,9 @@ public class DefaultCallbackService extends DefaultService implements CallbackSe
 		int poolSize = Property.POOL_SIZE.getInt(config);
 		TimeUnit timeUnit = Property.POOL_REFRESH_UNIT.getEnum(config, TimeUnit.class);
 		int refresh = Property.POOL_REFRESH_TIME.getInt(config);
+		int timeoutMillis = Property.TIMEOUT_MILLIS.getInt(config);
 
-		httpClientPool = new HttpClientPool(poolSize, refresh, timeUnit);
+		httpClientPool = new HttpClientPool(poolSize, refresh, timeUnit, timeoutMillis);
 	}
 
 	@Override
@@ -166,7 +167,8 @@ public class DefaultCallbackService extends DefaultService implements CallbackSe
 
 		POOL_SIZE("service.callback.pool.size", "10"),
 		POOL_REFRESH_TIME("service.callback.pool.refresh_time", "1"),
-		POOL_REFRESH_UNIT("service.callback.pool.refresh_unit", TimeUnit.SECONDS.name());
+		POOL_REFRESH_UNIT("service.callback.pool.refresh_unit", TimeUnit.SECONDS.name()),
+		TIMEOUT_MILLIS("service.callback.timeout.millis", "10000");
 
 		private final String _name;
 		private final String _defaultValue;
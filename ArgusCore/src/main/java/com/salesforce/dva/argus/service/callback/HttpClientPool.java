@@ -16,6 +16,7 @@ package com.salesforce.dva.argus.service.callback;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.HttpClients;
 
 /**
@@ -25,12 +26,27 @@ import org.apache.http.impl.client.HttpClients;
  */
 public class HttpClientPool extends Pool<HttpClient> {
 
-        public HttpClientPool(int maxIdle, long validationInterval, TimeUnit timeUnit) {
+        private final RequestConfig requestConfig;
+
+        /**
+         * Creates the pool.
+         *
+         * @param maxIdle            maximum number of clients residing in the pool
+         * @param validationInterval time between the checks of the pool conditions
+         * @param timeUnit           The time unit to use
+         * @param timeoutMillis      the connect and read timeout of the clients, in milliseconds
+         */
+        public HttpClientPool(int maxIdle, long validationInterval, TimeUnit timeUnit, int timeoutMillis) {
                 super(0, maxIdle, validationInterval, timeUnit);
+                requestConfig = RequestConfig.custom()
+                        .setConnectionRequestTimeout(timeoutMillis)
+                        .setConnectTimeout(timeoutMillis)
+                        .setSocketTimeout(timeoutMillis)
+                        .build();
         }
 
         @Override
         protected HttpClient createObject() {
-                return HttpClients.createDefault();
+                return HttpClients.custom().setDefaultRequestConfig(requestConfig).build();
         }
 }
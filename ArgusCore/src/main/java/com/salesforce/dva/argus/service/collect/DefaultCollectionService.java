@@ -52,15 +52,19 @@ import com.salesforce.dva.argus.service.WardenService;
 import com.salesforce.dva.argus.service.WardenService.PolicyCounter;
 import com.salesforce.dva.argus.service.WardenService.SubSystem;
 import com.salesforce.dva.argus.service.jpa.DefaultJPAService;
+import com.salesforce.dva.argus.service.warden.IngestionRateLimiter;
 import com.salesforce.dva.argus.system.SystemConfiguration;
 import org.slf4j.Logger;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import javax.persistence.EntityManager;
 
 import static com.salesforce.dva.argus.service.MQService.MQQueue.ANNOTATION;
@@ -90,6 +94,8 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
     private final WardenService _wardenService;
     private final MonitorService _monitorService;
     private final NamespaceService _namespaceService;
+    private final IngestionRateLimiter _rateLimiter;
+    private final boolean _coalesceMetricsEnabled;
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -106,11 +112,12 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
      * @param  wardenService     The warden service instance to use. Cannot be null.
      * @param  monitorService    The monitor service instance to use. Cannot be null.
      * @param  namespaceService  The namespace service instance to use.  Cannot be null.
+     * @param  rateLimiter       The ingestion rate limiter instance to use.  Cannot be null.
      */
     @Inject
     DefaultCollectionService(MQService mqService, TSDBService tsdbService, AuditService auditService, 
         SystemConfiguration configuration, SchemaService schemaService, WardenService wardenService,
-        MonitorService monitorService, NamespaceService namespaceService) {
+        MonitorService monitorService, NamespaceService namespaceService, IngestionRateLimiter rateLimiter) {
         super(auditService, configuration);
         _mqService = mqService;
         _tsdbService = tsdbService;
@@ -118,6 +125,9 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         _wardenService = wardenService;
         _monitorService = monitorService;
         _namespaceService = namespaceService;
+        _rateLimiter = rateLimiter;
+        _coalesceMetricsEnabled = Boolean.parseBoolean(configuration.getValue(Property.COALESCE_METRICS_ENABLED.getName(),
+                Property.COALESCE_METRICS_ENABLED.getDefaultValue()));
     }
 
     //~ Methods **************************************************************************************************************************************
@@ -138,14 +148,18 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         _monitorService.modifyCounter(Counter.DATAPOINT_WRITES, metricData.getDataPointsSize(), null);
         if (!submitter.isPrivileged() && _wardenService.isWardenServiceEnabled()) {
             checkSubmitMetricPolicyRequirementsMet(submitter, metrics);
-            _logger.info("Capturing warden metrics.");
-            _wardenService.modifyPolicyCounter(submitter, PolicyCounter.METRICS_PER_HOUR, metrics.size());
-            _wardenService.modifyPolicyCounter(submitter, PolicyCounter.DATAPOINTS_PER_HOUR, metricData.getDataPointsSize());
 
             Long minResolutionDataPoints = metricData.getMinResolutionDataPointsAcrossAllMetrics();
 
-            if (minResolutionDataPoints != null) {
-                _wardenService.updatePolicyCounter(submitter, PolicyCounter.MINIMUM_RESOLUTION_MS, minResolutionDataPoints);
+            if (_rateLimiter.isEnabled()) {
+                _rateLimiter.acquire(submitter, metrics.size(), metricData.getDataPointsSize(), minResolutionDataPoints);
+            } else {
+                _logger.info("Capturing warden metrics.");
+                _wardenService.modifyPolicyCounter(submitter, PolicyCounter.METRICS_PER_HOUR, metrics.size());
+                _wardenService.modifyPolicyCounter(submitter, PolicyCounter.DATAPOINTS_PER_HOUR, metricData.getDataPointsSize());
+                if (minResolutionDataPoints != null) {
+                    _wardenService.updatePolicyCounter(submitter, PolicyCounter.MINIMUM_RESOLUTION_MS, minResolutionDataPoints);
+                }
             }
             metrics = _getAllowedMetrics(metrics, submitter);
             _logger.info("User metric data is: Metrics size - {}, Datapoints size - {}, Minimum resolution - {}.", metrics.size(),
@@ -196,6 +210,12 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         for (List<Metric> list : dequeuedMessages) {
             dequeued.addAll(list);
         }
+        if (_coalesceMetricsEnabled && dequeued.size() > 1) {
+            int dequeuedSize = dequeued.size();
+
+            dequeued = _coalesceMetrics(dequeued);
+            _logger.debug("Coalesced {} dequeued metrics into {} series.", dequeuedSize, dequeued.size());
+        }
         if (!dequeued.isEmpty()) {
             _tsdbService.putMetrics(dequeued);
             _logger.debug("Committed {} metrics.", dequeued.size());
@@ -209,12 +229,16 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         requireArgument(messageCount > 0, "Message count must be greater than zero.");
         requireArgument(timeout > 0, "The timeout in milliseconds must be greater than zero.");
 
-        CollectionType type = new ObjectMapper().getTypeFactory().constructCollectionType(ArrayList.class, Metric.class);
-        List<ArrayList<Metric>> dequeuedMessages = _mqService.dequeue(METRIC.getQueueName(), type, timeout, messageCount);
+        /* Schema records only depend on the series identity, so skip materializing datapoints and let the schema service check its bloom filters. */
+        List<String> dequeuedMessages = _mqService.dequeue(METRIC.getQueueName(), timeout, messageCount);
         List<Metric> dequeued = new ArrayList<Metric>();
 
-        for (List<Metric> list : dequeuedMessages) {
-            dequeued.addAll(list);
+        for (String message : dequeuedMessages) {
+            try {
+                dequeued.addAll(MetricIdentityParser.parse(message));
+            } catch (IOException | IllegalArgumentException ex) {
+                _logger.warn("Failed to parse metric message for schema records creation. Skipping this message. Reason: {}", ex.getMessage());
+            }
         }
         if (!dequeued.isEmpty()) {
             _schemaService.put(dequeued);
@@ -309,6 +333,50 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         return allowedMetrics;
     }
 
+    /*
+     * Merges metrics that share the same namespace, scope, metric and tags into a single metric, so that a series resubmitted across several
+     * batches is written to TSDB once per commit. Metrics are merged in dequeue order, hence the last value seen for a timestamp wins.
+     */
+    private List<Metric> _coalesceMetrics(List<Metric> metrics) {
+        Map<List<String>, Metric> coalesced = new LinkedHashMap<>(metrics.size());
+
+        for (Metric metric : metrics) {
+            List<String> key = _constructSeriesKey(metric);
+            Metric existing = coalesced.get(key);
+
+            if (existing == null) {
+                coalesced.put(key, metric);
+            } else {
+                existing.addDatapoints(metric.getDatapoints());
+                if (metric.getDisplayName() != null) {
+                    existing.setDisplayName(metric.getDisplayName());
+                }
+                if (metric.getUnits() != null) {
+                    existing.setUnits(metric.getUnits());
+                }
+                if (metric.getMetatagsRecord() != null) {
+                    existing.setMetatagsRecord(metric.getMetatagsRecord());
+                }
+            }
+        }
+        return coalesced.size() == metrics.size() ? metrics : new ArrayList<>(coalesced.values());
+    }
+
+    /* The key keeps each field separate, so that delimiters within the names or tag values cannot make different series equal. */
+    private static List<String> _constructSeriesKey(Metric metric) {
+        Map<String, String> tags = new TreeMap<>(metric.getTags());
+        List<String> key = new ArrayList<>(3 + 2 * tags.size());
+
+        key.add(metric.getNamespace());
+        key.add(metric.getScope());
+        key.add(metric.getMetric());
+        for (Entry<String, String> tag : tags.entrySet()) {
+            key.add(tag.getKey());
+            key.add(tag.getValue());
+        }
+        return key;
+    }
+
     private List<ArrayList<Metric>> _batchMetrics(List<Metric> metrics) {
         List<ArrayList<Metric>> batches = new ArrayList<ArrayList<Metric>>();
         int count = 0;
@@ -341,6 +409,46 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         return batches;
     }
 
+    //~ Enums ****************************************************************************************************************************************
+
+    /**
+     * The set of implementation specific configuration properties.
+     */
+    public enum Property {
+
+        /**
+         * Merges metrics with the same series key within a commit before they are written to TSDB. The metrics returned by the commit are then
+         * the merged series, not the dequeued metrics.
+         */
+        COALESCE_METRICS_ENABLED("service.property.collection.coalesce.metrics.enabled", "false");
+
+        private final String _name;
+        private final String _defaultValue;
+
+        private Property(String name, String defaultValue) {
+            _name = name;
+            _defaultValue = defaultValue;
+        }
+
+        /**
+         * Returns the property name.
+         *
+         * @return  The property name.
+         */
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * Returns the default value for the property.
+         *
+         * @return  The default value.
+         */
+        public String getDefaultValue() {
+            return _defaultValue;
+        }
+    }
+
     //~ Inner Classes ********************************************************************************************************************************
 
     /**
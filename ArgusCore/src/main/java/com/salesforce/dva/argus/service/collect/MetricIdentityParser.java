@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+	 
+package com.salesforce.dva.argus.service.collect;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.salesforce.dva.argus.entity.MetatagsRecord;
+import com.salesforce.dva.argus.entity.Metric;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses queued metric messages into metrics that carry only the fields needed to identify a series, namely the scope, metric, namespace, tags
+ * and metatags. Datapoints and all other fields are skipped without being materialized, which makes this considerably cheaper than full
+ * deserialization for consumers such as the schema committer that only need the series identity.
+ */
+final class MetricIdentityParser {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    //~ Constructors *********************************************************************************************************************************
+
+    private MetricIdentityParser() { }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Parses a queued message containing a JSON array of metrics.
+     *
+     * @param   message  The message to parse. Cannot be null.
+     *
+     * @return  The metrics in the message, populated only with their identity fields. Will never be null.
+     *
+     * @throws  IOException  If the message is not a well formed JSON array of metrics.
+     */
+    static List<Metric> parse(String message) throws IOException {
+        List<Metric> result = new ArrayList<>();
+
+        try (JsonParser parser = JSON_FACTORY.createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of metrics.");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                result.add(_parseMetric(parser));
+            }
+        }
+        return result;
+    }
+
+    private static Metric _parseMetric(JsonParser parser) throws IOException {
+        String scope = null;
+        String metricName = null;
+        String namespace = null;
+        Map<String, String> tags = null;
+        MetatagsRecord metatagsRecord = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+
+            parser.nextToken();
+            switch (field) {
+                case "scope":
+                    scope = parser.getValueAsString();
+                    break;
+                case "metric":
+                    metricName = parser.getValueAsString();
+                    break;
+                case "namespace":
+                    namespace = parser.getValueAsString();
+                    break;
+                case "tags":
+                    tags = _parseStringMap(parser);
+                    break;
+                case "metatagsRecord":
+                    metatagsRecord = _parseMetatagsRecord(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        Metric metric = new Metric(scope, metricName);
+
+        metric.setNamespace(namespace);
+        metric.setTags(tags);
+        metric.setMetatagsRecord(metatagsRecord);
+        return metric;
+    }
+
+    private static MetatagsRecord _parseMetatagsRecord(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+
+        Map<String, String> metatags = null;
+        String key = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+
+            parser.nextToken();
+            if ("metatags".equals(field)) {
+                metatags = _parseStringMap(parser);
+            } else if ("key".equals(field)) {
+                key = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return metatags == null ? null : new MetatagsRecord(metatags, key);
+    }
+
+    private static Map<String, String> _parseStringMap(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+
+        Map<String, String> result = new HashMap<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+
+            parser.nextToken();
+            result.put(key, parser.getValueAsString());
+        }
+        return result;
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -34,6 +34,7 @@ package com.salesforce.dva.argus.service.history;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.persist.Transactional;
+import com.google.inject.persist.UnitOfWork;
 import com.salesforce.dva.argus.entity.History;
 import com.salesforce.dva.argus.entity.History.JobStatus;
 import com.salesforce.dva.argus.entity.JPAEntity;
@@ -41,10 +42,16 @@ import com.salesforce.dva.argus.inject.SLF4JTypeListener;
 import com.salesforce.dva.argus.service.HistoryService;
 import com.salesforce.dva.argus.service.jpa.DefaultJPAService;
 import com.salesforce.dva.argus.system.SystemConfiguration;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import java.math.BigInteger;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.Collections;
 import java.util.List;
+import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
 
 import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
 import static java.math.BigInteger.ZERO;
@@ -62,6 +69,8 @@ public class DefaultHistoryService extends DefaultJPAService implements HistoryS
     private Logger _logger;
     @Inject
     private Provider<EntityManager> emf;
+    @Inject
+    private UnitOfWork _unitOfWork;
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -109,6 +118,102 @@ public class DefaultHistoryService extends DefaultJPAService implements HistoryS
         return _updateHistory(history);
     }
 
+    /**
+     * Creates the records in a unit of work, so that the background thread writing alert history does not keep an entity manager open
+     * between batches. When the calling thread already has a unit of work, the records are created in that unit of work.
+     */
+    @Override
+    public int createHistories(List<History> histories) {
+        requireNotDisposed();
+        requireArgument(histories != null, "Histories cannot be null.");
+
+        boolean beganUnitOfWork = false;
+
+        try {
+            _unitOfWork.begin();
+            beganUnitOfWork = true;
+        } catch (IllegalStateException ex) {
+            // The unit of work of the calling thread was already begun.
+        }
+        try {
+            return _createHistories(emf.get(), histories);
+        } finally {
+            if (beganUnitOfWork) {
+                _unitOfWork.end();
+            }
+        }
+    }
+
+    private int _createHistories(EntityManager em, List<History> histories) {
+        if (em.getTransaction().isActive()) {
+            // Part of the caller's transaction, which a failure rolls back as a whole.
+            for (History history : histories) {
+                em.persist(history);
+            }
+            return histories.size();
+        }
+        try {
+            // The inserts are written together when the transaction commits.
+            _persist(em, histories);
+            _logger.debug("Created {} job history records", histories.size());
+            return histories.size();
+        } catch (RuntimeException ex) {
+            if (histories.size() == 1 || !_isConstraintViolation(ex)) {
+                _logger.warn("Dropped {} job history records that could not be created: {}", histories.size(), ex.getMessage());
+                return 0;
+            }
+        }
+
+        // A single conflicting record, such as a duplicate creation time for an entity, rolls back the whole batch.
+        int created = 0;
+
+        for (History history : histories) {
+            try {
+                _persist(em, Collections.singletonList(history));
+                created++;
+            } catch (RuntimeException ex) {
+                if (!_isConstraintViolation(ex)) {
+                    _logger.warn("Dropped {} of {} job history records after a failure: {}", histories.size() - created, histories.size(),
+                        ex.getMessage());
+                    return created;
+                }
+                _logger.warn("Dropped a conflicting job history record for entity {}: {}", history.getEntityId(), ex.getMessage());
+            }
+        }
+        return created;
+    }
+
+    /* Persists the records in a transaction of their own, which is rolled back if any of them fails. */
+    private void _persist(EntityManager em, List<History> histories) {
+        EntityTransaction tx = em.getTransaction();
+
+        try {
+            tx.begin();
+            for (History history : histories) {
+                em.persist(history);
+            }
+            tx.commit();
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            em.clear();
+        }
+    }
+
+    private static boolean _isConstraintViolation(Throwable ex) {
+        for (Object cause : ExceptionUtils.getThrowableList(ex)) {
+            if (cause instanceof EntityExistsException || cause instanceof SQLIntegrityConstraintViolationException) {
+                return true;
+            }
+            // SQL state class 23 is an integrity constraint violation.
+            if (cause instanceof SQLException && String.valueOf(SQLException.class.cast(cause).getSQLState()).startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 //    @Override
 //    @Transactional
 //    public History findHistoryByPrimaryKey(BigInteger id) {
@@ -95,7 +95,13 @@ public class DefaultMailService extends DefaultService implements MailService {
         result.put("mail.smtp.auth", _config.getValue(Property.EMAIL_SMTP_AUTH.getName(), Property.EMAIL_SMTP_AUTH.getDefaultValue()));
         result.put("mail.smtp.starttls.enable",_config.getValue(Property.EMAIL_SMTP_STARTTTLS_ENABLED.getName(),Property.EMAIL_SMTP_STARTTTLS_ENABLED.getDefaultValue()));
         result.put("mail.smtp.starttls.required",_config.getValue(Property.EMAIL_SMTP_STARTTTLS_REQUIRED.getName(),Property.EMAIL_SMTP_STARTTTLS_REQUIRED.getDefaultValue()));
-        
+
+        String timeoutMillis = _config.getValue(Property.EMAIL_SMTP_TIMEOUT_MILLIS.getName(), Property.EMAIL_SMTP_TIMEOUT_MILLIS.getDefaultValue());
+
+        for (String protocol : new String[] { "smtp", "smtps" }) {
+            result.put("mail." + protocol + ".connectiontimeout", timeoutMillis);
+            result.put("mail." + protocol + ".timeout", timeoutMillis);
+        }
         return result;
     }
 
@@ -183,7 +189,9 @@ public class DefaultMailService extends DefaultService implements MailService {
         EMAIL_SMTP_TRANSPORT_PROTOCOL("service.property.email.transport.protocol","smtps"),
         EMAIL_SMTP_PORT("service.property.smtp.port",""),
         EMAIL_SMTP_USERNAME("service.property.username",""),
-        EMAIL_SMTP_PASSWORD("service.property.password","");
+        EMAIL_SMTP_PASSWORD("service.property.password",""),
+        /** The connect and read timeout of the SMTP connection. */
+        EMAIL_SMTP_TIMEOUT_MILLIS("service.property.mail.smtp.timeout.millis", "10000");
 
         private final String _name;
         private final String _defaultValue;
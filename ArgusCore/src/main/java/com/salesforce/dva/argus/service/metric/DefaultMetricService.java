@@ -52,9 +52,12 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -76,8 +79,9 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 	private final SystemConfiguration _configuration;
 	private String expandedTimeSeriesRange;
 	private String queryTimeWindow;
-	private Integer numDiscoveryResults = 0;
-	private Integer numDiscoveryQueries = 0;
+	// Set once per read, since alert evaluations read metrics through this service concurrently.
+	private final AtomicLong numDiscoveryResults = new AtomicLong();
+	private final AtomicLong numDiscoveryQueries = new AtomicLong();
 
 	//~ Constructors *********************************************************************************************************************************
 
@@ -115,6 +119,15 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 		return getMetrics(Arrays.asList(new String[] { expression }), relativeTo);
 	}
 
+	@Override
+	public List<Metric> getMetrics(String expression, long relativeTo, Map<MetricQuery, List<MetricQuery>> expandedQueries,
+			Map<MetricQuery, List<Metric>> prefetchedMetrics) {
+		requireNotDisposed();
+		requireArgument(expandedQueries != null, "Expanded queries cannot be null.");
+		requireArgument(prefetchedMetrics != null, "Prefetched metrics cannot be null.");
+		return _getMetrics(Arrays.asList(new String[] { expression }), relativeTo, expandedQueries, prefetchedMetrics);
+	}
+
 	@Override
 	public List<Metric> getMetrics(List<String> expressions) {
 		requireNotDisposed();
@@ -124,22 +137,34 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 	@Override
 	public List<Metric> getMetrics(List<String> expressions, long relativeTo) {
 		requireNotDisposed();
+		return _getMetrics(expressions, relativeTo, Collections.<MetricQuery, List<MetricQuery>>emptyMap(),
+				Collections.<MetricQuery, List<Metric>>emptyMap());
+	}
+
+	private List<Metric> _getMetrics(List<String> expressions, long relativeTo, Map<MetricQuery, List<MetricQuery>> expandedQueries,
+			Map<MetricQuery, List<Metric>> prefetchedMetrics) {
 		SystemAssert.requireArgument(MetricReader.isValid(expressions), "Illegal metric expression found: " + expressions);
 
 		MetricReader<Metric> reader = _metricReaderProviderForMetrics.get();
 		List<Metric> metrics = new ArrayList<>(expressions.size());
 
+		reader.setExpandedQueries(expandedQueries);
+		reader.setPrefetchedMetrics(prefetchedMetrics);
+
+		long discoveryResults = 0;
+		long discoveryQueries = 0;
+
 		try {
-			numDiscoveryResults = 0;
-			numDiscoveryQueries = 0;
 			for (String expression : expressions) {
 				_logger.debug("Reading metric for expression {}", expression);
 				metrics.addAll(reader.parse(expression, relativeTo, Metric.class, new QueryContextHolder(), false));
 				expandedTimeSeriesRange = reader.getExpandedTimeSeriesRange();
 				queryTimeWindow = reader.getQueryTimeWindow();
-				numDiscoveryResults += reader.getNumDiscoveryResults();
-				numDiscoveryQueries += reader.getNumDiscoveryQueries();
+				discoveryResults += reader.getNumDiscoveryResults();
+				discoveryQueries += reader.getNumDiscoveryQueries();
 			}
+			numDiscoveryResults.set(discoveryResults);
+			numDiscoveryQueries.set(discoveryQueries);
 		} catch (ParseException ex) {
 			throw new SystemException("Failed to parse the given expression", ex);
 		} catch(Exception ex) {
@@ -167,6 +192,22 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 		return getQueries(Arrays.asList(new String[] { expression }), relativeTo);
 	}
 
+	@Override
+	public Map<MetricQuery, List<MetricQuery>> getExpandedQueries(String expression, long relativeTo) {
+		requireNotDisposed();
+		SystemAssert.requireArgument(MetricReader.isValid(expression), "Illegal metric expression found: " + expression);
+
+		MetricReader<MetricQuery> reader = _metricReaderProviderForQueries.get();
+
+		try {
+			_logger.debug("Expanding metric queries for expression {}", expression);
+			reader.parse(expression, relativeTo, MetricQuery.class, new QueryContextHolder(), false);
+		} catch (ParseException ex) {
+			throw new SystemException("Failed to parse the given expression", ex);
+		}
+		return reader.getExpandedQueries();
+	}
+
 	@Override
 	public List<MetricQuery> getQueries(List<String> expressions) {
 		requireNotDisposed();
@@ -212,7 +253,7 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 	public Integer getNumDiscoveryResults()
 	{
 		{
-			return numDiscoveryResults;
+			return (int) numDiscoveryResults.get();
 		}
 	}
 	
@@ -220,7 +261,7 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 	public Integer getNumDiscoveryQueries()
 	{
 		{
-			return numDiscoveryQueries;
+			return (int) numDiscoveryQueries.get();
 		}
 	}
 	
@@ -2,7 +2,6 @@ package com.salesforce.dva.argus.service.schema;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -29,9 +28,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
-
+import com.google.inject.Inject;
 import com.salesforce.dva.argus.entity.KeywordQuery;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.entity.MetricSchemaRecord;
@@ -52,17 +49,21 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 	private static final long POLL_INTERVAL_MS = 10 * 60 * 1000L;
 	private static final int DAY_IN_SECONDS = 24 * 60 * 60;
 	private static final int HOUR_IN_SECONDS = 60 * 60;
+	private static final int BLOOMFILTER_AGING_STEPS_PER_DAY = 24;
 
 
 	/* Have three separate bloom filters one for metrics schema, one only for scope names schema and one only for scope name and metric name schema.
 	 * Since scopes will continue to repeat more often on subsequent kafka batch reads, we can easily check this from the  bloom filter for scopes only.
 	 * Hence we can avoid the extra call to populate scopenames index on ES in subsequent Kafka reads.
 	 * The same logic applies to scope name and metric name schema.
+	 * The filters are sharded and lock free so committer threads do not contend. Every hour a slice of the shards is emptied, so every schema
+	 * record that is still being written is sent to the index again once a day, which refreshes its modified and expiration times, without
+	 * all records being sent again at the same time.
 	 */
-	protected static BloomFilter<CharSequence> bloomFilter;
-	protected static BloomFilter<CharSequence> bloomFilterScopeOnly;
-	protected static BloomFilter<CharSequence> bloomFilterScopeAndMetricOnly;
-	protected static BloomFilter<CharSequence> bloomFilterMetatags;
+	protected static SchemaBloomFilter bloomFilter;
+	protected static SchemaBloomFilter bloomFilterScopeOnly;
+	protected static SchemaBloomFilter bloomFilterScopeAndMetricOnly;
+	protected static SchemaBloomFilter bloomFilterMetatags;
 
 	protected final MonitorService _monitorService;
         private int randomBloomAppend;
@@ -74,6 +75,7 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 	private double bloomFilterScopeAndMetricOnlyErrorRate;
 	private int bloomFilterMetatagsExpectedNumberInsertions;
 	private double bloomFilterMetatagsErrorRate;
+	private int bloomFilterShardCount;
 	private final Logger _logger = LoggerFactory.getLogger(getClass());
 	private final Thread _bloomFilterMonitorThread;
 	protected final boolean _syncPut;
@@ -81,6 +83,7 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 	private ScheduledExecutorService scheduledExecutorService;
         private String bfTagsStateFilename;
 	protected final boolean bloomFileWritingEnabled;
+	private SchemaIndex _schemaIndex;
 
 
 	protected AbstractSchemaService(SystemConfiguration config, MonitorService monitorService) {
@@ -123,13 +126,15 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		bloomFilterMetatagsErrorRate =
                     Double.parseDouble(config.getValue(Property.BLOOMFILTER_METATAGS_ERROR_RATE.getName(),
                                                        Property.BLOOMFILTER_METATAGS_ERROR_RATE.getDefaultValue()));
+		bloomFilterShardCount = Integer.parseInt(config.getValue(Property.BLOOMFILTER_SHARD_COUNT.getName(),
+				Property.BLOOMFILTER_SHARD_COUNT.getDefaultValue()));
                 createOrReadBloomFilter();
 
-		bloomFilterScopeOnly = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), bloomFilterScopeOnlyExpectedNumberInsertions , bloomFilterScopeOnlyErrorRate);
-		bloomFilterScopeAndMetricOnly = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()),
-				bloomFilterScopeAndMetricOnlyExpectedNumberInsertions , bloomFilterScopeAndMetricOnlyErrorRate);
-		bloomFilterMetatags = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()),
-				bloomFilterMetatagsExpectedNumberInsertions , bloomFilterMetatagsErrorRate);
+		bloomFilterScopeOnly = new SchemaBloomFilter(bloomFilterScopeOnlyExpectedNumberInsertions , bloomFilterScopeOnlyErrorRate, bloomFilterShardCount);
+		bloomFilterScopeAndMetricOnly = new SchemaBloomFilter(bloomFilterScopeAndMetricOnlyExpectedNumberInsertions ,
+				bloomFilterScopeAndMetricOnlyErrorRate, bloomFilterShardCount);
+		bloomFilterMetatags = new SchemaBloomFilter(bloomFilterMetatagsExpectedNumberInsertions , bloomFilterMetatagsErrorRate,
+				bloomFilterShardCount);
 
 		_syncPut = Boolean.parseBoolean(
 				config.getValue(Property.SYNC_PUT.getName(), Property.SYNC_PUT.getDefaultValue()));
@@ -217,6 +222,19 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		}
 
 		implementationSpecificPut(metricsToPut, scopesToPut, scopesAndMetricsNamesToPut, metatagsToPut);
+		if (_schemaIndex != null && !metricsToPut.isEmpty()) {
+			_schemaIndex.put(metricsToPut);
+		}
+	}
+
+	/*
+	 * Sets the in-process schema index that is kept up to date with the records written by this service.
+	 *
+	 * @param  schemaIndex  The schema index.
+	 */
+	@Inject(optional = true)
+	void setSchemaIndex(SchemaIndex schemaIndex) {
+		_schemaIndex = schemaIndex;
 	}
 
 	/*
@@ -339,25 +357,22 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 	}
 
     private void createOrReadBloomFilter() {
+        this.bloomFilter = new SchemaBloomFilter(bloomFilterExpectedNumberInsertions ,
+                                                 bloomFilterErrorRate,
+                                                 bloomFilterShardCount);
+
         File bfFile = new File(this.bfTagsStateFilename);
         if (bloomFileWritingEnabled && bfFile.exists() ) {
             _logger.info("State file for bloom tags exists, using it to pre-populate bloom");
             try (InputStream inputStream = new FileInputStream(bfFile)) {
-                this.bloomFilter = BloomFilter.readFrom(inputStream,
-                                                        Funnels.stringFunnel(Charset.defaultCharset()));
+                this.bloomFilter.readFrom(inputStream);
             } catch (IOException io) {
                 _logger.error("tags bloomfilter read error, not using prev state", io);
-                this.bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()),
-                                                      bloomFilterExpectedNumberInsertions ,
-                                                      bloomFilterErrorRate);
             }
             return;
         }
 
         _logger.info("State file for bloom tags NOT present or bloomFileWritingEnabled is false, starting fresh bloom");
-        this.bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()),
-                                              bloomFilterExpectedNumberInsertions ,
-                                              bloomFilterErrorRate);
     }
 
     private void writeTagsBloomFilterToFile() {
@@ -382,7 +397,8 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		scheduledExecutorService = Executors.newScheduledThreadPool(1);
 		int initialDelayInSeconds = getNumHoursUntilTargetHour(targetHourToStartAt) * HOUR_IN_SECONDS;
 		BloomFilterFlushThread bloomFilterFlushThread = new BloomFilterFlushThread();
-		scheduledExecutorService.scheduleAtFixedRate(bloomFilterFlushThread, initialDelayInSeconds, DAY_IN_SECONDS, TimeUnit.SECONDS);
+		scheduledExecutorService.scheduleAtFixedRate(bloomFilterFlushThread, initialDelayInSeconds, DAY_IN_SECONDS / BLOOMFILTER_AGING_STEPS_PER_DAY,
+				TimeUnit.SECONDS);
 	}
 
 	private void shutdownScheduledExecutorService(){
@@ -436,7 +452,10 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		*/
 
 		BLOOMFILTER_METATAGS_EXPECTED_NUMBER_INSERTIONS("service.property.schema.bloomfilter.metatags.expected.number.insertions", "1000000"),
-		BLOOMFILTER_METATAGS_ERROR_RATE("service.property.schema.bloomfilter.metatags.error.rate", "0.00001");
+		BLOOMFILTER_METATAGS_ERROR_RATE("service.property.schema.bloomfilter.metatags.error.rate", "0.00001"),
+
+		/* Number of shards each bloom filter generation is split into. Must be a power of two. */
+		BLOOMFILTER_SHARD_COUNT("service.property.schema.bloomfilter.shard.count", "16");
 
 
 		private final String _name;
@@ -514,6 +533,8 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 	}
 
 	private class BloomFilterFlushThread implements Runnable {
+		private int _step;
+
 		@Override
 		public void run() {
 			try{
@@ -524,17 +545,18 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		}
 
 		private void _flushBloomFilter() {
-			_logger.info("Flushing out bloom filter entries");
-                        // Write the main tags bloom filter to file first before flushing
-                        writeTagsBloomFilterToFile();
-
-			bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), bloomFilterExpectedNumberInsertions , bloomFilterErrorRate);
-			bloomFilterScopeOnly = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), bloomFilterScopeOnlyExpectedNumberInsertions , bloomFilterScopeOnlyErrorRate);
-			bloomFilterScopeAndMetricOnly = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()),
-					bloomFilterScopeAndMetricOnlyExpectedNumberInsertions , bloomFilterScopeAndMetricOnlyErrorRate);
-			bloomFilterMetatags = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()),
-                                                                       bloomFilterMetatagsExpectedNumberInsertions , bloomFilterMetatagsErrorRate);
-			/* Don't need explicit synchronization to prevent slowness majority of the time*/
+			_logger.info("Aging bloom filter shards, step {} of {}", _step + 1, BLOOMFILTER_AGING_STEPS_PER_DAY);
+			if (_step == 0) {
+				// Write the main tags bloom filter to file once a day, before the first slice of shards is emptied
+				writeTagsBloomFilterToFile();
+			}
+
+			/* Records in the emptied shards are written again, which refreshes the expiration of records that are still in use. */
+			bloomFilter.age(_step, BLOOMFILTER_AGING_STEPS_PER_DAY);
+			bloomFilterScopeOnly.age(_step, BLOOMFILTER_AGING_STEPS_PER_DAY);
+			bloomFilterScopeAndMetricOnly.age(_step, BLOOMFILTER_AGING_STEPS_PER_DAY);
+			bloomFilterMetatags.age(_step, BLOOMFILTER_AGING_STEPS_PER_DAY);
+			_step = (_step + 1) % BLOOMFILTER_AGING_STEPS_PER_DAY;
 		}
 	}
 }
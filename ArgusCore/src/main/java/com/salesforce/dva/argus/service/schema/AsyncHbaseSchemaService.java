@@ -31,6 +31,7 @@
 
 package com.salesforce.dva.argus.service.schema;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.salesforce.dva.argus.entity.KeywordQuery;
@@ -53,11 +54,14 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.hbase.async.CompareFilter.CompareOp;
 import org.hbase.async.FilterList;
 import org.hbase.async.FirstKeyOnlyFilter;
+import org.hbase.async.GetRequest;
+import org.hbase.async.GetResultOrException;
 import org.hbase.async.HBaseClient;
 import org.hbase.async.KeyOnlyFilter;
 import org.hbase.async.KeyValue;
 import org.hbase.async.PutRequest;
 import org.hbase.async.RegexStringComparator;
+import org.hbase.async.RegionLocation;
 import org.hbase.async.RowFilter;
 import org.hbase.async.ScanFilter;
 import org.hbase.async.Scanner;
@@ -67,6 +71,7 @@ import org.slf4j.LoggerFactory;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -74,8 +79,8 @@ import java.util.Properties;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 
 /**
@@ -103,6 +108,8 @@ public class AsyncHbaseSchemaService extends AbstractSchemaService {
 
     private Logger _logger = LoggerFactory.getLogger(AsyncHbaseSchemaService.class);
     private final HBaseClient _client;
+    private final int _scanParallelism;
+    private final int _maxMultiGetKeys;
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -115,6 +122,13 @@ public class AsyncHbaseSchemaService extends AbstractSchemaService {
     	SCOPE_SCHEMA_TABLENAME = systemConfig.getValue(Property.HBASE_SCOPESCHEMA_TABLE.getName(),
     												   Property.HBASE_SCOPESCHEMA_TABLE.getDefaultValue());
 
+    	_scanParallelism = Integer.parseInt(systemConfig.getValue(Property.HBASE_SCHEMA_SCAN_PARALLELISM.getName(),
+    													Property.HBASE_SCHEMA_SCAN_PARALLELISM.getDefaultValue()));
+    	_maxMultiGetKeys = Integer.parseInt(systemConfig.getValue(Property.HBASE_SCHEMA_MAX_MULTIGET_KEYS.getName(),
+    													Property.HBASE_SCHEMA_MAX_MULTIGET_KEYS.getDefaultValue()));
+    	SystemAssert.requireArgument(_scanParallelism > 0, "Scan parallelism must be greater than 0.");
+    	SystemAssert.requireArgument(_maxMultiGetKeys >= 0, "Max multi-get keys cannot be negative.");
+
     	_client = factory.getClient();
     }
 
@@ -213,108 +227,267 @@ public class AsyncHbaseSchemaService extends AbstractSchemaService {
         }
     }
 
+    /**
+     * Returns the schema records matched by the query in row key order. A query whose fields are all literals or alternations of literals is
+     * answered with a single multi-get of the exact row keys. Any other query scans its row range, split at region boundaries, in parallel.
+     *
+     * @param   query  The query to evaluate. Cannot be null.
+     *
+     * @return  The matching schema records. Will never be null, but may be empty.
+     */
     @Override
     public List<MetricSchemaRecord> get(final MetricSchemaRecordQuery query) {
         requireNotDisposed();
         SystemAssert.requireArgument(query != null, "Metric Schema Record query cannot be null.");
 
-        final List<MetricSchemaRecord> records = new ArrayList<MetricSchemaRecord>(query.getLimit());
         final ScanMetadata metadata = _constructScanMetadata(query);
+        MetricSchemaRecord scanFrom = query.getScanFrom();
+        String scanStartRow = scanFrom == null ? Bytes.toString(metadata.startRow)
+        									   : _plusOneNConstructRowKey(scanFrom, metadata.tableName, null);
+
+        _logger.info("Using table: " + metadata.tableName);
+
+        List<String> rowKeys = _getExactRowKeys(query, metadata.tableName, _maxMultiGetKeys);
+
+        if (rowKeys != null) {
+            return _multiGet(query, metadata.tableName, rowKeys, scanStartRow);
+        }
+
+        FilterList filterList = _constructFilterList(query, metadata.tableName);
+        List<RangeCollector> collectors = _scanInParallel(query, metadata, scanStartRow, filterList, Math.min(query.getLimit(), 10000),
+            query.getLimit(), () -> new RangeCollector(query.getLimit()) {
+
+                @Override
+                public boolean accept(MetricSchemaRecord record) {
+                    records.add(record);
+                    return records.size() < _limit;
+                }
+            });
+        List<MetricSchemaRecord> records = new ArrayList<MetricSchemaRecord>(query.getLimit());
+
+        for (RangeCollector collector : collectors) {
+            for (MetricSchemaRecord record : collector.records) {
+                if (records.size() == query.getLimit()) {
+                    return records;
+                }
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private FilterList _constructFilterList(MetricSchemaRecordQuery query, String tableName) {
         String namespace = SchemaService.convertToRegex(query.getNamespace());
         String scope = SchemaService.convertToRegex(query.getScope());
         String metric = SchemaService.convertToRegex(query.getMetric());
         String tagKey = SchemaService.convertToRegex(query.getTagKey());
         String tagValue = SchemaService.convertToRegex(query.getTagValue());
-        MetricSchemaRecord scanFrom = query.getScanFrom();
-
-        String rowKeyRegex = "^" + _constructRowKey(namespace, scope, metric, tagKey, tagValue, metadata.tableName) + "$";
-
-        String scanStartRow = scanFrom == null ? Bytes.toString(metadata.startRow)
-        									   : _plusOneNConstructRowKey(scanFrom, metadata.tableName, null);
+        String rowKeyRegex = "^" + _constructRowKey(namespace, scope, metric, tagKey, tagValue, tableName) + "$";
 
-        _logger.info("Using table: " + metadata.tableName);
         _logger.info("Rowkey: " + rowKeyRegex);
 
-        _logger.debug("Scan startRow: " + scanStartRow);
-        _logger.debug("Scan stopRow: " + metadata.stopRow.toString());
-
         List<ScanFilter> filters = new ArrayList<ScanFilter>();
 
         filters.add(new RowFilter(CompareOp.EQUAL, new RegexStringComparator(rowKeyRegex)));
         filters.add(new KeyOnlyFilter());
         filters.add(new FirstKeyOnlyFilter());
+        return new FilterList(filters, FilterList.Operator.MUST_PASS_ALL);
+    }
 
-        FilterList fl = new FilterList(filters, FilterList.Operator.MUST_PASS_ALL);
-        final Scanner scanner = _client.newScanner(metadata.tableName);
+    /*
+     * Scans the row range of the query with one scanner per sub range, all running at the same time. Each sub range feeds its own collector
+     * and stops once the collector is full. The collectors are returned in row key order, so concatenating their records gives the same
+     * result as a single sequential scan. If a record limit is given, the scans of the sub ranges that follow the first sub ranges which
+     * together already hold that many records are stopped, because their records would be discarded.
+     */
+    private List<RangeCollector> _scanInParallel(MetricSchemaRecordQuery query, ScanMetadata metadata, String scanStartRow,
+        FilterList filterList, int batchSize, int recordLimit, Supplier<RangeCollector> collectorFactory) {
+        List<byte[][]> ranges = _splitScanRange(metadata.tableName, Bytes.toBytes(scanStartRow), metadata.stopRow);
+        List<RangeCollector> collectors = new ArrayList<>(ranges.size());
+        List<RangeScan> scans = new ArrayList<>(ranges.size());
+        List<Deferred<Object>> deferreds = new ArrayList<>(ranges.size());
+
+        for (byte[][] range : ranges) {
+            RangeCollector collector = collectorFactory.get();
+
+            _logger.debug("Scan startRow: {} stopRow: {}", Bytes.toString(range[0]), Bytes.toString(range[1]));
+            collectors.add(collector);
+            scans.add(new RangeScan(metadata.tableName, range[0], range[1], filterList, batchSize, collector,
+                recordLimit > 0 ? () -> _cancelScansBeyondLimit(scans, recordLimit) : null));
+        }
+        for (RangeScan scan : scans) {
+            deferreds.add(scan.start());
+        }
 
-        scanner.setStartKey(scanStartRow.getBytes());
-        scanner.setStopKey(metadata.stopRow);
-        scanner.setFilter(fl);
-        scanner.setMaxNumRows(Math.min(query.getLimit(), 10000));
+        try {
+            Deferred.group(deferreds).join(SCAN_TIMEOUT_MS);
+            return collectors;
+		} catch (InterruptedException e) {
+			throw new SystemException("Interrupted while waiting to obtain results for query: " + query, e);
+		} catch (TimeoutException e) {
+			_logger.warn("Timed out while waiting to obtain results for query: {}. Will return an empty list.", query);
+			return Collections.emptyList();
+		} catch (Exception e) {
+			throw new SystemException("Exception occurred in getting results for query: " + query, e);
+		} finally {
+            for (RangeScan scan : scans) {
+                scan.cancel();
+            }
+		}
+    }
 
-        final Deferred<List<MetricSchemaRecord>> results = new Deferred<List<MetricSchemaRecord>>();
+    /* Cancels the scans of the sub ranges that follow the first sub ranges which together already hold the limit of records. A sub range that
+     * is still being scanned may only be counted together with the sub ranges before it, since it can still add records that come first. */
+    private static void _cancelScansBeyondLimit(List<RangeScan> scans, int recordLimit) {
+        int recordCount = 0;
 
-        /**
-         * Scans HBASE rows.
-         *
-         * @author  Bhinav Sura (bhinav.sura@salesforce.com)
-         */
-        final class ScannerCB implements Callback<Object, ArrayList<ArrayList<KeyValue>>> {
+        for (int i = 0; i < scans.size(); i++) {
+            RangeScan scan = scans.get(i);
+
+            recordCount += scan.getRecordCount();
+            if (recordCount >= recordLimit) {
+                for (int j = i + 1; j < scans.size(); j++) {
+                    scans.get(j).cancel();
+                }
+                return;
+            }
+            if (!scan.isFinished()) {
+                return;
+            }
+        }
+    }
 
+    /* Splits the row range at the region boundaries of the table. Adjacent regions are grouped so that there are at most as many ranges as
+     * the configured scan parallelism. If the regions cannot be located the whole range is scanned at once. */
+    private List<byte[][]> _splitScanRange(String tableName, byte[] startRow, byte[] stopRow) {
+        List<byte[]> regionStartKeys = new ArrayList<>();
 
-            /**
-             * Scans rows.
-             *
-             * @return  The list of metric schema records.
-             */
-            public Object scan() {
-            	_logger.trace("Getting next set of rows.");
-                return scanner.nextRows().addCallback(this);
+        if (_scanParallelism > 1) {
+            try {
+                for (RegionLocation location : _client.locateRegions(tableName).join(TIMEOUT_MS)) {
+                    regionStartKeys.add(location.startKey());
+                }
+            } catch (Exception e) {
+                _logger.warn("Failed to locate the regions of table {}. Will scan it without splitting.", tableName, e);
+                regionStartKeys.clear();
             }
+        }
+        return _splitScanRange(regionStartKeys, startRow, stopRow, _scanParallelism);
+    }
 
-            @Override
-            public Object call(ArrayList<ArrayList<KeyValue>> rows) throws Exception {
-            	_logger.trace("Inside nextRows() callback..");
-                try {
-                    if (rows == null) {
-                        results.callback(records);
-                        scanner.close();
-                        return null;
-                    }
+    @VisibleForTesting
+    static List<byte[][]> _splitScanRange(List<byte[]> regionStartKeys, byte[] startRow, byte[] stopRow, int maxRanges) {
+        List<byte[]> splitKeys = new ArrayList<>();
 
-                    _logger.debug("Retrieved " + rows.size() + " rows.");
+        for (byte[] key : regionStartKeys) {
+            if (key.length > 0 && Bytes.compareTo(key, startRow) > 0 && (stopRow.length == 0 || Bytes.compareTo(key, stopRow) < 0)) {
+                splitKeys.add(key);
+            }
+        }
+        Collections.sort(splitKeys, Bytes.BYTES_COMPARATOR);
+
+        int numRanges = Math.min(splitKeys.size() + 1, maxRanges);
+        List<byte[][]> ranges = new ArrayList<>(numRanges);
+        byte[] rangeStart = startRow;
+
+        for (int i = 1; i < numRanges; i++) {
+            byte[] rangeStop = splitKeys.get((int) ((long) i * (splitKeys.size() + 1) / numRanges) - 1);
 
-                    for(ArrayList<KeyValue> row:rows){
-                    	byte[] rowKey=row.get(0).key();
-                    	MetricSchemaRecord record = _constructMetricSchemaRecord(Bytes.toString(rowKey), metadata.tableName);
-                    	records.add(record);
-                        if (records.size() == query.getLimit()) {
-                            results.callback(records);
-                            scanner.close();
-                            return null;
+            ranges.add(new byte[][] { rangeStart, rangeStop });
+            rangeStart = rangeStop;
+        }
+        ranges.add(new byte[][] { rangeStart, stopRow });
+        return ranges;
+    }
+
+    /*
+     * Returns the exact row keys matched by the query when every field is a literal or an alternation of literals, such as the merged tag
+     * values of an expanded wildcard query. Returns null if any field contains another wildcard or if there are more than maxKeys keys.
+     */
+    @VisibleForTesting
+    static List<String> _getExactRowKeys(MetricSchemaRecordQuery query, String tableName, int maxKeys) {
+        if (maxKeys == 0) {
+            return null;
+        }
+
+        List<List<String>> fields = new ArrayList<>();
+        long numKeys = 1;
+
+        for (String field : new String[] { query.getNamespace(), query.getScope(), query.getMetric(), query.getTagKey(), query.getTagValue() }) {
+            if (field == null) {
+                fields.add(Collections.singletonList(null));
+                continue;
+            }
+            for (char ch : field.toCharArray()) {
+                if (ch != '|' && SchemaService.isWildcardCharacter(ch)) {
+                    return null;
+                }
+            }
+
+            List<String> values = Arrays.asList(field.split("\\|", -1));
+
+            numKeys *= values.size();
+            if (numKeys > maxKeys) {
+                return null;
+            }
+            fields.add(values);
+        }
+
+        Set<String> rowKeys = new TreeSet<>();
+
+        for (String namespace : fields.get(0)) {
+            for (String scope : fields.get(1)) {
+                for (String metric : fields.get(2)) {
+                    for (String tagKey : fields.get(3)) {
+                        for (String tagValue : fields.get(4)) {
+                            rowKeys.add(_constructRowKey(namespace, scope, metric, tagKey, tagValue, tableName));
                         }
                     }
-                    return scan();
-                } catch (Exception e) {
-                    scanner.close();
-                    return null;
                 }
             }
         }
+        return new ArrayList<>(rowKeys);
+    }
 
-        new ScannerCB().scan();
+    private List<MetricSchemaRecord> _multiGet(MetricSchemaRecordQuery query, String tableName, List<String> rowKeys, String scanStartRow) {
+        List<GetRequest> requests = new ArrayList<>(rowKeys.size());
+
+        for (String rowKey : rowKeys) {
+            if (rowKey.compareTo(scanStartRow) >= 0) {
+                requests.add(new GetRequest(Bytes.toBytes(tableName), Bytes.toBytes(rowKey), COLUMN_FAMILY, COLUMN_QUALIFIER));
+            }
+        }
+        _logger.debug("Using multi-get for {} row keys.", requests.size());
+        if (requests.isEmpty()) {
+            return Collections.emptyList();
+        }
 
         try {
-			return results.join(SCAN_TIMEOUT_MS);
+            List<GetResultOrException> results = _client.get(requests).join(SCAN_TIMEOUT_MS);
+            List<MetricSchemaRecord> records = new ArrayList<>();
+
+            for (GetResultOrException result : results) {
+                if (result.getException() != null) {
+                    throw new SystemException("Exception occurred in getting results for query: " + query, result.getException());
+                }
+                if (result.getCells() != null && !result.getCells().isEmpty()) {
+                    records.add(_constructMetricSchemaRecord(Bytes.toString(result.getCells().get(0).key()), tableName));
+                    if (records.size() == query.getLimit()) {
+                        break;
+                    }
+                }
+            }
+            return records;
 		} catch (InterruptedException e) {
 			throw new SystemException("Interrupted while waiting to obtain results for query: " + query, e);
 		} catch (TimeoutException e) {
 			_logger.warn("Timed out while waiting to obtain results for query: {}. Will return an empty list.", query);
 			return Collections.emptyList();
+		} catch (SystemException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new SystemException("Exception occurred in getting results for query: " + query, e);
 		}
-
     }
 
     /**
@@ -480,97 +653,43 @@ public class AsyncHbaseSchemaService extends AbstractSchemaService {
         	return _getUniqueFastScan(query, type);
         }
 
-        final Set<String> records = new TreeSet<String>();
         final ScanMetadata metadata = _constructScanMetadata(query);
-        String namespace = SchemaService.convertToRegex(query.getNamespace());
-        String scope = SchemaService.convertToRegex(query.getScope());
-        String metric = SchemaService.convertToRegex(query.getMetric());
-        String tagKey = SchemaService.convertToRegex(query.getTagKey());
-        String tagValue = SchemaService.convertToRegex(query.getTagValue());
         MetricSchemaRecord scanFrom = query.getScanFrom();
-
-        String rowKeyRegex = "^" + _constructRowKey(namespace, scope, metric, tagKey, tagValue, metadata.tableName) + "$";
-
         String scanStartRow = scanFrom == null ? Bytes.toString(metadata.startRow)
         									   : _plusOneNConstructRowKey(scanFrom, metadata.tableName, type);
 
         _logger.info("Using table: " + metadata.tableName);
-        _logger.info("Rowkey: " + rowKeyRegex);
-        _logger.debug("Scan startRow: " + scanStartRow);
-        _logger.debug("Scan stopRow: " + Bytes.toString(metadata.stopRow));
-
-        List<ScanFilter> filters = new ArrayList<ScanFilter>();
-
-        filters.add(new RowFilter(CompareOp.EQUAL, new RegexStringComparator(rowKeyRegex)));
-        filters.add(new KeyOnlyFilter());
-        filters.add(new FirstKeyOnlyFilter());
-
-        FilterList filterList = new FilterList(filters, FilterList.Operator.MUST_PASS_ALL);
-        final Scanner scanner = _client.newScanner(metadata.tableName);
-
-        scanner.setStartKey(scanStartRow);
-        scanner.setStopKey(metadata.stopRow);
-        scanner.setFilter(filterList);
-        scanner.setMaxNumRows(10000);
 
-        final Deferred<List<MetricSchemaRecord>> results = new Deferred<List<MetricSchemaRecord>>();
+        FilterList filterList = _constructFilterList(query, metadata.tableName);
+        List<RangeCollector> collectors = _scanInParallel(query, metadata, scanStartRow, filterList, 10000, 0,
+            () -> new RangeCollector(query.getLimit()) {
 
-        List<MetricSchemaRecord> listMetricSchemarecords = new ArrayList<>();
+                private final Set<String> _values = new HashSet<>();
 
-
-        final class ScannerCB implements Callback<Object, ArrayList<ArrayList<KeyValue>>> {
-
-            /**
-             * Scans rows.
-             *
-             * @return  The list of metric schema records.
-             */
-            public Object scan() {
-                return scanner.nextRows().addCallback(this);
-            }
-
-            @Override
-            public Object call(ArrayList<ArrayList<KeyValue>> rows) throws Exception {
-                try {
-                    if (rows == null) {
-                        results.callback(listMetricSchemarecords);
-                        scanner.close();
-                        return null;
+                @Override
+                public boolean accept(MetricSchemaRecord record) {
+                    if (_values.add(record.getStringValueForType(type))) {
+                        records.add(record);
                     }
-                    for (ArrayList<KeyValue> row : rows) {
-                        String rowKey = Bytes.toString(row.get(0).key());
-                        MetricSchemaRecord record = _constructMetricSchemaRecord(rowKey, metadata.tableName);
+                    return _values.size() < _limit;
+                }
+            });
 
-                        if(records.add(record.getStringValueForType(type))){
-                        	listMetricSchemarecords.add(record);
-                        }
-                        if (records.size() == query.getLimit()) {
-                            results.callback(listMetricSchemarecords);
-                            scanner.close();
-                            return null;
-                        }
-                    }
-                    return scan();
-                } catch (Exception e) {
-                    scanner.close();
-                    return null;
+        // A value that is among the first limit unique values of the whole range is also among the first limit unique values of its sub range.
+        Set<String> values = new HashSet<>();
+        List<MetricSchemaRecord> records = new ArrayList<>();
+
+        for (RangeCollector collector : collectors) {
+            for (MetricSchemaRecord record : collector.records) {
+                if (values.size() == query.getLimit()) {
+                    return records;
+                }
+                if (values.add(record.getStringValueForType(type))) {
+                    records.add(record);
                 }
             }
         }
-
-        new ScannerCB().scan();
-
-        try {
-			return new ArrayList<>(results.join(SCAN_TIMEOUT_MS));
-		} catch (InterruptedException e) {
-			throw new SystemException("Interrupted while waiting to obtain results for query: " + query, e);
-		} catch (TimeoutException e) {
-			_logger.warn("Timed out while waiting to obtain results for query: {}. Will return an empty list.", query);
-			return Collections.emptyList();
-		} catch (Exception e) {
-			throw new SystemException("Exception occurred in getting results for query: " + query, e);
-		}
-
+        return records;
     }
 
     @Override
@@ -773,7 +892,11 @@ public class AsyncHbaseSchemaService extends AbstractSchemaService {
     public enum Property {
 
         HBASE_METRICSCHEMA_TABLE("service.property.schema.hbase.metricschema.table", "metric-schema"),
-    	HBASE_SCOPESCHEMA_TABLE("service.property.schema.hbase.scopeschema.table", "scope-schema");
+    	HBASE_SCOPESCHEMA_TABLE("service.property.schema.hbase.scopeschema.table", "scope-schema"),
+    	/** The max no. of row ranges, split at region boundaries, that a query scans in parallel. */
+    	HBASE_SCHEMA_SCAN_PARALLELISM("service.property.schema.hbase.scan.parallelism", "8"),
+    	/** The max no. of exact row keys that a query is expanded to for a multi-get. 0 disables multi-gets. */
+    	HBASE_SCHEMA_MAX_MULTIGET_KEYS("service.property.schema.hbase.max.multiget.keys", "1000");
 
         private final String _name;
         private final String _defaultValue;
@@ -821,5 +944,118 @@ public class AsyncHbaseSchemaService extends AbstractSchemaService {
         public String tableName = SCOPE_SCHEMA_TABLENAME;
     }
 
+    /* Receives the records read by a range scan. Returns false to stop the scan. */
+    private interface RecordSink {
+
+        boolean accept(MetricSchemaRecord record);
+    }
+
+    /* Collects the records of a single sub range. */
+    private abstract static class RangeCollector implements RecordSink {
+
+        protected final List<MetricSchemaRecord> records = new ArrayList<>();
+        protected final int _limit;
+
+        RangeCollector(int limit) {
+            _limit = limit;
+        }
+
+        @Override
+        public abstract boolean accept(MetricSchemaRecord record);
+    }
+
+    /* Scans a single row range, handing each row to the sink until the range is exhausted, the sink is full or the scan is cancelled. */
+    private final class RangeScan implements Callback<Object, ArrayList<ArrayList<KeyValue>>> {
+
+        private final Scanner _scanner;
+        private final String _tableName;
+        private final RecordSink _sink;
+        private final Runnable _progressListener;
+        private final Deferred<Object> _done = new Deferred<>();
+        private volatile boolean _cancelled;
+        private volatile boolean _finished;
+        private volatile int _recordCount;
+
+        RangeScan(String tableName, byte[] startRow, byte[] stopRow, FilterList filterList, int batchSize, RecordSink sink,
+            Runnable progressListener) {
+            _tableName = tableName;
+            _sink = sink;
+            _progressListener = progressListener;
+            _scanner = _client.newScanner(tableName);
+            _scanner.setStartKey(startRow);
+            _scanner.setStopKey(stopRow);
+            _scanner.setFilter(filterList);
+            _scanner.setMaxNumRows(batchSize);
+        }
+
+        Deferred<Object> start() {
+            _next();
+            return _done;
+        }
+
+        void cancel() {
+            _cancelled = true;
+        }
+
+        boolean isFinished() {
+            return _finished;
+        }
+
+        /* Only the callback thread of the scan updates the count, so the increment does not need to be atomic. */
+        int getRecordCount() {
+            return _recordCount;
+        }
+
+        private void _next() {
+            _scanner.nextRows().addCallback(this).addErrback(new Callback<Object, Exception>() {
+
+                @Override
+                public Object call(Exception e) {
+                    _finish(e);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public Object call(ArrayList<ArrayList<KeyValue>> rows) {
+            if (rows == null || _cancelled) {
+                _finish(null);
+                return null;
+            }
+            _logger.trace("Retrieved {} rows.", rows.size());
+            for (ArrayList<KeyValue> row : rows) {
+                boolean accepted = _sink.accept(_constructMetricSchemaRecord(Bytes.toString(row.get(0).key()), _tableName));
+
+                _recordCount++;
+                if (!accepted) {
+                    _finish(null);
+                    return null;
+                }
+            }
+            _notifyProgress();
+            _next();
+            return null;
+        }
+
+        private void _finish(Exception e) {
+            synchronized (this) {
+                if (_finished) {
+                    return;
+                }
+                _finished = true;
+                _scanner.close();
+            }
+            _notifyProgress();
+            _done.callback(e);
+        }
+
+        private void _notifyProgress() {
+            if (_progressListener != null) {
+                _progressListener.run();
+            }
+        }
+    }
+
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -6,11 +6,17 @@ import java.lang.reflect.Method;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -28,6 +34,7 @@ import com.salesforce.dva.argus.service.CacheService;
 import com.salesforce.dva.argus.service.DefaultService;
 import com.salesforce.dva.argus.service.DiscoveryService;
 import com.salesforce.dva.argus.service.NamedBinding;
+import com.salesforce.dva.argus.service.SchemaService;
 import com.salesforce.dva.argus.service.SchemaService.RecordType;
 import com.salesforce.dva.argus.service.tsdb.AnnotationQuery;
 import com.salesforce.dva.argus.service.tsdb.MetricQuery;
@@ -41,6 +48,8 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
 	private static final ObjectMapper MAPPER = new ObjectMapper();
 	private static final int EXPIRY_TIME_SECS = 3600;
 	private final long UPPER_LIMIT_TIME_GET_QUERIES_IN_MILLIS;
+	private final int NEGATIVE_RESULT_EXPIRY_TIME_SECS;
+	private final int MAX_SUPERSET_LOOKUPS;
 	
 	//~ Instance fields ******************************************************************************************************************************
 
@@ -48,6 +57,7 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
     private final DiscoveryService _discoveryService;
     private final CacheService _cacheService;
     private final ExecutorService _executorService;
+    private final Set<String> _pendingRefreshes = ConcurrentHashMap.newKeySet();
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -60,9 +70,25 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
         UPPER_LIMIT_TIME_GET_QUERIES_IN_MILLIS = Long.parseLong(config.getValue(Property.UPPER_LIMIT_TIME_GET_QUERIES_IN_MIILIS.getName(), 
 				Property.UPPER_LIMIT_TIME_GET_QUERIES_IN_MIILIS.getDefaultValue()));
         
+        NEGATIVE_RESULT_EXPIRY_TIME_SECS = Integer.parseInt(config.getValue(Property.NEGATIVE_RESULT_EXPIRY_TIME_SECS.getName(),
+        		Property.NEGATIVE_RESULT_EXPIRY_TIME_SECS.getDefaultValue()));
+        MAX_SUPERSET_LOOKUPS = Integer.parseInt(config.getValue(Property.MAX_SUPERSET_LOOKUPS.getName(),
+        		Property.MAX_SUPERSET_LOOKUPS.getDefaultValue()));
+
+        int refreshThreads = Integer.parseInt(config.getValue(Property.CACHE_REFRESH_THREADS.getName(),
+        		Property.CACHE_REFRESH_THREADS.getDefaultValue()));
+        int refreshQueueSize = Integer.parseInt(config.getValue(Property.CACHE_REFRESH_QUEUE_SIZE.getName(),
+        		Property.CACHE_REFRESH_QUEUE_SIZE.getDefaultValue()));
+        SystemAssert.requireArgument(refreshThreads > 0 && refreshQueueSize > 0, "Cache refresh thread count and queue size must be greater than 0.");
+        
         _cacheService = cacheService;
         _discoveryService = discoveryService;
-        _executorService = Executors.newCachedThreadPool();
+        _executorService = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0L, TimeUnit.MILLISECONDS,
+        		new ArrayBlockingQueue<>(refreshQueueSize), runnable -> {
+        			Thread thread = new Thread(runnable, "discovery-cache-refresh");
+        			thread.setDaemon(true);
+        			return thread;
+        		});
     }
 
     //~ Methods **************************************************************************************************************************************
@@ -112,7 +138,26 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
 		List<MetricQuery> queries = new ArrayList<>();
 		
 		if(DiscoveryService.isWildcardQuery(query)) {
-			String value = _cacheService.get(_getKey(query));
+			String key = _getKey(query);
+			String value = _cacheService.get(key);
+			MetricQuery cachedSuperset = null;
+
+			if(value == null && MAX_SUPERSET_LOOKUPS > 0) {
+				Map<String, MetricQuery> supersets = _getSupersetQueries(query);
+
+				if(!supersets.isEmpty()) {
+					Map<String, String> cachedValues = _cacheService.get(supersets.keySet());
+
+					for(Map.Entry<String, MetricQuery> superset : supersets.entrySet()) {
+						value = cachedValues == null ? null : cachedValues.get(superset.getKey());
+						if(value != null) {
+							cachedSuperset = superset.getValue();
+							break;
+						}
+					}
+				}
+			}
+
 			if(value == null) { // Cache Miss
 				_logger.info(MessageFormat.format("CACHE MISS for Wildcard Query: '{'{0}'}'. Will read from persistent storage.", query));
 				queries = _discoveryService.getMatchingQueries(query);
@@ -123,13 +168,20 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
 					_logger.warn("Long time to get matching queries in ms: {} for query {}", timeToGetQueriesMillis, query);
 				}
 				
-				_executorService.submit(new CacheInsertWorker(query, queries));
+				_refresh(key, queries);
 			} else { // Cache Hit
-				_logger.info(MessageFormat.format("CACHE HIT for Wildcard Query: '{'{0}'}'", query));
+				if(cachedSuperset == null) {
+					_logger.info(MessageFormat.format("CACHE HIT for Wildcard Query: '{'{0}'}'", query));
+				} else {
+					_logger.info(MessageFormat.format("CACHE HIT for Wildcard Query: '{'{0}'}' from broader query '{'{1}'}'", query, cachedSuperset));
+				}
 				_logger.info("Time to get matching queries from cache in ms: " + (System.nanoTime() - start) / 1000000);
 				try {
 					JavaType type = MAPPER.getTypeFactory().constructCollectionType(List.class, MetricQuery.class);
 					List<MetricQuery> matchedQueries = MAPPER.readValue(value, type);
+					if(cachedSuperset != null) {
+						matchedQueries = _filterSupersetQueries(query, matchedQueries);
+					}
 					_checkIfExceedsLimits(query, matchedQueries);
 					for(int i=0; i<matchedQueries.size(); i++) {
 						MetricQuery q = new MetricQuery(query);
@@ -139,7 +191,7 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
 				} catch (IOException e) {
 					_logger.warn("IOException when trying to deserialize cached data into metric queries. Will read from persistent storage.", e);
 					queries = _discoveryService.getMatchingQueries(query);
-					_executorService.submit(new CacheInsertWorker(query, queries));
+					_refresh(key, queries);
 				}
 			}
 		} else {
@@ -157,7 +209,15 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
 	 * @author Dilip Devaraj (ddevaraj@salesforce.com)
 	 */
 	public enum Property {
-		UPPER_LIMIT_TIME_GET_QUERIES_IN_MIILIS("service.property.schema.upper.limit.time.get.queries.in.millis", "3000");
+		UPPER_LIMIT_TIME_GET_QUERIES_IN_MIILIS("service.property.schema.upper.limit.time.get.queries.in.millis", "3000"),
+		/** The time in seconds for which a wildcard query that matched nothing is cached. */
+		NEGATIVE_RESULT_EXPIRY_TIME_SECS("service.property.schema.cache.negative.result.expiry.time.secs", "120"),
+		/** The max no. of broader cached queries to look up when a wildcard query is not cached. 0 disables the lookup. */
+		MAX_SUPERSET_LOOKUPS("service.property.schema.cache.max.superset.lookups", "8"),
+		/** The no. of threads that write expanded queries to the cache. */
+		CACHE_REFRESH_THREADS("service.property.schema.cache.refresh.threads", "4"),
+		/** The max no. of pending cache writes. Writes beyond this are dropped. */
+		CACHE_REFRESH_QUEUE_SIZE("service.property.schema.cache.refresh.queue.size", "1000");
 
 		private final String _name;
 		private final String _defaultValue;
@@ -217,27 +277,162 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
 		}
 	}
 
+	/* Schedules the expansion to be written to the cache. A key that already has a pending write is skipped, and when the refresh queue is
+	 * full the write is dropped rather than blocking the query.
+	 */
+	private void _refresh(String key, List<MetricQuery> matchedQueries) {
+		if(key == null || !_pendingRefreshes.add(key)) {
+			return;
+		}
+		try {
+			_executorService.execute(new CacheInsertWorker(key, matchedQueries));
+		} catch (RejectedExecutionException e) {
+			_pendingRefreshes.remove(key);
+			_logger.debug("Cache refresh queue is full. Dropping cache insert for key = {}", key);
+		}
+	}
+
+	/* Returns broader wildcard queries, keyed by cache key, whose expansions contain every match of the given query. Each one replaces the
+	 * wildcard value of a single field with a shorter literal prefix followed by '*', from the longest prefix down to '*' alone.
+	 */
+	private Map<String, MetricQuery> _getSupersetQueries(MetricQuery query) {
+		Map<String, MetricQuery> supersets = new LinkedHashMap<>();
+		Map<String, String> tags = query.getTags() == null ? Collections.emptyMap() : query.getTags();
+
+		for(String tagKey : tags.keySet()) {
+			if(SchemaService.containsWildcard(tagKey)) {
+				return supersets;
+			}
+		}
+		for(String scope : _getBroaderValues(query.getScope())) {
+			_addSuperset(supersets, query, scope, query.getMetric(), tags);
+		}
+		for(String metric : _getBroaderValues(query.getMetric())) {
+			_addSuperset(supersets, query, query.getScope(), metric, tags);
+		}
+		for(Map.Entry<String, String> tag : tags.entrySet()) {
+			for(String tagValue : _getBroaderValues(tag.getValue())) {
+				Map<String, String> broaderTags = new HashMap<>(tags);
+
+				broaderTags.put(tag.getKey(), tagValue);
+				_addSuperset(supersets, query, query.getScope(), query.getMetric(), broaderTags);
+			}
+		}
+		return supersets;
+	}
+
+	private void _addSuperset(Map<String, MetricQuery> supersets, MetricQuery query, String scope, String metric, Map<String, String> tags) {
+		if(supersets.size() >= MAX_SUPERSET_LOOKUPS) {
+			return;
+		}
+
+		MetricQuery superset = new MetricQuery(scope, metric, tags, query.getStartTimestamp(), query.getEndTimestamp());
+
+		superset.setNamespace(query.getNamespace());
+
+		String key = _getKey(superset);
+
+		if(key != null) {
+			supersets.put(key, superset);
+		}
+	}
+
+	/* A value only has broader values if it is a wildcard. An alternation can match values with different prefixes, so it can only be
+	 * broadened to '*'.
+	 */
+	private static List<String> _getBroaderValues(String value) {
+		if(!SchemaService.containsWildcard(value) || "*".equals(value)) {
+			return Collections.emptyList();
+		}
+
+		int prefixLength = 0;
+
+		if(value.indexOf('|') < 0) {
+			while(prefixLength < value.length() && !SchemaService.isWildcardCharacter(value.charAt(prefixLength))) {
+				prefixLength++;
+			}
+		}
+
+		List<String> broaderValues = new ArrayList<>();
+
+		for(int length = prefixLength; length >= 0; length--) {
+			String broaderValue = value.substring(0, length) + "*";
+
+			if(!broaderValue.equals(value)) {
+				broaderValues.add(broaderValue);
+			}
+		}
+		return broaderValues;
+	}
+
+	/* Narrows the expansion of a broader query down to the matches of the given query. Tag values of an expanded query are alternations of
+	 * the matching values, so each of them is filtered on its own.
+	 */
+	private List<MetricQuery> _filterSupersetQueries(MetricQuery query, List<MetricQuery> supersetQueries) {
+		GlobMatcher scopeMatcher = GlobMatcher.compile(query.getScope());
+		GlobMatcher metricMatcher = GlobMatcher.compile(query.getMetric());
+		Map<String, GlobMatcher> tagMatchers = new HashMap<>();
+
+		if(query.getTags() != null) {
+			for(Map.Entry<String, String> tag : query.getTags().entrySet()) {
+				tagMatchers.put(tag.getKey(), GlobMatcher.compile(tag.getValue()));
+			}
+		}
+
+		List<MetricQuery> result = new ArrayList<>();
+
+		for(MetricQuery supersetQuery : supersetQueries) {
+			if(!scopeMatcher.matches(supersetQuery.getScope()) || !metricMatcher.matches(supersetQuery.getMetric())) {
+				continue;
+			}
+
+			Map<String, String> tags = new HashMap<>();
+
+			for(Map.Entry<String, GlobMatcher> tagMatcher : tagMatchers.entrySet()) {
+				String tagValues = supersetQuery.getTags().get(tagMatcher.getKey());
+				StringBuilder matchingValues = new StringBuilder();
+
+				if(tagValues != null) {
+					for(String tagValue : tagValues.split("\\|")) {
+						if(tagMatcher.getValue().matches(tagValue)) {
+							matchingValues.append(matchingValues.length() == 0 ? "" : "|").append(tagValue);
+						}
+					}
+				}
+				if(matchingValues.length() == 0) {
+					tags = null;
+					break;
+				}
+				tags.put(tagMatcher.getKey(), matchingValues.toString());
+			}
+			if(tags != null) {
+				supersetQuery.setTags(tags);
+				result.add(supersetQuery);
+			}
+		}
+		return result;
+	}
+
 	private class CacheInsertWorker implements Runnable {
 		
-		private MetricQuery _wildcardQuery;
+		private String _key;
 		private List<MetricQuery> _matchedQueries;
 		
-		CacheInsertWorker(final MetricQuery wildcardQuery, final List<MetricQuery> matchedQueries) {
-			_wildcardQuery = wildcardQuery;
+		CacheInsertWorker(final String key, final List<MetricQuery> matchedQueries) {
+			_key = key;
 			_matchedQueries = matchedQueries;
 		}
 
 		@Override
 		public void run() {
 			try {
-				String key = _getKey(_wildcardQuery);
-				if(key != null) {
-					_logger.debug("CacheInsertThread: Inserting key = {}, value = {}", _wildcardQuery, _matchedQueries);
-					String value = MAPPER.writeValueAsString(_matchedQueries);
-					_cacheService.put(key, value, EXPIRY_TIME_SECS);
-				}
+				_logger.debug("CacheInsertThread: Inserting key = {}, value = {}", _key, _matchedQueries);
+				String value = MAPPER.writeValueAsString(_matchedQueries);
+				_cacheService.put(_key, value, _matchedQueries.isEmpty() ? NEGATIVE_RESULT_EXPIRY_TIME_SECS : EXPIRY_TIME_SECS);
 			} catch (JsonProcessingException e) {
 				_logger.warn("CacheInsertThread: Failed to serialize list of metric queries.", e);
+			} finally {
+				_pendingRefreshes.remove(_key);
 			}
 		}
 	}
@@ -31,6 +31,8 @@
      
 package com.salesforce.dva.argus.service.schema;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.inject.Inject;
 import com.salesforce.dva.argus.entity.KeywordQuery;
 import com.salesforce.dva.argus.entity.MetricSchemaRecord;
@@ -43,6 +45,7 @@ import com.salesforce.dva.argus.service.SchemaService.RecordType;
 import com.salesforce.dva.argus.service.tsdb.MetricQuery;
 import com.salesforce.dva.argus.system.SystemAssert;
 import com.salesforce.dva.argus.system.SystemConfiguration;
+import com.salesforce.dva.argus.system.SystemException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,10 +53,22 @@ import org.slf4j.LoggerFactory;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The default implementation of the discover service. 
@@ -66,6 +81,11 @@ public class DefaultDiscoveryService extends DefaultService implements Discovery
     
     private final Logger _logger = LoggerFactory.getLogger(DefaultDiscoveryService.class);
     private final SchemaService _schemaService;
+    private final SchemaIndex _schemaIndex;
+    private final ExecutorService _tagLookupExecutor;
+    private final Map<Integer, Cache<String, List<String>>> _browseTokenCaches = new ConcurrentHashMap<>();
+    private final int _browseTokenCacheSize;
+    private final long _browseTokenCacheTtlSecs;
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -75,14 +95,48 @@ public class DefaultDiscoveryService extends DefaultService implements Discovery
      * @param  schemaService  The schema service to use.
      * @param config Service properties
      */
-    @Inject
     public DefaultDiscoveryService(SchemaService schemaService, SystemConfiguration config) {
+        this(schemaService, null, config);
+    }
+
+    /**
+     * Creates a new DefaultDiscoveryService object.
+     *
+     * @param  schemaService  The schema service to use.
+     * @param  schemaIndex    The in-process schema index used to resolve queries when it is ready. Can be null.
+     * @param config Service properties
+     */
+    @Inject
+    public DefaultDiscoveryService(SchemaService schemaService, SchemaIndex schemaIndex, SystemConfiguration config) {
         super(config);
         this._schemaService = schemaService;
+        this._schemaIndex = schemaIndex;
+
+        int tagLookupThreads = Integer.parseInt(config.getValue(Property.TAG_LOOKUP_THREADS.getName(), Property.TAG_LOOKUP_THREADS.getDefaultValue()));
+
+        SystemAssert.requireArgument(tagLookupThreads > 0, "Tag lookup thread count must be greater than 0.");
+        this._tagLookupExecutor = Executors.newFixedThreadPool(tagLookupThreads, runnable -> {
+            Thread thread = new Thread(runnable, "discovery-tag-lookup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this._browseTokenCacheSize = Integer.parseInt(config.getValue(Property.BROWSE_TOKEN_CACHE_SIZE.getName(),
+                Property.BROWSE_TOKEN_CACHE_SIZE.getDefaultValue()));
+        this._browseTokenCacheTtlSecs = Long.parseLong(config.getValue(Property.BROWSE_TOKEN_CACHE_TTL_SECS.getName(),
+                Property.BROWSE_TOKEN_CACHE_TTL_SECS.getDefaultValue()));
+        SystemAssert.requireArgument(_browseTokenCacheSize >= 0 && _browseTokenCacheTtlSecs > 0,
+                "Browse token cache size cannot be negative and its TTL must be greater than 0.");
     }
 
     //~ Methods **************************************************************************************************************************************
 
+    @Override
+    public void dispose() {
+        super.dispose();
+        _tagLookupExecutor.shutdownNow();
+    }
+
     @Override
     public List<MetricSchemaRecord> filterRecords(SchemaQuery query) {
         requireNotDisposed();
@@ -91,7 +145,7 @@ public class DefaultDiscoveryService extends DefaultService implements Discovery
         
         if(query instanceof MetricSchemaRecordQuery) {
         	long start = System.nanoTime();
-        	List<MetricSchemaRecord> result = _schemaService.get(MetricSchemaRecordQuery.class.cast(query));
+        	List<MetricSchemaRecord> result = _getRecords(MetricSchemaRecordQuery.class.cast(query));
             _logger.debug("Time to filter records in ms: " + (System.nanoTime() - start) / 1000000);
             return result;
         } else {
@@ -123,12 +177,30 @@ public class DefaultDiscoveryService extends DefaultService implements Discovery
         _logger.debug(query.toString());
 
         long start = System.nanoTime();
-        List<String> tokens = _schemaService.browseUnique(query, type, indexLevel);
-
-        _logger.info("Time to browse Tokens in ms: " + (System.nanoTime() - start) / 1000000);
+        Cache<String, List<String>> tokenCache = _getBrowseTokenCache(indexLevel);
+        String key = query.toString() + ":" + type;
+        List<String> tokens = tokenCache == null ? null : tokenCache.getIfPresent(key);
+
+        if (tokens == null) {
+            tokens = Collections.unmodifiableList(new ArrayList<>(_schemaService.browseUnique(query, type, indexLevel)));
+            if (tokenCache != null) {
+                tokenCache.put(key, tokens);
+            }
+            _logger.info("Time to browse Tokens in ms: " + (System.nanoTime() - start) / 1000000);
+        }
         return tokens;
     }
 
+    /* Each index level has its own LRU cache, so that browsing deep into a large scope does not evict the levels above it that every
+     * type-ahead request starts from. */
+    private Cache<String, List<String>> _getBrowseTokenCache(int indexLevel) {
+        if (_browseTokenCacheSize == 0) {
+            return null;
+        }
+        return _browseTokenCaches.computeIfAbsent(indexLevel,
+            level -> CacheBuilder.newBuilder().maximumSize(_browseTokenCacheSize).expireAfterWrite(_browseTokenCacheTtlSecs, TimeUnit.SECONDS).build());
+    }
+
     @Override
     public List<MetricQuery> getMatchingQueries(MetricQuery query) {
         requireNotDisposed();
@@ -161,7 +233,7 @@ public class DefaultDiscoveryService extends DefaultService implements Discovery
 																						            			  .build();
             	
                 while (true) {
-                	List<MetricSchemaRecord> records = _schemaService.get(schemaQuery);
+                	List<MetricSchemaRecord> records = _getRecords(schemaQuery);
                     for (MetricSchemaRecord record : records) {
                         String identifier = _getIdentifier(record);
 
@@ -188,104 +260,181 @@ public class DefaultDiscoveryService extends DefaultService implements Discovery
                 
                 expandedQueryList = new ArrayList<>(queries.values());
             } else {
-                Map<String, Integer> timeseriesCount = new HashMap<>();
-                for (Entry<String, String> tag : query.getTags().entrySet()) {
-                	
-                    MetricSchemaRecordQuery schemaQuery = new MetricSchemaRecordQuery.MetricSchemaRecordQueryBuilder().namespace(query.getNamespace())
-																							            			  .scope(query.getScope())
-																							            			  .metric(query.getMetric())
-																							            			  .tagKey(tag.getKey())
-																							            			  .tagValue(tag.getValue())
-																							            			  .limit(limit)
-																							            			  .page(1)
-																							            			  .build();
-                    
-                    boolean containsWildcard = SchemaService.containsWildcard(query.getScope())
-                							|| SchemaService.containsWildcard(query.getMetric())
-                							|| SchemaService.containsWildcard(query.getNamespace())
-                							|| SchemaService.containsWildcard(tag.getKey())
-                							|| SchemaService.containsWildcard(tag.getValue());
-
-                    while (true) {
-                        List<MetricSchemaRecord> records;
-                        
-                        
-                        if(!containsWildcard) {
-                    		records = Arrays.asList(new MetricSchemaRecord(query.getNamespace(), query.getScope(), query.getMetric(), 
-                    				tag.getKey(), tag.getValue()));
-                    	} else {
-                    		records = _schemaService.get(schemaQuery);
-                    	}
-
-                        for (MetricSchemaRecord record : records) {
-                            if (_getTotalTimeseriesCount(timeseriesCount) == noOfTimeseriesAllowed) {
-                                throw new WildcardExpansionLimitExceededException(EXCEPTION_MESSAGE);
-                            }
-                            
-                            String identifier = _getIdentifier(record);
+                expandedQueryList = _getMatchingQueriesForTags(query, limit, noOfTimeseriesAllowed);
+            } // end if-else
+        } else {
+            _logger.info(MessageFormat.format("MetricQuery'{'{0}'}' does not have any wildcards", query));
+            expandedQueryList = Arrays.asList(query);
+        } // end if-else
+        _logger.debug("Time to get matching queries in ms: " + (System.nanoTime() - start) / 1000000);
+
+        _logMatchedQueries(expandedQueryList);
+        return expandedQueryList;
+    }
+
+    /* Answers the query from the in-process schema index when it is ready, otherwise from the schema service. The index may miss records that
+     * other processes wrote within the last refresh interval of the index, see SchemaIndex.
+     */
+    private List<MetricSchemaRecord> _getRecords(MetricSchemaRecordQuery query) {
+        if (_schemaIndex != null && _schemaIndex.isReady()) {
+            List<MetricSchemaRecord> records = _schemaIndex.get(query);
 
-                            if (queries.containsKey(identifier)) {
-                                MetricQuery mq = queries.get(identifier);
+            if (records != null) {
+                return records;
+            }
+        }
+        return _schemaService.get(query);
+    }
 
-                                if (mq.getTags().containsKey(record.getTagKey())) {
-                                    String oldValue = mq.getTag(record.getTagKey());
-                                    String newValue = oldValue + "|" + record.getTagValue();
+    /*
+     * Looks up the schema records for each tag of the query concurrently. A series matches only if it was found for every tag, so the
+     * identifiers returned by each lookup are intersected, starting from the smallest. Returns early if any lookup finds nothing. As before the
+     * lookups were made concurrent, a single tag that matches more timeseries than allowed fails the expansion, so each lookup stops reading
+     * at that bound and the remaining lookups are cancelled. The intersection is checked against the same limit.
+     */
+    private List<MetricQuery> _getMatchingQueriesForTags(MetricQuery query, int limit, int noOfTimeseriesAllowed) {
+        List<NavigableMap<String, MetricQuery>> matchesPerTag = new ArrayList<>(query.getTags().size());
 
-                                    mq.setTag(record.getTagKey(), newValue);
-                                } else {
-                                    mq.setTag(record.getTagKey(), record.getTagValue());
-                                }
-                                timeseriesCount.put(identifier, DiscoveryService.numApproxTimeseriesForQuery(mq));
-                            } else {
-                                Map<String, String> tags = new HashMap<String, String>();
+        if (query.getTags().size() == 1) {
+            Entry<String, String> tag = query.getTags().entrySet().iterator().next();
 
-                                tags.put(record.getTagKey(), record.getTagValue());
+            matchesPerTag.add(_getMatchesForTag(query, tag.getKey(), tag.getValue(), limit, noOfTimeseriesAllowed));
+        } else {
+            CompletionService<NavigableMap<String, MetricQuery>> completionService = new ExecutorCompletionService<>(_tagLookupExecutor);
+            List<Future<NavigableMap<String, MetricQuery>>> futures = new ArrayList<>(query.getTags().size());
 
-                                MetricQuery mq = new MetricQuery(record.getScope(), record.getMetric(), tags, 0L, 1L);
+            try {
+                for (Entry<String, String> tag : query.getTags().entrySet()) {
+                    futures.add(completionService.submit(() -> _getMatchesForTag(query, tag.getKey(), tag.getValue(), limit,
+                        noOfTimeseriesAllowed)));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    NavigableMap<String, MetricQuery> matches = completionService.take().get();
 
-                                mq.setNamespace(record.getNamespace());
-                                _copyRemainingProperties(mq, query);
-                                queries.put(identifier, mq);
-                                timeseriesCount.put(identifier, 1);
-                            }
-                        }
-                        
-                        if (records.size() < limit) {
-                            break;
-                        }
-                        
-                        schemaQuery.setScanFrom(records.get(records.size() - 1));
-                        schemaQuery.setPage(schemaQuery.getPage()+1);
-                        
+                    if (matches.isEmpty()) {
+                        return new ArrayList<>();
                     }
+                    matchesPerTag.add(matches);
                 }
-                
-                expandedQueryList = new ArrayList<>(queries.size());
-                for(Map.Entry<String, MetricQuery> entry : queries.entrySet()) {
-                	MetricQuery q = entry.getValue();
-                	if(q.getTags().size() == query.getTags().size()) {
-                		expandedQueryList.add(q);
-                	}
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SystemException("Interrupted while looking up schema records.", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new SystemException("Failed to look up schema records.", ex.getCause());
+            } finally {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
                 }
+            }
+        }
+        matchesPerTag.sort(Comparator.comparingInt(Map::size));
 
-            } // end if-else
-        } else {
-            _logger.info(MessageFormat.format("MetricQuery'{'{0}'}' does not have any wildcards", query));
-            expandedQueryList = Arrays.asList(query);
-        } // end if-else
-        _logger.debug("Time to get matching queries in ms: " + (System.nanoTime() - start) / 1000000);
+        List<MetricQuery> expandedQueryList = new ArrayList<>();
+        int timeseriesCount = 0;
 
-        _logMatchedQueries(expandedQueryList);
+        for (Entry<String, MetricQuery> entry : matchesPerTag.get(0).entrySet()) {
+            MetricQuery mq = entry.getValue();
+            boolean matchesAllTags = true;
+
+            for (int i = 1; i < matchesPerTag.size() && matchesAllTags; i++) {
+                MetricQuery other = matchesPerTag.get(i).get(entry.getKey());
+
+                if (other == null) {
+                    matchesAllTags = false;
+                } else {
+                    for (Entry<String, String> tag : other.getTags().entrySet()) {
+                        _addTagValue(mq, tag.getKey(), tag.getValue());
+                    }
+                }
+            }
+            if (matchesAllTags && mq.getTags().size() == query.getTags().size()) {
+                timeseriesCount += DiscoveryService.numApproxTimeseriesForQuery(mq);
+                if (timeseriesCount > noOfTimeseriesAllowed) {
+                    throw new WildcardExpansionLimitExceededException(EXCEPTION_MESSAGE);
+                }
+                expandedQueryList.add(mq);
+            }
+        }
         return expandedQueryList;
     }
 
-    private int _getTotalTimeseriesCount(Map<String, Integer> timeseriesCountMap) {
-        int sum = 0;
-        for(Integer count : timeseriesCountMap.values()) {
-            sum += count;
+    /*
+     * Returns the series matching a single tag of the query, keyed and sorted by series identifier. Throws as soon as the matches expand to
+     * more timeseries than allowed, without reading the remaining records.
+     */
+    private NavigableMap<String, MetricQuery> _getMatchesForTag(MetricQuery query, String tagKey, String tagValue, int limit,
+        int noOfTimeseriesAllowed) {
+        NavigableMap<String, MetricQuery> matches = new TreeMap<>();
+        Map<String, Map<String, Integer>> valueCountsByIdentifier = new HashMap<>();
+        Map<String, Long> timeseriesByIdentifier = new HashMap<>();
+        long timeseriesCount = 0;
+        MetricSchemaRecordQuery schemaQuery = new MetricSchemaRecordQuery.MetricSchemaRecordQueryBuilder().namespace(query.getNamespace())
+                                                                                                          .scope(query.getScope())
+                                                                                                          .metric(query.getMetric())
+                                                                                                          .tagKey(tagKey)
+                                                                                                          .tagValue(tagValue)
+                                                                                                          .limit(limit)
+                                                                                                          .page(1)
+                                                                                                          .build();
+        boolean containsWildcard = SchemaService.containsWildcard(query.getScope())
+                                || SchemaService.containsWildcard(query.getMetric())
+                                || SchemaService.containsWildcard(query.getNamespace())
+                                || SchemaService.containsWildcard(tagKey)
+                                || SchemaService.containsWildcard(tagValue);
+
+        while (true) {
+            List<MetricSchemaRecord> records;
+
+            if (!containsWildcard) {
+                records = Arrays.asList(new MetricSchemaRecord(query.getNamespace(), query.getScope(), query.getMetric(), tagKey, tagValue));
+            } else {
+                records = _getRecords(schemaQuery);
+            }
+            for (MetricSchemaRecord record : records) {
+                String identifier = _getIdentifier(record);
+                MetricQuery mq = matches.computeIfAbsent(identifier, key -> {
+                    MetricQuery newQuery = new MetricQuery(record.getScope(), record.getMetric(), new HashMap<>(), 0L, 1L);
+
+                    newQuery.setNamespace(record.getNamespace());
+                    _copyRemainingProperties(newQuery, query);
+                    return newQuery;
+                });
+
+                _addTagValue(mq, record.getTagKey(), record.getTagValue());
+
+                /* The series of an identifier are the product of the value counts of its tag keys, see numApproxTimeseriesForQuery. */
+                Map<String, Integer> valueCounts = valueCountsByIdentifier.computeIfAbsent(identifier, key -> new HashMap<>());
+                int valueCount = valueCounts.merge(record.getTagKey(), 1, Integer::sum);
+                long previous = timeseriesByIdentifier.getOrDefault(identifier, 0L);
+                long current = previous == 0 ? 1 : previous / Math.max(1, valueCount - 1) * valueCount;
+
+                timeseriesByIdentifier.put(identifier, current);
+                timeseriesCount += current - previous;
+                if (timeseriesCount > noOfTimeseriesAllowed) {
+                    throw new WildcardExpansionLimitExceededException(EXCEPTION_MESSAGE);
+                }
+            }
+            if (records.size() < limit) {
+                break;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new SystemException("Interrupted while looking up schema records.");
+            }
+            schemaQuery.setScanFrom(records.get(records.size() - 1));
+            schemaQuery.setPage(schemaQuery.getPage() + 1);
+        }
+        return matches;
+    }
+
+    private void _addTagValue(MetricQuery mq, String tagKey, String tagValue) {
+        if (mq.getTags().containsKey(tagKey)) {
+            mq.setTag(tagKey, mq.getTag(tagKey) + "|" + tagValue);
+        } else {
+            mq.setTag(tagKey, tagValue);
         }
-        
-        return sum;
     }
 
 	private String _getIdentifier(MetricSchemaRecord record) {
@@ -314,5 +463,46 @@ public class DefaultDiscoveryService extends DefaultService implements Discovery
         dest.setDownsampler(orig.getDownsampler());
         dest.setDownsamplingPeriod(orig.getDownsamplingPeriod());
     }
+
+    //~ Enums ****************************************************************************************************************************************
+
+    /**
+     * The set of implementation specific configuration properties.
+     */
+    public enum Property {
+
+        /** The number of threads used to look up the schema records of the tags of a wildcard query concurrently. */
+        TAG_LOOKUP_THREADS("service.property.discovery.tag.lookup.threads", "8"),
+        /** The max no. of browse queries whose tokens are cached for each index level. 0 disables the cache. */
+        BROWSE_TOKEN_CACHE_SIZE("service.property.discovery.browse.token.cache.size", "1000"),
+        /** The time in seconds for which the tokens of a browse query are cached. */
+        BROWSE_TOKEN_CACHE_TTL_SECS("service.property.discovery.browse.token.cache.ttl.secs", "60");
+
+        private final String _name;
+        private final String _defaultValue;
+
+        private Property(String name, String defaultValue) {
+            _name = name;
+            _defaultValue = defaultValue;
+        }
+
+        /**
+         * Returns the property name.
+         *
+         * @return  The property name.
+         */
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * Returns the default value for the property.
+         *
+         * @return  The default value.
+         */
+        public String getDefaultValue() {
+            return _defaultValue;
+        }
+    }
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
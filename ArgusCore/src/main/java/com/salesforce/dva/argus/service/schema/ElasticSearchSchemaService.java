@@ -1,12 +1,11 @@
 package com.salesforce.dva.argus.service.schema;
 
-import static com.salesforce.dva.argus.entity.MetricSchemaRecord.DEFAULT_RETENTION_DISCOVERY_DAYS;
-import static com.salesforce.dva.argus.entity.MetricSchemaRecord.EXPIRATION_TS;
 import static com.salesforce.dva.argus.entity.MetricSchemaRecord.RETENTION_DISCOVERY;
 import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -20,6 +19,14 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import com.fasterxml.jackson.databind.JsonSerializer;
@@ -42,6 +49,7 @@ import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
 import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
 import org.apache.http.util.EntityUtils;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestClientBuilder.HttpClientConfigCallback;
@@ -52,9 +60,16 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -95,9 +110,26 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 	private static final String FIELD_TYPE_DATE ="date";
 	private static final String FIELD_TYPE_INTEGER = "integer";
 
-	private static final long ONE_DAY_IN_MILLIS = 24L * 3600L * 1000L;
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+	private static final int BULK_ACTION_OVERHEAD_BYTES = 200;
+	private static final int BULK_FIELD_OVERHEAD_BYTES = 16;
+	private static final RecordType[] SORT_FIELDS = new RecordType[] {
+			RecordType.NAMESPACE, RecordType.SCOPE, RecordType.METRIC, RecordType.TAGK, RecordType.TAGV };
+	/* Emits the '.' delimited token at params.level of a keyword field, matching MetricSchemaRecordTokenizer. Trailing empty tokens are not
+	 * emitted, the same as String.split(). */
+	private static final String TOKEN_AT_LEVEL_SCRIPT =
+			"if (doc[params.field].empty) { return null; } " +
+			"String v = doc[params.field].value; int start = 0; " +
+			"for (int i = 0; i < params.level; i++) { start = v.indexOf('.', start) + 1; if (start == 0) { return null; } } " +
+			"int end = v.indexOf('.', start); String token = end < 0 ? v.substring(start) : v.substring(start, end); " +
+			"if (token.isEmpty() && start > 0 && v.substring(start).replace('.', '').isEmpty()) { return null; } " +
+			"return token;";
 
 	private final ObjectMapper _mapper;
+	private final ObjectReader _recordListReader;
+	private final ObjectReader _aggregationReader;
+	private final ObjectReader _putResponseReader;
+	private final ObjectWriter _errorWriter;
 	private final ObjectMapper _createScopeOnlyMapper;
 	private final ObjectMapper _updateScopeOnlyMapper;
 	private final ObjectMapper _createScopeAndMetricOnlyMapper;
@@ -116,15 +148,25 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 	private final int _replicationFactorForMetatagsIndex;
 	private final int _numShardsForMetatagsIndex;
 	private final int _bulkIndexingSize;
+	private final long _bulkIndexingBytes;
+	private final int _bulkIndexingMaxRetries;
+	private final long _bulkIndexingRetryBackoffMillis;
+	private final ExecutorService _bulkIndexingExecutor;
+	private final Semaphore _bulkRequestPermits;
 	private HashAlgorithm _idgenHashAlgo;
 
 	private boolean _useScopeMetricNamesIndex;
+	private final boolean _useTokenAggregation;
 
 	@Inject
 	public ElasticSearchSchemaService(SystemConfiguration config, MonitorService monitorService) {
 		super(config, monitorService);
 
 		_mapper = createObjectMapper();
+		_recordListReader = _mapper.readerFor(MetricSchemaRecordList.class);
+		_aggregationReader = _mapper.readerFor(new TypeReference<List<String>>() {});
+		_putResponseReader = _mapper.readerFor(PutResponse.class);
+		_errorWriter = _mapper.writer();
 
 		_createScopeOnlyMapper = _getScopeOnlyObjectMapper(new ScopeOnlySchemaRecordList.CreateSerializer());
 		_updateScopeOnlyMapper = _getScopeOnlyObjectMapper(new ScopeOnlySchemaRecordList.UpdateSerializer());
@@ -186,9 +228,32 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 				config.getValue(Property.ELASTICSEARCH_SHARDS_COUNT_FOR_METATAGS_INDEX.getName(),
                                                 Property.ELASTICSEARCH_SHARDS_COUNT_FOR_METATAGS_INDEX.getDefaultValue()));
 
+		_useTokenAggregation = Boolean.parseBoolean(
+				config.getValue(Property.ELASTICSEARCH_BROWSE_USE_TOKEN_AGGREGATION.getName(), Property.ELASTICSEARCH_BROWSE_USE_TOKEN_AGGREGATION.getDefaultValue()));
+
 		_bulkIndexingSize = Integer.parseInt(
 				config.getValue(Property.ELASTICSEARCH_INDEXING_BATCH_SIZE.getName(), Property.ELASTICSEARCH_INDEXING_BATCH_SIZE.getDefaultValue()));
 
+		_bulkIndexingBytes = Long.parseLong(
+				config.getValue(Property.ELASTICSEARCH_INDEXING_BATCH_BYTES.getName(), Property.ELASTICSEARCH_INDEXING_BATCH_BYTES.getDefaultValue()));
+
+		_bulkIndexingMaxRetries = Integer.parseInt(
+				config.getValue(Property.ELASTICSEARCH_BULK_INDEXING_MAX_RETRIES.getName(), Property.ELASTICSEARCH_BULK_INDEXING_MAX_RETRIES.getDefaultValue()));
+
+		_bulkIndexingRetryBackoffMillis = Long.parseLong(
+				config.getValue(Property.ELASTICSEARCH_BULK_INDEXING_RETRY_BACKOFF_MS.getName(), Property.ELASTICSEARCH_BULK_INDEXING_RETRY_BACKOFF_MS.getDefaultValue()));
+		requireArgument(_bulkIndexingMaxRetries >= 0 && _bulkIndexingRetryBackoffMillis > 0, "Bulk indexing retry settings must not be negative.");
+
+		int bulkIndexingThreads = Integer.parseInt(
+				config.getValue(Property.ELASTICSEARCH_BULK_INDEXING_THREADS.getName(), Property.ELASTICSEARCH_BULK_INDEXING_THREADS.getDefaultValue()));
+		requireArgument(bulkIndexingThreads > 0, "Bulk indexing thread count must be greater than 0.");
+		_bulkRequestPermits = new Semaphore(bulkIndexingThreads);
+		_bulkIndexingExecutor = Executors.newFixedThreadPool(bulkIndexingThreads, runnable -> {
+			Thread thread = new Thread(runnable, "es-schema-bulk-indexer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
 		_useScopeMetricNamesIndex = Boolean.parseBoolean(
 				config.getValue(Property.ELASTICSEARCH_USE_SCOPE_AND_METRIC_INDEX.getName(), Property.ELASTICSEARCH_USE_SCOPE_AND_METRIC_INDEX.getDefaultValue()));
 
@@ -265,6 +330,16 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 	@Override
 	public void dispose() {
 		super.dispose();
+		_bulkIndexingExecutor.shutdown();
+		try {
+			if (!_bulkIndexingExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+				_logger.warn("Bulk indexing executor did not terminate in time. Forcing shutdown.");
+				_bulkIndexingExecutor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			_bulkIndexingExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
 		try {
 			_esRestClient.close();
 			_logger.info("Shutdown of ElasticSearch RESTClient complete");
@@ -294,13 +369,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		long start = System.currentTimeMillis();
 		List<List<MetricSchemaRecord>> fracturedList = _fracture(metrics);
 
-                int count = 0;
-		for(List<MetricSchemaRecord> records : fracturedList) {
-                    if(!records.isEmpty()) {
-                        upsert(records);
-                        count += records.size();
-                    }
-		}
+                int count = _upsertAll(fracturedList, this::upsert);
 
 		_monitorService.modifyCounter(MonitorService.Counter.SCHEMARECORDS_WRITTEN, count, null);
 		_monitorService.modifyCounter(MonitorService.Counter.SCHEMARECORDS_WRITE_LATENCY,
@@ -313,13 +382,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		start = System.currentTimeMillis();
 		List<List<ScopeOnlySchemaRecord>> fracturedScopesList = _fractureScopes(scopeNames);
 
-                count = 0;
-		for(List<ScopeOnlySchemaRecord> records : fracturedScopesList) {
-                    if(!records.isEmpty()) {
-                        upsertScopes(records);
-                        count += records.size();
-                    }
-		}
+                count = _upsertAll(fracturedScopesList, this::upsertScopes);
 
 		_monitorService.modifyCounter(MonitorService.Counter.SCOPENAMES_WRITTEN, count, null);
 		_monitorService.modifyCounter(MonitorService.Counter.SCOPENAMES_WRITE_LATENCY,
@@ -333,13 +396,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		List<List<ScopeAndMetricOnlySchemaRecord>> fracturedScopesAndMetricsList =
                     _fractureScopeAndMetrics(scopesAndMetricNames);
 
-                count = 0;
-		for(List<ScopeAndMetricOnlySchemaRecord> records : fracturedScopesAndMetricsList) {
-                    if(!records.isEmpty()) {
-                        upsertScopeAndMetrics(records);
-                        count += records.size();
-                    }
-		}
+                count = _upsertAll(fracturedScopesAndMetricsList, this::upsertScopeAndMetrics);
 
 		_monitorService.modifyCounter(MonitorService.Counter.SCOPEANDMETRICNAMES_WRITTEN, count, null);
 		_monitorService.modifyCounter(Counter.SCOPEANDMETRICNAMES_WRITE_LATENCY,
@@ -355,13 +412,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		List<List<MetatagsRecord>> fracturedMetatagsList =
                     _fractureMetatags(metatagsToPut);
 
-                count = 0;
-		for(List<MetatagsRecord> records : fracturedMetatagsList) {
-                    if(!records.isEmpty()) {
-                        upsertMetatags(records);
-                        count += records.size();
-                    }
-		}
+                count = _upsertAll(fracturedMetatagsList, this::upsertMetatags);
 
 		_monitorService.modifyCounter(MonitorService.Counter.METATAGS_WRITTEN, count, null);
 		_monitorService.modifyCounter(Counter.METATAGS_WRITE_LATENCY,
@@ -374,22 +425,70 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 
 	}
 
+	/* Write each non-empty batch with the given bulk upsert and return the number of records written. When there is more
+	 * than one batch, the bulk requests are issued concurrently on the bulk indexing executor.
+	 */
+	private <T> int _upsertAll(List<List<T>> fracturedList, Consumer<List<T>> upserter) {
+		List<List<T>> batches = new ArrayList<>(fracturedList.size());
+
+		for (List<T> records : fracturedList) {
+			if (!records.isEmpty()) {
+				batches.add(records);
+			}
+		}
+		if (batches.size() <= 1) {
+			batches.forEach(upserter);
+			return _countRecords(batches);
+		}
+
+		List<Future<?>> futures = new ArrayList<>(batches.size());
+
+		for (List<T> records : batches) {
+			futures.add(_bulkIndexingExecutor.submit(() -> upserter.accept(records)));
+		}
+
+		RuntimeException failure = null;
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SystemException("Interrupted while waiting for bulk index requests to complete.", e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new SystemException(e.getCause());
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return _countRecords(batches);
+	}
+
+	/* Records that failed to index are removed from their batch by the upsert, so count only after it has completed. */
+	private static <T> int _countRecords(List<List<T>> batches) {
+		int count = 0;
+
+		for (List<T> records : batches) {
+			count += records.size();
+		}
+		return count;
+	}
+
 	/* Convert the given list of metrics to a list of metric schema records. At the same time, fracture the records list
-	 * if its size is greater than ELASTICSEARCH_INDEXING_BATCH_SIZE.
+	 * if its size is greater than ELASTICSEARCH_INDEXING_BATCH_SIZE or its estimated request size is greater than
+	 * ELASTICSEARCH_INDEXING_BATCH_BYTES.
 	 */
 	protected List<List<MetricSchemaRecord>> _fracture(List<Metric> metrics) {
-		List<List<MetricSchemaRecord>> fracturedList = new ArrayList<>();
+		BatchAccumulator<MetricSchemaRecord> batches = new BatchAccumulator<>();
 
-		List<MetricSchemaRecord> records = new ArrayList<>(_bulkIndexingSize);
 		for(Metric metric : metrics) {
 			if(metric.getTags().isEmpty()) {
 				MetricSchemaRecord msr = new MetricSchemaRecord(metric.getScope(), metric.getMetric());
 				msr.setNamespace(metric.getNamespace());
-				records.add(msr);
-				if(records.size() == _bulkIndexingSize) {
-					fracturedList.add(records);
-					records = new ArrayList<>(_bulkIndexingSize);
-				}
+				batches.add(msr, _estimateBulkBytes(msr.getNamespace(), msr.getScope(), msr.getMetric()));
 				continue;
 			}
 
@@ -404,92 +503,78 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 				}
 			}
 			for(Map.Entry<String, String> entry : metric.getTags().entrySet()) {
-				records.add(new MetricSchemaRecord(metric.getNamespace(),
+				batches.add(new MetricSchemaRecord(metric.getNamespace(),
 													metric.getScope(),
 													metric.getMetric(),
 													entry.getKey(),
 													entry.getValue(),
-													retentionInt));
-				if(records.size() == _bulkIndexingSize) {
-					fracturedList.add(records);
-					records = new ArrayList<>(_bulkIndexingSize);
-				}
+													retentionInt),
+						_estimateBulkBytes(metric.getNamespace(), metric.getScope(), metric.getMetric(), entry.getKey(), entry.getValue()));
 			}
 		}
 
-		if(!records.isEmpty()) {
-			fracturedList.add(records);
-		}
-
-		return fracturedList;
+		return batches.getBatches();
 	}
 
 	/* Convert the given list of scope and metric names to a list of scope and metric only schema records.
-	 * At the same time, fracture the records list if its size is greater than ELASTICSEARCH_INDEXING_BATCH_SIZE.
+	 * At the same time, fracture the records list if its size is greater than ELASTICSEARCH_INDEXING_BATCH_SIZE or its
+	 * estimated request size is greater than ELASTICSEARCH_INDEXING_BATCH_BYTES.
 	 */
 	protected List<List<ScopeAndMetricOnlySchemaRecord>> _fractureScopeAndMetrics(Set<Pair<String, String>> scopesAndMetricNames) {
-		List<List<ScopeAndMetricOnlySchemaRecord>> fracturedList = new ArrayList<>();
+		BatchAccumulator<ScopeAndMetricOnlySchemaRecord> batches = new BatchAccumulator<>();
 
-		List<ScopeAndMetricOnlySchemaRecord> records = new ArrayList<>(_bulkIndexingSize);
 		for(Pair<String, String> scopeAndMetric : scopesAndMetricNames) {
-			records.add(new ScopeAndMetricOnlySchemaRecord(scopeAndMetric.getLeft(), scopeAndMetric.getRight()));
-
-			if(records.size() == _bulkIndexingSize) {
-				fracturedList.add(records);
-				records = new ArrayList<>(_bulkIndexingSize);
-			}
+			batches.add(new ScopeAndMetricOnlySchemaRecord(scopeAndMetric.getLeft(), scopeAndMetric.getRight()),
+					_estimateBulkBytes(scopeAndMetric.getLeft(), scopeAndMetric.getRight()));
 		}
 
-		if(!records.isEmpty()) {
-			fracturedList.add(records);
-		}
-
-		return fracturedList;
+		return batches.getBatches();
 	}
 
 	/* Convert the given list of scopes to a list of scope only schema records. At the same time, fracture the records list
-	 * if its size is greater than ELASTICSEARCH_INDEXING_BATCH_SIZE.
+	 * if its size is greater than ELASTICSEARCH_INDEXING_BATCH_SIZE or its estimated request size is greater than
+	 * ELASTICSEARCH_INDEXING_BATCH_BYTES.
 	 */
 	protected List<List<ScopeOnlySchemaRecord>> _fractureScopes(Set<String> scopeNames) {
-		List<List<ScopeOnlySchemaRecord>> fracturedList = new ArrayList<>();
+		BatchAccumulator<ScopeOnlySchemaRecord> batches = new BatchAccumulator<>();
 
-		List<ScopeOnlySchemaRecord> records = new ArrayList<>(_bulkIndexingSize);
 		for(String scope : scopeNames) {
-			records.add(new ScopeOnlySchemaRecord(scope));
-
-			if(records.size() == _bulkIndexingSize) {
-				fracturedList.add(records);
-				records = new ArrayList<>(_bulkIndexingSize);
-			}
+			batches.add(new ScopeOnlySchemaRecord(scope), _estimateBulkBytes(scope));
 		}
 
-		if(!records.isEmpty()) {
-			fracturedList.add(records);
-		}
-
-		return fracturedList;
+		return batches.getBatches();
 	}
 
 	protected List<List<MetatagsRecord>> _fractureMetatags(Map<String, MetatagsRecord> metatagsToPut) {
-		List<List<MetatagsRecord>> fracturedList = new ArrayList<>();
-
-		List<MetatagsRecord> records = new ArrayList<>(_bulkIndexingSize);
-                for(Map.Entry<String, MetatagsRecord> entry : metatagsToPut.entrySet()) {
-                	//remove this special metatag to prevent it from going to ES
-                	entry.getValue().removeMetatag(RETENTION_DISCOVERY);
-                    MetatagsRecord mtag = new MetatagsRecord(entry.getValue().getMetatags(), entry.getValue().getKey());
-                    records.add(mtag);
-                    if(records.size() == _bulkIndexingSize) {
-                        fracturedList.add(records);
-                        records = new ArrayList<>(_bulkIndexingSize);
-                    }
-		}
+		BatchAccumulator<MetatagsRecord> batches = new BatchAccumulator<>();
 
-		if(!records.isEmpty()) {
-			fracturedList.add(records);
+		for(Map.Entry<String, MetatagsRecord> entry : metatagsToPut.entrySet()) {
+			//remove this special metatag to prevent it from going to ES
+			entry.getValue().removeMetatag(RETENTION_DISCOVERY);
+			MetatagsRecord mtag = new MetatagsRecord(entry.getValue().getMetatags(), entry.getValue().getKey());
+			int estimatedBytes = _estimateBulkBytes(mtag.getKey());
+
+			for(Map.Entry<String, String> metatag : mtag.getMetatags().entrySet()) {
+				estimatedBytes += _estimateBulkBytes(metatag.getKey(), metatag.getValue()) - BULK_ACTION_OVERHEAD_BYTES;
+			}
+			batches.add(mtag, estimatedBytes);
 		}
 
-		return fracturedList;
+		return batches.getBatches();
+	}
+
+	/* Estimates the size of the bulk action for a record with the given field values. Values are counted in chars, which is close enough
+	 * to their UTF-8 length for batching purposes.
+	 */
+	private static int _estimateBulkBytes(String... values) {
+		int bytes = BULK_ACTION_OVERHEAD_BYTES;
+
+		for(String value : values) {
+			if(value != null) {
+				bytes += value.length() + BULK_FIELD_OVERHEAD_BYTES;
+			}
+		}
+		return bytes;
 	}
 
 	@Override
@@ -513,7 +598,10 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 				.append("_search");
 
 		int from = 0, scrollSize;
-		if(query.getLimit() * query.getPage() > 10000) {
+		if(query.getScanFrom() != null) {
+			// Resume after the last record of the previous page, so every page is a bounded query without a scroll context.
+			scrollSize = query.getLimit();
+		} else if(query.getLimit() * query.getPage() > 10000) {
 			sb.append("?scroll=").append(KEEP_SCROLL_CONTEXT_OPEN_FOR);
 			scroll = true;
 			int total = query.getLimit() * query.getPage();
@@ -530,7 +618,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 			_logger.debug("get POST requestUrl {} queryJson {}", requestUrl, queryJson);
 			Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(queryJson));
 
-			MetricSchemaRecordList list = toEntity(extractResponse(response), new TypeReference<MetricSchemaRecordList>() {});
+			MetricSchemaRecordList list = toEntity(response, _recordListReader);
 
 			if(scroll) {
 				requestUrl = new StringBuilder().append("/").append("_search").append("/").append("scroll").toString();
@@ -543,11 +631,11 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 					requestBody.put("scroll_id", scrollID);
 					requestBody.put("scroll", KEEP_SCROLL_CONTEXT_OPEN_FOR);
 
-					String requestJson = new ObjectMapper().writeValueAsString(requestBody);
+					String requestJson = _mapper.writeValueAsString(requestBody);
 					_logger.debug("get Scroll POST requestUrl {} queryJson {}", requestUrl, queryJson);
 					response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(requestJson));
 
-					list = toEntity(extractResponse(response), new TypeReference<MetricSchemaRecordList>() {});
+					list = toEntity(response, _recordListReader);
 					records.addAll(list.getRecords());
 
 					if(records.size() >= query.getLimit() * query.getPage() || list.getRecords().size() < scrollSize) {
@@ -579,20 +667,98 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		}
 	}
 
+	/**
+	 * Returns a page of the metric schema records that were written or refreshed at or after the given time, by any writer. Records are
+	 * returned in the same order as {@link #get(MetricSchemaRecordQuery)}.
+	 *
+	 * @param   sinceMillis  The earliest modification time in milliseconds since the epoch.
+	 * @param   scanFrom     The last record of the previous page or null for the first page.
+	 * @param   limit        The maximum number of records to return. Must be positive.
+	 *
+	 * @return  The records modified since the given time. Never null.
+	 */
+	public List<MetricSchemaRecord> getModifiedSince(long sinceMillis, MetricSchemaRecord scanFrom, int limit) {
+		requireNotDisposed();
+		SystemAssert.requireArgument(limit > 0, "Limit must be greater than 0.");
+
+		Map<String, String> tags = new HashMap<>();
+		tags.put("type", "MODIFIED_SINCE");
+		long start = System.currentTimeMillis();
+		String requestUrl = new StringBuilder().append("/")
+				.append(INDEX_NAME)
+				.append("/")
+				.append(TYPE_NAME)
+				.append("/")
+				.append("_search")
+				.toString();
+
+		ObjectNode rangeNode = _mapper.createObjectNode();
+		rangeNode.putObject("range").putObject("mts").put("gte", sinceMillis);
+		ObjectNode queryNode = _mapper.createObjectNode();
+		queryNode.putObject("bool").putArray("filter").add(rangeNode);
+		String queryJson = _constructSortedQuery(queryNode, scanFrom, 0, limit);
+
+		try {
+			_logger.debug("getModifiedSince POST requestUrl {} queryJson {}", requestUrl, queryJson);
+			Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(queryJson));
+			MetricSchemaRecordList list = toEntity(response, _recordListReader);
+
+			_monitorService.modifyCounter(Counter.SCHEMARECORDS_QUERY_COUNT, 1, tags);
+			_monitorService.modifyCounter(Counter.SCHEMARECORDS_QUERY_LATENCY, (System.currentTimeMillis() - start), tags);
+			return list.getRecords();
+		} catch (UnsupportedEncodingException e) {
+			throw new SystemException("Search failed.", e);
+		} catch (IOException e) {
+			throw new SystemException("IOException when trying to perform ES request.", e);
+		}
+	}
+
+	/* Tokens are extracted by a scripted terms aggregation, so only the distinct tokens at the requested level are returned by ES instead of
+	 * every distinct value of the field. The page is applied to the sorted tokens.
+	 */
 	@Override
 	public List<String> browseUnique(MetricSchemaRecordQuery query, RecordType type, int indexLevel) {
+		if (!_useTokenAggregation) {
+			List<MetricSchemaRecord> records = getUnique(query, type);
 
-        List<MetricSchemaRecord> records = getUnique(query, type);
+			SortedSet<String> tokens = MetricSchemaRecordTokenizer.GetUniqueTokens(records, type, indexLevel);
 
-        SortedSet<String> tokens = MetricSchemaRecordTokenizer.GetUniqueTokens(records, type, indexLevel);
+			return new ArrayList<>(tokens);
+		}
 
-        return new ArrayList<>(tokens);
+		requireNotDisposed();
+		SystemAssert.requireArgument(query != null, "MetricSchemaRecordQuery cannot be null.");
+		SystemAssert.requireArgument(indexLevel >= 0, "Index level cannot be negative.");
+
+		List<String> tokens = _getUniqueValues(query, type, _constructTokenAggregationQuery(query, type, indexLevel));
+
+		return _getPage(tokens, query);
 	}
 
 	@Override
 	public List<MetricSchemaRecord> getUnique(MetricSchemaRecordQuery query, RecordType type) {
 		requireNotDisposed();
 		SystemAssert.requireArgument(query != null, "MetricSchemaRecordQuery cannot be null.");
+
+		List<String> values = _getUniqueValues(query, type, _constructTermAggregationQuery(query, type));
+
+		return _getPage(SchemaService.constructMetricSchemaRecordsForType(values, type), query);
+	}
+
+	private static <T> List<T> _getPage(List<T> values, MetricSchemaRecordQuery query) {
+		int fromIndex = query.getLimit() * (query.getPage() - 1);
+		if(values.size() <= fromIndex) {
+			return Collections.emptyList();
+		}
+
+		if(values.size() < query.getLimit() * query.getPage()) {
+			return values.subList(fromIndex, values.size());
+		} else {
+			return values.subList(fromIndex, query.getLimit() * query.getPage());
+		}
+	}
+
+	private List<String> _getUniqueValues(MetricSchemaRecordQuery query, RecordType type, String queryJson) {
 		long size = (long) query.getLimit() * query.getPage();
 		SystemAssert.requireArgument(size > 0 && size <= Integer.MAX_VALUE,
 				"(limit * page) must be greater than 0 and atmost Integer.MAX_VALUE");
@@ -627,11 +793,9 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 
 		try {
 
-			String queryJson = _constructTermAggregationQuery(query, type);
 			_logger.debug("getUnique POST requestUrl {} queryJson {}", requestUrl, queryJson);
 			Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(queryJson));
-			String str = extractResponse(response);
-			List<MetricSchemaRecord> records = SchemaService.constructMetricSchemaRecordsForType(toEntity(str, new TypeReference<List<String>>() {}), type);
+			List<String> values = toEntity(response, _aggregationReader);
 
 			if (query.isQueryOnlyOnScope() && RecordType.SCOPE.equals(type)) {
 				_monitorService.modifyCounter(Counter.SCOPENAMES_QUERY_COUNT, 1, tags);
@@ -646,17 +810,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 				_monitorService.modifyCounter(Counter.SCHEMARECORDS_QUERY_LATENCY, (System.currentTimeMillis() - start), tags);
 			}
 
-			int fromIndex = query.getLimit() * (query.getPage() - 1);
-			if(records.size() <= fromIndex) {
-				return Collections.emptyList();
-			}
-
-			if(records.size() < query.getLimit() * query.getPage()) {
-				return records.subList(fromIndex, records.size());
-			} else {
-				return records.subList(fromIndex, query.getLimit() * query.getPage());
-			}
-
+			return values;
 		} catch (IOException e) {
 			throw new SystemException(e);
 		}
@@ -703,8 +857,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 				String requestUrl = sb.toString();
 
 				Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(queryJson));
-				String strResponse = extractResponse(response);
-				MetricSchemaRecordList list = toEntity(strResponse, new TypeReference<MetricSchemaRecordList>() {});
+				MetricSchemaRecordList list = toEntity(response, _recordListReader);
 
 				if(scroll) {
 					requestUrl = new StringBuilder().append("/").append("_search").append("/").append("scroll").toString();
@@ -716,9 +869,9 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 						requestBody.put("scroll", KEEP_SCROLL_CONTEXT_OPEN_FOR);
 
 						response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(),
-								new StringEntity(new ObjectMapper().writeValueAsString(requestBody)));
+								new StringEntity(_mapper.writeValueAsString(requestBody)));
 
-						list = toEntity(extractResponse(response), new TypeReference<MetricSchemaRecordList>() {});
+						list = toEntity(response, _recordListReader);
 
 						records.addAll(list.getRecords());
 
@@ -776,10 +929,8 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 				String queryJson = _constructQueryStringQuery(kq, tokensMap);
 				String requestUrl = sb.toString();
 				Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(queryJson));
-				String strResponse = extractResponse(response);
-
 				List<MetricSchemaRecord> records = SchemaService.constructMetricSchemaRecordsForType(
-						toEntity(strResponse, new TypeReference<List<String>>() {}), kq.getType());
+						toEntity(response, _aggregationReader), kq.getType());
 
 				int fromIndex = kq.getLimit() * (kq.getPage() - 1);
 				if(records.size() <= fromIndex) {
@@ -819,8 +970,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 
 		try {
 			Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(requestBody));
-			String strResponse = extractResponse(response);
-			JsonNode tokensNode = _mapper.readTree(strResponse).get("tokens");
+			JsonNode tokensNode = this.<JsonNode>toEntity(response, _mapper.reader()).get("tokens");
 			if(tokensNode.isArray()) {
 				for(JsonNode tokenNode : tokensNode) {
 					tokens.add(tokenNode.get("token").asText());
@@ -833,6 +983,9 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		}
 	}
 
+	/* Metric schema records are written with update actions that carry the full record as an upsert. A record that already exists only has
+	 * its mts and expiration refreshed, so no follow-up request is needed for existing documents.
+	 */
 	protected void upsert(List<MetricSchemaRecord> records) {
 		String requestUrl = new StringBuilder().append("/")
 				.append(INDEX_NAME)
@@ -842,49 +995,20 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 				.append("_bulk")
 				.toString();
 
-		String strResponse = "";
-
 		MetricSchemaRecordList msrList = new MetricSchemaRecordList(records, _idgenHashAlgo);
 		try {
-			String requestBody = _mapper.writeValueAsString(msrList);
-			Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl,
-					Collections.emptyMap(), new StringEntity(requestBody));
-			strResponse = extractResponse(response);
-		} catch (IOException e) {
-			//TODO: Retry with exponential back-off for handling EsRejectedExecutionException/RemoteTransportException/TimeoutException??
-			throw new SystemException(e);
-		}
+			PutResponse putResponse = _performBulkRequest(requestUrl, _mapper.writeValueAsString(msrList));
 
-		try {
-			PutResponse putResponse = new ObjectMapper().readValue(strResponse, PutResponse.class);
-			//TODO: If response contains HTTP 429 Too Many Requests (EsRejectedExecutionException), then retry with exponential back-off.
 			if(putResponse.errors) {
 				List<MetricSchemaRecord> recordsToRemove = new ArrayList<>();
-				List<String> updateMtsFieldList = new ArrayList<>();
 				for(Item item : putResponse.items) {
-					if(item.create != null) {
-						if(item.create.status == HttpStatus.SC_CONFLICT) {
-							updateMtsFieldList.add(item.create._id);
-						}else if(item.create.status != HttpStatus.SC_CREATED) {
-							_logger.warn("Failed to index metric {}. Reason: {}", msrList.getRecord(item.create._id),
-									new ObjectMapper().writeValueAsString(item.create.error));
-							recordsToRemove.add(msrList.getRecord(item.create._id));
-						}
+					// A conflict means another writer refreshed the same document concurrently, so the record exists.
+					if(item.update != null && item.update.status != HttpStatus.SC_CONFLICT) {
+						_logger.warn("Failed to index metric {}. Reason: {}", msrList.getRecord(item.update._id),
+								_errorWriter.writeValueAsString(item.update.error));
+						recordsToRemove.add(msrList.getRecord(item.update._id));
 					}
 				}
-				if(updateMtsFieldList.size()>0) {
-					_logger.debug("mts filed will be updated for docs with ids {}", updateMtsFieldList);
-					Response response = updateMtsField(updateMtsFieldList,INDEX_NAME,TYPE_NAME, msrList);
-					PutResponse updateResponse = new ObjectMapper().readValue(extractResponse(response), PutResponse.class);
-					for(Item item: updateResponse.items) {
-						if(item.update != null && item.update.status != HttpStatus.SC_OK) {
-							_logger.debug("Failed to update mts field for metric {}. Reason: {}",msrList.getRecord(item.update._id),
-									new ObjectMapper().writeValueAsString(item.update.error));
-							recordsToRemove.add(msrList.getRecord(item.update._id));
-						}
-					}
-
-				}
 
 				if(recordsToRemove.size() != 0) {
 					_logger.warn("{} records were not written to ES", recordsToRemove.size());
@@ -895,7 +1019,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 			_addToBloomFilter(records);
 
 		} catch(IOException e) {
-			throw new SystemException("Failed to parse reponse of put metrics. The response was: " + strResponse, e);
+			throw new SystemException("Failed to index metric schema records.", e);
 		}
 	}
 
@@ -912,7 +1036,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 
 			ScopeAndMetricOnlySchemaRecordList createSchemaRecordList = new ScopeAndMetricOnlySchemaRecordList(records, _idgenHashAlgo);
 			String requestBody = _createScopeAndMetricOnlyMapper.writeValueAsString(createSchemaRecordList);
-			PutResponse putResponse = _performRequest(requestUrl, requestBody);
+			PutResponse putResponse = _performBulkRequest(requestUrl, requestBody);
 
 			Pair<List<String>, List<String>> failedResponses = _parseFailedResponses(putResponse);
 
@@ -929,7 +1053,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 
 				ScopeAndMetricOnlySchemaRecordList updateSchemaRecordList = new ScopeAndMetricOnlySchemaRecordList(updateRequiredRecords, _idgenHashAlgo);
 				requestBody = _updateScopeAndMetricOnlyMapper.writeValueAsString(updateSchemaRecordList);
-				putResponse = _performRequest(requestUrl, requestBody);
+				putResponse = _performBulkRequest(requestUrl, requestBody);
 
 				failedResponses = _parseFailedResponses(putResponse);
 
@@ -970,7 +1094,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 
 			ScopeOnlySchemaRecordList createSchemaRecordList = new ScopeOnlySchemaRecordList(records, _idgenHashAlgo);
 			String requestBody = _createScopeOnlyMapper.writeValueAsString(createSchemaRecordList);
-			PutResponse putResponse = _performRequest(requestUrl, requestBody);
+			PutResponse putResponse = _performBulkRequest(requestUrl, requestBody);
 
 			Pair<List<String>, List<String>> failedResponses = _parseFailedResponses(putResponse);
 
@@ -987,7 +1111,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 
 				ScopeOnlySchemaRecordList updateSchemaRecordList = new ScopeOnlySchemaRecordList(updateRequiredRecords, _idgenHashAlgo);
 				requestBody = _updateScopeOnlyMapper.writeValueAsString(updateSchemaRecordList);
-				putResponse = _performRequest(requestUrl, requestBody);
+				putResponse = _performBulkRequest(requestUrl, requestBody);
 
 				failedResponses = _parseFailedResponses(putResponse);
 
@@ -1028,7 +1152,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
                     new MetatagsSchemaRecordList(records,
                                                  _idgenHashAlgo);
                 String requestBody = _createMetatagsMapper.writeValueAsString(createMetatagsSchemaRecordList);
-                PutResponse putResponse = _performRequest(requestUrl, requestBody);
+                PutResponse putResponse = _performBulkRequest(requestUrl, requestBody);
 
                 Pair<List<String>, List<String>> failedResponses = _parseFailedResponses(putResponse);
 
@@ -1043,7 +1167,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
                     MetatagsSchemaRecordList updateMetatagsSchemaRecordList =
                         new MetatagsSchemaRecordList(updateRequiredRecords, _idgenHashAlgo);
                     requestBody = _updateMetatagsMapper.writeValueAsString(updateMetatagsSchemaRecordList);
-                    putResponse = _performRequest(requestUrl, requestBody);
+                    putResponse = _performBulkRequest(requestUrl, requestBody);
 
                     failedResponses = _parseFailedResponses(putResponse);
 
@@ -1071,26 +1195,108 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 
         }
 
-	private PutResponse _performRequest(String requestUrl, String requestBody) throws IOException {
+	/* Performs a bulk request while holding one of the in-flight permits. If ES rejects the request as a whole with 429 it is retried, and
+	 * if it rejects individual items only those items are resent. Every retry waits for an exponentially growing, jittered backoff without
+	 * holding a permit. The returned response holds the items that did not succeed, including rejected items whose retries ran out.
+	 */
+	private PutResponse _performBulkRequest(String requestUrl, String requestBody) throws IOException {
+		List<Item> failedItems = new ArrayList<>();
+		String pendingBody = requestBody;
+		int attempt = 0;
+
+		while(true) {
+			PutResponse putResponse = _performBulkRequestOnce(requestUrl, pendingBody);
+
+			if(putResponse != null) {
+				List<Integer> rejectedPositions = new ArrayList<>();
+
+				for(Item item : putResponse.items) {
+					if(_isRejected(item) && attempt < _bulkIndexingMaxRetries) {
+						rejectedPositions.add(item.position);
+					} else {
+						failedItems.add(item);
+					}
+				}
+				if(rejectedPositions.isEmpty()) {
+					break;
+				}
+				_logger.debug("Retrying {} bulk items rejected by {}.", rejectedPositions.size(), requestUrl);
+				pendingBody = _selectBulkActions(pendingBody, rejectedPositions);
+			} else if(attempt >= _bulkIndexingMaxRetries) {
+				throw new SystemException("Bulk request to " + requestUrl + " was rejected after " + attempt + " retries.");
+			}
+			_backoff(attempt++);
+		}
+
+		PutResponse result = new PutResponse();
+		result.errors = !failedItems.isEmpty();
+		result.items = failedItems;
+		return result;
+	}
+
+	/* Returns null if the whole request was rejected with 429. */
+	private PutResponse _performBulkRequestOnce(String requestUrl, String requestBody) throws IOException {
+		try {
+			_bulkRequestPermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while waiting to send a bulk request.", e);
+		}
+		try {
+			Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(requestBody));
 
-		String strResponse = "";
+			return toEntity(response, _putResponseReader);
+		} catch (ResponseException e) {
+			if(e.getResponse().getStatusLine().getStatusCode() == SC_TOO_MANY_REQUESTS) {
+				return null;
+			}
+			throw e;
+		} finally {
+			_bulkRequestPermits.release();
+		}
+	}
 
-		Response response = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(), new StringEntity(requestBody));
+	private static boolean _isRejected(Item item) {
+		return (item.create != null && item.create.status == SC_TOO_MANY_REQUESTS)
+				|| (item.update != null && item.update.status == SC_TOO_MANY_REQUESTS)
+				|| (item.index != null && item.index.status == SC_TOO_MANY_REQUESTS);
+	}
+
+	private void _backoff(int attempt) {
+		long backoff = _bulkIndexingRetryBackoffMillis << Math.min(attempt, 16);
 
-		//TODO: Retry with exponential back-off for handling EsRejectedExecutionException/RemoteTransportException/TimeoutException??
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while backing off a rejected bulk request.", e);
+		}
+	}
 
-		strResponse = extractResponse(response);
+	/* Every action written by this service is an action line followed by a source line, so the action at a given position of the bulk
+	 * response is made up of lines 2 * position and 2 * position + 1 of the request body.
+	 */
+	@VisibleForTesting
+	static String _selectBulkActions(String requestBody, List<Integer> positions) {
+		String[] lines = requestBody.split("\\r?\\n");
+		StringBuilder result = new StringBuilder();
 
-		PutResponse putResponse = new ObjectMapper().readValue(strResponse, PutResponse.class);
-		return putResponse;
+		for(int position : positions) {
+			result.append(lines[2 * position]).append(System.lineSeparator())
+				.append(lines[2 * position + 1]).append(System.lineSeparator());
+		}
+		return result.toString();
 	}
 
+	/* Only used for the scope, scope and metric, and metatags indexes, which are written with create actions followed by updates of the
+	 * documents that already exist. The metric index is written with upserts, see upsert(List). Rejected actions have already been retried
+	 * with back-off by _performBulkRequest.
+	 */
 	private Pair<List<String>, List<String>> _parseFailedResponses(PutResponse putResponse) throws IOException {
 
 		List<String> failedIds = new ArrayList<>();
 		List<String> updateRequiredIds = new ArrayList<>();
 
-		//TODO: If response contains HTTP 429 Too Many Requests (EsRejectedExecutionException), then retry with exponential back-off.
 		if (putResponse.errors) {
 			for (Item item : putResponse.items) {
 
@@ -1099,7 +1305,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 					if (item.create.status == HttpStatus.SC_CONFLICT) {
 						updateRequiredIds.add(item.create._id);
 					} else {
-						_logger.debug("Failed to create document. Reason: " + new ObjectMapper().writeValueAsString(item.create.error));
+						_logger.debug("Failed to create document. Reason: " + _errorWriter.writeValueAsString(item.create.error));
 						failedIds.add(item.create._id);
 					}
 				}
@@ -1109,7 +1315,7 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 					if (item.update.status == HttpStatus.SC_CONFLICT) {
 						updateRequiredIds.add(item.update._id);
 					} else {
-						_logger.warn("Failed to update document. Reason: " + new ObjectMapper().writeValueAsString(item.update.error));
+						_logger.warn("Failed to update document. Reason: " + _errorWriter.writeValueAsString(item.update.error));
 						failedIds.add(item.update._id);
 					}
 				}
@@ -1118,52 +1324,6 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		return Pair.of(failedIds, updateRequiredIds);
 	}
 
-	protected Response updateMtsField(List<String> docIds, String index, String type, MetricSchemaRecordList msrList) {
-		Response result= null;
-		if(docIds != null && docIds.size()>0) {
-			String requestUrl = new StringBuilder().append("/")
-					.append(index)
-					.append("/")
-					.append(type)
-					.append("/")
-					.append("_bulk")
-					.toString();
-			try {
-				String requestBody = _getRequestBodyForMtsFieldUpdate(docIds, msrList, System.currentTimeMillis());
-				result = _esRestClient.performRequest(HttpMethod.POST.getName(), requestUrl, Collections.emptyMap(),
-						new StringEntity(requestBody));
-			} catch (IOException e) {
-				throw new SystemException(e);
-			}
-		}
-		return result;
-	}
-
-	static String _getRequestBodyForMtsFieldUpdate(List<String> docIds, MetricSchemaRecordList msrList, long currentTimeMillis) {
-		StringBuilder result = new StringBuilder();
-		for(String docId:docIds) {
-			MetricSchemaRecord record = msrList.getRecord(docId);
-			if (record == null) {	//this should never happen
-				_logger.warn("ES create response contains ID {} that was not in original request", docId);
-				continue;
-			}
-
-			Integer retention = record.getRetentionDiscovery();
-			Long expiration = currentTimeMillis + (retention==null? DEFAULT_RETENTION_DISCOVERY_DAYS:retention) * ONE_DAY_IN_MILLIS;
-
-			result.append("{\"update\" : {\"_id\" : \"").append(docId).append("\" } }")
-				.append(System.lineSeparator())
-				.append("{\"doc\" : {\"mts\": ").append(currentTimeMillis)
-				.append(",\"").append(EXPIRATION_TS).append("\":").append(expiration);
-			if (retention != null) {
-				result.append(",\"").append(RETENTION_DISCOVERY).append("\":").append(retention);
-			}
-			result.append("}}");
-			result.append(System.lineSeparator());
-		}
-		return result.toString();
-	}
-
 	protected void _addToBloomFilter(List<MetricSchemaRecord> records){
 		_logger.info("Adding {} records into bloom filter.", records.size());
 		for (MetricSchemaRecord record : records) {
@@ -1202,16 +1362,15 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 	}
 
 	private String _constructTermAggregationQuery(MetricSchemaRecordQuery query, RecordType type) {
-		ObjectMapper mapper = new ObjectMapper();
-		ObjectNode queryNode = _constructQueryNode(query, mapper);
+		ObjectNode queryNode = _constructQueryNode(query, _mapper);
 
 		long size = query.getLimit() * query.getPage();
 		SystemAssert.requireArgument(size > 0 && size <= Integer.MAX_VALUE,
 				"(limit * page) must be greater than 0 and less than Integer.MAX_VALUE");
 
-		ObjectNode aggsNode = _constructAggsNode(type, Math.max(size, 10000), mapper);
+		ObjectNode aggsNode = _constructAggsNode(type, Math.max(size, 10000), _mapper);
 
-		ObjectNode rootNode = mapper.createObjectNode();
+		ObjectNode rootNode = _mapper.createObjectNode();
 		rootNode.put("query", queryNode);
 		rootNode.put("size", 0);
 		rootNode.put("aggs", aggsNode);
@@ -1219,53 +1378,109 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		return rootNode.toString();
 	}
 
-	private String _constructTermQuery(MetricSchemaRecordQuery query, int from, int size) {
-		ObjectMapper mapper = new ObjectMapper();
+	private String _constructTokenAggregationQuery(MetricSchemaRecordQuery query, RecordType type, int indexLevel) {
+		ObjectNode queryNode = _constructQueryNode(query, _mapper);
 
-		ObjectNode queryNode = _constructQueryNode(query, mapper);
+		long size = query.getLimit() * query.getPage();
+		SystemAssert.requireArgument(size > 0 && size <= Integer.MAX_VALUE,
+				"(limit * page) must be greater than 0 and less than Integer.MAX_VALUE");
+
+		ObjectNode aggsNode = _constructAggsNode(type, Math.max(size, 10000), _mapper);
+		ObjectNode termsNode = (ObjectNode) aggsNode.get("distinct_values").get("terms");
+
+		termsNode.remove("field");
+		ObjectNode scriptNode = termsNode.putObject("script");
+		scriptNode.put("lang", "painless");
+		scriptNode.put("inline", TOKEN_AT_LEVEL_SCRIPT);
+		scriptNode.putObject("params").put("field", type.getName() + ".raw").put("level", indexLevel);
 
 		ObjectNode rootNode = _mapper.createObjectNode();
 		rootNode.put("query", queryNode);
-		rootNode.put("from", from);
+		rootNode.put("size", 0);
+		rootNode.put("aggs", aggsNode);
+
+		return rootNode.toString();
+	}
+
+	/* Results are sorted on all identifying fields, which uniquely identify a record, so that the last record of a page can be used as the
+	 * search_after cursor for the next one. Missing fields sort as the empty string so that the cursor never contains nulls.
+	 */
+	private String _constructTermQuery(MetricSchemaRecordQuery query, int from, int size) {
+		return _constructSortedQuery(_constructQueryNode(query, _mapper), query.getScanFrom(), from, size);
+	}
+
+	private String _constructSortedQuery(ObjectNode queryNode, MetricSchemaRecord scanFrom, int from, int size) {
+		ObjectNode rootNode = _mapper.createObjectNode();
+		rootNode.put("query", queryNode);
 		rootNode.put("size", size);
 
+		ArrayNode sortNode = rootNode.putArray("sort");
+		for(RecordType type : SORT_FIELDS) {
+			ObjectNode fieldNode = _mapper.createObjectNode();
+			fieldNode.putObject(type.getName() + ".raw").put("order", "asc").put("missing", "");
+			sortNode.add(fieldNode);
+		}
+
+		if(scanFrom != null) {
+			ArrayNode searchAfterNode = rootNode.putArray("search_after");
+			for(RecordType type : SORT_FIELDS) {
+				String value = _getFieldValue(scanFrom, type);
+				searchAfterNode.add(value == null ? "" : value);
+			}
+		} else {
+			rootNode.put("from", from);
+		}
+
 		return rootNode.toString();
 	}
 
+	private static String _getFieldValue(MetricSchemaRecord record, RecordType type) {
+		switch(type) {
+			case NAMESPACE:
+				return record.getNamespace();
+			case SCOPE:
+				return record.getScope();
+			case METRIC:
+				return record.getMetric();
+			case TAGK:
+				return record.getTagKey();
+			case TAGV:
+				return record.getTagValue();
+			default:
+				throw new IllegalArgumentException("Invalid record type: " + type);
+		}
+	}
+
 	private ObjectNode _constructSimpleQueryStringNode(List<String> tokens, RecordType... types) {
 
 		if(tokens.isEmpty()) {
 			return null;
 		}
 
-		ObjectMapper mapper = new ObjectMapper();
-
 		StringBuilder queryString = new StringBuilder();
 		for(String token : tokens) {
 			queryString.append('+').append(token).append(' ');
 		}
 		queryString.replace(queryString.length() - 1, queryString.length(), "*");
 
-		ObjectNode node = mapper.createObjectNode();
-		ArrayNode fieldsNode = mapper.createArrayNode();
+		ObjectNode node = _mapper.createObjectNode();
+		ArrayNode fieldsNode = _mapper.createArrayNode();
 		for(RecordType type : types) {
 			fieldsNode.add(type.getName());
 		}
 		node.put("fields", fieldsNode);
 		node.put("query", queryString.toString());
 
-		ObjectNode simpleQueryStringNode = mapper.createObjectNode();
+		ObjectNode simpleQueryStringNode = _mapper.createObjectNode();
 		simpleQueryStringNode.put("simple_query_string", node);
 
 		return simpleQueryStringNode;
 	}
 
 	private String _constructQueryStringQuery(List<String> tokens, int from, int size) {
-		ObjectMapper mapper = new ObjectMapper();
-
 		ObjectNode simpleQueryStringNode = _constructSimpleQueryStringNode(tokens, RecordType.values());
 
-		ObjectNode rootNode = mapper.createObjectNode();
+		ObjectNode rootNode = _mapper.createObjectNode();
 		rootNode.put("query", simpleQueryStringNode);
 		rootNode.put("from", from);
 		rootNode.put("size", size);
@@ -1274,28 +1489,26 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 	}
 
 	private String _constructQueryStringQuery(KeywordQuery kq, Map<RecordType, List<String>> tokensMap) {
-		ObjectMapper mapper = new ObjectMapper();
-
-		ArrayNode filterNodes = mapper.createArrayNode();
+		ArrayNode filterNodes = _mapper.createArrayNode();
 		for(Map.Entry<RecordType, List<String>> entry : tokensMap.entrySet()) {
 			ObjectNode simpleQueryStringNode = _constructSimpleQueryStringNode(entry.getValue(), entry.getKey());
 			filterNodes.add(simpleQueryStringNode);
 		}
 
-		ObjectNode boolNode = mapper.createObjectNode();
+		ObjectNode boolNode = _mapper.createObjectNode();
 		boolNode.put("filter", filterNodes);
 
-		ObjectNode queryNode = mapper.createObjectNode();
+		ObjectNode queryNode = _mapper.createObjectNode();
 		queryNode.put("bool", boolNode);
 
-		ObjectNode rootNode = mapper.createObjectNode();
+		ObjectNode rootNode = _mapper.createObjectNode();
 		rootNode.put("query", queryNode);
 		rootNode.put("size", 0);
 
 		long size = kq.getLimit() * kq.getPage();
 		SystemAssert.requireArgument(size > 0 && size <= Integer.MAX_VALUE,
 				"(limit * page) must be greater than 0 and less than Integer.MAX_VALUE");
-		rootNode.put("aggs", _constructAggsNode(kq.getType(), Math.max(size, 10000), mapper));
+		rootNode.put("aggs", _constructAggsNode(kq.getType(), Math.max(size, 10000), _mapper));
 
 		return rootNode.toString();
 
@@ -1368,10 +1581,11 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 	}
 
 
-	/* Helper method to convert JSON String representation to the corresponding Java entity. */
-	private <T> T toEntity(String content, TypeReference<T> type) {
-		try {
-			return _mapper.readValue(content, type);
+	/* Helper method to read the content of a response into the corresponding Java entity. The content is parsed as it is read instead of
+	 * being buffered into a string first. */
+	private <T> T toEntity(Response response, ObjectReader reader) {
+		try (InputStream content = extractResponseContent(response)) {
+			return reader.readValue(content);
 		} catch (IOException ex) {
 			throw new SystemException(ex);
 		}
@@ -1401,6 +1615,38 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		return doExtractResponse(response.getStatusLine().getStatusCode(), response.getEntity());
 	}
 
+	/** Helper to open the content of a response for streaming. <br><br>
+	 * Throws the same exceptions as {@link ElasticSearchSchemaService#extractResponse(Response)} when the http status code is not in the
+	 * 200 range, or when a successful response has no content.
+	 * @param response ES response
+	 * @return	The response content. The caller is responsible for closing it.
+	 */
+	protected InputStream extractResponseContent(Response response) {
+		requireArgument(response != null, "HttpResponse object cannot be null.");
+
+		return doExtractResponseContent(response.getStatusLine().getStatusCode(), response.getEntity());
+	}
+
+	/**
+	 * testable version of {@link ElasticSearchSchemaService#extractResponseContent(Response)}
+	 * @param statusCode
+	 * @param entity
+	 * @return
+	 */
+	@VisibleForTesting
+	static InputStream doExtractResponseContent(int statusCode, HttpEntity entity) {
+		if (statusCode >= HttpStatus.SC_OK && statusCode < HttpStatus.SC_MULTIPLE_CHOICES && entity != null) {
+			try {
+				return entity.getContent();
+			} catch (IOException ex) {
+				throw new SystemException(ex);
+			}
+		}
+		// Error responses are small, so they are buffered to build the exception message.
+		doExtractResponse(statusCode, entity);
+		throw new SystemException("Status code: " + statusCode + " .  Response has no content.");
+	}
+
 	/**
 	 * testable version of {@link ElasticSearchSchemaService#extractResponse(Response)}
 	 * @param statusCode
@@ -1671,6 +1917,38 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 	}
 
 
+	/* Accumulates records into batches that are bounded by both the record count and the estimated bulk request size. */
+	private final class BatchAccumulator<T> {
+
+		private final List<List<T>> _batches = new ArrayList<>();
+		private List<T> _batch = new ArrayList<>();
+		private long _batchBytes;
+
+		void add(T record, int estimatedBytes) {
+			if(!_batch.isEmpty() && _batchBytes + estimatedBytes > _bulkIndexingBytes) {
+				_cut();
+			}
+			_batch.add(record);
+			_batchBytes += estimatedBytes;
+			if(_batch.size() == _bulkIndexingSize) {
+				_cut();
+			}
+		}
+
+		List<List<T>> getBatches() {
+			if(!_batch.isEmpty()) {
+				_cut();
+			}
+			return _batches;
+		}
+
+		private void _cut() {
+			_batches.add(_batch);
+			_batch = new ArrayList<>();
+			_batchBytes = 0;
+		}
+	}
+
 	/**
 	 * The set of implementation specific configuration properties.
 	 *
@@ -1701,6 +1979,17 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		 * https://www.elastic.co/guide/en/elasticsearch/guide/current/indexing-performance.html#_using_and_sizing_bulk_requests
 		 */
 		ELASTICSEARCH_INDEXING_BATCH_SIZE("service.property.schema.elasticsearch.indexing.batch.size", "10000"),
+		/** The max estimated size in bytes of a single bulk indexing request. A batch is cut at whichever of this and the batch size is reached first. */
+		ELASTICSEARCH_INDEXING_BATCH_BYTES("service.property.schema.elasticsearch.indexing.batch.bytes", "5242880"),
+		/** The no. of bulk indexing requests that may be in flight concurrently. */
+		ELASTICSEARCH_BULK_INDEXING_THREADS("service.property.schema.elasticsearch.bulk.indexing.threads", "4"),
+		/** The no. of times bulk items rejected by ES with 429 Too Many Requests are retried. */
+		ELASTICSEARCH_BULK_INDEXING_MAX_RETRIES("service.property.schema.elasticsearch.bulk.indexing.max.retries", "3"),
+		/** The initial backoff in milliseconds before retrying rejected bulk items. It doubles with every retry. */
+		ELASTICSEARCH_BULK_INDEXING_RETRY_BACKOFF_MS("service.property.schema.elasticsearch.bulk.indexing.retry.backoff.ms", "100"),
+
+		/** Answer browse queries with a scripted terms aggregation over the tokens at the requested level, instead of tokenizing every distinct value. */
+		ELASTICSEARCH_BROWSE_USE_TOKEN_AGGREGATION("service.property.schema.elasticsearch.browse.use.token.aggregation", "true"),
 
 		ELASTICSEARCH_USE_SCOPE_AND_METRIC_INDEX("service.property.schema.elasticsearch.use.scopeandmetric.index", "false"),
 
@@ -1754,6 +2043,10 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 		}
 	}
 
+	/* Bulk responses are walked token by token. Only the items that did not succeed are materialized, and the items array is skipped
+	 * without binding when the response has already reported that there are no errors.
+	 */
+	@JsonDeserialize(using = PutResponse.Deserializer.class)
 	static class PutResponse {
 		private int took;
 		private boolean errors;
@@ -1785,11 +2078,102 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 			this.items = items;
 		}
 
+		static class Deserializer extends JsonDeserializer<PutResponse> {
+
+			@Override
+			public PutResponse deserialize(JsonParser jp, DeserializationContext context) throws IOException {
+				PutResponse putResponse = new PutResponse();
+				boolean errorsKnown = false;
+
+				putResponse.items = new ArrayList<>();
+				while(jp.nextToken() == JsonToken.FIELD_NAME) {
+					String field = jp.getCurrentName();
+					JsonToken token = jp.nextToken();
+
+					if("took".equals(field)) {
+						putResponse.took = jp.getValueAsInt();
+					} else if("errors".equals(field)) {
+						putResponse.errors = jp.getValueAsBoolean();
+						errorsKnown = true;
+					} else if("items".equals(field) && token == JsonToken.START_ARRAY && !(errorsKnown && !putResponse.errors)) {
+						int position = 0;
+
+						while(jp.nextToken() == JsonToken.START_OBJECT) {
+							Item item = _readItem(jp);
+
+							if(item != null) {
+								item.position = position;
+								putResponse.items.add(item);
+							}
+							position++;
+						}
+					} else {
+						jp.skipChildren();
+					}
+				}
+				return putResponse;
+			}
+
+			private Item _readItem(JsonParser jp) throws IOException {
+				Item item = new Item();
+				boolean failed = false;
+
+				while(jp.nextToken() == JsonToken.FIELD_NAME) {
+					String action = jp.getCurrentName();
+
+					if(jp.nextToken() != JsonToken.START_OBJECT) {
+						jp.skipChildren();
+						continue;
+					}
+
+					CreateItem actionItem = _readActionItem(jp);
+
+					failed |= actionItem.status < HttpStatus.SC_OK || actionItem.status >= HttpStatus.SC_MULTIPLE_CHOICES;
+					if("create".equals(action)) {
+						item.create = actionItem;
+					} else if("update".equals(action)) {
+						item.update = actionItem;
+					} else if("index".equals(action)) {
+						item.index = actionItem;
+					}
+				}
+				return failed ? item : null;
+			}
+
+			private CreateItem _readActionItem(JsonParser jp) throws IOException {
+				CreateItem actionItem = new CreateItem();
+
+				while(jp.nextToken() == JsonToken.FIELD_NAME) {
+					String field = jp.getCurrentName();
+					JsonToken token = jp.nextToken();
+
+					if("_id".equals(field)) {
+						actionItem._id = jp.getValueAsString();
+					} else if("status".equals(field)) {
+						actionItem.status = jp.getValueAsInt();
+					} else if("_index".equals(field)) {
+						actionItem._index = jp.getValueAsString();
+					} else if("_type".equals(field)) {
+						actionItem._type = jp.getValueAsString();
+					} else if("_version".equals(field)) {
+						actionItem._version = jp.getValueAsInt();
+					} else if("error".equals(field) && token == JsonToken.START_OBJECT) {
+						actionItem.error = jp.readValueAs(Error.class);
+					} else {
+						jp.skipChildren();
+					}
+				}
+				return actionItem;
+			}
+		}
+
 		@JsonIgnoreProperties(ignoreUnknown = true)
 		static class Item {
 			private CreateItem create;
 			private CreateItem index;
 			private CreateItem update;
+			/* The position of the action in the bulk request. It is set by the deserializer and is not part of the response. */
+			private int position;
 
 			public Item() {}
 
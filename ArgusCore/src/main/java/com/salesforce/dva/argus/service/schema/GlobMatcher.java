@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.schema;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.salesforce.dva.argus.service.SchemaService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches strings against an Argus glob, with the same semantics as a regex built by {@link SchemaService#convertToRegex(String)}. Globs
+ * without wildcards are matched literally, globs that only use '*' and top level '|' are matched with plain string operations (literal, prefix, suffix, contains and ordered segments, or
+ * an alternation of those), and only globs using '?', character classes or regex meta characters fall back to a compiled pattern.
+ *
+ * <p>Matchers are immutable and thread safe. {@link #compile(String)} caches them by glob text, so the same glob is only parsed once no
+ * matter how many records it is evaluated against.</p>
+ */
+public abstract class GlobMatcher {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final int MAX_CACHED_MATCHERS = 10000;
+    private static final String REGEX_META_CHARACTERS = "\\^$+(){}";
+    private static final LoadingCache<String, GlobMatcher> CACHE = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_MATCHERS)
+        .build(new CacheLoader<String, GlobMatcher>() {
+
+                @Override
+                public GlobMatcher load(String glob) {
+                    return _compile(glob);
+                }
+            });
+
+    //~ Instance fields ******************************************************************************************************************************
+
+    private final String _prefix;
+
+    //~ Constructors *********************************************************************************************************************************
+
+    private GlobMatcher(String prefix) {
+        _prefix = prefix;
+    }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Returns the matcher for a glob.
+     *
+     * @param   glob  The glob to match. Cannot be null.
+     *
+     * @return  The matcher. Will never be null.
+     */
+    public static GlobMatcher compile(String glob) {
+        return CACHE.getUnchecked(glob);
+    }
+
+    /**
+     * Indicates whether a value is matched by the glob.
+     *
+     * @param   value  The value to match. May be null.
+     *
+     * @return  True if the value is not null and the whole value matches the glob.
+     */
+    public abstract boolean matches(String value);
+
+    /**
+     * Returns the literal prefix that every matching value starts with.
+     *
+     * @return  The literal prefix. Will never be null, but is empty if the glob starts with a wildcard or is an alternation.
+     */
+    public String getPrefix() {
+        return _prefix;
+    }
+
+    /**
+     * Indicates whether the glob has no wildcards, so that only the literal value itself is matched.
+     *
+     * @return  True if the glob is a literal.
+     */
+    public boolean isLiteral() {
+        return false;
+    }
+
+    private static GlobMatcher _compile(String glob) {
+        if (!SchemaService.containsWildcard(glob)) {
+            return new Literal(glob);
+        }
+        if (_containsRegexMetaCharacter(glob) || glob.indexOf('?') >= 0 || glob.indexOf('[') >= 0 || glob.indexOf(']') >= 0) {
+            return new Regex(glob);
+        }
+        if (glob.indexOf('|') >= 0) {
+            List<GlobMatcher> alternatives = new ArrayList<>();
+
+            for (String alternative : glob.split("\\|", -1)) {
+                alternatives.add(_compile(alternative));
+            }
+            return new Alternation(alternatives);
+        }
+        return new Segments(glob);
+    }
+
+    private static boolean _containsRegexMetaCharacter(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if (REGEX_META_CHARACTERS.indexOf(glob.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //~ Inner Classes ********************************************************************************************************************************
+
+    private static final class Literal extends GlobMatcher {
+
+        private final String _literal;
+
+        Literal(String literal) {
+            super(literal);
+            _literal = literal;
+        }
+
+        @Override
+        public boolean matches(String value) {
+            return _literal.equals(value);
+        }
+
+        @Override
+        public boolean isLiteral() {
+            return true;
+        }
+    }
+
+    /* A glob made of literal segments separated by '*'. The first segment must be a prefix and the last one a suffix, and the segments in
+     * between are found left to right. Matching each segment at its leftmost position is sufficient for '*' only globs. */
+    private static final class Segments extends GlobMatcher {
+
+        private final String _suffix;
+        private final String[] _middle;
+        private final int _minLength;
+
+        Segments(String glob) {
+            super(glob.substring(0, glob.indexOf('*')));
+
+            String[] segments = glob.split("\\*", -1);
+
+            _suffix = segments[segments.length - 1];
+            _middle = new String[segments.length - 2];
+
+            int minLength = 0;
+
+            for (int i = 0; i < segments.length; i++) {
+                minLength += segments[i].length();
+                if (i > 0 && i < segments.length - 1) {
+                    _middle[i - 1] = segments[i];
+                }
+            }
+            _minLength = minLength;
+        }
+
+        @Override
+        public boolean matches(String value) {
+            if (value == null || value.length() < _minLength || !value.startsWith(getPrefix()) || !value.endsWith(_suffix)) {
+                return false;
+            }
+
+            int from = getPrefix().length();
+            int to = value.length() - _suffix.length();
+
+            for (String segment : _middle) {
+                if (segment.isEmpty()) {
+                    continue;
+                }
+
+                int index = value.indexOf(segment, from);
+
+                if (index < 0 || index + segment.length() > to) {
+                    return false;
+                }
+                from = index + segment.length();
+            }
+            return true;
+        }
+    }
+
+    private static final class Alternation extends GlobMatcher {
+
+        private final GlobMatcher[] _alternatives;
+
+        Alternation(List<GlobMatcher> alternatives) {
+            super("");
+            _alternatives = alternatives.toArray(new GlobMatcher[alternatives.size()]);
+        }
+
+        @Override
+        public boolean matches(String value) {
+            if (value == null) {
+                return false;
+            }
+            for (GlobMatcher alternative : _alternatives) {
+                if (alternative.matches(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Regex extends GlobMatcher {
+
+        private final Pattern _pattern;
+
+        Regex(String glob) {
+            super(_literalPrefix(glob));
+            _pattern = Pattern.compile(SchemaService.convertToRegex(glob));
+        }
+
+        /* A quantifier or group can change the meaning of the characters before it, so only plain globs get a literal prefix. */
+        private static String _literalPrefix(String glob) {
+            if (glob.indexOf('|') >= 0 || _containsRegexMetaCharacter(glob)) {
+                return "";
+            }
+
+            int i = 0;
+
+            while (i < glob.length() && !SchemaService.isWildcardCharacter(glob.charAt(i))) {
+                i++;
+            }
+            return glob.substring(0, i);
+        }
+
+        @Override
+        public boolean matches(String value) {
+            return value != null && _pattern.matcher(value).matches();
+        }
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -2,9 +2,7 @@ package com.salesforce.dva.argus.service.schema;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -14,13 +12,13 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializerProvider;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.salesforce.dva.argus.entity.MetricSchemaRecord;
 import com.salesforce.dva.argus.service.SchemaService.RecordType;
 
@@ -28,10 +26,12 @@ import net.openhft.hashing.LongHashFunction;
 
 import static com.salesforce.dva.argus.entity.MetricSchemaRecord.DEFAULT_RETENTION_DISCOVERY_DAYS;
 import static com.salesforce.dva.argus.entity.MetricSchemaRecord.EXPIRATION_TS;
+import static com.salesforce.dva.argus.entity.MetricSchemaRecord.RETENTION_DISCOVERY;
 
 public class MetricSchemaRecordList {
 	private final static long ONE_DAY_IN_MILLIS = 24L * 3600L * 1000L;
-	private Map<String, MetricSchemaRecord> _idToSchemaRecordMap = new HashMap<>();
+	private Map<String, MetricSchemaRecord> _idToSchemaRecordMap = new LinkedHashMap<>();
+	private List<MetricSchemaRecord> _records;
 	private String _scrollID;
 	
 	public MetricSchemaRecordList(List<MetricSchemaRecord> records, HashAlgorithm algorithm) {
@@ -46,16 +46,14 @@ public class MetricSchemaRecordList {
 		}
 	}
 	
+	/* Records read from a search response are not looked up by id, so the list built by the deserializer is kept as is. */
 	private MetricSchemaRecordList(List<MetricSchemaRecord> records, String scrollID) {
-		int count = 0;
-		for(MetricSchemaRecord record : records) {
-			_idToSchemaRecordMap.put(String.valueOf(count++), record);
-		}
+		_records = records;
 		setScrollID(scrollID);
 	}
 
 	public List<MetricSchemaRecord> getRecords() {
-		return new ArrayList<>(_idToSchemaRecordMap.values());
+		return _records != null ? _records : new ArrayList<>(_idToSchemaRecordMap.values());
 	}
 	
 	public String getScrollID() {
@@ -87,34 +85,40 @@ public class MetricSchemaRecordList {
 	}
 	
 	
+	/* Writes every record as an update action whose doc only refreshes mts and the expiration, with the full record as the upsert. A new
+	 * record is created from the upsert, and an existing one is refreshed in the same request.
+	 */
 	static class Serializer extends JsonSerializer<MetricSchemaRecordList> {
 
+		private static final ObjectWriter RECORD_WRITER = new ObjectMapper().setSerializationInclusion(Include.NON_NULL).writer();
+
 		@Override
 		public void serialize(MetricSchemaRecordList list, JsonGenerator jgen, SerializerProvider provider)
 				throws IOException, JsonProcessingException {
 			
-			ObjectMapper mapper = new ObjectMapper();
-			mapper.setSerializationInclusion(Include.NON_NULL);
 			final long now = System.currentTimeMillis();
 
 			for(Map.Entry<String, MetricSchemaRecord> entry : list._idToSchemaRecordMap.entrySet()) {
-				jgen.writeRaw("{ \"create\" : {\"_id\" : \"" + entry.getKey() + "\"}}");
+				jgen.writeRaw("{ \"update\" : {\"_id\" : \"" + entry.getKey() + "\"}}");
 				jgen.writeRaw(System.lineSeparator());
-				String fieldsData = mapper.writeValueAsString(entry.getValue());
+				String fieldsData = RECORD_WRITER.writeValueAsString(entry.getValue());
 
-				String mtsField = "\"mts\":" + now;
-				String ctsField = "\"cts\":" + now;
 				Integer retention = entry.getValue().getRetentionDiscovery();
 				Long expiration = now + (retention==null? DEFAULT_RETENTION_DISCOVERY_DAYS:retention) * ONE_DAY_IN_MILLIS;
-				String expirationField = "\"" + EXPIRATION_TS + "\":" + expiration;
+				String updateFields = "\"mts\":" + now + ",\"" + EXPIRATION_TS + "\":" + expiration;
+				String docFields = retention == null ? updateFields : updateFields + ",\"" + RETENTION_DISCOVERY + "\":" + retention;
 
-				jgen.writeRaw(fieldsData.substring(0, fieldsData.length()-1) + "," + mtsField + "," + ctsField + "," + expirationField + "}");
+				jgen.writeRaw("{\"doc\":{" + docFields + "},\"upsert\":"
+						+ fieldsData.substring(0, fieldsData.length()-1) + "," + updateFields + ",\"cts\":" + now + "}}");
 				jgen.writeRaw(System.lineSeparator());
 			}
 		}
     }
 	
 	
+	/* Walks the search response token by token and builds records straight from the _source fields of each hit, so neither the
+	 * response nor the hits are materialized as a tree.
+	 */
 	static class Deserializer extends JsonDeserializer<MetricSchemaRecordList> {
 
 		@Override
@@ -122,39 +126,91 @@ public class MetricSchemaRecordList {
 				throws IOException, JsonProcessingException {
 			
 			String scrollID = null;
-			List<MetricSchemaRecord> records = Collections.emptyList();
+			List<MetricSchemaRecord> records = new ArrayList<>();
 			
-			JsonNode rootNode = jp.getCodec().readTree(jp);
-			if(rootNode.has("_scroll_id")) {
-				scrollID = rootNode.get("_scroll_id").asText();
-			}
-			JsonNode hits = rootNode.get("hits").get("hits");
-			
-			if(JsonNodeType.ARRAY.equals(hits.getNodeType())) {
-				records = new ArrayList<>(hits.size());
-				Iterator<JsonNode> iter = hits.elements();
-				while(iter.hasNext()) {
-					JsonNode hit = iter.next();
-					JsonNode source = hit.get("_source");
-
-					JsonNode namespaceNode = source.get(RecordType.NAMESPACE.getName());
-					JsonNode scopeNode = source.get(RecordType.SCOPE.getName());
-					JsonNode metricNode = source.get(RecordType.METRIC.getName());
-					JsonNode tagkNode = source.get(RecordType.TAGK.getName());
-					JsonNode tagvNode = source.get(RecordType.TAGV.getName());
-					JsonNode retentionNode = source.get(RecordType.RETENTION_DISCOVERY.getName());
-					
-					records.add(new MetricSchemaRecord(namespaceNode == null ? null : namespaceNode.asText(), 
-													   	scopeNode.asText(),
-													   	metricNode.asText(),
-													   	tagkNode == null ? null : tagkNode.asText(),
-													   	tagvNode == null ? null : tagvNode.asText(),
-														retentionNode == null? null : retentionNode.asInt()));
+			while(jp.nextToken() == JsonToken.FIELD_NAME) {
+				String field = jp.getCurrentName();
+				JsonToken token = jp.nextToken();
+
+				if("_scroll_id".equals(field)) {
+					scrollID = jp.getValueAsString();
+				} else if("hits".equals(field) && token == JsonToken.START_OBJECT) {
+					records = _readHits(jp);
+				} else {
+					jp.skipChildren();
 				}
 			}
 			
 			return new MetricSchemaRecordList(records, scrollID);
 		}
-		
+
+		private List<MetricSchemaRecord> _readHits(JsonParser jp) throws IOException {
+			List<MetricSchemaRecord> records = new ArrayList<>();
+
+			while(jp.nextToken() == JsonToken.FIELD_NAME) {
+				String field = jp.getCurrentName();
+				JsonToken token = jp.nextToken();
+
+				if("hits".equals(field) && token == JsonToken.START_ARRAY) {
+					records = new ArrayList<>();
+					while(jp.nextToken() == JsonToken.START_OBJECT) {
+						MetricSchemaRecord record = _readHit(jp);
+
+						if(record != null) {
+							records.add(record);
+						}
+					}
+				} else {
+					jp.skipChildren();
+				}
+			}
+			return records;
+		}
+
+		private MetricSchemaRecord _readHit(JsonParser jp) throws IOException {
+			MetricSchemaRecord record = null;
+
+			while(jp.nextToken() == JsonToken.FIELD_NAME) {
+				String field = jp.getCurrentName();
+				JsonToken token = jp.nextToken();
+
+				if("_source".equals(field) && token == JsonToken.START_OBJECT) {
+					record = _readSource(jp);
+				} else {
+					jp.skipChildren();
+				}
+			}
+			return record;
+		}
+
+		private MetricSchemaRecord _readSource(JsonParser jp) throws IOException {
+			String namespace = null, scope = null, metric = null, tagKey = null, tagValue = null;
+			Integer retention = null;
+
+			while(jp.nextToken() == JsonToken.FIELD_NAME) {
+				String field = jp.getCurrentName();
+				JsonToken token = jp.nextToken();
+
+				if(token == JsonToken.VALUE_NULL) {
+					continue;
+				}
+				if(RecordType.NAMESPACE.getName().equals(field)) {
+					namespace = jp.getValueAsString();
+				} else if(RecordType.SCOPE.getName().equals(field)) {
+					scope = jp.getValueAsString();
+				} else if(RecordType.METRIC.getName().equals(field)) {
+					metric = jp.getValueAsString();
+				} else if(RecordType.TAGK.getName().equals(field)) {
+					tagKey = jp.getValueAsString();
+				} else if(RecordType.TAGV.getName().equals(field)) {
+					tagValue = jp.getValueAsString();
+				} else if(RecordType.RETENTION_DISCOVERY.getName().equals(field)) {
+					retention = jp.getValueAsInt();
+				} else {
+					jp.skipChildren();
+				}
+			}
+			return new MetricSchemaRecord(namespace, scope, metric, tagKey, tagValue, retention);
+		}
 	}
 }
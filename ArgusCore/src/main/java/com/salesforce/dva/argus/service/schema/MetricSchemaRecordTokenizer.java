@@ -13,7 +13,6 @@ public class MetricSchemaRecordTokenizer {
     public static SortedSet<String> GetUniqueTokens(List<MetricSchemaRecord> records, RecordType type, int indexLevel) {
 
         SortedSet<String> tokens = new TreeSet<>();
-        String _delimiterRegex = "\\.";
 
         List<String> entries = _getValueForType(records, type);
 
@@ -22,15 +21,43 @@ public class MetricSchemaRecordTokenizer {
                 continue;
             }
 
-            String[] allTokens = entry.split(_delimiterRegex);
+            String token = _getTokenAtLevel(entry, indexLevel);
 
-            if(allTokens.length > indexLevel) {
-                tokens.add(allTokens[indexLevel]);
+            if(token != null) {
+                tokens.add(token);
             }
         }
         return tokens;
     }
 
+    /* Returns the same token as entry.split("\\.")[indexLevel] without splitting the whole entry. Like split, trailing empty tokens are
+     * not counted, so an empty token is only returned if a non empty token follows it. */
+    private static String _getTokenAtLevel(String entry, int indexLevel) {
+        int start = 0;
+
+        for (int level = 0; level < indexLevel; level++) {
+            int delimiter = entry.indexOf('.', start);
+
+            if (delimiter < 0) {
+                return null;
+            }
+            start = delimiter + 1;
+        }
+
+        int end = entry.indexOf('.', start);
+
+        end = end < 0 ? entry.length() : end;
+        if (end > start || entry.isEmpty()) {
+            return entry.substring(start, end);
+        }
+        for (int i = end; i < entry.length(); i++) {
+            if (entry.charAt(i) != '.') {
+                return "";
+            }
+        }
+        return null;
+    }
+
     private static List<String> _getValueForType(List<MetricSchemaRecord> records, RecordType type) {
 
         List<String> result=new ArrayList<>();
@@ -0,0 +1,281 @@
+package com.salesforce.dva.argus.service.schema;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+/**
+ * A concurrent bloom filter used to remember which schema records have already been written.
+ *
+ * <p>The bit space is split into a power of two number of shards, and all probes for a key land in the same shard. Bits are set with a
+ * compare-and-set on the backing word, so committer threads never block one another.</p>
+ *
+ * <p>The filter ages gradually. {@link #age(int, int)} empties a slice of the shards, and calling it for every step of a cycle empties each
+ * shard exactly once. Keys in an emptied shard are reported missing once, and the caller writes their records again. This periodic rewrite
+ * is what keeps the modified and expiration times of live schema records fresh in the index, and spreading it over the cycle keeps the
+ * rewrites from arriving all at once.</p>
+ */
+public final class SchemaBloomFilter {
+
+	private static final int SERIAL_MAGIC = 0x53424632;
+	private static final int MIN_WORDS_PER_SHARD = 512;
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+	private final int _numShards;
+	private final int _wordsPerShard;
+	private final int _numHashFunctions;
+	private final AtomicReferenceArray<Shard> _shards;
+
+	/**
+	 * Creates a new bloom filter.
+	 *
+	 * @param  expectedInsertions  The number of keys expected in the filter. Must be positive.
+	 * @param  errorRate           The desired false positive probability. Must be between 0 and 1 exclusive.
+	 * @param  numShards           The maximum number of shards. Must be a positive power of two. Small filters use fewer shards so that
+	 *                             each shard holds at least {@value #MIN_WORDS_PER_SHARD} words.
+	 */
+	public SchemaBloomFilter(long expectedInsertions, double errorRate, int numShards) {
+		requireArgument(expectedInsertions > 0, "Expected insertions must be greater than 0.");
+		requireArgument(errorRate > 0.0 && errorRate < 1.0, "Error rate must be between 0 and 1 exclusive.");
+		requireArgument(numShards > 0 && Integer.bitCount(numShards) == 1, "Shard count must be a positive power of two.");
+
+		long numBits = (long) (-expectedInsertions * Math.log(errorRate) / (Math.log(2) * Math.log(2)));
+		long numWords = Math.max(1L, (numBits + Long.SIZE - 1) / Long.SIZE);
+		int effectiveShards = (int) Math.min(numShards, Long.highestOneBit(Math.max(1L, numWords / MIN_WORDS_PER_SHARD)));
+		long wordsPerShard = (numWords + effectiveShards - 1) / effectiveShards;
+
+		requireArgument(wordsPerShard <= Integer.MAX_VALUE, "Expected insertions are too large for the configured shard count.");
+		_numShards = effectiveShards;
+		_wordsPerShard = (int) wordsPerShard;
+		_numHashFunctions = Math.max(1, (int) Math.round((double) bitSize() / expectedInsertions * Math.log(2)));
+		_shards = new AtomicReferenceArray<>(_numShards);
+		for (int i = 0; i < _numShards; i++) {
+			_shards.set(i, new Shard(_wordsPerShard));
+		}
+	}
+
+	/**
+	 * Indicates whether the key might have been put since its shard was last emptied.
+	 *
+	 * @param   key  The key to check. Cannot be null.
+	 *
+	 * @return  False if the key has definitely not been put, true if it probably has.
+	 */
+	public boolean mightContain(CharSequence key) {
+		HashCode hash = HASH_FUNCTION.hashString(key, StandardCharsets.UTF_8);
+
+		return _shard(hash).mightContain(hash.asLong(), _secondHash(hash), _numHashFunctions);
+	}
+
+	/**
+	 * Puts the key into the filter.
+	 *
+	 * @param  key  The key to put. Cannot be null.
+	 */
+	public void put(CharSequence key) {
+		HashCode hash = HASH_FUNCTION.hashString(key, StandardCharsets.UTF_8);
+
+		_shard(hash).put(hash.asLong(), _secondHash(hash), _numHashFunctions);
+	}
+
+	/**
+	 * Empties the slice of shards that belongs to the given step of an aging cycle. Each shard belongs to exactly one step, so the keys of
+	 * every shard are discarded once per cycle. When there are more steps than shards, some steps empty nothing.
+	 *
+	 * @param  step           The step of the cycle. Must be between 0 inclusive and the number of steps exclusive.
+	 * @param  stepsPerCycle  The number of steps in a cycle. Must be positive.
+	 */
+	public void age(int step, int stepsPerCycle) {
+		requireArgument(stepsPerCycle > 0, "Steps per cycle must be greater than 0.");
+		requireArgument(step >= 0 && step < stepsPerCycle, "Step must be between 0 and the number of steps per cycle.");
+
+		int from = (int) ((long) step * _numShards / stepsPerCycle);
+		int to = (int) ((long) (step + 1) * _numShards / stepsPerCycle);
+
+		for (int i = from; i < to; i++) {
+			_shards.set(i, new Shard(_wordsPerShard));
+		}
+	}
+
+	/**
+	 * Returns an estimate of the number of distinct keys in the filter.
+	 *
+	 * @return  The approximate element count.
+	 */
+	public long approximateElementCount() {
+		double fractionOfBitsSet = (double) _bitCount() / bitSize();
+
+		return Math.round(-Math.log1p(-fractionOfBitsSet) * bitSize() / _numHashFunctions);
+	}
+
+	/**
+	 * Returns the probability that {@link #mightContain(CharSequence)} erroneously returns true for a key that has not been put.
+	 *
+	 * @return  The expected false positive probability.
+	 */
+	public double expectedFpp() {
+		return Math.pow((double) _bitCount() / bitSize(), _numHashFunctions);
+	}
+
+	/**
+	 * Returns the number of bits in the filter.
+	 *
+	 * @return  The bit size.
+	 */
+	public long bitSize() {
+		return (long) _numShards * _wordsPerShard * Long.SIZE;
+	}
+
+	/**
+	 * Writes the state of the filter to the given stream. The stream is not closed.
+	 *
+	 * @param   out  The stream to write to. Cannot be null.
+	 *
+	 * @throws  IOException  If the stream cannot be written.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		DataOutputStream dataOut = new DataOutputStream(out);
+
+		dataOut.writeInt(SERIAL_MAGIC);
+		dataOut.writeInt(_numShards);
+		dataOut.writeInt(_wordsPerShard);
+		dataOut.writeInt(_numHashFunctions);
+		for (int i = 0; i < _numShards; i++) {
+			_shards.get(i).writeTo(dataOut);
+		}
+		dataOut.flush();
+	}
+
+	/**
+	 * Replaces the state of the filter with the state previously written by {@link #writeTo(OutputStream)}. The stream is not closed. If the
+	 * state cannot be read, this filter is left unchanged.
+	 *
+	 * @param   in  The stream to read from. Cannot be null.
+	 *
+	 * @throws  IOException  If the stream cannot be read or was written by a filter with a different layout.
+	 */
+	public void readFrom(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+
+		if (dataIn.readInt() != SERIAL_MAGIC) {
+			throw new IOException("Stream does not contain a schema bloom filter.");
+		}
+		if (dataIn.readInt() != _numShards || dataIn.readInt() != _wordsPerShard || dataIn.readInt() != _numHashFunctions) {
+			throw new IOException("Persisted schema bloom filter does not match the configured size.");
+		}
+
+		Shard[] shards = new Shard[_numShards];
+
+		for (int i = 0; i < _numShards; i++) {
+			shards[i] = Shard.readFrom(dataIn, _wordsPerShard);
+		}
+		for (int i = 0; i < _numShards; i++) {
+			_shards.set(i, shards[i]);
+		}
+	}
+
+	/* The shard is selected from the high bits of the second hash. */
+	private Shard _shard(HashCode hash) {
+		return _shards.get((int) (_secondHash(hash) >>> 32) & (_numShards - 1));
+	}
+
+	private long _bitCount() {
+		long bitCount = 0;
+
+		for (int i = 0; i < _numShards; i++) {
+			bitCount += _shards.get(i).bitCount();
+		}
+		return bitCount;
+	}
+
+	private static long _secondHash(HashCode hash) {
+		byte[] bytes = hash.asBytes();
+
+		return Longs.fromBytes(bytes[15], bytes[14], bytes[13], bytes[12], bytes[11], bytes[10], bytes[9], bytes[8]);
+	}
+
+	/* The bits of a single shard. The probes within the shard are derived from both hashes using double hashing. */
+	private static final class Shard {
+
+		private final AtomicLongArray _words;
+		private final long _bitsPerShard;
+		private final LongAdder _bitCount = new LongAdder();
+
+		Shard(int wordsPerShard) {
+			_words = new AtomicLongArray(wordsPerShard);
+			_bitsPerShard = (long) wordsPerShard * Long.SIZE;
+		}
+
+		boolean mightContain(long hash1, long hash2, int numHashFunctions) {
+			long combinedHash = hash1;
+
+			for (int i = 0; i < numHashFunctions; i++) {
+				long bitIndex = (combinedHash & Long.MAX_VALUE) % _bitsPerShard;
+
+				if ((_words.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+					return false;
+				}
+				combinedHash += hash2;
+			}
+			return true;
+		}
+
+		void put(long hash1, long hash2, int numHashFunctions) {
+			long combinedHash = hash1;
+
+			for (int i = 0; i < numHashFunctions; i++) {
+				_setBit((combinedHash & Long.MAX_VALUE) % _bitsPerShard);
+				combinedHash += hash2;
+			}
+		}
+
+		long bitCount() {
+			return _bitCount.sum();
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			for (int i = 0; i < _words.length(); i++) {
+				out.writeLong(_words.get(i));
+			}
+		}
+
+		static Shard readFrom(DataInputStream in, int wordsPerShard) throws IOException {
+			Shard shard = new Shard(wordsPerShard);
+
+			for (int i = 0; i < wordsPerShard; i++) {
+				long word = in.readLong();
+
+				shard._words.set(i, word);
+				shard._bitCount.add(Long.bitCount(word));
+			}
+			return shard;
+		}
+
+		private void _setBit(long bitIndex) {
+			int wordIndex = (int) (bitIndex >>> 6);
+			long mask = 1L << bitIndex;
+			long oldValue;
+
+			do {
+				oldValue = _words.get(wordIndex);
+				if ((oldValue & mask) != 0) {
+					return;
+				}
+			} while (!_words.compareAndSet(wordIndex, oldValue, oldValue | mask));
+			_bitCount.increment();
+		}
+	}
+}
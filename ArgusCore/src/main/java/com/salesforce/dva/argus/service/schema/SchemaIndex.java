@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.schema;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.MetricSchemaRecord;
+import com.salesforce.dva.argus.entity.MetricSchemaRecordQuery;
+import com.salesforce.dva.argus.service.SchemaService;
+import com.salesforce.dva.argus.system.SystemConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * Optional in-process index of metric schema records used to expand wildcard discovery queries without a round trip to the schema service.
+ *
+ * <p>Records are held in an immutable snapshot in which the namespace, scope, metric, tag key and tag value tokens are interned and kept in
+ * sorted term dictionaries, each term pointing to a posting list of record ids. A glob is resolved by scanning only the terms that share its
+ * literal prefix, and the postings of all constrained fields are intersected. New records are added to a small delta that is searched
+ * alongside the snapshot, and the delta is folded into a new snapshot once it grows large.</p>
+ *
+ * <p>Records reach the delta in two ways. Records written through the schema service of this process are added immediately. Records
+ * written by other processes, such as the other ingestion nodes, are pulled from the Elasticsearch schema service by their modification
+ * time every {@link Property#SCHEMA_INDEX_REFRESH_INTERVAL_MS}. A record written elsewhere is therefore missing from the index for at most
+ * the refresh interval plus the Elasticsearch refresh interval. The pull only returns recently written records, so the full rebuild, which
+ * drops records that no longer exist, can run rarely. Other schema services do not track modification times, and with them records written
+ * elsewhere only appear after the next full rebuild.</p>
+ *
+ * <p>Until the first rebuild completes, or if the number of records exceeds the configured maximum, the index reports itself as not ready
+ * and callers should query the schema service instead.</p>
+ */
+@Singleton
+public class SchemaIndex {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final int RECONCILE_PAGE_SIZE = 10000;
+    private static final int MAX_DELTA_SIZE = 100000;
+    /* Covers the Elasticsearch refresh interval and clock differences between the writers, which set the modification time. */
+    private static final long REFRESH_OVERLAP_MILLIS = 5 * 60 * 1000L;
+    private static final Comparator<String> NULLS_FIRST = Comparator.nullsFirst(Comparator.naturalOrder());
+    static final Comparator<MetricSchemaRecord> RECORD_ORDER = Comparator.comparing(MetricSchemaRecord::getNamespace, NULLS_FIRST)
+        .thenComparing(MetricSchemaRecord::getScope, NULLS_FIRST)
+        .thenComparing(MetricSchemaRecord::getMetric, NULLS_FIRST)
+        .thenComparing(MetricSchemaRecord::getTagKey, NULLS_FIRST)
+        .thenComparing(MetricSchemaRecord::getTagValue, NULLS_FIRST);
+
+    //~ Instance fields ******************************************************************************************************************************
+
+    private final Logger _logger = LoggerFactory.getLogger(getClass());
+    private final Provider<SchemaService> _schemaServiceProvider;
+    private final boolean _enabled;
+    private final int _maxRecords;
+    private final Interner<String> _interner = Interners.newWeakInterner();
+    private final Set<MetricSchemaRecord> _delta = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean _rebuildScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService _scheduler;
+    private volatile Snapshot _snapshot;
+    private long _modifiedSinceMillis;
+
+    //~ Constructors *********************************************************************************************************************************
+
+    /**
+     * Creates a new SchemaIndex object.
+     *
+     * @param  schemaServiceProvider  Provides the schema service the index is rebuilt from. Cannot be null.
+     * @param  config                 The system configuration. Cannot be null.
+     */
+    @Inject
+    SchemaIndex(Provider<SchemaService> schemaServiceProvider, SystemConfiguration config) {
+        requireArgument(schemaServiceProvider != null, "Schema service provider cannot be null.");
+        requireArgument(config != null, "System configuration cannot be null.");
+        _schemaServiceProvider = schemaServiceProvider;
+        _enabled = Boolean.parseBoolean(config.getValue(Property.SCHEMA_INDEX_ENABLED.getName(), Property.SCHEMA_INDEX_ENABLED.getDefaultValue()));
+        _maxRecords = Integer.parseInt(config.getValue(Property.SCHEMA_INDEX_MAX_RECORDS.getName(),
+                Property.SCHEMA_INDEX_MAX_RECORDS.getDefaultValue()));
+        if (_enabled) {
+            long interval = Long.parseLong(config.getValue(Property.SCHEMA_INDEX_RECONCILE_INTERVAL_MS.getName(),
+                    Property.SCHEMA_INDEX_RECONCILE_INTERVAL_MS.getDefaultValue()));
+
+            requireArgument(interval > 0, "Schema index reconcile interval must be greater than 0.");
+            _scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "schema-index-reconciler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _scheduler.scheduleWithFixedDelay(this::_reconcile, 0, interval, TimeUnit.MILLISECONDS);
+
+            long refreshInterval = Long.parseLong(config.getValue(Property.SCHEMA_INDEX_REFRESH_INTERVAL_MS.getName(),
+                    Property.SCHEMA_INDEX_REFRESH_INTERVAL_MS.getDefaultValue()));
+
+            if (refreshInterval > 0) {
+                _scheduler.scheduleWithFixedDelay(this::_refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            _scheduler = null;
+        }
+    }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Indicates whether the index is enabled.
+     *
+     * @return  True if the index is enabled.
+     */
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Indicates whether the index holds a complete view of the schema and can be used to answer queries.
+     *
+     * @return  True if the index can be queried.
+     */
+    public boolean isReady() {
+        return _enabled && _snapshot != null;
+    }
+
+    /**
+     * Adds the schema records of the given metrics to the index.
+     *
+     * @param  metrics  The metrics that were written to the schema service. Cannot be null.
+     */
+    public void put(List<Metric> metrics) {
+        requireArgument(metrics != null, "Metrics list cannot be null.");
+        /* Without a snapshot the delta cannot be folded, so stop growing it. The records will be picked up by the next rebuild. */
+        if (!_enabled || (_snapshot == null && _delta.size() >= MAX_DELTA_SIZE)) {
+            return;
+        }
+        for (Metric metric : metrics) {
+            String namespace = _internToken(metric.getNamespace());
+            String scope = _internToken(metric.getScope());
+            String metricName = _internToken(metric.getMetric());
+
+            if (metric.getTags().isEmpty()) {
+                _delta.add(new MetricSchemaRecord(namespace, scope, metricName, null, null));
+            } else {
+                for (Entry<String, String> tag : metric.getTags().entrySet()) {
+                    _delta.add(new MetricSchemaRecord(namespace, scope, metricName, _internToken(tag.getKey()), _internToken(tag.getValue())));
+                }
+            }
+        }
+        if (_delta.size() > MAX_DELTA_SIZE && _snapshot != null && _rebuildScheduled.compareAndSet(false, true)) {
+            _scheduler.execute(this::_foldDelta);
+        }
+    }
+
+    /**
+     * Returns the records matching the query, with the same matching semantics as the schema service. Records are returned in a stable order.
+     * If the query has a scan from record, results start after it, otherwise the query page is used.
+     *
+     * @param   query  The query to evaluate. Cannot be null.
+     *
+     * @return  The matching records, or null if the index is not ready.
+     */
+    public List<MetricSchemaRecord> get(MetricSchemaRecordQuery query) {
+        requireArgument(query != null, "MetricSchemaRecordQuery cannot be null.");
+
+        Snapshot snapshot = _snapshot;
+
+        if (!_enabled || snapshot == null) {
+            return null;
+        }
+
+        Matcher matcher = new Matcher(query);
+        MetricSchemaRecord scanFrom = query.getScanFrom();
+        int skip = scanFrom == null ? query.getLimit() * (query.getPage() - 1) : 0;
+        int wanted = skip + query.getLimit();
+        TreeSet<MetricSchemaRecord> result = new TreeSet<>(RECORD_ORDER);
+
+        snapshot.collect(matcher, scanFrom, wanted, result);
+        for (MetricSchemaRecord record : _delta) {
+            if (matcher.matches(record) && (scanFrom == null || RECORD_ORDER.compare(record, scanFrom) > 0)) {
+                result.add(record);
+                if (result.size() > wanted) {
+                    result.pollLast();
+                }
+            }
+        }
+
+        List<MetricSchemaRecord> records = new ArrayList<>(result);
+
+        return skip >= records.size() ? new ArrayList<>() : records.subList(skip, records.size());
+    }
+
+    private MetricSchemaRecord _intern(MetricSchemaRecord record) {
+        return new MetricSchemaRecord(_internToken(record.getNamespace()), _internToken(record.getScope()), _internToken(record.getMetric()),
+            _internToken(record.getTagKey()), _internToken(record.getTagValue()));
+    }
+
+    private String _internToken(String token) {
+        return token == null ? null : _interner.intern(token);
+    }
+
+    /* Reloads every schema record from the schema service and replaces the snapshot. */
+    private void _reconcile() {
+        try {
+            long start = System.currentTimeMillis();
+            List<MetricSchemaRecord> pending = new ArrayList<>(_delta);
+            Set<MetricSchemaRecord> records = new HashSet<>(pending);
+            SchemaService schemaService = _schemaServiceProvider.get();
+            MetricSchemaRecordQuery query = new MetricSchemaRecordQuery.MetricSchemaRecordQueryBuilder().scope("*")
+                .metric("*")
+                .limit(RECONCILE_PAGE_SIZE)
+                .page(1)
+                .build();
+
+            while (true) {
+                List<MetricSchemaRecord> page = schemaService.get(query);
+
+                for (MetricSchemaRecord record : page) {
+                    records.add(_intern(record));
+                }
+                if (records.size() > _maxRecords) {
+                    _logger.warn("Schema index disabled, the schema has more than {} records.", _maxRecords);
+                    _snapshot = null;
+                    _delta.clear();
+                    return;
+                }
+                if (page.size() < RECONCILE_PAGE_SIZE) {
+                    break;
+                }
+                query.setScanFrom(page.get(page.size() - 1));
+                query.setPage(query.getPage() + 1);
+            }
+            _snapshot = new Snapshot(records);
+            _delta.removeAll(pending);
+            _modifiedSinceMillis = start - REFRESH_OVERLAP_MILLIS;
+            _logger.info("Rebuilt schema index with {} records in {} ms.", records.size(), System.currentTimeMillis() - start);
+        } catch (Exception ex) {
+            _logger.warn("Failed to rebuild the schema index. Will retry at the next interval.", ex);
+        }
+    }
+
+    /* Pulls the records that any writer wrote since the last refresh or rebuild into the delta. Runs on the scheduler thread only. */
+    private void _refresh() {
+        Snapshot snapshot = _snapshot;
+        SchemaService schemaService = _schemaServiceProvider.get();
+
+        if (snapshot == null || !(schemaService instanceof ElasticSearchSchemaService)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            MetricSchemaRecord scanFrom = null;
+            int added = 0;
+
+            while (true) {
+                List<MetricSchemaRecord> page = ((ElasticSearchSchemaService) schemaService).getModifiedSince(_modifiedSinceMillis, scanFrom,
+                    RECONCILE_PAGE_SIZE);
+
+                for (MetricSchemaRecord record : page) {
+                    if (!snapshot.contains(record) && _delta.add(_intern(record))) {
+                        added++;
+                    }
+                }
+                if (page.size() < RECONCILE_PAGE_SIZE) {
+                    break;
+                }
+                scanFrom = page.get(page.size() - 1);
+            }
+            _modifiedSinceMillis = start - REFRESH_OVERLAP_MILLIS;
+            if (_delta.size() > MAX_DELTA_SIZE && _rebuildScheduled.compareAndSet(false, true)) {
+                _foldDelta();
+            }
+            _logger.debug("Refreshed schema index with {} new records in {} ms.", added, System.currentTimeMillis() - start);
+        } catch (Exception ex) {
+            _logger.warn("Failed to refresh the schema index. Will retry at the next interval.", ex);
+        }
+    }
+
+    /* Folds the delta into a new snapshot without reloading from the schema service. */
+    private void _foldDelta() {
+        try {
+            Snapshot snapshot = _snapshot;
+
+            if (snapshot != null) {
+                List<MetricSchemaRecord> pending = new ArrayList<>(_delta);
+                Set<MetricSchemaRecord> records = new HashSet<>(Arrays.asList(snapshot._records));
+
+                records.addAll(pending);
+                _snapshot = records.size() > _maxRecords ? null : new Snapshot(records);
+                _delta.removeAll(pending);
+            }
+        } finally {
+            _rebuildScheduled.set(false);
+        }
+    }
+
+    //~ Enums ****************************************************************************************************************************************
+
+    /**
+     * The set of implementation specific configuration properties.
+     */
+    public enum Property {
+
+        /** Indicates whether the in-process schema index is used for discovery. */
+        SCHEMA_INDEX_ENABLED("service.property.schema.index.enabled", "false"),
+        /** The interval between full rebuilds of the index from the schema service. */
+        SCHEMA_INDEX_RECONCILE_INTERVAL_MS("service.property.schema.index.reconcile.interval.ms", "86400000"),
+        /**
+         * The interval at which records written by other processes are pulled from the Elasticsearch schema service. This bounds how stale
+         * the index can be. A value of 0 disables the pull.
+         */
+        SCHEMA_INDEX_REFRESH_INTERVAL_MS("service.property.schema.index.refresh.interval.ms", "60000"),
+        /** The maximum number of records the index will hold before it disables itself. */
+        SCHEMA_INDEX_MAX_RECORDS("service.property.schema.index.max.records", "5000000");
+
+        private final String _name;
+        private final String _defaultValue;
+
+        private Property(String name, String defaultValue) {
+            _name = name;
+            _defaultValue = defaultValue;
+        }
+
+        /**
+         * Returns the property name.
+         *
+         * @return  The property name.
+         */
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * Returns the default value for the property.
+         *
+         * @return  The default value.
+         */
+        public String getDefaultValue() {
+            return _defaultValue;
+        }
+    }
+
+    //~ Inner Classes ********************************************************************************************************************************
+
+    /* The schema service semantics for a query: a field is constrained only if it contains a filter, and a constrained field never matches null. */
+    private static final class Matcher {
+
+        private final FieldMatcher[] _fields;
+
+        Matcher(MetricSchemaRecordQuery query) {
+            List<FieldMatcher> fields = new ArrayList<>(5);
+
+            FieldMatcher.addIfFiltered(fields, Field.NAMESPACE, query.getNamespace());
+            FieldMatcher.addIfFiltered(fields, Field.SCOPE, query.getScope());
+            FieldMatcher.addIfFiltered(fields, Field.METRIC, query.getMetric());
+            FieldMatcher.addIfFiltered(fields, Field.TAGK, query.getTagKey());
+            FieldMatcher.addIfFiltered(fields, Field.TAGV, query.getTagValue());
+            _fields = fields.toArray(new FieldMatcher[fields.size()]);
+        }
+
+        boolean matches(MetricSchemaRecord record) {
+            for (FieldMatcher field : _fields) {
+                if (!field.matches(field._field._accessor.apply(record))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class FieldMatcher {
+
+        private final Field _field;
+        private final GlobMatcher _matcher;
+
+        private FieldMatcher(Field field, String glob) {
+            _field = field;
+            _matcher = GlobMatcher.compile(glob);
+        }
+
+        static void addIfFiltered(List<FieldMatcher> fields, Field field, String glob) {
+            if (SchemaService.containsFilter(glob)) {
+                fields.add(new FieldMatcher(field, glob));
+            }
+        }
+
+        boolean matches(String token) {
+            return _matcher.matches(token);
+        }
+
+        /* Only terms sharing the literal prefix of the glob can match, so the scan is limited to that range of the sorted dictionary. */
+        BitSet postings(NavigableMap<String, int[]> terms, int size) {
+            BitSet result = new BitSet(size);
+            String prefix = _matcher.getPrefix();
+
+            if (_matcher.isLiteral()) {
+                _or(result, terms.get(prefix));
+                return result;
+            }
+
+            Map<String, int[]> candidates = prefix.isEmpty() ? terms : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+
+            for (Entry<String, int[]> entry : candidates.entrySet()) {
+                if (_matcher.matches(entry.getKey())) {
+                    _or(result, entry.getValue());
+                }
+            }
+            return result;
+        }
+
+        private static void _or(BitSet bits, int[] ids) {
+            if (ids != null) {
+                for (int id : ids) {
+                    bits.set(id);
+                }
+            }
+        }
+    }
+
+    private enum Field {
+
+        NAMESPACE(MetricSchemaRecord::getNamespace),
+        SCOPE(MetricSchemaRecord::getScope),
+        METRIC(MetricSchemaRecord::getMetric),
+        TAGK(MetricSchemaRecord::getTagKey),
+        TAGV(MetricSchemaRecord::getTagValue);
+
+        private final Function<MetricSchemaRecord, String> _accessor;
+
+        Field(Function<MetricSchemaRecord, String> accessor) {
+            _accessor = accessor;
+        }
+    }
+
+    /* Immutable, sorted view of the schema. Record ids follow the record order, so posting lists and query results are already sorted. */
+    private static final class Snapshot {
+
+        private final MetricSchemaRecord[] _records;
+        private final List<NavigableMap<String, int[]>> _terms;
+
+        Snapshot(Collection<MetricSchemaRecord> records) {
+            _records = records.toArray(new MetricSchemaRecord[records.size()]);
+            Arrays.sort(_records, RECORD_ORDER);
+            _terms = new ArrayList<>(Field.values().length);
+            for (Field field : Field.values()) {
+                Map<String, IntList> postings = new HashMap<>();
+
+                for (int id = 0; id < _records.length; id++) {
+                    String token = field._accessor.apply(_records[id]);
+
+                    if (token != null) {
+                        postings.computeIfAbsent(token, key -> new IntList()).add(id);
+                    }
+                }
+
+                NavigableMap<String, int[]> terms = new TreeMap<>();
+
+                for (Entry<String, IntList> entry : postings.entrySet()) {
+                    terms.put(entry.getKey(), entry.getValue().toArray());
+                }
+                _terms.add(terms);
+            }
+        }
+
+        boolean contains(MetricSchemaRecord record) {
+            return Arrays.binarySearch(_records, record, RECORD_ORDER) >= 0;
+        }
+
+        void collect(Matcher matcher, MetricSchemaRecord scanFrom, int wanted, TreeSet<MetricSchemaRecord> result) {
+            int from = 0;
+
+            if (scanFrom != null) {
+                int index = Arrays.binarySearch(_records, scanFrom, RECORD_ORDER);
+
+                from = index >= 0 ? index + 1 : -index - 1;
+            }
+
+            BitSet candidates = null;
+
+            for (FieldMatcher field : matcher._fields) {
+                BitSet postings = field.postings(_terms.get(field._field.ordinal()), _records.length);
+
+                if (candidates == null) {
+                    candidates = postings;
+                } else {
+                    candidates.and(postings);
+                }
+                if (candidates.isEmpty()) {
+                    return;
+                }
+            }
+            for (int id = candidates == null ? from : candidates.nextSetBit(from); id >= 0 && id < _records.length && result.size() < wanted;
+                    id = candidates == null ? id + 1 : candidates.nextSetBit(id + 1)) {
+                result.add(_records[id]);
+            }
+        }
+    }
+
+    private static final class IntList {
+
+        private int[] _values = new int[4];
+        private int _size;
+
+        void add(int value) {
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, _size * 2);
+            }
+            _values[_size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(_values, _size);
+        }
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -33,6 +33,7 @@ package com.salesforce.dva.argus.service.tsdb;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.TagInterner;
 import com.salesforce.dva.argus.entity.TSDBEntity.ReservedField;
 import com.salesforce.dva.argus.system.SystemException;
 
@@ -100,8 +101,8 @@ public class AnnotationQuery {
         requireArgument(metric == null || !metric.isEmpty(), "Metric can be null, but if specified, cannot be empty");
         _startTimestamp = startTimestamp;
         _endTimestamp = endTimestamp;
-        _scope = scope;
-        _metric = metric;
+        _scope = TagInterner.intern(scope);
+        _metric = TagInterner.intern(metric);
         if (tags != null) {
             setTags(tags);
         }
@@ -198,7 +199,7 @@ public class AnnotationQuery {
         if (value == null || value.isEmpty()) {
             _tags.remove(key);
         } else {
-            _tags.put(key, value);
+            _tags.put(TagInterner.intern(key), TagInterner.intern(value));
         }
     }
 
@@ -227,7 +228,7 @@ public class AnnotationQuery {
                 String key = entry.getKey();
 
                 requireArgument(!Metric.ReservedField.isReservedField(key), MessageFormat.format("Tag {0} is a reserved tag name.", key));
-                updatedTags.put(key, entry.getValue());
+                updatedTags.put(TagInterner.intern(key), TagInterner.intern(entry.getValue()));
             }
         }
         _tags.clear();
@@ -241,7 +242,7 @@ public class AnnotationQuery {
      */
     protected void setScope(String scope) {
         requireArgument(scope != null && !scope.isEmpty(), "Scope cannot be null or empty.");
-        _scope = scope;
+        _scope = TagInterner.intern(scope);
     }
 
     /**
@@ -251,7 +252,7 @@ public class AnnotationQuery {
      */
     protected void setMetric(String metric) {
         requireArgument(metric != null && !metric.isEmpty(), "Metric name cannot be null or empty.");
-        _metric = metric;
+        _metric = TagInterner.intern(metric);
     }
 
     /**
@@ -153,6 +153,11 @@ public class DefaultTSDBService extends AbstractTSDBService{
                 noFailedQueries++;
                 continue;
             } catch (InterruptedException e) {
+                // The caller gave up on these queries, so do not leave the remaining ones queued on the shared pool.
+                for (Future<List<Metric>> future : futures.values()) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
                 throw new SystemException("Failed to get metrics. The query was: " + entry.getKey() + "\\n", e);
             }
         }
@@ -34,6 +34,7 @@ package com.salesforce.dva.argus.service.tsdb;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.salesforce.dva.argus.entity.TagInterner;
 import com.salesforce.dva.argus.service.metric.transform.Transform;
 import com.salesforce.dva.argus.service.metric.transform.TransformFactory;
 import com.salesforce.dva.argus.system.SystemAssert;
@@ -117,7 +118,7 @@ public class MetricQuery extends AnnotationQuery {
 	 * @param  namespace  The namespace.  May be null.
 	 */
 	public void setNamespace(String namespace) {
-		_namespace = namespace;
+		_namespace = TagInterner.intern(namespace);
 	}
 
 	/**
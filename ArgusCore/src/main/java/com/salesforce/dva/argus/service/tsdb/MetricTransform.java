@@ -39,6 +39,7 @@ import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.entity.TSDBEntity;
@@ -62,6 +63,12 @@ import javax.xml.bind.DatatypeConverter;
  */
 class MetricTransform {
 
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader DATAPOINTS_READER = MAPPER.readerFor(new TypeReference<TreeMap<Long, Double>>() { });
+    private static final ObjectReader TAGS_READER = MAPPER.readerFor(new TypeReference<Map<String, String>>() { });
+
     //~ Constructors *********************************************************************************************************************************
 
     private MetricTransform() { }
@@ -97,13 +104,12 @@ class MetricTransform {
     }
     
     private static Metric _deserializeMetric(JsonNode node) throws IOException {
-    	ObjectMapper mapper = new ObjectMapper();
-    	Map<Long, Double> datapoints = mapper.readValue(node.get("dps").traverse(), new TypeReference<TreeMap<Long, Double>>() { });
+    	Map<Long, Double> datapoints = DATAPOINTS_READER.readValue(node.get("dps"));
     	if(datapoints.isEmpty()) {
     		return null;
     	}
 
-    	Map<String, String> tags = mapper.readValue(node.get("tags").traverse(), new TypeReference<Map<String, String>>() { });
+    	Map<String, String> tags = TAGS_READER.readValue(node.get("tags"));
 
     	Map<String, String> meta = fromMeta(tags.get(ReservedField.META.getKey()));
     	String tsdbMetricName = node.get("metric").asText();
@@ -161,7 +167,7 @@ class MetricTransform {
             try {
                 String decoded = new String(DatatypeConverter.parseBase64Binary(meta.replace("_", "=")), "UTF-8");
 
-                return new ObjectMapper().readValue(decoded, new TypeReference<Map<String, String>>() { });
+                return TAGS_READER.readValue(decoded);
             } catch (Exception ex) {
                 throw new IOException(ex);
             }
@@ -335,6 +335,15 @@ public class DefaultWardenService extends DefaultJPAService implements WardenSer
         _auditService.createAudit("Updated policy limit for user : {0} to {1}", user, counter, value);
     }
 
+    @Override
+    @Transactional
+    public double getPolicyLimitForUser(PrincipalUser user, PolicyCounter counter) {
+        requireNotDisposed();
+        requireArgument(user != null, "Cannot retrieve policy limit for a null user.");
+        requireArgument(counter != null, "Cannot retrieve policy limit for a null counter.");
+        return PolicyLimit.getLimitByUserAndCounter(emf.get(), user, counter);
+    }
+
     @Override
     @Transactional
     public void updateSuspensionLevel(SubSystem subSystem, int level, long durationInMillis) {
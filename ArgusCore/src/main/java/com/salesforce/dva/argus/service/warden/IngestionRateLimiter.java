@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+	 
+package com.salesforce.dva.argus.service.warden;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.salesforce.dva.argus.entity.PrincipalUser;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.WardenService;
+import com.salesforce.dva.argus.service.WardenService.PolicyCounter;
+import com.salesforce.dva.argus.system.SystemConfiguration;
+import com.salesforce.dva.argus.system.SystemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * In-memory, per user token bucket rate limiter for metric ingestion. Submissions are admitted or rejected on the request thread using only
+ * atomic operations. Consumption is reconciled with the warden service in the background, which pushes the accumulated policy counters, refreshes
+ * the policy limits of each user and exports the state of the buckets to the monitor service. The policy limits of a user are loaded in the
+ * background as well, and the default policy limits apply until they are loaded.
+ *
+ * <p>The limiter is shared by the whole process and is disposed when the system stops.</p>
+ */
+@Singleton
+public class IngestionRateLimiter {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000L;
+    private static final String USERNAME_KEY = "user";
+    private static final String AVAILABLE_SUFFIX = ".available";
+    private static final String REJECTIONS_METRIC_NAME = "warden.ratelimiter.rejections";
+
+    //~ Instance fields ******************************************************************************************************************************
+
+    private final Logger _logger = LoggerFactory.getLogger(getClass());
+    private final WardenService _wardenService;
+    private final MonitorService _monitorService;
+    private final boolean _enabled;
+    private final ConcurrentMap<String, UserLimiter> _limitersByUser = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService _scheduledExecutorService;
+
+    //~ Constructors *********************************************************************************************************************************
+
+    /**
+     * Creates a new IngestionRateLimiter object.
+     *
+     * @param  wardenService   The warden service used to retrieve policy limits and record policy counters. Cannot be null.
+     * @param  monitorService  The monitor service used to export the limiter state. Cannot be null.
+     * @param  config          The system configuration. Cannot be null.
+     */
+    @Inject
+    IngestionRateLimiter(WardenService wardenService, MonitorService monitorService, SystemConfiguration config) {
+        requireArgument(wardenService != null, "Warden service cannot be null.");
+        requireArgument(monitorService != null, "Monitor service cannot be null.");
+        requireArgument(config != null, "System configuration cannot be null.");
+        _wardenService = wardenService;
+        _monitorService = monitorService;
+        _enabled = Boolean.parseBoolean(config.getValue(Property.RATE_LIMITER_ENABLED.getName(), Property.RATE_LIMITER_ENABLED.getDefaultValue()));
+        if (_enabled) {
+            long reconcileIntervalMillis = Long.parseLong(config.getValue(Property.RATE_LIMITER_RECONCILE_INTERVAL_MS.getName(),
+                    Property.RATE_LIMITER_RECONCILE_INTERVAL_MS.getDefaultValue()));
+
+            _scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ingestion-rate-limiter-reconciler");
+
+                thread.setDaemon(true);
+                return thread;
+            });
+            _scheduledExecutorService.scheduleWithFixedDelay(new ReconcileThread(), reconcileIntervalMillis, reconcileIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        } else {
+            _scheduledExecutorService = null;
+        }
+    }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Indicates if the rate limiter is enabled.
+     *
+     * @return  True if submissions should be admitted through the rate limiter instead of updating the warden policy counters synchronously.
+     */
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Admits a metric submission for a user, consuming tokens from the user's metrics and datapoints buckets.
+     *
+     * @param   user                 The submitting user. Cannot be null.
+     * @param   metricCount          The number of metrics in the submission.
+     * @param   datapointCount       The number of datapoints in the submission.
+     * @param   minResolutionMillis  The minimum time between datapoints of the same series in the submission or null if unknown.
+     *
+     * @throws  SystemException  If the submission exceeds one of the user's policy limits.
+     */
+    public void acquire(PrincipalUser user, long metricCount, long datapointCount, Long minResolutionMillis) {
+        requireArgument(user != null, "User cannot be null.");
+
+        UserLimiter limiter = _getUserLimiter(user);
+        long now = System.currentTimeMillis();
+
+        limiter.lastAccessMillis = now;
+        if (minResolutionMillis != null && minResolutionMillis < limiter.minResolutionLimitMillis) {
+            _reject(limiter, PolicyCounter.MINIMUM_RESOLUTION_MS, limiter.minResolutionLimitMillis);
+        }
+        if (!limiter.metricsBucket.tryAcquire(metricCount, now)) {
+            _reject(limiter, PolicyCounter.METRICS_PER_HOUR, limiter.metricsBucket.capacity);
+        }
+        if (!limiter.datapointsBucket.tryAcquire(datapointCount, now)) {
+            limiter.metricsBucket.release(metricCount);
+            _reject(limiter, PolicyCounter.DATAPOINTS_PER_HOUR, limiter.datapointsBucket.capacity);
+        }
+        limiter.metricsConsumed.addAndGet(metricCount);
+        limiter.datapointsConsumed.addAndGet(datapointCount);
+        if (minResolutionMillis != null) {
+            limiter.minResolutionMillis.accumulateAndGet(minResolutionMillis, Math::min);
+        }
+    }
+
+    /**
+     * Stops the background reconciliation. Consumption that has not been reconciled yet is not pushed to the warden service. Only the system
+     * disposes the limiter, because it is shared by all collection services of the process.
+     */
+    public void dispose() {
+        if (_scheduledExecutorService == null) {
+            return;
+        }
+        _scheduledExecutorService.shutdown();
+        try {
+            if (!_scheduledExecutorService.awaitTermination(10, TimeUnit.SECONDS)) {
+                _scheduledExecutorService.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            _logger.warn("Interrupted while waiting for the ingestion rate limiter to stop.");
+            _scheduledExecutorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private UserLimiter _getUserLimiter(PrincipalUser user) {
+        UserLimiter limiter = _limitersByUser.get(user.getUserName());
+
+        if (limiter == null) {
+            UserLimiter created = new UserLimiter(user);
+            UserLimiter existing = _limitersByUser.putIfAbsent(user.getUserName(), created);
+
+            if (existing == null) {
+                _loadLimits(created);
+                limiter = created;
+            } else {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    /* Indicates whether the policy limits of the user were loaded. Exposed for testing. */
+    boolean isLimitsLoaded(PrincipalUser user) {
+        UserLimiter limiter = _limitersByUser.get(user.getUserName());
+
+        return limiter != null && limiter.limitsLoaded;
+    }
+
+    /* Loads the policy limits of a new user in the background, so that the request thread does not wait for the policy lookup. */
+    private void _loadLimits(UserLimiter limiter) {
+        if (_scheduledExecutorService == null) {
+            return;
+        }
+        try {
+            _scheduledExecutorService.execute(() -> {
+                try {
+                    _refreshLimits(limiter);
+                } catch (Exception ex) {
+                    _logger.warn("Failed to load ingestion rate limits for {}. Reason: {}", limiter.user.getUserName(), ex.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            _logger.warn("Failed to load ingestion rate limits for {} because the rate limiter is disposed.", limiter.user.getUserName());
+        }
+    }
+
+    private void _reject(UserLimiter limiter, PolicyCounter counter, long limit) {
+        limiter.rejections.incrementAndGet();
+        throw new SystemException(MessageFormat.format("{0} exceeded the {1} policy limit of {2}.", limiter.user.getUserName(), counter.name(),
+                limit));
+    }
+
+    private void _refreshLimits(UserLimiter limiter) {
+        PrincipalUser user = limiter.user;
+
+        limiter.metricsBucket.setCapacity((long) _wardenService.getPolicyLimitForUser(user, PolicyCounter.METRICS_PER_HOUR));
+        limiter.datapointsBucket.setCapacity((long) _wardenService.getPolicyLimitForUser(user, PolicyCounter.DATAPOINTS_PER_HOUR));
+        limiter.minResolutionLimitMillis = (long) _wardenService.getPolicyLimitForUser(user, PolicyCounter.MINIMUM_RESOLUTION_MS);
+        limiter.limitsLoaded = true;
+    }
+
+    /*
+     * Pushes the consumption accumulated since the last reconciliation to the warden policy counters, so that warden alerts and suspensions
+     * continue to work, refreshes the policy limits and exports the bucket state. Users that have been idle for an hour are evicted.
+     */
+    private void _reconcile() {
+        boolean wardenEnabled = _wardenService.isWardenServiceEnabled();
+        long now = System.currentTimeMillis();
+
+        for (Iterator<UserLimiter> iterator = _limitersByUser.values().iterator(); iterator.hasNext();) {
+            UserLimiter limiter = iterator.next();
+            PrincipalUser user = limiter.user;
+
+            try {
+                long metricsConsumed = limiter.metricsConsumed.getAndSet(0);
+                long datapointsConsumed = limiter.datapointsConsumed.getAndSet(0);
+                long minResolution = limiter.minResolutionMillis.getAndSet(Long.MAX_VALUE);
+                long rejections = limiter.rejections.getAndSet(0);
+
+                if (wardenEnabled) {
+                    if (metricsConsumed > 0) {
+                        _wardenService.modifyPolicyCounter(user, PolicyCounter.METRICS_PER_HOUR, metricsConsumed);
+                    }
+                    if (datapointsConsumed > 0) {
+                        _wardenService.modifyPolicyCounter(user, PolicyCounter.DATAPOINTS_PER_HOUR, datapointsConsumed);
+                    }
+                    if (minResolution != Long.MAX_VALUE) {
+                        _wardenService.updatePolicyCounter(user, PolicyCounter.MINIMUM_RESOLUTION_MS, minResolution);
+                    }
+                }
+                _refreshLimits(limiter);
+
+                Map<String, String> tags = new HashMap<>();
+
+                tags.put(USERNAME_KEY, user.getUserName());
+                _monitorService.updateCustomCounter(PolicyCounter.METRICS_PER_HOUR.getMetricName() + AVAILABLE_SUFFIX,
+                    limiter.metricsBucket.available(now), tags);
+                _monitorService.updateCustomCounter(PolicyCounter.DATAPOINTS_PER_HOUR.getMetricName() + AVAILABLE_SUFFIX,
+                    limiter.datapointsBucket.available(now), tags);
+                if (rejections > 0) {
+                    _monitorService.modifyCustomCounter(REJECTIONS_METRIC_NAME, rejections, tags);
+                }
+                if (now - limiter.lastAccessMillis > MILLIS_PER_HOUR) {
+                    iterator.remove();
+                }
+            } catch (Exception ex) {
+                _logger.warn("Failed to reconcile ingestion rate limits for {}. Reason: {}", user.getUserName(), ex.getMessage());
+            }
+        }
+    }
+
+    //~ Enums ****************************************************************************************************************************************
+
+    /**
+     * The set of implementation specific configuration properties.
+     */
+    public enum Property {
+
+        /** Admits metric submissions through the in-memory rate limiter instead of updating warden policy counters on every request. */
+        RATE_LIMITER_ENABLED("service.property.warden.ratelimiter.enabled", "false"),
+        /** The interval at which consumption is pushed to warden and policy limits are refreshed. */
+        RATE_LIMITER_RECONCILE_INTERVAL_MS("service.property.warden.ratelimiter.reconcile.interval.ms", "60000");
+
+        private final String _name;
+        private final String _defaultValue;
+
+        private Property(String name, String defaultValue) {
+            _name = name;
+            _defaultValue = defaultValue;
+        }
+
+        /**
+         * Returns the property name.
+         *
+         * @return  The property name.
+         */
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * Returns the default value for the property.
+         *
+         * @return  The default value.
+         */
+        public String getDefaultValue() {
+            return _defaultValue;
+        }
+    }
+
+    //~ Inner Classes ********************************************************************************************************************************
+
+    /**
+     * Token bucket that refills continuously up to its capacity over the course of an hour. All operations are lock free.
+     */
+    static final class TokenBucket {
+
+        private final AtomicLong _tokens;
+        private final AtomicLong _lastRefillMillis;
+        private volatile long capacity;
+
+        TokenBucket(long capacity, long now) {
+            this.capacity = capacity;
+            _tokens = new AtomicLong(capacity);
+            _lastRefillMillis = new AtomicLong(now);
+        }
+
+        boolean tryAcquire(long permits, long now) {
+            _refill(now);
+            while (true) {
+                long available = _tokens.get();
+
+                if (available < permits) {
+                    return false;
+                }
+                if (_tokens.compareAndSet(available, available - permits)) {
+                    return true;
+                }
+            }
+        }
+
+        void release(long permits) {
+            long max = capacity;
+
+            _tokens.accumulateAndGet(permits, (current, delta) -> Math.min(max, current + delta));
+        }
+
+        long available(long now) {
+            _refill(now);
+            return _tokens.get();
+        }
+
+        void setCapacity(long capacity) {
+            this.capacity = capacity;
+
+            _tokens.accumulateAndGet(capacity, Math::min);
+        }
+
+        /* Only the thread that advances the refill timestamp adds the tokens for the elapsed interval. */
+        private void _refill(long now) {
+            long last = _lastRefillMillis.get();
+            long max = capacity;
+            long refill = (long) Math.min(max, (double) (now - last) * max / MILLIS_PER_HOUR);
+
+            if (refill > 0 && _lastRefillMillis.compareAndSet(last, now)) {
+                _tokens.accumulateAndGet(refill, (current, delta) -> Math.min(max, current + delta));
+            }
+        }
+    }
+
+    /**
+     * The buckets and accumulated consumption of a single user.
+     */
+    private static final class UserLimiter {
+
+        final PrincipalUser user;
+        final TokenBucket metricsBucket;
+        final TokenBucket datapointsBucket;
+        final AtomicLong metricsConsumed = new AtomicLong();
+        final AtomicLong datapointsConsumed = new AtomicLong();
+        final AtomicLong minResolutionMillis = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong rejections = new AtomicLong();
+        volatile long minResolutionLimitMillis;
+        volatile long lastAccessMillis;
+        volatile boolean limitsLoaded;
+
+        /* Starts with the default policy limits, which apply until the limits of the user are loaded. */
+        UserLimiter(PrincipalUser user) {
+            long now = System.currentTimeMillis();
+
+            this.user = user;
+            metricsBucket = new TokenBucket((long) PolicyCounter.METRICS_PER_HOUR.getDefaultValue(), now);
+            datapointsBucket = new TokenBucket((long) PolicyCounter.DATAPOINTS_PER_HOUR.getDefaultValue(), now);
+            minResolutionLimitMillis = (long) PolicyCounter.MINIMUM_RESOLUTION_MS.getDefaultValue();
+            lastAccessMillis = now;
+        }
+    }
+
+    /**
+     * Periodically reconciles the rate limiter with the warden service.
+     */
+    private class ReconcileThread implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                _reconcile();
+            } catch (Exception ex) {
+                _logger.warn("Error occurred while reconciling ingestion rate limits. Reason: {}", ex.getMessage());
+            }
+        }
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -32,12 +32,14 @@ package com.salesforce.dva.argus.system;
 
 import com.google.inject.Guice;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.persist.PersistService;
 import com.google.inject.persist.UnitOfWork;
 import com.salesforce.dva.argus.service.AlertService.Notifier;
 import com.salesforce.dva.argus.service.NotifierFactory;
 import com.salesforce.dva.argus.service.Service;
 import com.salesforce.dva.argus.service.ServiceFactory;
+import com.salesforce.dva.argus.service.warden.IngestionRateLimiter;
 import static com.salesforce.dva.argus.system.SystemAssert.requireState;
 
 import java.lang.reflect.Method;
@@ -60,15 +62,18 @@ public final class SystemMain extends SystemService {
     private final NotifierFactory _notifierFactory;
     private final PersistService _persistService;
     private final UnitOfWork _uof;
+    private final Provider<IngestionRateLimiter> _rateLimiter;
 
     //~ Constructors *********************************************************************************************************************************
     @Inject
-    private SystemMain(PersistService persistService, ServiceFactory factory, NotifierFactory notifierFactory, SystemConfiguration config, UnitOfWork uof) {
+    private SystemMain(PersistService persistService, ServiceFactory factory, NotifierFactory notifierFactory, SystemConfiguration config, UnitOfWork uof,
+        Provider<IngestionRateLimiter> rateLimiter) {
         _persistService = persistService;
         _serviceFactory = factory;
         _notifierFactory = notifierFactory;
         _configuration = config;
         _uof = uof;
+        _rateLimiter = rateLimiter;
     }
 
     //~ Methods **************************************************************************************************************************************
@@ -128,6 +133,7 @@ public final class SystemMain extends SystemService {
     @Override
     protected void doStop() {
         try {
+            _rateLimiter.get().dispose();
             _dispose(_serviceFactory.getWardenService());
             _dispose(_serviceFactory.getMonitorService());
             _dispose(_serviceFactory.getSchedulingService());
@@ -20,10 +20,17 @@ import java.util.regex.Pattern;
 public class AlertUtils {
 
 	private static final Logger _logger = LoggerFactory.getLogger(AlertUtils.class);
+	private static final Pattern WHITESPACE = Pattern.compile("[\\s\\t\\r\\n\\f]*");
+	private static final Pattern START_AND_END = Pattern.compile("(?i)\\-[0-9]+(d|m|h|s):\\-[0-9]+(d|m|h|s)");
+	private static final Pattern FILL = Pattern.compile("(?i)FILL\\(#\\-[0-9]+(d|h|m|s),#\\-[0-9]+(d|h|m|s)");
+	private static final Pattern CONSTANT = Pattern.compile("(?i)#\\-[0-9]+(d|h|m|s)");
+	private static final Pattern WITHOUT_END = Pattern.compile("(?i)\\@\\-[0-9]+(d|m|h|s)|\\(\\-[0-9]+(d|m|h|s)|,\\-[0-9]+(d|m|h|s)");
 
 	public static boolean isScopePresentInWhiteList(String expression, List<Pattern> scopeRegexPatterns) {
+		String lowerCaseExpression = expression.toLowerCase();
+
 		for(Pattern regexPattern : scopeRegexPatterns) {
-			if(regexPattern.matcher(expression.toLowerCase()).find()) {
+			if(regexPattern.matcher(lowerCaseExpression).find()) {
 				return true;
 			}
 		}
@@ -36,14 +43,11 @@ public class AlertUtils {
 	}
 
 	public static Long[] getStartAndEndTimes(String originalExpression, Long relativeTo) {
-		String expression = "@" + originalExpression.replaceAll("[\\s\\t\\r\\n\\f]*", "");
-		String regexMatcherWithStartAndEnd = "(?i)\\-[0-9]+(d|m|h|s):\\-[0-9]+(d|m|h|s)";
-		String regexMatcherWithFILL = "(?i)FILL\\(#\\-[0-9]+(d|h|m|s),#\\-[0-9]+(d|h|m|s)";
-		String regexMatcherWithoutEnd = "(?i)\\@\\-[0-9]+(d|m|h|s)|\\(\\-[0-9]+(d|m|h|s)|,\\-[0-9]+(d|m|h|s)";
+		String expression = "@" + WHITESPACE.matcher(originalExpression).replaceAll("");
 		Long longestLength = 0L;
 		Long[] startAndEndtimes = new Long[2];
 		try {
-			Matcher m = Pattern.compile(regexMatcherWithStartAndEnd).matcher(expression);
+			Matcher m = START_AND_END.matcher(expression);
 			while (m.find()) {
 				String[] times = m.group().split(":");
 				Long currentLength = MetricReader.getTime(relativeTo, times[1]) - MetricReader.getTime(relativeTo, times[0]);
@@ -55,7 +59,7 @@ public class AlertUtils {
 				expression = expression.replaceAll(m.group(),"");
 			}
 
-			m = Pattern.compile(regexMatcherWithFILL).matcher(expression);
+			m = FILL.matcher(expression);
 			while (m.find()) {
 				String[] times = m.group().substring(6, m.group().length() - 1).split("#,#");
 				Long currentLength = MetricReader.getTime(relativeTo, times[1]) - MetricReader.getTime(relativeTo, times[0]);
@@ -67,7 +71,7 @@ public class AlertUtils {
 				expression = expression.replaceAll(m.group(),"");
 			}
 
-			m = Pattern.compile(regexMatcherWithoutEnd).matcher(expression);
+			m = WITHOUT_END.matcher(expression);
 			while (m.find()) {
 				String timeStr = m.group();
 				Long currentLength = relativeTo - MetricReader.getTime(relativeTo, timeStr.substring(1));
@@ -87,13 +91,10 @@ public class AlertUtils {
 	public static String getExpressionWithAbsoluteStartAndEndTimeStamps(DefaultAlertService.NotificationContext context) {
 		String absoluteExpression = "";
 		try {
-			String expression = "@" + context.getAlert().getExpression().replaceAll("[\\s\\t\\r\\n\\f]*", "");
-			String regexMatcherWithStartAndEnd = "(?i)\\-[0-9]+(d|m|h|s):\\-[0-9]+(d|m|h|s)";
-			String regexMatcherWithConstants = "(?i)#\\-[0-9]+(d|h|m|s)";
-			String regexMatcherWithoutEnd = "(?i)\\@\\-[0-9]+(d|m|h|s)|\\(\\-[0-9]+(d|m|h|s)|,\\-[0-9]+(d|m|h|s)";
+			String expression = "@" + WHITESPACE.matcher(context.getAlert().getExpression()).replaceAll("");
 			Long relativeTo = context.getAlertEnqueueTimestamp();
 
-			Matcher m = Pattern.compile(regexMatcherWithStartAndEnd).matcher(expression);
+			Matcher m = START_AND_END.matcher(expression);
 			while (m.find()) {
 				for (String timeStr: m.group().split(":")) {
 					Long absoluteTime = MetricReader.getTime(relativeTo, timeStr);
@@ -101,14 +102,14 @@ public class AlertUtils {
 				}
 			}
 
-			m = Pattern.compile(regexMatcherWithConstants).matcher(expression);
+			m = CONSTANT.matcher(expression);
 			while (m.find()) {
 				String timeStr = m.group();
 				Long absoluteTime = MetricReader.getTime(relativeTo, timeStr.substring(1));
 				expression = expression.replaceFirst(timeStr, ("" + timeStr.charAt(0)) + absoluteTime);
 			}
 
-			m = Pattern.compile(regexMatcherWithoutEnd).matcher(expression);
+			m = WITHOUT_END.matcher(expression);
 			while (m.find()) {
 				String timeStr = m.group();
 				Long absoluteTime = MetricReader.getTime(relativeTo, timeStr.substring(1));
@@ -1,6 +1,10 @@
 package com.salesforce.dva.argus.entity;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Test;
 
@@ -39,4 +43,28 @@ public class TSDBEntityTest {
 	    actual = TSDBEntity.replaceUnsupportedChars(null);
 	    assertEquals(expected, actual);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testTagsAreCanonicalAndNotCopied() {
+	    Map<String, String> tags = new HashMap<>();
+	    tags.put("host", new String("host1"));
+	    tags.put("device", new String("device1"));
+
+	    Metric metric1 = new Metric(new String("scope"), new String("metric"));
+	    Metric metric2 = new Metric("scope", "metric");
+	    metric1.setTags(tags);
+	    metric2.setTag("device", "device1");
+	    metric2.setTag("host", "host1");
+
+	    assertSame(metric1.getTags(), metric1.getTags());
+	    assertSame(metric1.getTags(), metric2.getTags());
+	    assertSame(metric1.getScope(), metric2.getScope());
+	    assertSame(metric1.getMetric(), metric2.getMetric());
+	    assertEquals(tags, metric1.getTags());
+	    assertEquals(metric1, metric2);
+
+	    metric2.setTag("host", null);
+	    assertEquals(1, metric2.getTags().size());
+	    assertEquals(2, metric1.getTags().size());
+	}
+}
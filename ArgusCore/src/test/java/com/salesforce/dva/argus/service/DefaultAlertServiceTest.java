@@ -1,7 +1,9 @@
 package com.salesforce.dva.argus.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
@@ -11,9 +13,15 @@ import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.persistence.EntityManager;
@@ -23,17 +31,21 @@ import com.salesforce.dva.argus.service.alert.notifier.RefocusNotifier;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.google.inject.Provider;
 import com.salesforce.dva.argus.AbstractTest;
 import com.salesforce.dva.argus.entity.Alert;
 import com.salesforce.dva.argus.entity.History;
+import com.salesforce.dva.argus.entity.History.JobStatus;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.entity.Notification;
 import com.salesforce.dva.argus.entity.PrincipalUser;
@@ -42,7 +54,12 @@ import com.salesforce.dva.argus.entity.Trigger.TriggerType;
 import com.salesforce.dva.argus.service.MQService.MQQueue;
 import com.salesforce.dva.argus.service.alert.DefaultAlertService;
 import com.salesforce.dva.argus.service.alert.DefaultAlertService.AlertWithTimestamp;
+import com.salesforce.dva.argus.service.alert.DefaultAlertService.NotificationContext;
+import com.salesforce.dva.argus.service.AlertService.Notifier;
+import com.salesforce.dva.argus.service.AlertService.SupportedNotifier;
 import com.salesforce.dva.argus.service.alert.notifier.AuditNotifier;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
+import com.salesforce.dva.argus.system.SystemConfiguration;
 
 @RunWith(org.mockito.runners.MockitoJUnitRunner.class)
 public class DefaultAlertServiceTest extends AbstractTest {
@@ -64,16 +81,21 @@ public class DefaultAlertServiceTest extends AbstractTest {
 	
 	@Before
 	public void setup() {
-		alertService = new DefaultAlertService(system.getConfiguration(), _mqServiceMock, _metricServiceMock, _auditServiceMock,
+		alertService = _createAlertService(system.getConfiguration());
+	}
+
+	private DefaultAlertService _createAlertService(SystemConfiguration configuration) {
+		DefaultAlertService result = new DefaultAlertService(configuration, _mqServiceMock, _metricServiceMock, _auditServiceMock,
 				_tsdbServiceMock, _mailServiceMock, _historyServiceMock, _monitorServiceMock, system.getNotifierFactory(), 
 				_emProviderMock);
 		try {
-			Field field = alertService.getClass().getDeclaredField("_mapper");
+			Field field = result.getClass().getDeclaredField("_mapper");
 			field.setAccessible(true);
-			field.set(alertService, _mapper);
+			field.set(result, _mapper);
 		} catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
 			fail("Failed to set mocked ObjectMapper using reflection.");
 		}
+		return result;
 	}
 	
 	@Test
@@ -109,6 +131,398 @@ public class DefaultAlertServiceTest extends AbstractTest {
 		assertEquals(1, notificationCount.get());
 	}
 	
+	@Test
+	public void testExecuteScheduledAlerts_CancelsEvaluationPastDeadline() throws InterruptedException {
+		SystemConfiguration configuration = system.getConfiguration();
+
+		configuration.setProperty(DefaultAlertService.Property.ALERT_EVALUATION_TIMEOUT_MILLIS.getName(), "100");
+		alertService = _createAlertService(configuration);
+
+		UserService userService = system.getServiceFactory().getUserService();
+		final AtomicInteger notificationCount = new AtomicInteger(0);
+		final AtomicInteger clearCount = new AtomicInteger(0);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+
+		Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert", "-1h:scope:metric:avg", "* * * * *");
+		_setAlertId(alert, "100001");
+		Trigger trigger = new Trigger(alert, TriggerType.GREATER_THAN_OR_EQ, "testTrigger", 10, 0);
+		_setTriggerId(trigger, "100002");
+		Notification notification = new Notification("testNotification", alert, AuditNotifier.class.getName(), new ArrayList<String>(), 0);
+		_setNotificationId(notification, "100003");
+
+		alert.setTriggers(Arrays.asList(trigger));
+		alert.setNotifications(Arrays.asList(notification));
+		notification.setTriggers(alert.getTriggers());
+		alert.setEnabled(true);
+
+		DefaultAlertService spyAlertService = _initializeSpyAlertServiceWithStubs(notificationCount, clearCount,
+				Arrays.asList(new Metric("scope", "metric")), alert, notification);
+
+		when(_metricServiceMock.getMetrics(anyString(), anyLong())).thenAnswer(new Answer<List<Metric>>() {
+
+			@Override
+			public List<Metric> answer(InvocationOnMock invocation) throws Throwable {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException ex) {
+					interrupted.countDown();
+				}
+				return new ArrayList<>();
+			}
+		});
+		when(_historyServiceMock.createHistory(any(Alert.class), anyString(), any(JobStatus.class), anyLong())).thenAnswer(new Answer<History>() {
+
+			@Override
+			public History answer(InvocationOnMock invocation) throws Throwable {
+				return new History(invocation.getArgumentAt(1, String.class), "localhost", alert.getId(), invocation.getArgumentAt(2, JobStatus.class));
+			}
+		});
+
+		List<History> histories = spyAlertService.executeScheduledAlerts(1, 1000);
+
+		assertEquals(1, histories.size());
+		assertEquals(JobStatus.FAILURE, histories.get(0).getJobStatus());
+		assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+		assertEquals(0, notificationCount.get());
+	}
+
+	@Test
+	public void testExecuteScheduledAlerts_DeadlineStartsWhenEvaluationStarts() throws IOException {
+		SystemConfiguration configuration = system.getConfiguration();
+
+		configuration.setProperty(DefaultAlertService.Property.ALERT_EVALUATION_THREADS.getName(), "1");
+		configuration.setProperty(DefaultAlertService.Property.ALERT_EVALUATION_TIMEOUT_MILLIS.getName(), "1000");
+		alertService = _createAlertService(configuration);
+
+		UserService userService = system.getServiceFactory().getUserService();
+		DefaultAlertService spyAlertService = spy(alertService);
+		List<AlertWithTimestamp> alertsWithTimestamp = new ArrayList<>();
+		long enqueueTime = System.currentTimeMillis();
+
+		for (int i = 0; i < 2; i++) {
+			Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert" + i, "-1h:scope:metric" + i + ":avg", "* * * * *");
+			_setAlertId(alert, "10000" + i);
+			Trigger trigger = new Trigger(alert, TriggerType.GREATER_THAN_OR_EQ, "testTrigger", 10, 0);
+			_setTriggerId(trigger, "20000" + i);
+			Notification notification = new Notification("testNotification", alert, AuditNotifier.class.getName(), new ArrayList<String>(), 0);
+			_setNotificationId(notification, "30000" + i);
+
+			alert.setTriggers(Arrays.asList(trigger));
+			alert.setNotifications(Arrays.asList(notification));
+			notification.setTriggers(alert.getTriggers());
+			alert.setEnabled(true);
+
+			String serializedAlert = "alert" + i;
+
+			alertsWithTimestamp.add(new AlertWithTimestamp(serializedAlert, enqueueTime));
+			doReturn(alert).when(_mapper).readValue(serializedAlert, Alert.class);
+		}
+		when(_mqServiceMock.dequeue(eq(MQQueue.ALERT.getQueueName()), eq(AlertWithTimestamp.class), anyInt(), anyInt())).thenReturn(alertsWithTimestamp);
+		doNothing().when(spyAlertService).updateNotificationsActiveStatusAndCooldown(anyListOf(Notification.class));
+		// each evaluation takes most of the deadline, so the second one would overrun it if its time in the queue counted
+		when(_metricServiceMock.getMetrics(anyString(), anyLong())).thenAnswer(invocation -> {
+			Thread.sleep(700);
+			return new ArrayList<>();
+		});
+		when(_historyServiceMock.createHistory(any(Alert.class), anyString(), any(JobStatus.class), anyLong())).thenAnswer(invocation ->
+				new History(invocation.getArgumentAt(1, String.class), "localhost", invocation.getArgumentAt(0, Alert.class).getId(),
+						invocation.getArgumentAt(2, JobStatus.class)));
+
+		List<History> histories = spyAlertService.executeScheduledAlerts(2, 1000);
+
+		assertEquals(2, histories.size());
+		assertEquals(JobStatus.SUCCESS, histories.get(0).getJobStatus());
+		assertEquals(JobStatus.SUCCESS, histories.get(1).getJobStatus());
+	}
+
+	@Test
+	public void testExecuteScheduledAlerts_CancelsQueuedEvaluationsPastBatchDeadline() throws IOException {
+		SystemConfiguration configuration = system.getConfiguration();
+
+		configuration.setProperty(DefaultAlertService.Property.ALERT_EVALUATION_THREADS.getName(), "1");
+		configuration.setProperty(DefaultAlertService.Property.ALERT_EVALUATION_BATCH_TIMEOUT_MILLIS.getName(), "500");
+		alertService = _createAlertService(configuration);
+
+		UserService userService = system.getServiceFactory().getUserService();
+		DefaultAlertService spyAlertService = spy(alertService);
+		List<AlertWithTimestamp> alertsWithTimestamp = new ArrayList<>();
+		long enqueueTime = System.currentTimeMillis();
+
+		for (int i = 0; i < 2; i++) {
+			Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert" + i, "-1h:scope:metric" + i + ":avg", "* * * * *");
+			_setAlertId(alert, "10000" + i);
+			Trigger trigger = new Trigger(alert, TriggerType.GREATER_THAN_OR_EQ, "testTrigger", 10, 0);
+			_setTriggerId(trigger, "20000" + i);
+			Notification notification = new Notification("testNotification", alert, AuditNotifier.class.getName(), new ArrayList<String>(), 0);
+			_setNotificationId(notification, "30000" + i);
+
+			alert.setTriggers(Arrays.asList(trigger));
+			alert.setNotifications(Arrays.asList(notification));
+			notification.setTriggers(alert.getTriggers());
+			alert.setEnabled(true);
+
+			String serializedAlert = "alert" + i;
+
+			alertsWithTimestamp.add(new AlertWithTimestamp(serializedAlert, enqueueTime));
+			doReturn(alert).when(_mapper).readValue(serializedAlert, Alert.class);
+		}
+		when(_mqServiceMock.dequeue(eq(MQQueue.ALERT.getQueueName()), eq(AlertWithTimestamp.class), anyInt(), anyInt())).thenReturn(alertsWithTimestamp);
+		doNothing().when(spyAlertService).updateNotificationsActiveStatusAndCooldown(anyListOf(Notification.class));
+		// the first evaluation blocks the only worker, so the second one is still queued when the batch deadline passes
+		when(_metricServiceMock.getMetrics(anyString(), anyLong())).thenAnswer(invocation -> {
+			Thread.sleep(30000);
+			return new ArrayList<>();
+		});
+		when(_historyServiceMock.createHistory(any(Alert.class), anyString(), any(JobStatus.class), anyLong())).thenAnswer(invocation ->
+				new History(invocation.getArgumentAt(1, String.class), "localhost", invocation.getArgumentAt(0, Alert.class).getId(),
+						invocation.getArgumentAt(2, JobStatus.class)));
+
+		long startTime = System.currentTimeMillis();
+		List<History> histories = spyAlertService.executeScheduledAlerts(2, 1000);
+
+		assertTrue(System.currentTimeMillis() - startTime < 10000);
+		assertEquals(2, histories.size());
+		assertEquals(JobStatus.FAILURE, histories.get(0).getJobStatus());
+		assertEquals(JobStatus.FAILURE, histories.get(1).getJobStatus());
+	}
+
+	@Test
+	public void testExecuteScheduledAlerts_FetchesSharedQueriesOnce() throws IOException {
+		UserService userService = system.getServiceFactory().getUserService();
+		DefaultAlertService spyAlertService = spy(alertService);
+		ObjectMapper mapper = new ObjectMapper();
+		SimpleModule module = new SimpleModule();
+		module.addSerializer(Alert.class, new Alert.Serializer());
+		module.addSerializer(Trigger.class, new Trigger.Serializer());
+		module.addSerializer(Notification.class, new Notification.Serializer());
+		module.addSerializer(PrincipalUser.class, new Alert.PrincipalUserSerializer());
+		mapper.registerModule(module);
+
+		List<AlertWithTimestamp> alertsWithTimestamp = new ArrayList<>();
+		long enqueueTime = System.currentTimeMillis();
+
+		for (int i = 0; i < 2; i++) {
+			Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert" + i, "-1h:scope:metric:avg", "* * * * *");
+			_setAlertId(alert, "10000" + i);
+			Trigger trigger = new Trigger(alert, TriggerType.GREATER_THAN_OR_EQ, "testTrigger", 10 * (i + 1), 0);
+			_setTriggerId(trigger, "20000" + i);
+			Notification notification = new Notification("testNotification", alert, AuditNotifier.class.getName(), new ArrayList<String>(), 0);
+			_setNotificationId(notification, "30000" + i);
+
+			alert.setTriggers(Arrays.asList(trigger));
+			alert.setNotifications(Arrays.asList(notification));
+			notification.setTriggers(alert.getTriggers());
+			alert.setEnabled(true);
+
+			String serializedAlert = mapper.writeValueAsString(alert);
+
+			alertsWithTimestamp.add(new AlertWithTimestamp(serializedAlert, enqueueTime));
+			doReturn(alert).when(_mapper).readValue(serializedAlert, Alert.class);
+		}
+		when(_mqServiceMock.dequeue(eq(MQQueue.ALERT.getQueueName()), eq(AlertWithTimestamp.class), anyInt(), anyInt())).thenReturn(alertsWithTimestamp);
+		doNothing().when(spyAlertService).updateNotificationsActiveStatusAndCooldown(anyListOf(Notification.class));
+
+		MetricQuery query = new MetricQuery("scope", "metric", null, enqueueTime - 3600000, enqueueTime);
+		Map<MetricQuery, List<Metric>> sharedMetrics = new HashMap<>();
+
+		Map<MetricQuery, List<MetricQuery>> expandedQueries = Collections.singletonMap(query, Arrays.asList(query));
+
+		sharedMetrics.put(query, new ArrayList<>());
+		when(_metricServiceMock.getExpandedQueries(anyString(), anyLong())).thenReturn(expandedQueries);
+		when(_tsdbServiceMock.getMetrics(Arrays.asList(query))).thenReturn(sharedMetrics);
+		when(_metricServiceMock.getMetrics(anyString(), anyLong(), Matchers.<Map<MetricQuery, List<MetricQuery>>>any(),
+				Matchers.<Map<MetricQuery, List<Metric>>>any())).thenReturn(new ArrayList<>());
+
+		List<History> histories = spyAlertService.executeScheduledAlerts(2, 1000);
+
+		assertEquals(2, histories.size());
+		verify(_tsdbServiceMock, times(1)).getMetrics(Arrays.asList(query));
+		verify(_metricServiceMock, times(2)).getExpandedQueries("-1h:scope:metric:avg", enqueueTime);
+		verify(_metricServiceMock, times(2)).getMetrics(eq("-1h:scope:metric:avg"), eq(enqueueTime), eq(expandedQueries), eq(sharedMetrics));
+		verify(_metricServiceMock, never()).getMetrics(anyString(), anyLong());
+		verify(_metricServiceMock, never()).getQueries(anyString(), anyLong());
+	}
+
+	@Test
+	public void testExecuteScheduledAlerts_ResolvesAlertReferences() throws IOException {
+		SystemConfiguration configuration = system.getConfiguration();
+
+		configuration.setProperty(DefaultAlertService.Property.ALERT_QUEUE_REFERENCES_ENABLED.getName(), "true");
+		alertService = _createAlertService(configuration);
+
+		UserService userService = system.getServiceFactory().getUserService();
+		DefaultAlertService spyAlertService = spy(alertService);
+		List<AlertWithTimestamp> alertsWithTimestamp = new ArrayList<>();
+		List<Alert> storedAlerts = new ArrayList<>();
+		long enqueueTime = System.currentTimeMillis();
+
+		for (int i = 0; i < 2; i++) {
+			Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert" + i, "-1h:scope:metric:avg", "* * * * *");
+			_setAlertId(alert, "10000" + i);
+			Trigger trigger = new Trigger(alert, TriggerType.GREATER_THAN_OR_EQ, "testTrigger", 10, 0);
+			_setTriggerId(trigger, "20000" + i);
+			Notification notification = new Notification("testNotification", alert, AuditNotifier.class.getName(), new ArrayList<String>(), 0);
+			_setNotificationId(notification, "30000" + i);
+
+			alert.setTriggers(Arrays.asList(trigger));
+			alert.setNotifications(Arrays.asList(notification));
+			notification.setTriggers(alert.getTriggers());
+			alert.setEnabled(true);
+			alert.setModifiedDate(new Date(1000L));
+			storedAlerts.add(alert);
+
+			String serializedAlert = "alert" + i;
+
+			doReturn(serializedAlert).when(_mapper).writeValueAsString(alert);
+			doReturn(alert).when(_mapper).readValue(serializedAlert, Alert.class);
+		}
+		// The first reference is to the stored version, the second to a newer one that is loaded again.
+		alertsWithTimestamp.add(new AlertWithTimestamp(storedAlerts.get(0).getId(), 1000L, enqueueTime));
+		alertsWithTimestamp.add(new AlertWithTimestamp(storedAlerts.get(1).getId(), 2000L, enqueueTime));
+		when(_mqServiceMock.dequeue(eq(MQQueue.ALERT.getQueueName()), eq(AlertWithTimestamp.class), anyInt(), anyInt())).thenReturn(alertsWithTimestamp);
+		doReturn(storedAlerts).when(spyAlertService).findAlertsByStatus(true);
+		doReturn(Arrays.asList(storedAlerts.get(1))).when(spyAlertService).findAlertsByPrimaryKeys(Arrays.asList(storedAlerts.get(1).getId()));
+		doNothing().when(spyAlertService).updateNotificationsActiveStatusAndCooldown(anyListOf(Notification.class));
+		when(_metricServiceMock.getMetrics(anyString(), anyLong())).thenReturn(new ArrayList<>());
+		when(_metricServiceMock.getExpandedQueries(anyString(), anyLong())).thenReturn(Collections.emptyMap());
+
+		// The store is loaded at startup, so the evaluation only loads the newer version.
+		spyAlertService.loadAlertDefinitions();
+		verify(spyAlertService, times(1)).findAlertsByStatus(true);
+
+		// The store is shared by the alert services of the process, so another service does not load it again.
+		DefaultAlertService otherAlertService = spy(_createAlertService(configuration));
+
+		otherAlertService.loadAlertDefinitions();
+		verify(otherAlertService, never()).findAlertsByStatus(anyBoolean());
+
+		List<History> histories = spyAlertService.executeScheduledAlerts(2, 1000);
+
+		assertEquals(2, histories.size());
+		verify(_metricServiceMock, times(2)).getMetrics(eq("-1h:scope:metric:avg"), eq(enqueueTime));
+		verify(spyAlertService, times(1)).findAlertsByStatus(true);
+		verify(spyAlertService, times(1)).findAlertsByPrimaryKeys(anyListOf(BigInteger.class));
+	}
+
+	@Test
+	public void testEnqueueAlerts_EnqueuesReferencesWhenEnabled() {
+		SystemConfiguration configuration = system.getConfiguration();
+
+		configuration.setProperty(DefaultAlertService.Property.ALERT_QUEUE_REFERENCES_ENABLED.getName(), "true");
+		alertService = _createAlertService(configuration);
+
+		UserService userService = system.getServiceFactory().getUserService();
+		Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert", "-1h:scope:metric:avg", "* * * * *");
+
+		_setAlertId(alert, "100001");
+		alert.setModifiedDate(new Date(1000L));
+		alertService.enqueueAlerts(Arrays.asList(alert));
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+
+		verify(_mqServiceMock).enqueue(eq(MQQueue.ALERT.getQueueName()), captor.capture());
+
+		AlertWithTimestamp reference = (AlertWithTimestamp) captor.getValue().get(0);
+
+		assertNull(reference.getSerializedAlert());
+		assertEquals(alert.getId(), reference.getAlertId());
+		assertEquals(Long.valueOf(1000L), reference.getAlertVersion());
+	}
+
+	@Test
+	public void testEnqueueAlerts_SerializesOnlyAlertAndTimestampWhenReferencesDisabled() throws IOException {
+		UserService userService = system.getServiceFactory().getUserService();
+		Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert", "-1h:scope:metric:avg", "* * * * *");
+
+		_setAlertId(alert, "100001");
+		doReturn("alert").when(_mapper).writeValueAsString(alert);
+		alertService.enqueueAlerts(Arrays.asList(alert));
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+
+		verify(_mqServiceMock).enqueue(eq(MQQueue.ALERT.getQueueName()), captor.capture());
+
+		// Alert clients that predate references fail on unknown properties, so none may be written.
+		JsonNode json = new ObjectMapper().valueToTree(captor.getValue().get(0));
+		List<String> fieldNames = new ArrayList<>();
+
+		json.fieldNames().forEachRemaining(fieldNames::add);
+		Collections.sort(fieldNames);
+		assertEquals(Arrays.asList("alertEnqueueTime", "serializedAlert"), fieldNames);
+		assertEquals("alert", json.get("serializedAlert").asText());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSendNotification_DeliversCopyOfAlertWhenAsynchronous() throws InterruptedException {
+		SystemConfiguration configuration = system.getConfiguration();
+
+		configuration.setProperty(DefaultAlertService.Property.ALERT_NOTIFICATION_ASYNC_ENABLED.getName(), "true");
+
+		UserService userService = system.getServiceFactory().getUserService();
+		Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert", "-1h:scope:metric:avg", "* * * * *");
+		_setAlertId(alert, "100001");
+		Trigger trigger = new Trigger(alert, TriggerType.GREATER_THAN_OR_EQ, "testTrigger", 50, 0);
+		_setTriggerId(trigger, "100002");
+		Notification notification = new Notification("testNotification", alert, AuditNotifier.class.getName(), new ArrayList<String>(), 0);
+		_setNotificationId(notification, "100003");
+
+		alert.setTriggers(Arrays.asList(trigger));
+		alert.setNotifications(Arrays.asList(notification));
+		notification.setTriggers(alert.getTriggers());
+
+		Metric metric = new Metric("scope", "metric");
+		metric.setDatapoints(Collections.singletonMap(1000L, 100.0));
+		Metric otherMetric = new Metric("scope", "otherMetric");
+		otherMetric.setDatapoints(Collections.singletonMap(1000L, 100.0));
+
+		Notifier notifier = mock(Notifier.class);
+		ArgumentCaptor<NotificationContext> captor = ArgumentCaptor.forClass(NotificationContext.class);
+		ArgumentCaptor<List> recordsCaptor = ArgumentCaptor.forClass(List.class);
+		CountDownLatch delivered = new CountDownLatch(2);
+		DefaultAlertService spyAlertService = spy(new DefaultAlertService(configuration, _mqServiceMock, _metricServiceMock, _auditServiceMock,
+				_tsdbServiceMock, _mailServiceMock, _historyServiceMock, _monitorServiceMock, system.getNotifierFactory(), _emProviderMock));
+
+		doReturn(notifier).when(spyAlertService).getNotifier(any(SupportedNotifier.class));
+		doAnswer(invocation -> {
+			invocation.getArgumentAt(0, NotificationContext.class).getHistory().appendMessageNUpdateHistory("delivered", null, 0);
+			delivered.countDown();
+			return true;
+		}).when(notifier).sendNotification(any(NotificationContext.class));
+
+		History history = new History(History.addDateToMessage(JobStatus.STARTED.getDescription()), "host", alert.getId(), JobStatus.STARTED);
+
+		spyAlertService.sendNotification(trigger, metric, history, notification, alert, 1000L, 0L);
+		spyAlertService.sendNotification(trigger, otherMetric, history, notification, alert, 1000L, 0L);
+		assertTrue(delivered.await(10, TimeUnit.SECONDS));
+		verify(notifier, times(2)).sendNotification(captor.capture());
+
+		// The delivery works on copies, and its messages are not appended to the history of the evaluation thread while it runs.
+		NotificationContext context = captor.getAllValues().get(0);
+
+		assertTrue(context.getAlert() != alert);
+		assertEquals(alert.getId(), context.getAlert().getId());
+		assertTrue(context.getNotification() != notification);
+		assertTrue(context.getTriggeredMetric() != metric);
+		assertTrue(context.getHistory() != history);
+		assertTrue(context.getHistory().getMessage().contains("delivered"));
+		assertTrue(history.getMessage().contains("Queued triggered notification testNotification"));
+		assertFalse(history.getMessage().contains("delivered"));
+		// The deliveries of the evaluation share one copy of the alert.
+		assertTrue(captor.getAllValues().get(1).getAlert() == context.getAlert());
+
+		// Each delivery is recorded as a history record of the alert of its own.
+		Set<Long> creationTimes = new HashSet<>();
+
+		verify(_historyServiceMock, timeout(10000).times(2)).createHistories(recordsCaptor.capture());
+		for(List<History> records : recordsCaptor.getAllValues()) {
+			assertEquals(1, records.size());
+			assertEquals(alert.getId(), records.get(0).getEntityId());
+			assertEquals(JobStatus.SUCCESS, records.get(0).getJobStatus());
+			assertTrue(records.get(0).getMessage().contains("delivered"));
+			creationTimes.add(records.get(0).getCreationTime());
+		}
+		assertEquals(2, creationTimes.size());
+	}
+
 	@Test
 	public void testExecuteScheduledAlerts_ForOneTimeSeriesMultipleTriggers() {
 		ServiceFactory sFactory = system.getServiceFactory();
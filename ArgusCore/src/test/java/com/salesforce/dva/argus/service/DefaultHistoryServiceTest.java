@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+     
+package com.salesforce.dva.argus.service;
+
+import com.salesforce.dva.argus.AbstractTest;
+import com.salesforce.dva.argus.entity.History;
+import com.salesforce.dva.argus.entity.History.JobStatus;
+import com.salesforce.dva.argus.service.history.DefaultHistoryService;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class DefaultHistoryServiceTest extends AbstractTest {
+
+    @Test
+    public void testCreateHistoriesSkipsConflictingRecords() {
+        Properties props = new Properties();
+
+        props.setProperty("service.binding.history", DefaultHistoryService.class.getName());
+
+        HistoryService historyService = getInstance(props).getServiceFactory().getHistoryService();
+        History duplicate = new History("duplicate", "host", BigInteger.ONE, JobStatus.SUCCESS, 0, 1000L);
+
+        assertEquals(1, historyService.createHistories(Arrays.asList(new History("message", "host", BigInteger.ONE, JobStatus.SUCCESS, 0, 1000L))));
+        assertEquals(2, historyService.createHistories(Arrays.asList(new History("message", "host", BigInteger.ONE, JobStatus.SUCCESS, 0, 2000L),
+            duplicate, new History("message", "host", BigInteger.valueOf(2), JobStatus.SUCCESS, 0, 1000L))));
+        assertEquals(2, historyService.findByJob(BigInteger.ONE).size());
+        assertEquals(1, historyService.findByJob(BigInteger.valueOf(2)).size());
+    }
+
+    @Test
+    public void testCreateHistoriesDropsBatchOnOtherFailures() {
+        Properties props = new Properties();
+
+        props.setProperty("service.binding.history", DefaultHistoryService.class.getName());
+
+        HistoryService historyService = getInstance(props).getServiceFactory().getHistoryService();
+        // Exceeds the host name column, which is not a constraint violation that retrying the other records would get around.
+        History invalid = new History("message", StringUtils.repeat("h", 300), BigInteger.valueOf(3), JobStatus.SUCCESS, 0, 1000L);
+
+        assertEquals(0, historyService.createHistories(Arrays.asList(new History("message", "host", BigInteger.valueOf(3), JobStatus.SUCCESS, 0, 2000L),
+            invalid)));
+        assertEquals(0, historyService.findByJob(BigInteger.valueOf(3)).size());
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,86 @@
+package com.salesforce.dva.argus.service.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.entity.Alert;
+import com.salesforce.dva.argus.entity.PrincipalUser;
+
+public class AlertDefinitionsCacheTest {
+
+	private static final long MINUTE = 60 * 1000L;
+	private static final String EVERY_MINUTE = "* * * * *";
+	private static final String EVERY_FIVE_MINUTES = "*/5 * * * *";
+
+	@Test
+	public void testApplyChangesUpdatesAlertsByCronEntry() throws Exception {
+		AlertDefinitionsCache cache = new AlertDefinitionsCache();
+		long minute = 5 * MINUTE * (System.currentTimeMillis() / (5 * MINUTE)) + MINUTE;
+
+		cache.initialize(Arrays.asList(_alert(1, EVERY_MINUTE, 1000), _alert(2, EVERY_MINUTE, 1000), _alert(3, EVERY_MINUTE, 1000)), 1000);
+		assertTrue(cache.isAlertsCacheInitialized());
+		assertEquals(Arrays.asList(1, 2, 3), _enabledAlertIds(minute));
+
+		Alert moved = _alert(1, EVERY_FIVE_MINUTES, 2000);
+		Alert disabled = _alert(2, EVERY_MINUTE, 2000);
+		Alert deleted = _alert(3, EVERY_MINUTE, 2000);
+
+		disabled.setEnabled(false);
+		deleted.setDeleted(true);
+		assertEquals(4, cache.applyChanges(Arrays.asList(moved, disabled, deleted, _alert(4, EVERY_MINUTE, 3000))));
+		assertEquals(Arrays.asList(4), _enabledAlertIds(minute));
+		assertEquals(Arrays.asList(1, 4), _enabledAlertIds(minute + 4 * MINUTE));
+		assertEquals(3000L, cache.getLastModifiedTime());
+	}
+
+	@Test
+	public void testApplyChangesSkipsAlreadyAppliedChanges() throws Exception {
+		AlertDefinitionsCache cache = new AlertDefinitionsCache();
+		Alert alert = _alert(1, EVERY_MINUTE, 2000);
+		Alert disabled = _alert(2, EVERY_MINUTE, 2000);
+
+		disabled.setEnabled(false);
+		cache.initialize(Collections.singletonList(alert), 1000);
+
+		Map<BigInteger, Alert> alertsMapById = cache.getAlertsMapById();
+
+		assertEquals(0, cache.applyChanges(Arrays.asList(_alert(1, EVERY_FIVE_MINUTES, 2000), _alert(1, EVERY_FIVE_MINUTES, 1500), disabled)));
+		assertSame(alertsMapById, cache.getAlertsMapById());
+		assertSame(alert, cache.getAlertsMapById().get(BigInteger.ONE));
+		assertEquals(Arrays.asList(BigInteger.ONE), cache.getAlertsMapByCronEntry().get(EVERY_MINUTE));
+		assertEquals(2000L, cache.getLastModifiedTime());
+	}
+
+	private static List<Integer> _enabledAlertIds(long minute) {
+		List<Integer> result = new ArrayList<>();
+
+		for (Alert alert : AlertDefinitionsCache.getEnabledAlertsForMinute(minute)) {
+			result.add(alert.getId().intValue());
+		}
+		return result;
+	}
+
+	private static Alert _alert(long id, String cronEntry, long modifiedTime) throws Exception {
+		PrincipalUser user = new PrincipalUser(null, "owner", "owner@example.com");
+		Alert alert = new Alert(user, user, "alert" + id, "-1h:scope:metric:avg", cronEntry);
+		Field idField = Alert.class.getSuperclass().getDeclaredField("id");
+
+		idField.setAccessible(true);
+		idField.set(alert, BigInteger.valueOf(id));
+		alert.setEnabled(true);
+		alert.setModifiedDate(new Date(modifiedTime));
+		return alert;
+	}
+}
@@ -0,0 +1,121 @@
+package com.salesforce.dva.argus.service.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.entity.History;
+import com.salesforce.dva.argus.entity.History.JobStatus;
+import com.salesforce.dva.argus.service.HistoryService;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+import com.salesforce.dva.argus.system.SystemException;
+
+public class AlertHistoryWriterTest {
+
+	private final HistoryService _historyService = mock(HistoryService.class);
+	private final MonitorService _monitorService = mock(MonitorService.class);
+
+	@Test
+	public void testWritesQueuedRecordsInBatches() {
+		List<List<History>> batches = Collections.synchronizedList(new ArrayList<>());
+
+		doAnswer(invocation -> {
+			List<History> batch = new ArrayList<>(invocation.getArgumentAt(0, List.class));
+
+			batches.add(batch);
+			return batch.size();
+		}).when(_historyService).createHistories(anyListOf(History.class));
+
+		AlertHistoryWriter writer = new AlertHistoryWriter(_historyService, _monitorService, 100, 4, 200);
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(writer.write(_history(i)));
+		}
+		writer.close(10000);
+
+		List<History> written = new ArrayList<>();
+
+		for (List<History> batch : batches) {
+			assertTrue(batch.size() <= 4);
+			written.addAll(batch);
+		}
+		assertEquals(10, written.size());
+		assertEquals(_history(9).getEntityId(), written.get(9).getEntityId());
+		assertEquals(0, writer.getPendingCount());
+		assertFalse(writer.write(_history(10)));
+	}
+
+	@Test
+	public void testDropsRecordsWhenQueueIsFull() throws Exception {
+		CountDownLatch flushStarted = new CountDownLatch(1);
+		CountDownLatch flushReleased = new CountDownLatch(1);
+
+		doAnswer(invocation -> {
+			flushStarted.countDown();
+			flushReleased.await();
+			return 1;
+		}).when(_historyService).createHistories(anyListOf(History.class));
+
+		AlertHistoryWriter writer = new AlertHistoryWriter(_historyService, _monitorService, 2, 1, 0);
+
+		assertTrue(writer.write(_history(0)));
+		assertTrue(flushStarted.await(10, TimeUnit.SECONDS));
+		assertTrue(writer.write(_history(1)));
+		assertTrue(writer.write(_history(2)));
+		assertFalse(writer.write(_history(3)));
+		verify(_monitorService).modifyCounter(Counter.HISTORY_DROPPED, 1, null);
+		flushReleased.countDown();
+		writer.close(10000);
+		verify(_monitorService, times(3)).modifyCounter(Counter.HISTORY_WRITES, 1, null);
+	}
+
+	@Test
+	public void testCountsRecordsOfFailedBatchesAsDropped() {
+		doThrow(new SystemException("unavailable")).when(_historyService).createHistories(anyListOf(History.class));
+
+		AlertHistoryWriter writer = new AlertHistoryWriter(_historyService, _monitorService, 10, 10, 500);
+
+		writer.write(_history(0));
+		writer.write(_history(1));
+		writer.close(20000);
+		verify(_monitorService).modifyCounter(Counter.HISTORY_DROPPED, 2, null);
+		verify(_monitorService).modifyCounter(eq(Counter.HISTORY_FLUSH_LATENCY), anyDouble(), any());
+	}
+
+	@Test
+	public void testCountsRecordsSkippedByHistoryServiceAsDropped() {
+		doReturn(1).when(_historyService).createHistories(anyListOf(History.class));
+
+		AlertHistoryWriter writer = new AlertHistoryWriter(_historyService, _monitorService, 10, 10, 500);
+
+		writer.write(_history(0));
+		writer.write(_history(1));
+		writer.close(20000);
+		verify(_monitorService).modifyCounter(Counter.HISTORY_WRITES, 1, null);
+		verify(_monitorService).modifyCounter(Counter.HISTORY_DROPPED, 1, null);
+	}
+
+	private static History _history(int id) {
+		return new History("message", "host", BigInteger.valueOf(id + 1), JobStatus.SUCCESS, 0, id);
+	}
+}
@@ -0,0 +1,184 @@
+package com.salesforce.dva.argus.service.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
+
+public class AlertWindowCacheTest {
+
+	private static final BigInteger ALERT_ID = BigInteger.ONE;
+	private static final String EXPRESSION = "-1h:scope:metric:avg";
+	private static final long MINUTE = 60000L;
+
+	@Test
+	public void testIsSupported() {
+		assertTrue(AlertWindowCache.isSupported(EXPRESSION));
+		assertTrue(AlertWindowCache.isSupported("-1h:-5m:scope:metric{host=*}:avg:1m-avg"));
+		assertFalse(AlertWindowCache.isSupported("1000:2000:scope:metric:avg"));
+		assertFalse(AlertWindowCache.isSupported("SUM(-1h:scope:metric:avg)"));
+	}
+
+	@Test
+	public void testOnlyFetchesRecentDataOfCachedWindow() {
+		AlertWindowCache cache = new AlertWindowCache(1000, 5 * MINUTE);
+		List<MetricQuery> fetchedQueries = new ArrayList<>();
+		Series series = new Series();
+
+		for (long time = 0; time <= 60; time++) {
+			series.put("a", time * MINUTE, time);
+		}
+
+		List<Metric> metrics = cache.getMetrics(ALERT_ID, EXPRESSION, _query(0, 60 * MINUTE), series.fetcher(fetchedQueries));
+
+		assertEquals(61, metrics.get(0).getDatapoints().size());
+		assertEquals(0L, (long) fetchedQueries.get(0).getStartTimestamp());
+
+		// A late datapoint within the overlap and a new series are picked up.
+		series.put("a", 58 * MINUTE, -1);
+		series.put("a", 61 * MINUTE, 61);
+		series.put("a", 62 * MINUTE, 62);
+		series.put("b", 62 * MINUTE, 1);
+		metrics = cache.getMetrics(ALERT_ID, EXPRESSION, _query(2 * MINUTE, 62 * MINUTE), series.fetcher(fetchedQueries));
+
+		assertEquals(50 * MINUTE, (long) fetchedQueries.get(1).getStartTimestamp());
+		assertEquals(series.expected("a", 2 * MINUTE, 62 * MINUTE), metrics.get(0).getDatapoints());
+		assertEquals(series.expected("b", 2 * MINUTE, 62 * MINUTE), metrics.get(1).getDatapoints());
+	}
+
+	@Test
+	public void testFetchesWholeQueryWhenWindowCannotBeExtended() {
+		AlertWindowCache cache = new AlertWindowCache(1000, 5 * MINUTE);
+		List<MetricQuery> fetchedQueries = new ArrayList<>();
+		Series series = new Series();
+
+		series.put("a", 0, 1);
+		cache.getMetrics(ALERT_ID, EXPRESSION, _query(0, 60 * MINUTE), series.fetcher(fetchedQueries));
+
+		// Expression changed.
+		cache.getMetrics(ALERT_ID, "-2h:scope:metric:avg", _query(MINUTE, 61 * MINUTE), series.fetcher(fetchedQueries));
+		assertEquals(MINUTE, (long) fetchedQueries.get(1).getStartTimestamp());
+
+		// Window no longer overlaps the query.
+		cache.getMetrics(ALERT_ID, "-2h:scope:metric:avg", _query(200 * MINUTE, 260 * MINUTE), series.fetcher(fetchedQueries));
+		assertEquals(200 * MINUTE, (long) fetchedQueries.get(2).getStartTimestamp());
+
+		// Window was evicted.
+		cache.invalidate(ALERT_ID);
+		cache.getMetrics(ALERT_ID, "-2h:scope:metric:avg", _query(201 * MINUTE, 261 * MINUTE), series.fetcher(fetchedQueries));
+		assertEquals(201 * MINUTE, (long) fetchedQueries.get(3).getStartTimestamp());
+	}
+
+	@Test
+	public void testAlignsFetchStartToDownsamplingPeriod() {
+		AlertWindowCache cache = new AlertWindowCache(1000, 5 * MINUTE);
+		List<MetricQuery> fetchedQueries = new ArrayList<>();
+		Series series = new Series();
+		MetricQuery query = _query(0, 60 * MINUTE + 30000);
+
+		query.setDownsamplingPeriod(10 * MINUTE);
+		cache.getMetrics(ALERT_ID, EXPRESSION, query, series.fetcher(fetchedQueries));
+		query = _query(MINUTE, 61 * MINUTE);
+		query.setDownsamplingPeriod(10 * MINUTE);
+		cache.getMetrics(ALERT_ID, EXPRESSION, query, series.fetcher(fetchedQueries));
+		assertEquals(40 * MINUTE, (long) fetchedQueries.get(1).getStartTimestamp());
+	}
+
+	@Test
+	public void testDiscardsEdgeOfRecentData() {
+		AlertWindowCache cache = new AlertWindowCache(1000, 5 * MINUTE);
+		Series series = new Series();
+		MetricQuery query = _query(0, 60 * MINUTE);
+
+		for (long time = 0; time <= 60; time += 10) {
+			series.put("a", time * MINUTE, time);
+		}
+		query.setDownsamplingPeriod(10 * MINUTE);
+		cache.getMetrics(ALERT_ID, EXPRESSION, query, series.fetcher(new ArrayList<>()));
+		query = _query(MINUTE, 61 * MINUTE);
+		query.setDownsamplingPeriod(10 * MINUTE);
+
+		// The first bucket of the recent data only covers part of the datapoints of the full query.
+		List<Metric> metrics = cache.getMetrics(ALERT_ID, EXPRESSION, query, fetchQuery -> {
+			List<Metric> result = series.fetcher(new ArrayList<>()).apply(fetchQuery);
+			Map<Long, Double> datapoints = new TreeMap<>(result.get(0).getDatapoints());
+
+			datapoints.put(fetchQuery.getStartTimestamp(), -1.0);
+			result.get(0).setDatapoints(datapoints);
+			return result;
+		});
+
+		assertEquals(series.expected("a", 0, 60 * MINUTE), metrics.get(0).getDatapoints());
+	}
+
+	@Test
+	public void testReturnedMetricsAreNotAffectedByLaterFetches() {
+		AlertWindowCache cache = new AlertWindowCache(1000, 5 * MINUTE);
+		Series series = new Series();
+
+		series.put("a", 0, 1);
+		series.put("a", 59 * MINUTE, 2);
+
+		List<Metric> first = cache.getMetrics(ALERT_ID, EXPRESSION, _query(0, 60 * MINUTE), series.fetcher(new ArrayList<>()));
+
+		series.put("a", 61 * MINUTE, 3);
+		cache.getMetrics(ALERT_ID, EXPRESSION, _query(MINUTE, 61 * MINUTE), series.fetcher(new ArrayList<>()));
+		assertEquals(Arrays.asList(0L, 59 * MINUTE), new ArrayList<>(first.get(0).getDatapoints().keySet()));
+	}
+
+	private static MetricQuery _query(long start, long end) {
+		return new MetricQuery("scope", "metric", null, start, end);
+	}
+
+	/* Datapoints by host that answers queries like a TSDB would. */
+	private static final class Series {
+
+		private final Map<String, Map<Long, Double>> _datapointsByHost = new TreeMap<>();
+
+		void put(String host, long timestamp, double value) {
+			_datapointsByHost.computeIfAbsent(host, key -> new TreeMap<>()).put(timestamp, value);
+		}
+
+		Map<Long, Double> expected(String host, long start, long end) {
+			Map<Long, Double> result = new TreeMap<>();
+
+			for (Map.Entry<Long, Double> entry : _datapointsByHost.get(host).entrySet()) {
+				if (entry.getKey() >= start && entry.getKey() <= end) {
+					result.put(entry.getKey(), entry.getValue());
+				}
+			}
+			return result;
+		}
+
+		Function<MetricQuery, List<Metric>> fetcher(List<MetricQuery> fetchedQueries) {
+			return query -> {
+				List<Metric> result = new ArrayList<>();
+
+				fetchedQueries.add(query);
+				for (String host : _datapointsByHost.keySet()) {
+					Map<String, String> tags = new HashMap<>();
+					Metric metric = new Metric("scope", "metric");
+
+					tags.put("host", host);
+					metric.setTags(tags);
+					metric.setDatapoints(expected(host, query.getStartTimestamp(), query.getEndTimestamp()));
+					result.add(metric);
+				}
+				return result;
+			};
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.salesforce.dva.argus.service.alert;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.CronTrigger;
+import org.quartz.TriggerBuilder;
+
+import com.salesforce.dva.argus.util.Cron;
+
+public class CronFireTimeIndexTest {
+
+	private static final long MINUTE = 60 * 1000L;
+	private static final List<String> CRON_ENTRIES = Arrays.asList("* * * * *", "*/5 * * * *", "0 * * * *", "15,45 * * * *",
+			"0-10 2 * * *", "30 1 1 * ?", "0 0 * * 1", "1 1 1 1 *", "invalid");
+
+	@Test
+	public void testMatchesCronTriggerForConsecutiveMinutes() {
+		CronFireTimeIndex index = new CronFireTimeIndex();
+		long start = MINUTE * (System.currentTimeMillis() / MINUTE);
+
+		CRON_ENTRIES.forEach(index::add);
+		for (long time = start; time < start + 3 * 24 * 60 * MINUTE; time += MINUTE) {
+			// The scheduler looks up the current minute after the next one was looked up.
+			_assertDue(index, CRON_ENTRIES, time + MINUTE);
+			_assertDue(index, CRON_ENTRIES, time);
+		}
+	}
+
+	@Test
+	public void testMatchesCronTriggerForEntriesAddedLaterAndOldMinutes() {
+		CronFireTimeIndex index = new CronFireTimeIndex();
+		long start = MINUTE * (System.currentTimeMillis() / MINUTE);
+
+		index.add(CRON_ENTRIES.get(1));
+		_assertDue(index, CRON_ENTRIES.subList(1, 2), start);
+		_assertDue(index, CRON_ENTRIES.subList(1, 2), start + 5 * MINUTE);
+		CRON_ENTRIES.forEach(index::add);
+		for (long time = start; time < start + 20 * MINUTE; time += MINUTE) {
+			_assertDue(index, CRON_ENTRIES, time);
+		}
+		_assertDue(index, CRON_ENTRIES, start - 60 * MINUTE);
+		_assertDue(index, CRON_ENTRIES, start + 30 * 24 * 60 * MINUTE);
+		_assertDue(index, CRON_ENTRIES, start + 30 * 24 * 60 * MINUTE + MINUTE);
+	}
+
+	private static void _assertDue(CronFireTimeIndex index, List<String> cronEntries, long time) {
+		List<String> expected = new ArrayList<>();
+
+		for (String cronEntry : cronEntries) {
+			try {
+				Date previousSecond = new Date(time - 1000);
+				CronTrigger cronTrigger = TriggerBuilder.newTrigger().withSchedule(CronScheduleBuilder.cronSchedule(Cron.convertToQuartzCronEntry(cronEntry)))
+						.startAt(previousSecond).build();
+
+				if (new Date(time).equals(cronTrigger.getFireTimeAfter(previousSecond))) {
+					expected.add(cronEntry);
+				}
+			} catch (RuntimeException ex) {
+				// Never due.
+			}
+		}
+
+		List<String> actual = new ArrayList<>(index.getCronEntriesForMinute(time));
+
+		Collections.sort(expected);
+		Collections.sort(actual);
+		assertEquals(new Date(time).toString(), expected, actual);
+	}
+}
@@ -0,0 +1,187 @@
+package com.salesforce.dva.argus.service.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+
+public class NotificationDispatcherTest {
+
+	private final MonitorService _monitorService = mock(MonitorService.class);
+
+	@Test
+	public void testCoalescesQueuedDuplicates() throws Exception {
+		NotificationDispatcher dispatcher = new NotificationDispatcher(_monitorService, 1, 10, 10000, 5, 60000);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch released = new CountDownLatch(1);
+		List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+		assertTrue(dispatcher.dispatch("EMAIL", "blocker", () -> {
+			started.countDown();
+			released.await();
+			return true;
+		}));
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 3; i++) {
+			String value = "a" + i;
+
+			assertTrue(dispatcher.dispatch("EMAIL", "a", () -> delivered.add(value)));
+		}
+		assertTrue(dispatcher.dispatch("EMAIL", "b", () -> delivered.add("b")));
+		released.countDown();
+		dispatcher.close(10000);
+		assertEquals(2, delivered.size());
+		assertTrue(delivered.contains("a2"));
+		assertTrue(delivered.contains("b"));
+		verify(_monitorService, times(2)).modifyCounter(eq(Counter.NOTIFICATIONS_COALESCED), eq(1.0), anyMapOf(String.class, String.class));
+		verify(_monitorService, times(3)).modifyCounter(eq(Counter.NOTIFICATIONS_DELIVERY_LATENCY), anyDouble(),
+				anyMapOf(String.class, String.class));
+	}
+
+	@Test
+	public void testSendsDeliveriesWithTheSameKeyInOrder() throws Exception {
+		NotificationDispatcher dispatcher = new NotificationDispatcher(_monitorService, 4, 1000, 10000, 5, 60000);
+		List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+
+		for (int i = 0; i < 200; i++) {
+			int value = i;
+
+			assertTrue(dispatcher.dispatch("EMAIL", "a", () -> {
+				Thread.sleep(1);
+				return delivered.add(value);
+			}));
+			assertTrue(dispatcher.dispatch("EMAIL", "b" + i, () -> true));
+		}
+		dispatcher.close(10000);
+		for (int i = 1; i < delivered.size(); i++) {
+			assertTrue(delivered.get(i - 1) < delivered.get(i));
+		}
+		assertEquals(Integer.valueOf(199), delivered.get(delivered.size() - 1));
+	}
+
+	@Test
+	public void testCircuitBreakerRejectsNotificationsOfFailingNotifierOnly() throws Exception {
+		NotificationDispatcher dispatcher = new NotificationDispatcher(_monitorService, 1, 10, 10000, 2, 60000);
+
+		assertTrue(dispatcher.dispatch("GOC", "a", () -> false));
+		assertTrue(dispatcher.dispatch("GOC", "b", () -> {
+			throw new IllegalStateException("unavailable");
+		}));
+		verify(_monitorService, timeout(10000).times(2)).modifyCounter(eq(Counter.NOTIFICATIONS_DELIVERY_LATENCY), anyDouble(),
+				anyMapOf(String.class, String.class));
+		assertFalse(dispatcher.dispatch("GOC", "c", () -> true));
+		assertTrue(dispatcher.dispatch("EMAIL", "c", () -> true));
+		verify(_monitorService).modifyCounter(eq(Counter.NOTIFICATIONS_DROPPED), eq(1.0), anyMapOf(String.class, String.class));
+		dispatcher.close(10000);
+	}
+
+	@Test
+	public void testCancelsDeliveriesThatTimeOut() throws Exception {
+		NotificationDispatcher dispatcher = new NotificationDispatcher(_monitorService, 1, 10, 100, 1, 60000);
+		CountDownLatch interrupted = new CountDownLatch(1);
+
+		assertTrue(dispatcher.dispatch("GUS", "a", () -> {
+			try {
+				Thread.sleep(10000);
+			} catch (InterruptedException ex) {
+				interrupted.countDown();
+			}
+			return true;
+		}));
+		assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+		verify(_monitorService, timeout(10000)).modifyCounter(eq(Counter.NOTIFICATIONS_DELIVERY_LATENCY), anyDouble(),
+				anyMapOf(String.class, String.class));
+		assertFalse(dispatcher.dispatch("GUS", "b", () -> true));
+		dispatcher.close(10000);
+	}
+
+	@Test
+	public void testContinuesWithNextDeliveryWhileTimedOutDeliveryIsRunning() throws Exception {
+		NotificationDispatcher dispatcher = new NotificationDispatcher(_monitorService, 1, 10, 100, 5, 60000);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		CountDownLatch released = new CountDownLatch(1);
+		CountDownLatch delivered = new CountDownLatch(1);
+
+		assertTrue(dispatcher.dispatch("GUS", "a", () -> {
+			try {
+				Thread.sleep(10000);
+			} catch (InterruptedException ex) {
+				interrupted.countDown();
+			}
+			// Keeps running after it was cancelled, like a delivery blocked in IO.
+			released.await();
+			return true;
+		}));
+		assertTrue(dispatcher.dispatch("GUS", "b", () -> {
+			delivered.countDown();
+			return true;
+		}));
+		assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+		assertTrue(delivered.await(10, TimeUnit.SECONDS));
+		released.countDown();
+		dispatcher.close(10000);
+	}
+
+	@Test
+	public void testDropsDeliveriesWhileDeliveryThreadsAreBusy() throws Exception {
+		NotificationDispatcher dispatcher = new NotificationDispatcher(_monitorService, 1, 10, 100, 5, 60000);
+		CountDownLatch released = new CountDownLatch(1);
+		CountDownLatch delivered = new CountDownLatch(1);
+
+		// Neither delivery stops when it is cancelled, so together they hold all the delivery threads of the notifier.
+		for (String key : Arrays.asList("a", "b")) {
+			assertTrue(dispatcher.dispatch("GUS", key, () -> {
+				while (released.getCount() > 0) {
+					try {
+						released.await();
+					} catch (InterruptedException ex) {
+						// Keeps waiting, like a delivery blocked in IO.
+					}
+				}
+				return true;
+			}));
+		}
+		assertTrue(dispatcher.dispatch("GUS", "c", () -> {
+			delivered.countDown();
+			return true;
+		}));
+		verify(_monitorService, timeout(10000)).modifyCounter(eq(Counter.NOTIFICATIONS_DROPPED), eq(1.0), anyMapOf(String.class, String.class));
+		assertEquals(1, delivered.getCount());
+		released.countDown();
+		dispatcher.close(10000);
+	}
+
+	@Test
+	public void testCircuitBreakerAllowsTrialAfterOpenTime() {
+		NotificationDispatcher.CircuitBreaker breaker = new NotificationDispatcher.CircuitBreaker(2, 1000);
+
+		assertFalse(breaker.onFailure(0));
+		assertTrue(breaker.allows(0));
+		assertTrue(breaker.onFailure(0));
+		assertFalse(breaker.allows(999));
+		assertTrue(breaker.allows(1000));
+		assertTrue(breaker.onFailure(1000));
+		assertFalse(breaker.allows(1999));
+		breaker.onSuccess();
+		assertTrue(breaker.allows(1999));
+		assertFalse(breaker.onFailure(2000));
+	}
+}
@@ -0,0 +1,68 @@
+package com.salesforce.dva.argus.service.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class NotificationStateStoreTest {
+
+	@Test
+	public void testReturnsCopiesOfStoredState() {
+		NotificationStateStore store = new NotificationStateStore(4);
+		Map<String, Long> cooldownExpirations = new HashMap<>();
+		Map<String, Boolean> activeStatuses = new HashMap<>();
+
+		cooldownExpirations.put("a", 10L);
+		cooldownExpirations.put("b", 20L);
+		activeStatuses.put("a", true);
+		activeStatuses.put("c", false);
+		for (long id = 1; id <= 100; id++) {
+			store.write(id, cooldownExpirations, activeStatuses, 1000);
+		}
+		assertEquals(100, store.size());
+		assertEquals(cooldownExpirations, store.getCooldownExpirations(42));
+		assertEquals(activeStatuses, store.getActiveStatuses(42));
+
+		store.getCooldownExpirations(42).put("a", 0L);
+		assertEquals(cooldownExpirations, store.getCooldownExpirations(42));
+		assertNull(store.getCooldownExpirations(101));
+		assertNull(store.getActiveStatuses(101));
+	}
+
+	@Test
+	public void testRefreshDoesNotOverwriteLaterWrites() {
+		NotificationStateStore store = new NotificationStateStore(4);
+
+		store.write(1, Collections.singletonMap("a", 20L), Collections.singletonMap("a", true), 2000);
+		store.refresh(1, Collections.singletonMap("a", 10L), Collections.singletonMap("a", false), 1000);
+		assertEquals(Collections.singletonMap("a", 20L), store.getCooldownExpirations(1));
+		assertEquals(Collections.singletonMap("a", true), store.getActiveStatuses(1));
+
+		store.refresh(1, Collections.singletonMap("a", 30L), Collections.singletonMap("a", false), 3000);
+		assertEquals(Collections.singletonMap("a", 30L), store.getCooldownExpirations(1));
+		assertEquals(Collections.singletonMap("a", false), store.getActiveStatuses(1));
+
+		// Notifications without state are removed.
+		store.refresh(1, Collections.emptyMap(), Collections.emptyMap(), 4000);
+		assertNull(store.getCooldownExpirations(1));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void testRemoveEvictsWrittenState() {
+		NotificationStateStore store = new NotificationStateStore(4);
+
+		store.write(1, Collections.singletonMap("a", 20L), Collections.singletonMap("a", true), 2000);
+		store.write(2, Collections.singletonMap("b", 20L), Collections.singletonMap("b", true), 2000);
+		store.remove(1);
+		assertNull(store.getCooldownExpirations(1));
+		assertNull(store.getActiveStatuses(1));
+		assertEquals(Collections.singletonMap("b", 20L), store.getCooldownExpirations(2));
+		assertEquals(1, store.size());
+	}
+}
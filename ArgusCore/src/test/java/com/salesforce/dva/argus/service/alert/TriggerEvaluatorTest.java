@@ -0,0 +1,161 @@
+package com.salesforce.dva.argus.service.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.entity.Alert;
+import com.salesforce.dva.argus.entity.PrincipalUser;
+import com.salesforce.dva.argus.entity.Trigger;
+import com.salesforce.dva.argus.entity.Trigger.TriggerType;
+
+public class TriggerEvaluatorTest {
+
+	private static final String EXPRESSION = "-1h:scope:metric:avg";
+
+	private final Alert _alert = new Alert(new PrincipalUser(null, "owner", "owner@example.com"),
+			new PrincipalUser(null, "owner", "owner@example.com"), "alert", EXPRESSION, "* * * * *");
+
+	@Test
+	public void testFiresAtEndOfLatestViolationSpanningInertia() {
+		Trigger trigger = new Trigger(_alert, TriggerType.GREATER_THAN, "trigger", 10.0, 2000);
+		TriggerEvaluator evaluator = new TriggerEvaluator(Arrays.asList(trigger), EXPRESSION, 0L);
+		Map<Long, Double> datapoints = new TreeMap<>();
+
+		datapoints.put(1000L, 11.0);
+		datapoints.put(2000L, 12.0);
+		datapoints.put(3000L, 13.0);
+		datapoints.put(4000L, 5.0);
+		datapoints.put(5000L, 11.0);
+		datapoints.put(6000L, 11.0);
+		assertEquals(1, evaluator.evaluate(datapoints));
+		assertTrue(evaluator.isFired(0));
+		assertEquals(3000L, evaluator.getFiredTime(0));
+
+		datapoints.put(7000L, 11.0);
+		assertEquals(1, evaluator.evaluate(datapoints));
+		assertEquals(7000L, evaluator.getFiredTime(0));
+
+		datapoints.put(8000L, 1.0);
+		datapoints.remove(1000L);
+		assertEquals(1, evaluator.evaluate(datapoints));
+		assertEquals(7000L, evaluator.getFiredTime(0));
+
+		assertEquals(0, evaluator.evaluate(new TreeMap<>()));
+		assertFalse(evaluator.isFired(0));
+	}
+
+	@Test
+	public void testUnsortedDatapointsMatchSortedDatapoints() {
+		Random random = new Random(7);
+		List<Trigger> triggers = _createTriggers(random);
+		TriggerEvaluator sortedEvaluator = new TriggerEvaluator(triggers, EXPRESSION, 0L);
+		TriggerEvaluator unsortedEvaluator = new TriggerEvaluator(triggers, EXPRESSION, 0L);
+
+		for (int run = 0; run < 50; run++) {
+			Map<Long, Double> sorted = _createDatapoints(random);
+			Map<Long, Double> unsorted = new HashMap<>(sorted);
+
+			assertEquals(sortedEvaluator.evaluate(sorted), unsortedEvaluator.evaluate(unsorted));
+			for (int i = 0; i < triggers.size(); i++) {
+				assertEquals(sortedEvaluator.isFired(i), unsortedEvaluator.isFired(i));
+				if (sortedEvaluator.isFired(i)) {
+					assertEquals(sortedEvaluator.getFiredTime(i), unsortedEvaluator.getFiredTime(i));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMultipleTriggersMatchIndividualEvaluation() {
+		Random random = new Random(11);
+
+		for (int run = 0; run < 50; run++) {
+			List<Trigger> triggers = _createTriggers(random);
+			Map<Long, Double> datapoints = _createDatapoints(random);
+			TriggerEvaluator evaluator = new TriggerEvaluator(triggers, EXPRESSION, 0L);
+			int fired = 0;
+
+			evaluator.evaluate(datapoints);
+			for (int i = 0; i < triggers.size(); i++) {
+				Long expected = _referenceFiredTime(triggers.get(i), datapoints);
+
+				assertEquals(expected != null, evaluator.isFired(i));
+				if (expected != null) {
+					assertEquals(expected.longValue(), evaluator.getFiredTime(i));
+					fired++;
+				}
+			}
+			assertEquals(fired, evaluator.evaluate(datapoints));
+		}
+	}
+
+	@Test
+	public void testNoDataFiresOnGap() {
+		Trigger trigger = new Trigger(_alert, TriggerType.NO_DATA, "trigger", 0.0, 1500);
+		long now = 3600000L;
+		TriggerEvaluator evaluator = new TriggerEvaluator(Arrays.asList(trigger), EXPRESSION, now);
+		Map<Long, Double> datapoints = new TreeMap<>();
+
+		for (long timestamp = 0; timestamp <= now; timestamp += 1000) {
+			datapoints.put(timestamp, 1.0);
+		}
+		assertEquals(0, evaluator.evaluate(datapoints));
+		datapoints.remove(10000L);
+		datapoints.remove(11000L);
+		assertEquals(1, evaluator.evaluate(datapoints));
+		assertEquals(9000L, evaluator.getFiredTime(0));
+	}
+
+	/* The series based evaluation of a single trigger. */
+	private static Long _referenceFiredTime(Trigger trigger, Map<Long, Double> datapoints) {
+		List<Long> timestamps = new ArrayList<>(new TreeMap<>(datapoints).keySet());
+		int endIndex = timestamps.size();
+
+		for (int startIndex = timestamps.size() - 1; startIndex >= 0; startIndex--) {
+			if (Trigger.evaluateTrigger(trigger, datapoints.get(timestamps.get(startIndex)))) {
+				if (timestamps.get(endIndex - 1) - timestamps.get(startIndex) >= trigger.getInertia()) {
+					return timestamps.get(endIndex - 1);
+				}
+			} else {
+				endIndex = startIndex;
+			}
+		}
+		return null;
+	}
+
+	private List<Trigger> _createTriggers(Random random) {
+		TriggerType[] types = { TriggerType.GREATER_THAN, TriggerType.GREATER_THAN_OR_EQ, TriggerType.LESS_THAN, TriggerType.LESS_THAN_OR_EQ,
+				TriggerType.EQUAL, TriggerType.NOT_EQUAL, TriggerType.BETWEEN, TriggerType.NOT_BETWEEN };
+		List<Trigger> triggers = new ArrayList<>();
+
+		for (int i = 0; i < 6; i++) {
+			TriggerType type = types[random.nextInt(types.length)];
+			double threshold = random.nextInt(10);
+			double secondaryThreshold = random.nextInt(10);
+
+			triggers.add(new Trigger(_alert, type, "trigger" + i, threshold, secondaryThreshold, random.nextInt(5) * 1000L));
+		}
+		return triggers;
+	}
+
+	private static Map<Long, Double> _createDatapoints(Random random) {
+		Map<Long, Double> datapoints = new TreeMap<>();
+		int size = random.nextInt(40);
+
+		for (int i = 0; i < size; i++) {
+			datapoints.put(random.nextInt(100) * 1000L, (double) random.nextInt(10));
+		}
+		return datapoints;
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.collect;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salesforce.dva.argus.AbstractTest;
+import com.salesforce.dva.argus.entity.MetatagsRecord;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.AuditService;
+import com.salesforce.dva.argus.service.MQService;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.NamespaceService;
+import com.salesforce.dva.argus.service.SchemaService;
+import com.salesforce.dva.argus.service.TSDBService;
+import com.salesforce.dva.argus.service.WardenService;
+import com.salesforce.dva.argus.service.warden.IngestionRateLimiter;
+import com.salesforce.dva.argus.system.SystemConfiguration;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultCollectionServiceTest extends AbstractTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCommitMetricsCoalescesSameSeries() {
+        Metric first = _createMetric("scope", "metric", "host", "h1");
+        first.setDatapoints(_datapoints(1000L, 1.0, 2000L, 2.0));
+
+        Metric second = _createMetric("scope", "metric", "host", "h1");
+        second.setDatapoints(_datapoints(2000L, 20.0, 3000L, 3.0));
+
+        Metric other = _createMetric("scope", "metric", "host", "h2");
+        other.setDatapoints(_datapoints(1000L, 5.0));
+
+        List<ArrayList<Metric>> messages = new ArrayList<>();
+        messages.add(new ArrayList<>(Arrays.asList(first, other)));
+        messages.add(new ArrayList<>(Arrays.asList(second)));
+
+        MQService mqService = mock(MQService.class);
+        when(mqService.dequeue(anyString(), any(JavaType.class), anyInt(), anyInt())).thenReturn((List) messages);
+        TSDBService tsdbService = mock(TSDBService.class);
+
+        DefaultCollectionService service = _createCollectionService(mqService, tsdbService, mock(SchemaService.class), true);
+        List<Metric> committed = service.commitMetrics(10, 100);
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(tsdbService).putMetrics(captor.capture());
+
+        List<Metric> written = captor.getValue();
+        assertEquals(2, written.size());
+        assertEquals(written, committed);
+        assertEquals(_datapoints(1000L, 1.0, 2000L, 20.0, 3000L, 3.0), written.get(0).getDatapoints());
+        assertEquals(_datapoints(1000L, 5.0), written.get(1).getDatapoints());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCommitMetricsDoesNotCoalesceSeriesWithDelimitersInTagValues() {
+        Metric first = _createMetric("scope", "metric", "host", "h1,rack=r1");
+        first.setDatapoints(_datapoints(1000L, 1.0));
+
+        Metric second = _createMetric("scope", "metric", "host", "h1");
+        second.setTag("rack", "r1");
+        second.setDatapoints(_datapoints(1000L, 2.0));
+
+        List<ArrayList<Metric>> messages = new ArrayList<>();
+        messages.add(new ArrayList<>(Arrays.asList(first, second)));
+
+        MQService mqService = mock(MQService.class);
+        when(mqService.dequeue(anyString(), any(JavaType.class), anyInt(), anyInt())).thenReturn((List) messages);
+        TSDBService tsdbService = mock(TSDBService.class);
+
+        DefaultCollectionService service = _createCollectionService(mqService, tsdbService, mock(SchemaService.class), true);
+
+        assertEquals(2, service.commitMetrics(10, 100).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCommitMetricsDoesNotCoalesceByDefault() {
+        Metric first = _createMetric("scope", "metric", "host", "h1");
+        first.setDatapoints(_datapoints(1000L, 1.0));
+
+        Metric second = _createMetric("scope", "metric", "host", "h1");
+        second.setDatapoints(_datapoints(2000L, 2.0));
+
+        List<ArrayList<Metric>> messages = new ArrayList<>();
+        messages.add(new ArrayList<>(Arrays.asList(first, second)));
+
+        MQService mqService = mock(MQService.class);
+        when(mqService.dequeue(anyString(), any(JavaType.class), anyInt(), anyInt())).thenReturn((List) messages);
+        TSDBService tsdbService = mock(TSDBService.class);
+
+        DefaultCollectionService service = _createCollectionService(mqService, tsdbService, mock(SchemaService.class), false);
+
+        assertEquals(2, service.commitMetrics(10, 100).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCommitMetricSchemaParsesIdentityOnly() throws Exception {
+        Metric metric = _createMetric("scope", "metric", "host", "h1");
+        metric.setNamespace("namespace");
+        metric.setDisplayName("display");
+        metric.setUnits("ms");
+        metric.setDatapoints(_datapoints(1000L, 1.0, 2000L, 2.0));
+
+        Map<String, String> metatags = new HashMap<>();
+        metatags.put("owner", "argus");
+        metric.setMetatagsRecord(new MetatagsRecord(metatags, "metatagsKey"));
+
+        Metric other = _createMetric("scope", "other", "host", "h2");
+        other.setDatapoints(_datapoints(1000L, 5.0));
+
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> messages = Arrays.asList(mapper.writeValueAsString(Arrays.asList(metric)),
+            "not a json array", mapper.writeValueAsString(Arrays.asList(other)));
+
+        MQService mqService = mock(MQService.class);
+        when(mqService.dequeue(anyString(), anyInt(), anyInt())).thenReturn(messages);
+        SchemaService schemaService = mock(SchemaService.class);
+
+        DefaultCollectionService service = _createCollectionService(mqService, mock(TSDBService.class), schemaService, false);
+        int committed = service.commitMetricSchema(10, 100);
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(schemaService).put(captor.capture());
+
+        List<Metric> written = captor.getValue();
+        assertEquals(2, committed);
+        assertEquals(2, written.size());
+
+        Metric parsed = written.get(0);
+        assertEquals(metric, parsed);
+        assertEquals("namespace", parsed.getNamespace());
+        assertEquals(metric.getTags(), parsed.getTags());
+        assertEquals(metatags, parsed.getMetatagsRecord().getMetatags());
+        assertEquals("metatagsKey", parsed.getMetatagsRecord().getKey());
+        assertTrue(parsed.getDatapoints().isEmpty());
+        assertNull(parsed.getDisplayName());
+        assertEquals(other, written.get(1));
+    }
+
+    private DefaultCollectionService _createCollectionService(MQService mqService, TSDBService tsdbService, SchemaService schemaService,
+        boolean coalesceMetrics) {
+        SystemConfiguration configuration = system.getConfiguration();
+
+        if (coalesceMetrics) {
+            configuration.setProperty(DefaultCollectionService.Property.COALESCE_METRICS_ENABLED.getName(), "true");
+        }
+
+        DefaultCollectionService service = new DefaultCollectionService(mqService, tsdbService, mock(AuditService.class),
+            configuration, schemaService, mock(WardenService.class), mock(MonitorService.class),
+            mock(NamespaceService.class), mock(IngestionRateLimiter.class));
+        try {
+            Field field = DefaultCollectionService.class.getDeclaredField("_logger");
+            field.setAccessible(true);
+            field.set(service, LoggerFactory.getLogger(DefaultCollectionService.class));
+        } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
+            fail("Failed to set logger using reflection.");
+        }
+        return service;
+    }
+
+    private Metric _createMetric(String scope, String metricName, String tagKey, String tagValue) {
+        Metric metric = new Metric(scope, metricName);
+        metric.setTag(tagKey, tagValue);
+        return metric;
+    }
+
+    private Map<Long, Double> _datapoints(Object... timestampsAndValues) {
+        Map<Long, Double> datapoints = new HashMap<>();
+
+        for (int i = 0; i < timestampsAndValues.length; i += 2) {
+            datapoints.put((Long) timestampsAndValues[i], (Double) timestampsAndValues[i + 1]);
+        }
+        return datapoints;
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -31,15 +31,34 @@
      
 package com.salesforce.dva.argus.service.metric;
 
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.DiscoveryService;
+import com.salesforce.dva.argus.service.TSDBService;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery.Aggregator;
 import com.salesforce.dva.argus.system.SystemException;
+import com.salesforce.dva.argus.util.QueryContextHolder;
 import org.junit.Test;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class MetricReaderTest {
 
@@ -93,6 +112,60 @@ public class MetricReaderTest {
         }
     }
 
+    @Test
+    public void testPrefetchedMetricsAreCopiedInsteadOfQueried() throws Exception {
+        TSDBService tsdbService = mock(TSDBService.class);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        MetricQuery query = new MetricQuery("scope", "metric", Collections.<String, String>emptyMap(), 1000L, 2000L);
+        Metric metric = new Metric("scope", "metric");
+        Map<MetricQuery, List<Metric>> prefetchedMetrics = new HashMap<>();
+
+        query.setAggregator(Aggregator.AVG);
+        metric.setDatapoints(Collections.singletonMap(1500L, 1.0));
+        prefetchedMetrics.put(query, Arrays.asList(metric));
+        when(discoveryService.getMatchingQueries(any(MetricQuery.class))).thenAnswer(invocation -> Arrays.asList(invocation.getArguments()[0]));
+
+        MetricReader<Metric> reader = new MetricReader<>(tsdbService, discoveryService, null);
+
+        reader.setPrefetchedMetrics(prefetchedMetrics);
+
+        List<Metric> metrics = reader.parse("1000:2000:scope:metric:avg", 2000L, Metric.class, new QueryContextHolder(), false);
+
+        assertEquals(1, metrics.size());
+        assertNotSame(metric, metrics.get(0));
+        assertEquals(metric.getDatapoints(), metrics.get(0).getDatapoints());
+        verify(tsdbService, never()).getMetrics(anyListOf(MetricQuery.class));
+    }
+
+    @Test
+    public void testExpandedQueriesAreNotDiscoveredAgain() throws Exception {
+        TSDBService tsdbService = mock(TSDBService.class);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        MetricQuery query = new MetricQuery("scope", "metric", Collections.<String, String>emptyMap(), 1000L, 2000L);
+        MetricQuery expandedQuery = new MetricQuery("scope", "metric", Collections.singletonMap("host", "a"), 1000L, 2000L);
+
+        query.setAggregator(Aggregator.AVG);
+        expandedQuery.setAggregator(Aggregator.AVG);
+        when(discoveryService.getMatchingQueries(query)).thenReturn(Arrays.asList(expandedQuery));
+        when(tsdbService.getMetrics(Arrays.asList(expandedQuery))).thenReturn(Collections.singletonMap(expandedQuery,
+            Arrays.asList(new Metric("scope", "metric"))));
+
+        MetricReader<MetricQuery> queryReader = new MetricReader<>(tsdbService, discoveryService, null);
+
+        assertEquals(Arrays.asList(expandedQuery), queryReader.parse("1000:2000:scope:metric:avg", 2000L, MetricQuery.class,
+            new QueryContextHolder(), false));
+
+        MetricReader<Metric> reader = new MetricReader<>(tsdbService, discoveryService, null);
+
+        reader.setExpandedQueries(queryReader.getExpandedQueries());
+
+        List<Metric> metrics = reader.parse("1000:2000:scope:metric:avg", 2000L, Metric.class, new QueryContextHolder(), false);
+
+        assertEquals(1, metrics.size());
+        assertEquals(1, reader.getNumDiscoveryQueries().intValue());
+        verify(discoveryService, times(1)).getMatchingQueries(any(MetricQuery.class));
+    }
+
     private Properties readFile(String fileName) {
         if ((fileName != null) && !fileName.isEmpty()) {
             Properties result = new Properties();
@@ -150,6 +150,44 @@ public class AbstractSchemaServiceTest extends AbstractTest {
 		assertEquals(scopesCount, 2 * scopeNames.size());
 	}
 
+	@Test
+	public void testPutWritesCachedRecordsAgainAfterRotation() {
+		List<Metric> metrics = createRandomMetrics("test-scope", "test-metric", 10);
+
+		ElasticSearchSchemaService service = new ElasticSearchSchemaService(system.getConfiguration(), system.getServiceFactory().getMonitorService());
+		ElasticSearchSchemaService spyService = _initializeSpyService(service);
+
+		Set<String> scopeNames = new HashSet<>();
+		Set<Pair<String, String>> scopeAndMetricNames = new HashSet<>();
+
+		for(Metric m : metrics)
+		{
+			scopeNames.add(m.getScope());
+			scopeAndMetricNames.add(Pair.of(m.getScope(), m.getMetric()));
+		}
+		spyService._addToBloomFilter(spyService._fracture(metrics).get(0));
+		spyService._addToBloomFilterScopeAndMetricOnly(spyService._fractureScopeAndMetrics(scopeAndMetricNames).get(0));
+		spyService._addToBloomFilterScopeOnly(spyService._fractureScopes(scopeNames).get(0));
+
+		spyService.put(metrics);
+
+		assertEquals(0, metricsCount);
+		assertEquals(0, scopeAndMetricsCount);
+		assertEquals(0, scopesCount);
+
+		// records that are still being written must be sent again once per aging cycle, so that their expiration is refreshed
+		for (int step = 0; step < 24; step++) {
+			AbstractSchemaService.bloomFilter.age(step, 24);
+			AbstractSchemaService.bloomFilterScopeOnly.age(step, 24);
+			AbstractSchemaService.bloomFilterScopeAndMetricOnly.age(step, 24);
+		}
+		spyService.put(metrics);
+
+		assertEquals(metrics.size(), metricsCount);
+		assertEquals(scopeAndMetricNames.size(), scopeAndMetricsCount);
+		assertEquals(scopeNames.size(), scopesCount);
+	}
+
 	private ElasticSearchSchemaService _initializeSpyService(ElasticSearchSchemaService service) {
 		ElasticSearchSchemaService spyService = Mockito.spy(service);
 		initCounters();
@@ -0,0 +1,60 @@
+package com.salesforce.dva.argus.service.schema;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncHbaseSchemaServiceTest {
+
+    @Test
+    public void testSplitScanRangeAtRegionBoundaries() {
+
+        List<byte[]> regionStartKeys = _keys("", "b", "d", "f", "h");
+
+        List<byte[][]> ranges = AsyncHbaseSchemaService._splitScanRange(regionStartKeys, Bytes.toBytes("c"), Bytes.toBytes("g"), 8);
+
+        assertEquals(Arrays.asList("c-d", "d-f", "f-g"), _toStrings(ranges));
+    }
+
+    @Test
+    public void testSplitScanRangeGroupsAdjacentRegions() {
+
+        List<byte[]> regionStartKeys = _keys("", "b", "c", "d", "e", "f");
+
+        List<byte[][]> ranges = AsyncHbaseSchemaService._splitScanRange(regionStartKeys, Bytes.toBytes("a"), new byte[0], 3);
+
+        assertEquals(Arrays.asList("a-c", "c-e", "e-"), _toStrings(ranges));
+    }
+
+    @Test
+    public void testSplitScanRangeWithoutRegions() {
+
+        List<byte[][]> ranges = AsyncHbaseSchemaService._splitScanRange(Collections.emptyList(), Bytes.toBytes("a"), Bytes.toBytes("b"), 8);
+
+        assertEquals(Arrays.asList("a-b"), _toStrings(ranges));
+    }
+
+    private static List<byte[]> _keys(String... keys) {
+        List<byte[]> result = new ArrayList<>();
+
+        for (String key : keys) {
+            result.add(Bytes.toBytes(key));
+        }
+        return result;
+    }
+
+    private static List<String> _toStrings(List<byte[][]> ranges) {
+        List<String> result = new ArrayList<>();
+
+        for (byte[][] range : ranges) {
+            result.add(Bytes.toString(range[0]) + "-" + Bytes.toString(range[1]));
+        }
+        return result;
+    }
+}
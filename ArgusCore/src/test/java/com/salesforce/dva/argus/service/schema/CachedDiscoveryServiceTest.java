@@ -12,7 +12,11 @@ import com.salesforce.dva.argus.service.tsdb.MetricQuery;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CachedDiscoveryServiceTest extends AbstractTest {
 	
@@ -40,5 +44,52 @@ public class CachedDiscoveryServiceTest extends AbstractTest {
 		CachedDiscoveryService service = new CachedDiscoveryService(cacheServiceMock, discoveryServiceMock, system.getConfiguration());
 		service.getMatchingQueries(new MetricQuery("scope*", "metric", null, System.currentTimeMillis() - (300 * 24 * 60 * 60 * 1000L), System.currentTimeMillis()));
 	}
+	
+	@Test
+	public void testEmptyExpansionIsCachedWithNegativeExpiry() {
+		
+		CacheService cacheServiceMock = mock(CacheService.class);
+		when(cacheServiceMock.get(anyString())).thenReturn(null);
+		when(cacheServiceMock.get(anySetOf(String.class))).thenReturn(Collections.emptyMap());
+		DiscoveryService discoveryServiceMock = mock(DiscoveryService.class);
+		when(discoveryServiceMock.getMatchingQueries(any(MetricQuery.class))).thenReturn(Collections.emptyList());
+		
+		CachedDiscoveryService service = new CachedDiscoveryService(cacheServiceMock, discoveryServiceMock, system.getConfiguration());
+		List<MetricQuery> queries = service.getMatchingQueries(new MetricQuery("scope*", "metric", null, System.currentTimeMillis() - (30 * 24 * 60 * 60 * 1000L), System.currentTimeMillis()));
+		assertTrue(queries.isEmpty());
+		verify(cacheServiceMock, timeout(5000)).put(eq("scope*:metric{{}}"), eq("[]"), eq(Integer.parseInt(CachedDiscoveryService.Property.NEGATIVE_RESULT_EXPIRY_TIME_SECS.getDefaultValue())));
+		service.dispose();
+	}
+	
+	@Test
+	public void testBroaderCachedExpansionAnswersNarrowerQuery() {
+		
+		CacheService cacheServiceMock = mock(CacheService.class);
+		when(cacheServiceMock.get(anyString())).thenReturn(null);
+		when(cacheServiceMock.get(anySetOf(String.class))).thenAnswer(invocation -> {
+			Map<String, String> values = new HashMap<>();
+			@SuppressWarnings("unchecked")
+			Set<String> keys = invocation.getArgumentAt(0, Set.class);
+			
+			for(String key : keys) {
+				if(key.startsWith("scope:winterfell.backupTimestamps-NyB*{")) {
+					values.put(key, CACHED_QUERIES);
+				}
+			}
+			return values;
+		});
+		DiscoveryService discoveryServiceMock = mock(DiscoveryService.class);
+		
+		Map<String, String> tags = new HashMap<>();
+		tags.put("device", "myhost*");
+		CachedDiscoveryService service = new CachedDiscoveryService(cacheServiceMock, discoveryServiceMock, system.getConfiguration());
+		List<MetricQuery> queries = service.getMatchingQueries(new MetricQuery("scope", "winterfell.backupTimestamps-NyB1*", tags, System.currentTimeMillis() - (30 * 24 * 60 * 60 * 1000L), System.currentTimeMillis()));
+		assertEquals(11, queries.size());
+		for(MetricQuery query : queries) {
+			assertTrue(query.getMetric().startsWith("winterfell.backupTimestamps-NyB1"));
+			assertEquals("myhost-mycompany.com", query.getTags().get("device"));
+		}
+		verify(discoveryServiceMock, never()).getMatchingQueries(any(MetricQuery.class));
+	}
 
 }
@@ -163,6 +163,89 @@ public class DefaultDiscoveryServiceTest extends AbstractTest {
         assertTrue(matchedQueries.isEmpty());
     }
     
+    @Test
+    public void testWildcardQueriesIntersectMultipleTags() {
+    	
+    	SchemaService schemaServiceMock = mock(SchemaService.class);
+        when(schemaServiceMock.get(any(MetricSchemaRecordQuery.class))).thenAnswer(invocation -> {
+            MetricSchemaRecordQuery schemaQuery = (MetricSchemaRecordQuery) invocation.getArguments()[0];
+
+            if ("source".equals(schemaQuery.getTagKey())) {
+                return Arrays.asList(new MetricSchemaRecord(null, "scope0", "metric0", "source", "unittest0"),
+                                     new MetricSchemaRecord(null, "scope1", "metric0", "source", "unittest0"),
+                                     new MetricSchemaRecord(null, "scope1", "metric0", "source", "unittest1"));
+            }
+            return Arrays.asList(new MetricSchemaRecord(null, "scope1", "metric0", "device", "device0"),
+                                 new MetricSchemaRecord(null, "scope2", "metric0", "device", "device0"));
+        });
+        DefaultDiscoveryService discoveryService = new DefaultDiscoveryService(schemaServiceMock, system.getConfiguration());
+
+        Map<String, String> tags = new HashMap<String, String>();
+        tags.put("source", "unittest*");
+        tags.put("device", "device*");
+
+        List<MetricQuery> queries = discoveryService.getMatchingQueries(new MetricQuery("scope*", "metric0", tags, 1L, 2L));
+        Map<String, String> expectedTags = new HashMap<String, String>();
+        expectedTags.put("source", "unittest0|unittest1");
+        expectedTags.put("device", "device0");
+
+        assertEquals(1, queries.size());
+        assertEquals(new MetricQuery("scope1", "metric0", expectedTags, 1L, 2L), queries.get(0));
+    }
+    
+    @Test(expected = WildcardExpansionLimitExceededException.class)
+    public void testWildcardQueriesMatchMultipleTagsExceedingLimit() {
+    	
+    	SchemaService schemaServiceMock = mock(SchemaService.class);
+        when(schemaServiceMock.get(any(MetricSchemaRecordQuery.class))).thenAnswer(invocation -> {
+            MetricSchemaRecordQuery schemaQuery = (MetricSchemaRecordQuery) invocation.getArguments()[0];
+            List<MetricSchemaRecord> records = new ArrayList<>();
+
+            for (int i = 0; i < 10; i++) {
+                records.add(new MetricSchemaRecord(null, "scope", "metric", schemaQuery.getTagKey(), "value" + i));
+            }
+            return records;
+        });
+        DefaultDiscoveryService discoveryService = new DefaultDiscoveryService(schemaServiceMock, system.getConfiguration());
+
+        Map<String, String> tags = new HashMap<String, String>();
+        tags.put("source", "value*");
+        tags.put("device", "value*");
+
+        discoveryService.getMatchingQueries(new MetricQuery("scope", "metric", tags, System.currentTimeMillis() - (100 * 24 * 60 * 60 * 1000L),
+            System.currentTimeMillis()));
+    }
+    
+    @Test
+    public void testTagLookupStopsReadingOnceLimitIsExceeded() {
+        SchemaService schemaServiceMock = mock(SchemaService.class);
+
+        when(schemaServiceMock.get(any(MetricSchemaRecordQuery.class))).thenAnswer(invocation -> {
+            MetricSchemaRecordQuery schemaQuery = (MetricSchemaRecordQuery) invocation.getArguments()[0];
+            List<MetricSchemaRecord> records = new ArrayList<>();
+
+            // always a full page, so a lookup without a bound would keep paging
+            for (int i = 0; i < schemaQuery.getLimit(); i++) {
+                records.add(new MetricSchemaRecord(null, "scope", "metric" + i, schemaQuery.getTagKey(), "value"));
+            }
+            return records;
+        });
+        DefaultDiscoveryService discoveryService = new DefaultDiscoveryService(schemaServiceMock, system.getConfiguration());
+        Map<String, String> tags = new HashMap<String, String>();
+
+        tags.put("source", "value*");
+        tags.put("device", "value*");
+        try {
+            discoveryService.getMatchingQueries(new MetricQuery("scope", "metric*", tags, System.currentTimeMillis() - (100 * 24 * 60 * 60 * 1000L),
+                System.currentTimeMillis()));
+            fail("Expected the wildcard expansion limit to be exceeded.");
+        } catch (WildcardExpansionLimitExceededException ex) {
+            verify(schemaServiceMock, atMost(2)).get(any(MetricSchemaRecordQuery.class));
+        } finally {
+            discoveryService.dispose();
+        }
+    }
+
     @Test(expected = WildcardExpansionLimitExceededException.class)
     public void testWildcardQueriesMatchExceedingLimit() {
     	
@@ -293,6 +376,24 @@ public class DefaultDiscoveryServiceTest extends AbstractTest {
         assertEquals(1, queries.size());
         assertEquals(query, queries.get(0));
     }
+
+    @Test
+    public void testBrowseRecordsCachesTokensPerLevel() {
+
+        SchemaService schemaServiceMock = mock(SchemaService.class);
+        when(schemaServiceMock.browseUnique(any(MetricSchemaRecordQuery.class), eq(SchemaService.RecordType.SCOPE), eq(0))).thenReturn(Arrays.asList("system"));
+        when(schemaServiceMock.browseUnique(any(MetricSchemaRecordQuery.class), eq(SchemaService.RecordType.SCOPE), eq(1))).thenReturn(Arrays.asList("name1", "name2"));
+        DefaultDiscoveryService discoveryService = new DefaultDiscoveryService(schemaServiceMock, system.getConfiguration());
+
+        MetricSchemaRecordQuery query = new MetricSchemaRecordQueryBuilder().scope("system*").metric("*").tagKey("*").tagValue("*").namespace("*").limit(100).build();
+
+        assertEquals(Arrays.asList("system"), discoveryService.browseRecords(query, SchemaService.RecordType.SCOPE, 0));
+        assertEquals(Arrays.asList("name1", "name2"), discoveryService.browseRecords(query, SchemaService.RecordType.SCOPE, 1));
+        assertEquals(Arrays.asList("system"), discoveryService.browseRecords(query, SchemaService.RecordType.SCOPE, 0));
+        assertEquals(Arrays.asList("name1", "name2"), discoveryService.browseRecords(query, SchemaService.RecordType.SCOPE, 1));
+        verify(schemaServiceMock, times(1)).browseUnique(query, SchemaService.RecordType.SCOPE, 0);
+        verify(schemaServiceMock, times(1)).browseUnique(query, SchemaService.RecordType.SCOPE, 1);
+    }
     
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
\ No newline at end of file
@@ -1,6 +1,8 @@
 package com.salesforce.dva.argus.service.schema;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.CharStreams;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
@@ -13,8 +15,11 @@ import com.salesforce.dva.argus.entity.MetricSchemaRecordQuery;
 import com.salesforce.dva.argus.entity.ScopeAndMetricOnlySchemaRecord;
 import com.salesforce.dva.argus.service.MonitorService;
 import com.salesforce.dva.argus.service.SchemaService;
+import com.salesforce.dva.argus.system.SystemConfiguration;
 import com.salesforce.dva.argus.system.SystemException;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
@@ -28,6 +33,9 @@ import org.mockito.stubbing.Answer;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -37,6 +45,7 @@ import java.util.HashMap;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.*;
 
 import static org.junit.Assert.assertTrue;
@@ -467,6 +476,37 @@ public class ElasticSearchSchemaServiceTest extends AbstractTest {
     }
 
 
+    @Test
+    public void testGetWithScanFromUsesSearchAfter() throws IOException {
+        String searchReply = "{\"hits\":{\"total\":1,\"hits\":[{\"_source\":{\"scope\":\"system\",\"metric\":\"metric1\",\"tagk\":\"host\",\"tagv\":\"h2\"}}]}}";
+        MetricSchemaRecordQuery query = new MetricSchemaRecordQuery.MetricSchemaRecordQueryBuilder().scope("system*")
+                .metric("*")
+                .limit(10000)
+                .page(3)
+                .scanFrom(new MetricSchemaRecord(null, "system", "metric1", "host", "h1"))
+                .build();
+
+        MonitorService mockedMonitor = mock(MonitorService.class);
+        ElasticSearchSchemaService service = new ElasticSearchSchemaService(system.getConfiguration(), mockedMonitor);
+        ElasticSearchSchemaService spyService = _initializeSpyService(service, searchReply, searchReply);
+
+        List<MetricSchemaRecord> records = spyService.get(query);
+
+        ArgumentCaptor<String> requestUrlCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<StringEntity> queryJsonCaptor = ArgumentCaptor.forClass(StringEntity.class);
+
+        verify(restClient, times(1)).performRequest(any(), requestUrlCaptor.capture(), any(), queryJsonCaptor.capture());
+
+        JsonNode queryNode = new ObjectMapper().readTree(EntityUtils.toString(queryJsonCaptor.getValue()));
+
+        assertEquals("/metadata_index/metadata_type/_search", requestUrlCaptor.getValue());
+        assertEquals(10000, queryNode.get("size").asInt());
+        assertFalse(queryNode.has("from"));
+        assertEquals("[\"\",\"system\",\"metric1\",\"host\",\"h1\"]", queryNode.get("search_after").toString());
+        assertEquals(5, queryNode.get("sort").size());
+        assertEquals(Arrays.asList(new MetricSchemaRecord(null, "system", "metric1", "host", "h2")), records);
+    }
+
     @Test
     public void testGetUniqueUsingScopeSchemaIndex() throws IOException {
 
@@ -502,6 +542,36 @@ public class ElasticSearchSchemaServiceTest extends AbstractTest {
         assertTrue(queryForScope.isQueryOnlyOnScopeAndMetric());
     }
 
+    @Test
+    public void testBrowseUniqueUsesTokenAggregation() throws IOException {
+
+        MetricSchemaRecordQuery query = new MetricSchemaRecordQuery.MetricSchemaRecordQueryBuilder().scope("system.*")
+                .metric("*")
+                .tagKey("*")
+                .tagValue("*")
+                .namespace("*")
+                .limit(1)
+                .build();
+
+        ElasticSearchSchemaService service = new ElasticSearchSchemaService(system.getConfiguration(), mock(MonitorService.class));
+        ElasticSearchSchemaService spyService = _initializeSpyService(service, getReply, getReply);
+
+        List<String> tokens = spyService.browseUnique(query, SchemaService.RecordType.SCOPE, 1);
+
+        ArgumentCaptor<StringEntity> queryJsonCaptor = ArgumentCaptor.forClass(StringEntity.class);
+
+        verify(restClient, times(1)).performRequest(any(), eq("/scopenames/scope_type/_search"), any(), queryJsonCaptor.capture());
+
+        JsonNode termsNode = new ObjectMapper().readTree(EntityUtils.toString(queryJsonCaptor.getValue())).get("aggs").get("distinct_values").get("terms");
+
+        assertNull(termsNode.get("field"));
+        assertEquals("painless", termsNode.get("script").get("lang").asText());
+        assertEquals("scope.raw", termsNode.get("script").get("params").get("field").asText());
+        assertEquals(1, termsNode.get("script").get("params").get("level").asInt());
+        assertEquals(10000, termsNode.get("size").asInt());
+        assertEquals(Arrays.asList("system.name1\n"), tokens);
+    }
+
     @Test
     public void testGetUniqueUsingScopeAndMetricSchemaIndex() throws IOException {
 
@@ -607,196 +677,114 @@ public class ElasticSearchSchemaServiceTest extends AbstractTest {
     }
 
 	@Test
-	public void testUpsertWhenAllNewDocsShouldNotUpdateMTSField() throws IOException {
-		String esCreateResponse=String.join("\n", "{" +
-				"  \"took\": 127," +
-				"  \"errors\": false," +
-				"  \"items\": [" +
-				"    {" +
-				"      \"create\": {" +
-				"        \"_index\": \"metadata_index\"," +
-				"        \"_type\": \"metadata_type\"," +
-				"        \"_id\": \"1\"," +
-				"        \"_version\": 1," +
-				"        \"result\": \"created\"," +
-				"        \"_shards\": {" +
-				"          \"total\": 2," +
-				"          \"successful\": 1," +
-				"          \"failed\": 0" +
-				"        }," +
-				"        \"created\": true," +
-				"        \"status\": 201" +
-				"      }" +
-				"    }," +
-				"    {" +
-				"      \"create\": {" +
-				"        \"_index\": \"metadata_index\"," +
-				"        \"_type\": \"metadata_type\"," +
-				"        \"_id\": \"2\"," +
-				"        \"_version\": 1," +
-				"        \"result\": \"created\"," +
-				"        \"_shards\": {" +
-				"          \"total\": 2," +
-				"          \"successful\": 1," +
-				"          \"failed\": 0" +
-				"        }," +
-				"        \"created\": true," +
-				"        \"status\": 201" +
-				"      }" +
-				"    }" +
-				"  ]" +
-				"}");
-        MonitorService mockedMonitor = mock(MonitorService.class);
-		ElasticSearchSchemaService schemaService = new ElasticSearchSchemaService(system.getConfiguration(), mockedMonitor);
-		ElasticSearchSchemaService spySchemaService = spy(schemaService);
-		RestClient _restClient = mock(RestClient.class);
-		doReturn(null).when(_restClient).performRequest(any(), any(), any(),any());
-		spySchemaService.setRestClient(_restClient);
-		doReturn(esCreateResponse).when(spySchemaService).extractResponse(any());
+	public void testUpsertRefreshesExistingDocsInSameBulkRequest() throws IOException {
+		String esUpdateResponse = "{\"took\":5,\"errors\":false,\"items\":[" +
+				"{\"update\":{\"_index\":\"metadata_index\",\"_id\":\"1\",\"status\":200,\"result\":\"updated\"}}," +
+				"{\"update\":{\"_index\":\"metadata_index\",\"_id\":\"2\",\"status\":201,\"result\":\"created\"}}]}";
+		ElasticSearchSchemaService spySchemaService = _initializeUpsertSpyService(esUpdateResponse);
+
+		spySchemaService.put(Arrays.asList(new Metric("scope1", "metric1"), new Metric("scope2", "metric2")));
+
+		ArgumentCaptor<String> requestUrlCaptor = ArgumentCaptor.forClass(String.class);
+		ArgumentCaptor<StringEntity> requestBodyCaptor = ArgumentCaptor.forClass(StringEntity.class);
+		verify(restClient, times(1)).performRequest(any(), requestUrlCaptor.capture(), any(), requestBodyCaptor.capture());
+
+		String requestBody = EntityUtils.toString(requestBodyCaptor.getValue());
+		assertEquals("/metadata_index/metadata_type/_bulk", requestUrlCaptor.getValue());
+		assertEquals(2, StringUtils.countMatches(requestBody, "\"update\""));
+		assertEquals(2, StringUtils.countMatches(requestBody, "\"upsert\""));
+		assertFalse(requestBody.contains("\"create\""));
+		assertEquals(2, _captureBloomFilterRecords(spySchemaService).size());
+	}
 
-		List<Metric> metrics = new ArrayList<>();
-		Metric m1= new Metric("scope1", "metric1");
-		Metric m2= new Metric("scope2", "metric2");
-		metrics.add(m1);
-		metrics.add(m2);
-		spySchemaService.put(metrics);
-		verify(spySchemaService, never()).updateMtsField(any(), any(), any(), any());
+	@Test
+	public void testUpsertRetriesOnlyRejectedItems() throws IOException {
+		String esRejectedResponse = "{\"took\":5,\"errors\":true,\"items\":[" +
+				"{\"update\":{\"_id\":\"1\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"queue full\"}}}," +
+				"{\"update\":{\"_id\":\"2\",\"status\":201}}]}";
+		String esRetryResponse = "{\"took\":5,\"errors\":false,\"items\":[{\"update\":{\"_id\":\"1\",\"status\":201}}]}";
+		ElasticSearchSchemaService spySchemaService = _initializeUpsertSpyService(esRejectedResponse, esRetryResponse);
+
+		spySchemaService.put(Arrays.asList(new Metric("scope1", "metric1"), new Metric("scope2", "metric2")));
+
+		ArgumentCaptor<StringEntity> requestBodyCaptor = ArgumentCaptor.forClass(StringEntity.class);
+		verify(restClient, times(2)).performRequest(any(), any(), any(), requestBodyCaptor.capture());
+
+		String[] firstRequestLines = EntityUtils.toString(requestBodyCaptor.getAllValues().get(0)).split("\\r?\\n");
+		String[] retryRequestLines = EntityUtils.toString(requestBodyCaptor.getAllValues().get(1)).split("\\r?\\n");
+		assertEquals(4, firstRequestLines.length);
+		assertEquals(Arrays.asList(firstRequestLines[0], firstRequestLines[1]), Arrays.asList(retryRequestLines));
+		assertEquals(2, _captureBloomFilterRecords(spySchemaService).size());
 	}
 
 	@Test
-	public void testUpsertWhenSomeDocsExistShouldUpdateMTSFieldForExistingDocs() throws IOException {
-		String esCreateResponse=String.join("\n", "{" +
-				"  \"took\": 5," +
-				"  \"errors\": true," +
-				"  \"items\": [" +
-				"    {" +
-				"      \"create\": {" +
-				"        \"_index\": \"metadata_index\"," +
-				"        \"_type\": \"metadata_type\"," +
-				"        \"_id\": \"1\"," +
-				"        \"status\": 409," +
-				"        \"error\": {" +
-				"          \"type\": \"version_conflict_engine_exception\"," +
-				"          \"reason\": \"[metadata_type][dd123151c817644189a2d28757b5be8a]: version conflict, document already exists (current version [1])\"," +
-				"          \"index_uuid\": \"lFrI7n47Sp-rpmuyqvhWvw\"," +
-				"          \"shard\": \"2\"," +
-				"          \"index\": \"metadata_index\"" +
-				"        }" +
-				"      }" +
-				"    }," +
-				"    {" +
-				"      \"create\": {" +
-				"        \"_index\": \"metadata_index\"," +
-				"        \"_type\": \"metadata_type\"," +
-				"        \"_id\": \"2\"," +
-				"        \"_version\": 1," +
-				"        \"result\": \"created\"," +
-				"        \"_shards\": {" +
-				"          \"total\": 2," +
-				"          \"successful\": 1," +
-				"          \"failed\": 0" +
-				"        }," +
-				"        \"created\": true," +
-				"        \"status\": 201" +
-				"      }" +
-				"    }" +
-				"  ]" +
-				"}");
-        MonitorService mockedMonitor = mock(MonitorService.class);
-		ElasticSearchSchemaService schemaService = new ElasticSearchSchemaService(system.getConfiguration(), mockedMonitor);
-		ElasticSearchSchemaService spySchemaService = spy(schemaService);
-		RestClient _restClient = mock(RestClient.class);
-		doReturn(null).when(_restClient).performRequest(any(), any(), any(),any());
-		spySchemaService.setRestClient(_restClient);
-		doReturn(esCreateResponse).when(spySchemaService).extractResponse(any());
-		doNothing().when(spySchemaService).upsertScopeAndMetrics(any());
-		doNothing().when(spySchemaService).upsertScopes(any());
-		doAnswer(new Answer<Void>() {
-			@Override
-			public Void answer(InvocationOnMock invocation) throws Throwable {
-				@SuppressWarnings("unchecked")
-				List<String> updateDocIds = List.class.cast(invocation.getArguments()[0]);
-				assertEquals("1", updateDocIds.get(0));
-				assertEquals(1, updateDocIds.size());
-				return null;
-			}
-		}).when(spySchemaService).updateMtsField(any(), any(), any(), any());
+	public void testUpsertDropsFailedItems() throws IOException {
+		MetricSchemaRecord failedRecord = new MetricSchemaRecord("scope1", "metric1");
+		String failedId = DigestUtils.md5Hex(MetricSchemaRecord.print(failedRecord));
+		String esFailedResponse = "{\"took\":5,\"errors\":true,\"items\":[" +
+				"{\"update\":{\"_id\":\"" + failedId + "\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed\"}}}," +
+				"{\"update\":{\"_id\":\"2\",\"status\":201}}]}";
+		ElasticSearchSchemaService spySchemaService = _initializeUpsertSpyService(esFailedResponse);
+
+		spySchemaService.put(Arrays.asList(new Metric("scope1", "metric1"), new Metric("scope2", "metric2")));
+
+		verify(restClient, times(1)).performRequest(any(), any(), any(), any(HttpEntity.class));
+		List<MetricSchemaRecord> indexedRecords = _captureBloomFilterRecords(spySchemaService);
+		assertEquals(1, indexedRecords.size());
+		assertEquals("scope2", indexedRecords.get(0).getScope());
+	}
 
-		List<Metric> metrics = new ArrayList<>();
-		Metric m1= new Metric("scope1", "metric1");
-		Metric m2= new Metric("scope2", "metric2");
-		metrics.add(m1);
-		metrics.add(m2);
-		spySchemaService.put(metrics);
-		verify(spySchemaService, times(1)).updateMtsField(any(), any(), any(), any());
+	@Test
+	public void testSelectBulkActions() {
+		String requestBody = "{\"update\":{\"_id\":\"a\"}}\n{\"doc\":{}}\n{\"update\":{\"_id\":\"b\"}}\n{\"doc\":{}}\n";
+
+		assertEquals("{\"update\":{\"_id\":\"b\"}}" + System.lineSeparator() + "{\"doc\":{}}" + System.lineSeparator(),
+				ElasticSearchSchemaService._selectBulkActions(requestBody, Arrays.asList(1)));
 	}
 
 	@Test
-	public void testUpsertWhenAllDocsExistShouldUpdateMTSFieldForAllDocs() throws IOException {
-		String esCreateResponse=String.join("", "{" +
-				"  \"took\": 0," +
-				"  \"errors\": true," +
-				"  \"items\": [" +
-				"    {" +
-				"      \"create\": {" +
-				"        \"_index\": \"metadata_index\"," +
-				"        \"_type\": \"metadata_type\"," +
-				"        \"_id\": \"1\"," +
-				"        \"status\": 409," +
-				"        \"error\": {" +
-				"          \"type\": \"version_conflict_engine_exception\"," +
-				"          \"reason\": \"[metadata_type][dd123151c817644189a2d28757b5be8a]: version conflict, document already exists (current version [1])\"," +
-				"          \"index_uuid\": \"lFrI7n47Sp-rpmuyqvhWvw\"," +
-				"          \"shard\": \"2\"," +
-				"          \"index\": \"metadata_index\"" +
-				"        }" +
-				"      }" +
-				"    }," +
-				"    {" +
-				"      \"create\": {" +
-				"        \"_index\": \"metadata_index\"," +
-				"        \"_type\": \"metadata_type\"," +
-				"        \"_id\": \"2\"," +
-				"        \"status\": 409," +
-				"        \"error\": {" +
-				"          \"type\": \"version_conflict_engine_exception\"," +
-				"          \"reason\": \"[metadata_type][4f86f5e6dc6d4672830d97de21e75a20]: version conflict, document already exists (current version [1])\"," +
-				"          \"index_uuid\": \"lFrI7n47Sp-rpmuyqvhWvw\"," +
-				"          \"shard\": \"4\"," +
-				"          \"index\": \"metadata_index\"" +
-				"        }" +
-				"      }" +
-				"    }" +
-				"  ]" +
-				"}");
-        MonitorService mockedMonitor = mock(MonitorService.class);
-		ElasticSearchSchemaService schemaService = new ElasticSearchSchemaService(system.getConfiguration(), mockedMonitor);
-		ElasticSearchSchemaService spySchemaService = spy(schemaService);
-		RestClient _restClient = mock(RestClient.class);
-		doReturn(null).when(_restClient).performRequest(any(), any(), any(),any());
-		spySchemaService.setRestClient(_restClient);
-		doReturn(esCreateResponse).when(spySchemaService).extractResponse(any());
+	public void testFractureLimitsBatchBytes() {
+		// private copy, so that the batch size does not leak into the configuration of other tests
+		SystemConfiguration config = new SystemConfiguration(system.getConfiguration());
+		config.setProperty(ElasticSearchSchemaService.Property.ELASTICSEARCH_INDEXING_BATCH_BYTES.getName(), "1000");
+
+		ElasticSearchSchemaService service = new ElasticSearchSchemaService(config, mock(MonitorService.class));
+		List<Metric> metrics = new ArrayList<>();
+
+		for (int i = 0; i < 10; i++) {
+			metrics.add(new Metric("scope" + i, "metric" + i));
+		}
+
+		List<List<MetricSchemaRecord>> batches = service._fracture(metrics);
+
+		assertEquals(3, batches.size());
+		assertEquals(4, batches.get(0).size());
+		assertEquals(2, batches.get(2).size());
+	}
+
+	private ElasticSearchSchemaService _initializeUpsertSpyService(String... replies) throws IOException {
+		ElasticSearchSchemaService spySchemaService = spy(new ElasticSearchSchemaService(system.getConfiguration(), mock(MonitorService.class)));
+		restClient = mock(RestClient.class);
+		doReturn(null).when(restClient).performRequest(any(), any(), any(), any());
+		spySchemaService.setRestClient(restClient);
+		doAnswer(new Answer<ByteArrayInputStream>() {
+			private int count = 0;
+
+			public ByteArrayInputStream answer(InvocationOnMock invocation) {
+				return _content(replies[Math.min(count++, replies.length - 1)]);
+			}
+		}).when(spySchemaService).extractResponseContent(any());
 		doNothing().when(spySchemaService).upsertScopeAndMetrics(any());
 		doNothing().when(spySchemaService).upsertScopes(any());
-		doAnswer(new Answer<Void>() {
-			@Override
-			public Void answer(InvocationOnMock invocation) throws Throwable {
-				@SuppressWarnings("unchecked")
-				List<String> updateDocIds = List.class.cast(invocation.getArguments()[0]);
-				assertEquals("1", updateDocIds.get(0));
-				assertEquals("2", updateDocIds.get(1));
-				assertEquals(2, updateDocIds.size());
-				return null;
-			}
-		}).when(spySchemaService).updateMtsField(any(), any(), any(), any());
+		doNothing().when(spySchemaService).upsertMetatags(any());
+		return spySchemaService;
+	}
 
-		List<Metric> metrics = new ArrayList<>();
-		Metric m1= new Metric("scope1", "metric1");
-		Metric m2= new Metric("scope2", "metric2");
-		metrics.add(m1);
-		metrics.add(m2);
-		spySchemaService.put(metrics);
-		verify(spySchemaService, times(1)).updateMtsField(any(), any(), any(), any());
+	@SuppressWarnings("unchecked")
+	private List<MetricSchemaRecord> _captureBloomFilterRecords(ElasticSearchSchemaService spySchemaService) {
+		ArgumentCaptor<List> recordsCaptor = ArgumentCaptor.forClass(List.class);
+		verify(spySchemaService, times(1))._addToBloomFilter(recordsCaptor.capture());
+		return recordsCaptor.getValue();
 	}
 
     private String convertToPrettyJson(String jsonString) {
@@ -824,16 +812,20 @@ public class ElasticSearchSchemaServiceTest extends AbstractTest {
             public Object answer(InvocationOnMock invocation) {
                 count++;
                 if (count == 1) {
-                    return firstReply;
+                    return _content(firstReply);
                 }
 
-                return secondReply;
+                return _content(secondReply);
             }
-        }).when(spyService).extractResponse(any());
+        }).when(spyService).extractResponseContent(any());
 
         return spyService;
     }
 
+    private static ByteArrayInputStream _content(String reply) {
+        return new ByteArrayInputStream(reply.getBytes(StandardCharsets.UTF_8));
+    }
+
     @Test
     public void testMetriccSchemaRecordListMapper() throws Exception {
         ObjectMapper mapper = ElasticSearchSchemaService.createObjectMapper();
@@ -863,6 +855,41 @@ public class ElasticSearchSchemaServiceTest extends AbstractTest {
         assertEquals("expect the entity to be equal after extraction", message, responseMessage);
     }
 
+    @Test
+    public void testPutResponseKeepsOnlyFailedItems() throws Exception {
+        ObjectMapper mapper = ElasticSearchSchemaService.createObjectMapper();
+        String bulkResponse = "{\"took\":5,\"errors\":true,\"items\":[" +
+                "{\"create\":{\"_id\":\"1\",\"status\":201,\"_shards\":{\"total\":2}}}," +
+                "{\"create\":{\"_id\":\"2\",\"status\":409,\"error\":{\"type\":\"version_conflict_engine_exception\",\"reason\":\"exists\"}}}," +
+                "{\"update\":{\"_id\":\"3\",\"status\":200}}]}";
+
+        ElasticSearchSchemaService.PutResponse putResponse = mapper.readValue(bulkResponse, ElasticSearchSchemaService.PutResponse.class);
+
+        assertEquals(5, putResponse.getTook());
+        assertTrue(putResponse.isErrors());
+        assertEquals(1, putResponse.getItems().size());
+        assertEquals("2", putResponse.getItems().get(0).getCreate().get_id());
+        assertEquals(409, putResponse.getItems().get(0).getCreate().getStatus());
+        assertEquals("version_conflict_engine_exception", putResponse.getItems().get(0).getCreate().getError().getType());
+
+        putResponse = mapper.readValue("{\"took\":1,\"errors\":false,\"items\":[{\"create\":{\"_id\":\"1\",\"status\":201}}]}",
+                ElasticSearchSchemaService.PutResponse.class);
+
+        assertFalse(putResponse.isErrors());
+        assertTrue(putResponse.getItems().isEmpty());
+    }
+
+    @Test
+    public void testDoExtractResponseContent() throws Exception {
+        final String message = "this is a test";
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)));
+
+        try (InputStream content = ElasticSearchSchemaService.doExtractResponseContent(200, entity)) {
+            assertEquals("expect the content to be streamed unchanged", message, CharStreams.toString(new InputStreamReader(content, StandardCharsets.UTF_8)));
+        }
+    }
+
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
@@ -881,20 +908,29 @@ public class ElasticSearchSchemaServiceTest extends AbstractTest {
     }
 
     @Test
-    public void testGetRequestBodyForMtsFieldUpdate() {
-        String expected = "{\"update\" : {\"_id\" : \"a303abc25d534dd8ff97121668e952e6\" } }\n" +
-                "{\"doc\" : {\"mts\": 0,\"ets\":3888000000}}\n" +
-                "{\"update\" : {\"_id\" : \"8b7f219c5131eeff5b02a6e798c9ec2d\" } }\n" +
-                "{\"doc\" : {\"mts\": 0,\"ets\":864000000,\"_retention_discovery_\":10}}\n";
-
+    public void testMetricSchemaRecordListSerializesUpdateWithUpsert() throws Exception {
+        ObjectMapper mapper = ElasticSearchSchemaService.createObjectMapper();
         MetricSchemaRecord record1 = new MetricSchemaRecord("namespace1", "scope1", "metric1", "tagK1", "tagV1", 10);
         MetricSchemaRecord record2 = new MetricSchemaRecord("namespace2", "scope2", "metric2", "tagK2", "tagV2");   //retention will be the default 45 days
+        MetricSchemaRecordList recordList = new MetricSchemaRecordList(Arrays.asList(record1, record2), MetricSchemaRecordList.HashAlgorithm.fromString("MD5"));
 
+        String[] lines = mapper.writeValueAsString(recordList).split("\\r?\\n");
 
-        MetricSchemaRecordList recordList = new MetricSchemaRecordList(Arrays.asList(record1, record2), MetricSchemaRecordList.HashAlgorithm.fromString("MD5"));
+        assertEquals(4, lines.length);
+        assertEquals("{ \"update\" : {\"_id\" : \"8b7f219c5131eeff5b02a6e798c9ec2d\"}}", lines[0]);
+        assertEquals("{ \"update\" : {\"_id\" : \"a303abc25d534dd8ff97121668e952e6\"}}", lines[2]);
 
-        String requestBody = ElasticSearchSchemaService._getRequestBodyForMtsFieldUpdate(Arrays.asList("a303abc25d534dd8ff97121668e952e6", "8b7f219c5131eeff5b02a6e798c9ec2d"), recordList, 0);
+        JsonNode action1 = new ObjectMapper().readTree(lines[1]);
+        JsonNode action2 = new ObjectMapper().readTree(lines[3]);
+        long mts = action1.get("doc").get("mts").asLong();
 
-        assertEquals("the update request body is different", expected, requestBody);
+        assertEquals(mts + 10 * 24L * 3600L * 1000L, action1.get("doc").get(MetricSchemaRecord.EXPIRATION_TS).asLong());
+        assertEquals(10, action1.get("doc").get(MetricSchemaRecord.RETENTION_DISCOVERY).asInt());
+        assertEquals("scope1", action1.get("upsert").get("scope").asText());
+        assertEquals(mts, action1.get("upsert").get("cts").asLong());
+        assertEquals(mts, action1.get("upsert").get("mts").asLong());
+        assertFalse(action2.get("doc").has(MetricSchemaRecord.RETENTION_DISCOVERY));
+        assertEquals(mts + MetricSchemaRecord.DEFAULT_RETENTION_DISCOVERY_DAYS * 24L * 3600L * 1000L,
+                action2.get("upsert").get(MetricSchemaRecord.EXPIRATION_TS).asLong());
     }
 }
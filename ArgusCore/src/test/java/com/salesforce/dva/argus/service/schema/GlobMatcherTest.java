@@ -0,0 +1,53 @@
+package com.salesforce.dva.argus.service.schema;
+
+import com.salesforce.dva.argus.service.SchemaService;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GlobMatcherTest {
+
+    private static final List<String> VALUES = Arrays.asList("", "a", "ab", "abc", "abcabc", "aXbXc", "bca", "cab", "system.cpu",
+        "system.cpu.user", "systemXcpu", "app1", "app2", "app10", "host-1.example.com", "*", "a|b");
+
+    @Test
+    public void testMatchesLikeConvertedRegex() {
+        List<String> globs = Arrays.asList("*", "**", "abc", "a*", "*c", "*b*", "a*c", "a*b*c", "abc*abc", "*abc*abc*", "system.*",
+            "system.cpu*", "a|ab|*ca*", "app?", "app[12]", "app[1|2]*", "host-*.com", "ab|", "|ab");
+
+        for (String glob : globs) {
+            GlobMatcher matcher = GlobMatcher.compile(glob);
+            Pattern pattern = Pattern.compile(SchemaService.convertToRegex(glob));
+
+            for (String value : VALUES) {
+                assertEquals(glob + " against " + value, pattern.matcher(value).matches(), matcher.matches(value));
+            }
+            assertFalse(matcher.matches(null));
+        }
+    }
+
+    @Test
+    public void testLiteralAndPrefix() {
+        GlobMatcher literal = GlobMatcher.compile("system.cpu");
+
+        assertTrue(literal.isLiteral());
+        assertEquals("system.cpu", literal.getPrefix());
+        assertFalse(literal.matches("systemXcpu"));
+        assertEquals("system.", GlobMatcher.compile("system.*user").getPrefix());
+        assertEquals("app", GlobMatcher.compile("app[12]").getPrefix());
+        assertEquals("", GlobMatcher.compile("app1|app2").getPrefix());
+        assertFalse(GlobMatcher.compile("app*").isLiteral());
+    }
+
+    @Test
+    public void testCompiledMatchersAreCached() {
+        assertSame(GlobMatcher.compile("scope*"), GlobMatcher.compile("scope*"));
+    }
+}
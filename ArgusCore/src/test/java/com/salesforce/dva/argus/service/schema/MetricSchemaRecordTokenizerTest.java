@@ -5,9 +5,12 @@ import com.salesforce.dva.argus.service.SchemaService;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.SortedSet;
+import java.util.TreeSet;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class MetricSchemaRecordTokenizerTest {
@@ -78,4 +81,26 @@ public class MetricSchemaRecordTokenizerTest {
         assertTrue(ns.size() == 0);
     }
 
+    @Test
+    public void testTokensMatchSplitSemantics() {
+
+        List<String> scopes = Arrays.asList("", "a", "a.b", "a..b", "a.b.", "a.b..", "..", ".a", "a.b.c");
+        List<MetricSchemaRecord> records = new ArrayList<>();
+
+        for (String scope : scopes) {
+            records.add(new MetricSchemaRecord(null, scope, "metric", "source", "unittest"));
+        }
+        for (int level = 0; level < 4; level++) {
+            SortedSet<String> expected = new TreeSet<>();
+
+            for (String scope : scopes) {
+                String[] tokens = scope.split("\\.");
+
+                if (tokens.length > level) {
+                    expected.add(tokens[level]);
+                }
+            }
+            assertEquals(expected, MetricSchemaRecordTokenizer.GetUniqueTokens(records, SchemaService.RecordType.SCOPE, level));
+        }
+    }
 }
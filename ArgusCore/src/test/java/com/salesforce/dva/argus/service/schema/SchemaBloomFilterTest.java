@@ -0,0 +1,132 @@
+package com.salesforce.dva.argus.service.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class SchemaBloomFilterTest {
+
+	@Test
+	public void testPutAndMightContain() {
+		SchemaBloomFilter filter = new SchemaBloomFilter(100000, 0.00001, 16);
+
+		for (int i = 0; i < 1000; i++) {
+			filter.put("key" + i);
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(filter.mightContain("key" + i));
+		}
+		assertFalse(filter.mightContain("missing"));
+		assertTrue(Math.abs(filter.approximateElementCount() - 1000) < 50);
+	}
+
+	@Test
+	public void testAgingForgetsEachKeyOncePerCycle() {
+		SchemaBloomFilter filter = new SchemaBloomFilter(100000, 0.00001, 16);
+		int keyCount = 1000;
+
+		for (int i = 0; i < keyCount; i++) {
+			filter.put("key" + i);
+		}
+		filter.age(0, 4);
+
+		int forgotten = 0;
+
+		for (int i = 0; i < keyCount; i++) {
+			if (!filter.mightContain("key" + i)) {
+				forgotten++;
+			}
+		}
+		// a quarter of the shards is emptied, so only about a quarter of the keys has to be written again
+		assertTrue(forgotten > keyCount / 8 && forgotten < keyCount * 3 / 8);
+
+		for (int step = 1; step < 4; step++) {
+			filter.age(step, 4);
+		}
+		assertEquals(0, filter.approximateElementCount());
+		for (int i = 0; i < keyCount; i++) {
+			assertFalse(filter.mightContain("key" + i));
+		}
+	}
+
+	@Test
+	public void testAgingWithMoreStepsThanShards() {
+		SchemaBloomFilter filter = new SchemaBloomFilter(1000, 0.00001, 16);
+
+		filter.put("active");
+		for (int step = 0; step < 23; step++) {
+			filter.age(step, 24);
+		}
+		assertTrue(filter.mightContain("active"));
+		filter.age(23, 24);
+		assertFalse(filter.mightContain("active"));
+	}
+
+	@Test
+	public void testConcurrentPuts() throws Exception {
+		SchemaBloomFilter filter = new SchemaBloomFilter(100000, 0.00001, 16);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+
+		try {
+			for (int t = 0; t < 8; t++) {
+				final int thread = t;
+
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 5000; i++) {
+						filter.put(thread + ":" + i);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		for (int t = 0; t < 8; t++) {
+			for (int i = 0; i < 5000; i++) {
+				assertTrue(filter.mightContain(t + ":" + i));
+			}
+		}
+	}
+
+	@Test
+	public void testWriteToAndReadFrom() throws IOException {
+		SchemaBloomFilter filter = new SchemaBloomFilter(1000, 0.00001, 16);
+
+		filter.put("aged");
+		filter.age(0, 1);
+		filter.put("current");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		filter.writeTo(out);
+
+		SchemaBloomFilter restored = new SchemaBloomFilter(1000, 0.00001, 16);
+
+		restored.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		assertTrue(restored.mightContain("current"));
+		assertFalse(restored.mightContain("aged"));
+		assertFalse(restored.mightContain("missing"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadFromRejectsDifferentSize() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		new SchemaBloomFilter(1000, 0.00001, 16).writeTo(out);
+		new SchemaBloomFilter(100000, 0.00001, 16).readFrom(new ByteArrayInputStream(out.toByteArray()));
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.schema;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.MetricSchemaRecord;
+import com.salesforce.dva.argus.entity.MetricSchemaRecordQuery;
+import com.salesforce.dva.argus.entity.MetricSchemaRecordQuery.MetricSchemaRecordQueryBuilder;
+import com.salesforce.dva.argus.service.SchemaService;
+import com.salesforce.dva.argus.system.SystemConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SchemaIndexTest {
+
+    private SchemaIndex _index;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        SchemaService schemaService = mock(SchemaService.class);
+
+        when(schemaService.get(any(MetricSchemaRecordQuery.class))).thenReturn(Arrays.asList(
+            new MetricSchemaRecord(null, "scope0", "metric0", "host", "host0"),
+            new MetricSchemaRecord(null, "scope0", "metric0", "host", "host1"),
+            new MetricSchemaRecord(null, "scope0", "metric1", "device", "device0"),
+            new MetricSchemaRecord(null, "scope1", "metric0", "host", "host0"),
+            new MetricSchemaRecord("ns", "other", "metric0", null, null)));
+        _index = new SchemaIndex(() -> schemaService, _config(true));
+
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (!_index.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(_index.isReady());
+    }
+
+    @Test
+    public void testGlobExpansion() {
+        List<MetricSchemaRecord> records = _index.get(_query("scope*", "metric0", "host", "host[0|1]"));
+
+        assertEquals(Arrays.asList(new MetricSchemaRecord(null, "scope0", "metric0", "host", "host0"),
+            new MetricSchemaRecord(null, "scope0", "metric0", "host", "host1"),
+            new MetricSchemaRecord(null, "scope1", "metric0", "host", "host0")), records);
+    }
+
+    @Test
+    public void testUnconstrainedFieldsMatchRecordsWithoutTags() {
+        List<MetricSchemaRecord> records = _index.get(_query("*", "metric0", "*", "*"));
+
+        assertEquals(4, records.size());
+        assertTrue(records.contains(new MetricSchemaRecord("ns", "other", "metric0", null, null)));
+        assertTrue(_index.get(_query("other", "metric0", "host", "*")).isEmpty());
+    }
+
+    @Test
+    public void testPagingWithScanFrom() {
+        MetricSchemaRecordQuery query = new MetricSchemaRecordQueryBuilder().scope("scope?").metric("*").limit(2).page(1).build();
+        List<MetricSchemaRecord> first = _index.get(query);
+
+        assertEquals(2, first.size());
+        query.setScanFrom(first.get(1));
+        query.setPage(2);
+
+        List<MetricSchemaRecord> second = _index.get(query);
+
+        assertEquals(2, second.size());
+        assertFalse(second.contains(first.get(0)));
+        assertFalse(second.contains(first.get(1)));
+    }
+
+    @Test
+    public void testPutIsVisibleBeforeRebuild() {
+        Metric metric = new Metric("scope2", "metric0");
+
+        metric.setTag("host", "host9");
+        _index.put(Arrays.asList(metric));
+        assertEquals(Arrays.asList(new MetricSchemaRecord(null, "scope2", "metric0", "host", "host9")),
+            _index.get(_query("scope2", "*", "host", "host9")));
+    }
+
+    @Test
+    public void testRefreshPullsRecordsWrittenByOtherProcesses() throws InterruptedException {
+        ElasticSearchSchemaService schemaService = mock(ElasticSearchSchemaService.class);
+        MetricSchemaRecord written = new MetricSchemaRecord(null, "scope3", "metric0", "host", "host0");
+        Properties properties = new Properties();
+
+        when(schemaService.get(any(MetricSchemaRecordQuery.class))).thenReturn(Arrays.asList(
+            new MetricSchemaRecord(null, "scope0", "metric0", "host", "host0")));
+        when(schemaService.getModifiedSince(anyLong(), any(MetricSchemaRecord.class), anyInt())).thenReturn(Arrays.asList(
+            new MetricSchemaRecord(null, "scope0", "metric0", "host", "host0"), written));
+        properties.setProperty(SchemaIndex.Property.SCHEMA_INDEX_ENABLED.getName(), "true");
+        properties.setProperty(SchemaIndex.Property.SCHEMA_INDEX_REFRESH_INTERVAL_MS.getName(), "10");
+
+        SchemaIndex index = new SchemaIndex(() -> schemaService, new SystemConfiguration(properties));
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (!index.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        verify(schemaService, timeout(10000).atLeast(2)).getModifiedSince(anyLong(), any(MetricSchemaRecord.class), anyInt());
+        assertEquals(Arrays.asList(written), index.get(_query("scope3", "*", "*", "*")));
+        assertEquals(1, index.get(_query("scope0", "*", "*", "*")).size());
+    }
+
+    @Test
+    public void testDisabledIndexIsNeverReady() {
+        SchemaIndex index = new SchemaIndex(() -> mock(SchemaService.class), _config(false));
+
+        assertFalse(index.isReady());
+        assertNull(index.get(_query("*", "*", "*", "*")));
+    }
+
+    private MetricSchemaRecordQuery _query(String scope, String metric, String tagKey, String tagValue) {
+        return new MetricSchemaRecordQueryBuilder().scope(scope).metric(metric).tagKey(tagKey).tagValue(tagValue).limit(100).page(1).build();
+    }
+
+    private SystemConfiguration _config(boolean enabled) {
+        Properties properties = new Properties();
+
+        properties.setProperty(SchemaIndex.Property.SCHEMA_INDEX_ENABLED.getName(), String.valueOf(enabled));
+        return new SystemConfiguration(properties);
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.warden;
+
+import com.salesforce.dva.argus.entity.PrincipalUser;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.WardenService;
+import com.salesforce.dva.argus.service.WardenService.PolicyCounter;
+import com.salesforce.dva.argus.system.SystemConfiguration;
+import com.salesforce.dva.argus.system.SystemException;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IngestionRateLimiterTest {
+
+    @Test
+    public void testTokenBucketRefillsOverTheHour() {
+        long now = System.currentTimeMillis();
+        IngestionRateLimiter.TokenBucket bucket = new IngestionRateLimiter.TokenBucket(3600, now);
+
+        assertTrue(bucket.tryAcquire(3600, now));
+        assertFalse(bucket.tryAcquire(1, now));
+        assertEquals(60, bucket.available(now + 60 * 1000L));
+        assertEquals(3600, bucket.available(now + 2 * 60 * 60 * 1000L));
+    }
+
+    @Test
+    public void testAcquireRejectsWhenPolicyLimitExceeded() {
+        WardenService wardenService = mock(WardenService.class);
+        when(wardenService.getPolicyLimitForUser(any(PrincipalUser.class), eq(PolicyCounter.METRICS_PER_HOUR))).thenReturn(10.0);
+        when(wardenService.getPolicyLimitForUser(any(PrincipalUser.class), eq(PolicyCounter.DATAPOINTS_PER_HOUR))).thenReturn(100.0);
+        when(wardenService.getPolicyLimitForUser(any(PrincipalUser.class), eq(PolicyCounter.MINIMUM_RESOLUTION_MS))).thenReturn(60000.0);
+
+        Properties props = new Properties();
+        props.put(IngestionRateLimiter.Property.RATE_LIMITER_ENABLED.getName(), "true");
+
+        IngestionRateLimiter limiter = new IngestionRateLimiter(wardenService, mock(MonitorService.class), new SystemConfiguration(props));
+        PrincipalUser user = new PrincipalUser(null, "aUser", "aUser@mycompany.abc");
+
+        assertTrue(limiter.isEnabled());
+        limiter.acquire(user, 0, 0, null);
+        _awaitLimitsLoaded(limiter, user);
+        limiter.acquire(user, 5, 50, 60000L);
+        _assertRejected(limiter, user, 1, 1, 1000L);
+        _assertRejected(limiter, user, 1, 60, 60000L);
+        _assertRejected(limiter, user, 6, 1, 60000L);
+        limiter.acquire(user, 5, 50, null);
+        limiter.dispose();
+    }
+
+    @Test
+    public void testAcquireAppliesDefaultLimitsUntilPolicyLimitsAreLoaded() throws Exception {
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch lookupReleased = new CountDownLatch(1);
+        WardenService wardenService = mock(WardenService.class);
+
+        when(wardenService.getPolicyLimitForUser(any(PrincipalUser.class), any(PolicyCounter.class))).thenAnswer(invocation -> {
+            lookupStarted.countDown();
+            lookupReleased.await();
+            return invocation.getArgumentAt(1, PolicyCounter.class).getDefaultValue() * 2;
+        });
+
+        Properties props = new Properties();
+        props.put(IngestionRateLimiter.Property.RATE_LIMITER_ENABLED.getName(), "true");
+
+        IngestionRateLimiter limiter = new IngestionRateLimiter(wardenService, mock(MonitorService.class), new SystemConfiguration(props));
+        PrincipalUser user = new PrincipalUser(null, "aUser", "aUser@mycompany.abc");
+        long defaultMetrics = (long) PolicyCounter.METRICS_PER_HOUR.getDefaultValue();
+
+        try {
+            limiter.acquire(user, defaultMetrics - 100, 1, null);
+            assertTrue(lookupStarted.await(10, TimeUnit.SECONDS));
+            assertFalse(limiter.isLimitsLoaded(user));
+            _assertRejected(limiter, user, 200, 1, null);
+        } finally {
+            lookupReleased.countDown();
+            limiter.dispose();
+        }
+    }
+
+    private void _awaitLimitsLoaded(IngestionRateLimiter limiter, PrincipalUser user) {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (!limiter.isLimitsLoaded(user)) {
+            assertTrue("Timed out waiting for the policy limits to load.", System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+    }
+
+    private void _assertRejected(IngestionRateLimiter limiter, PrincipalUser user, long metricCount, long datapointCount, Long minResolution) {
+        try {
+            limiter.acquire(user, metricCount, datapointCount, minResolution);
+            fail("Expected the submission to be rejected.");
+        } catch (SystemException ex) {
+            assertTrue(ex.getMessage().contains("policy limit"));
+        }
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
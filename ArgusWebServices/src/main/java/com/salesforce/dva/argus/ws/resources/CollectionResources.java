@@ -31,6 +31,10 @@
 	 
 package com.salesforce.dva.argus.ws.resources;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.salesforce.dva.argus.entity.Annotation;
 import com.salesforce.dva.argus.entity.MetatagsRecord;
 import com.salesforce.dva.argus.entity.Metric;
@@ -40,17 +44,23 @@ import com.salesforce.dva.argus.system.SystemAssert;
 import com.salesforce.dva.argus.ws.annotation.Description;
 import com.salesforce.dva.argus.ws.dto.AnnotationDto;
 import com.salesforce.dva.argus.ws.dto.MetricDto;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
 
 /**
  * Provides methods to collect annotation events and metric data.
@@ -61,6 +71,12 @@ import javax.ws.rs.core.MediaType;
 @Description("Provides methods to collect annotation events and metric data.")
 public class CollectionResources extends AbstractResource {
 
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    static final int STREAMING_BATCH_SIZE = 1000;
+    static final int MAX_ERROR_MESSAGES = 100;
+    private static final ObjectReader METRIC_DTO_READER = new ObjectMapper().readerFor(MetricDto.class);
+
     //~ Instance fields ******************************************************************************************************************************
 
     private CollectionService _collectionService = system.getServiceFactory().getCollectionService();
@@ -91,14 +107,7 @@ public class CollectionResources extends AbstractResource {
 
         for (MetricDto metricDto : metricDtos) {
             try {
-                Metric metric = new Metric(metricDto.getScope(), metricDto.getMetric());
-                metric.setTags(metricDto.getTags());
-                if (metricDto.getMetatags() != null) {
-                    metric.setMetatagsRecord(new MetatagsRecord(metricDto.getMetatags(), metricDto.getMetatagsKey()));
-                }
-
-                copyProperties(metric, metricDto);
-                legalMetrics.add(metric);
+                legalMetrics.add(_toMetric(metricDto));
             } catch (Exception e) {
                 illegalMetrics.add(metricDto);
                 errorMessages.add(e.getMessage());
@@ -114,6 +123,29 @@ public class CollectionResources extends AbstractResource {
         return result;
     }
 
+    /**
+     * Submits externally collected metric data, reading the request body incrementally. Metrics are validated as they are parsed and submitted in
+     * fixed size batches, so that only one batch of metrics is held in memory at any time regardless of the payload size. Because batches are
+     * submitted before the whole body has been read, a malformed payload may be rejected after some of its metrics were already submitted. The
+     * error message of such a response reports how many metrics were submitted so that the client can resume from that offset.
+     *
+     * @param   req   The HTTP request.
+     * @param   body  The request body containing a JSON array of metrics.
+     *
+     * @return  The number of metrics that were submitted, and the number of errors encountered.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/metrics/stream")
+    @Description("Submits externally collected metric data, reading the request body incrementally.")
+    public Map<String, Object> submitMetricsStream(@Context HttpServletRequest req, final InputStream body) {
+        PrincipalUser remoteUser = getRemoteUser(req);
+
+        SystemAssert.requireArgument(body != null, "Cannot submit null timeseries metrics list.");
+        return _submitMetricsStream(body, this::_toMetric, batch -> _collectionService.submitMetrics(remoteUser, batch));
+    }
+
     /**
      * Submits externally collected annotation data.
      *
@@ -157,5 +189,76 @@ public class CollectionResources extends AbstractResource {
         result.put("Error Messages", errorMessages);
         return result;
     }
+
+    /**
+     * Reads a JSON array of metrics from the given stream and hands them to the submitter in batches of at most {@link #STREAMING_BATCH_SIZE}
+     * metrics. At most {@link #MAX_ERROR_MESSAGES} error messages are reported, although every invalid metric is counted.
+     *
+     * @param   body       The stream containing a JSON array of metrics. Cannot be null.
+     * @param   converter  Converts a metric DTO into a metric, throwing an exception if the DTO is invalid. Cannot be null.
+     * @param   submitter  Submits a batch of valid metrics. Cannot be null.
+     *
+     * @return  The number of metrics that were submitted, and the number of errors encountered.
+     *
+     * @throws  WebApplicationException  If the payload is not a well formed JSON array of metrics. The message reports the number of metrics that
+     *                                   were submitted before the malformed content was encountered.
+     */
+    static Map<String, Object> _submitMetricsStream(InputStream body, Function<MetricDto, Metric> converter, Consumer<List<Metric>> submitter) {
+        List<Metric> batch = new ArrayList<>(STREAMING_BATCH_SIZE);
+        List<String> errorMessages = new ArrayList<>();
+        int submittedCount = 0;
+        int illegalCount = 0;
+
+        try (JsonParser parser = METRIC_DTO_READER.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of metrics.");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                MetricDto metricDto = METRIC_DTO_READER.readValue(parser);
+
+                try {
+                    batch.add(converter.apply(metricDto));
+                } catch (Exception e) {
+                    illegalCount++;
+                    if (errorMessages.size() < MAX_ERROR_MESSAGES) {
+                        errorMessages.add(e.getMessage());
+                    }
+                }
+                if (batch.size() == STREAMING_BATCH_SIZE) {
+                    submitter.accept(batch);
+                    submittedCount += batch.size();
+                    batch = new ArrayList<>(STREAMING_BATCH_SIZE);
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                throw new IOException("Expected a JSON array of metrics.");
+            }
+        } catch (IOException ex) {
+            throw new WebApplicationException(ex.getMessage() + " " + submittedCount + " metrics were submitted before the error.",
+                Status.BAD_REQUEST);
+        }
+        if (!batch.isEmpty()) {
+            submitter.accept(batch);
+            submittedCount += batch.size();
+        }
+
+        Map<String, Object> result = new HashMap<>();
+
+        result.put("Success", submittedCount + " metrics");
+        result.put("Error", illegalCount + " metrics");
+        result.put("Error Messages", errorMessages);
+        return result;
+    }
+
+    private Metric _toMetric(MetricDto metricDto) {
+        Metric metric = new Metric(metricDto.getScope(), metricDto.getMetric());
+
+        metric.setTags(metricDto.getTags());
+        if (metricDto.getMetatags() != null) {
+            metric.setMetatagsRecord(new MetatagsRecord(metricDto.getMetatags(), metricDto.getMetatagsKey()));
+        }
+        copyProperties(metric, metricDto);
+        return metric;
+    }
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.ws.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.ws.dto.MetricDto;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import javax.ws.rs.WebApplicationException;
+import org.junit.Test;
+
+public class CollectionResourcesTest {
+
+    private static final Function<MetricDto, Metric> CONVERTER = dto -> new Metric(dto.getScope(), dto.getMetric());
+
+    @Test
+    public void testSubmitMetricsStreamSubmitsInBatches() {
+        List<List<Metric>> batches = new ArrayList<>();
+        int count = 2 * CollectionResources.STREAMING_BATCH_SIZE + 500;
+        Map<String, Object> result = CollectionResources._submitMetricsStream(_payload(count, 0, true), CONVERTER, batches::add);
+
+        assertEquals(3, batches.size());
+        assertEquals(CollectionResources.STREAMING_BATCH_SIZE, batches.get(0).size());
+        assertEquals(CollectionResources.STREAMING_BATCH_SIZE, batches.get(1).size());
+        assertEquals(500, batches.get(2).size());
+        assertEquals("metric" + (count - 1), batches.get(2).get(499).getMetric());
+        assertEquals(count + " metrics", result.get("Success"));
+        assertEquals("0 metrics", result.get("Error"));
+    }
+
+    @Test
+    public void testSubmitMetricsStreamCountsInvalidMetricsAndCapsMessages() {
+        List<Metric> submitted = new ArrayList<>();
+        int invalid = CollectionResources.MAX_ERROR_MESSAGES + 50;
+        Map<String, Object> result = CollectionResources._submitMetricsStream(_payload(10, invalid, true), CONVERTER, submitted::addAll);
+
+        assertEquals(10, submitted.size());
+        assertEquals("10 metrics", result.get("Success"));
+        assertEquals(invalid + " metrics", result.get("Error"));
+        assertEquals(CollectionResources.MAX_ERROR_MESSAGES, ((List<?>) result.get("Error Messages")).size());
+    }
+
+    @Test
+    public void testSubmitMetricsStreamReportsSubmittedCountOnMalformedInput() {
+        List<Metric> submitted = new ArrayList<>();
+        int count = CollectionResources.STREAMING_BATCH_SIZE + 10;
+
+        try {
+            CollectionResources._submitMetricsStream(_payload(count, 0, false), CONVERTER, submitted::addAll);
+            fail("Expected a malformed payload to be rejected.");
+        } catch (WebApplicationException ex) {
+            assertEquals(400, ex.getResponse().getStatus());
+            assertTrue(ex.getMessage().contains(CollectionResources.STREAMING_BATCH_SIZE + " metrics were submitted"));
+        }
+        assertEquals(CollectionResources.STREAMING_BATCH_SIZE, submitted.size());
+    }
+
+    @Test
+    public void testSubmitMetricsStreamRejectsNonArrayPayload() {
+        List<Metric> submitted = new ArrayList<>();
+        InputStream body = new ByteArrayInputStream("{\"scope\":\"scope\"}".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            CollectionResources._submitMetricsStream(body, CONVERTER, submitted::addAll);
+            fail("Expected a payload that is not an array to be rejected.");
+        } catch (WebApplicationException ex) {
+            assertEquals(400, ex.getResponse().getStatus());
+            assertTrue(ex.getMessage().contains("0 metrics were submitted"));
+        }
+        assertTrue(submitted.isEmpty());
+    }
+
+    private static InputStream _payload(int valid, int invalid, boolean complete) {
+        StringBuilder json = new StringBuilder("[");
+
+        for (int i = 0; i < valid + invalid; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            if (i < valid) {
+                json.append("{\"scope\":\"scope\",\"metric\":\"metric").append(i).append("\",\"datapoints\":{\"1000\":1.0}}");
+            } else {
+                json.append("{\"metric\":\"metric\"}");
+            }
+        }
+        json.append(complete ? "]" : ",{\"scope\":");
+        return new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */